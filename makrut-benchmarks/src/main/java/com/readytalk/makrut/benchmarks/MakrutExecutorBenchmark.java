@@ -0,0 +1,510 @@
+package com.readytalk.makrut.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Guice;
+import com.readytalk.makrut.MakrutExecutor;
+import com.readytalk.makrut.MakrutExecutorBuilder;
+import com.readytalk.makrut.command.MakrutCommand;
+import com.readytalk.makrut.inject.MakrutCoreModule;
+import com.readytalk.makrut.strategy.BackoffStrategies;
+import com.readytalk.makrut.strategy.HedgeStrategies;
+import com.readytalk.makrut.strategy.LimitStrategies;
+import com.readytalk.makrut.strategy.RetryStrategies;
+import com.readytalk.makrut.strategy.SampleStrategies;
+import com.readytalk.makrut.util.AdaptiveLimiter;
+import com.readytalk.makrut.util.AsyncBulkhead;
+import com.readytalk.makrut.util.CircuitBreakerBuilder;
+import com.readytalk.makrut.util.CommandProbe;
+import com.readytalk.makrut.util.HashedWheelTimer;
+import com.readytalk.makrut.util.HdrMetricRegistry;
+import com.readytalk.makrut.util.LifecycleEvents;
+import com.readytalk.makrut.util.LifecycleListener;
+import com.readytalk.makrut.util.PriorityScheduler;
+import com.readytalk.makrut.util.RingSpanExporter;
+import com.readytalk.makrut.util.TokenBudget;
+import com.readytalk.makrut.util.Tracer;
+import com.readytalk.makrut.util.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of a single submit through each of the stages that MakrutExecutorBuilder can add, on both a
+ * same-thread executor and a fixed thread pool.  The NONE stage is the baseline for the executor type; the cost of
+ * a stage is its score less that of the baseline.
+ *
+ * Every invocation submits a new command, so the caching stages measure the miss-and-populate path rather than a
+ * steady stream of hits.  Run with more than one thread (-t) to see contention on the shared stages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = MakrutExecutorBenchmark.ITERATIONS, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = MakrutExecutorBenchmark.ITERATIONS, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class MakrutExecutorBenchmark {
+
+	static final int ITERATIONS = 5;
+
+	private static final int CACHE_SIZE = 10000;
+	private static final int RETRY_THREADS = 2;
+	private static final long TIME_LIMIT_SECONDS = 10L;
+	private static final int ADAPTIVE_LIMIT_MAX = 100000;
+	private static final double HEDGE_RATIO = 0.05d;
+	private static final int WHEEL_TICKS = 512;
+	private static final int BLOCKING_BATCH = 256;
+	private static final int TIMER_SAMPLE_RATE = 100;
+	private static final int EVENT_CAPACITY = 8192;
+
+	private static final Optional<Class<? extends CommandProbe>> JFR_PROBE = lookupJfrProbe();
+
+	/**
+	 * The stages that can be applied by the builder, each benchmarked in isolation.
+	 */
+	public enum Stage {
+		NONE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+			}
+		},
+		SEMAPHORE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withSemaphore(new Semaphore(Integer.MAX_VALUE));
+			}
+		},
+		BLOCKING_CACHE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withBlockingCache(state.newCache());
+			}
+
+			@Override
+			boolean supports(final ExecutorType type) {
+				return type != ExecutorType.VIRTUAL;
+			}
+		},
+		TIMER {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.timeIndividualCalls();
+			}
+		},
+		SAMPLED_TIMER {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.timeIndividualCalls(SampleStrategies.oneIn(TIMER_SAMPLE_RATE));
+			}
+		},
+		QUEUE_TIMER {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.timeQueueWait();
+			}
+		},
+		PHASES {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.recordPhases();
+			}
+		},
+		LIFECYCLE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				LifecycleEvents events = new LifecycleEvents(EVENT_CAPACITY,
+						Collections.<LifecycleListener>emptyList());
+
+				events.start(state.consumerPool);
+				builder.withLifecycleEvents(events);
+			}
+		},
+		JFR {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				if (!JFR_PROBE.isPresent()) {
+					throw new UnsupportedOperationException("The JFR stage requires makrut-jfr, which needs Java 11.");
+				}
+
+				try {
+					builder.withProbe(JFR_PROBE.get().newInstance());
+				} catch (InstantiationException ex) {
+					throw new IllegalStateException("Could not create the Flight Recorder probe.", ex);
+				} catch (IllegalAccessException ex) {
+					throw new IllegalStateException("Could not create the Flight Recorder probe.", ex);
+				}
+			}
+		},
+		TRACE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withTracer(new Tracer(new RingSpanExporter(EVENT_CAPACITY)));
+			}
+		},
+		METER {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.meterIndividualCalls();
+			}
+		},
+		TIME_LIMIT {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withIndividualTimeLimit(TIME_LIMIT_SECONDS, TimeUnit.SECONDS);
+			}
+		},
+		DEADLINE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withDeadline(TIME_LIMIT_SECONDS, TimeUnit.SECONDS);
+			}
+		},
+		FALLBACK_CACHE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withFallbackCache(state.newCache());
+			}
+		},
+		RETRY {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withRetry(RetryStrategies.allowNumberOfAttempts(2), state.retryPool);
+			}
+		},
+		RETRY_IN_THREAD {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withRetryInThread(RetryStrategies.allowNumberOfAttempts(2), 1L, TimeUnit.MILLISECONDS);
+			}
+		},
+		RETRY_WITH_BACKOFF {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withRetry(RetryStrategies.allowNumberOfAttempts(2), state.retryPool);
+				builder.withBackoff(BackoffStrategies.linearIncrease(0L, 1L, TimeUnit.NANOSECONDS));
+			}
+		},
+		RETRY_WITH_BACKOFF_TIMER {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withRetry(RetryStrategies.allowNumberOfAttempts(2), state.retryPool);
+				builder.withBackoff(BackoffStrategies.linearIncrease(0L, 1L, TimeUnit.NANOSECONDS));
+				state.backoffTimer = new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, WHEEL_TICKS, state.retryPool);
+				builder.withBackoffTimer(state.backoffTimer);
+			}
+		},
+		CIRCUIT_BREAKER {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withCircuitBreakerPerCommand(new CircuitBreakerBuilder());
+			}
+		},
+		BULKHEAD {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withBulkhead(new AsyncBulkhead(Integer.MAX_VALUE, 0));
+			}
+		},
+		RATE_LIMIT {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withRateLimit(Double.MAX_VALUE, Integer.MAX_VALUE);
+			}
+		},
+		ADAPTIVE_LIMIT {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withAdaptiveLimit(new AdaptiveLimiter(LimitStrategies.gradient(), ADAPTIVE_LIMIT_MAX,
+						ADAPTIVE_LIMIT_MAX, ADAPTIVE_LIMIT_MAX));
+			}
+		},
+		PRIORITY {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withPriorityScheduler(new PriorityScheduler(Integer.MAX_VALUE, 1L, TimeUnit.SECONDS));
+			}
+		},
+		ADMISSION {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withAdmissionControl(TIME_LIMIT_SECONDS, TIME_LIMIT_SECONDS, TimeUnit.SECONDS);
+			}
+
+			@Override
+			boolean supports(final ExecutorType type) {
+				return type != ExecutorType.VIRTUAL;
+			}
+		},
+		HEDGE {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				builder.withHedging(HedgeStrategies.fixedDelay(TIME_LIMIT_SECONDS, TimeUnit.SECONDS),
+						new TokenBudget(HEDGE_RATIO, 1), state.retryPool);
+			}
+		},
+		ALL {
+			@Override
+			void apply(final MakrutExecutorBenchmark state, final MakrutExecutorBuilder builder) {
+				for (Stage other : values()) {
+					if (other != ALL && other != RETRY && other != RETRY_IN_THREAD
+							&& (other != JFR || JFR_PROBE.isPresent()) && other.supports(state.executorType)) {
+						other.apply(state, builder);
+					}
+				}
+			}
+		};
+
+		abstract void apply(MakrutExecutorBenchmark state, MakrutExecutorBuilder builder);
+
+		/**
+		 * Whether the stage can be built on the executor type; ALL leaves out those that cannot.
+		 */
+		boolean supports(final ExecutorType type) {
+			return true;
+		}
+	}
+
+	/**
+	 * The primary executor service the commands are submitted to.  VIRTUAL runs each command on a virtual thread of
+	 * its own and requires Java 21 or later; the builder refuses the blocking cache and admission control with it.
+	 */
+	public enum ExecutorType {
+		DIRECT {
+			@Override
+			ListeningExecutorService create() {
+				return MoreExecutors.sameThreadExecutor();
+			}
+		},
+		POOL {
+			@Override
+			ListeningExecutorService create() {
+				return MoreExecutors.listeningDecorator(
+						Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+			}
+		},
+		VIRTUAL {
+			@Override
+			ListeningExecutorService create() {
+				return VirtualThreads.newPerTaskExecutor();
+			}
+
+			@Override
+			void configure(final MakrutExecutorBuilder builder, final ListeningExecutorService pool) {
+				builder.withExecutorService(pool).withVirtualThreads();
+			}
+		};
+
+		abstract ListeningExecutorService create();
+
+		void configure(final MakrutExecutorBuilder builder, final ListeningExecutorService pool) {
+			builder.withExecutorService(pool);
+		}
+	}
+
+	/**
+	 * The metric registry the executor reports to.  HDR records timers into HdrHistogram reservoirs, which take no
+	 * locks, in place of the default exponentially decaying reservoirs.
+	 */
+	public enum RegistryType {
+		DEFAULT {
+			@Override
+			MetricRegistry create() {
+				return new MetricRegistry();
+			}
+		},
+		HDR {
+			@Override
+			MetricRegistry create() {
+				return new HdrMetricRegistry();
+			}
+		};
+
+		abstract MetricRegistry create();
+	}
+
+	/**
+	 * Per-thread source of unique command arguments, so that commands never collide in the caches.
+	 */
+	@State(Scope.Thread)
+	public static class CommandSource {
+		private long next = 0L;
+
+		long nextId() {
+			return next++;
+		}
+	}
+
+	/**
+	 * Every stage but JFR, which needs makrut-jfr on the classpath and is run on request, e.g., with -p stage=JFR.
+	 */
+	@Param({ "NONE", "SEMAPHORE", "BLOCKING_CACHE", "TIMER", "SAMPLED_TIMER", "QUEUE_TIMER", "PHASES", "LIFECYCLE",
+			"TRACE", "METER", "TIME_LIMIT", "DEADLINE", "FALLBACK_CACHE", "RETRY", "RETRY_IN_THREAD",
+			"RETRY_WITH_BACKOFF", "RETRY_WITH_BACKOFF_TIMER", "CIRCUIT_BREAKER", "BULKHEAD", "RATE_LIMIT",
+			"ADAPTIVE_LIMIT", "PRIORITY", "ADMISSION", "HEDGE", "ALL" })
+	private Stage stage;
+
+	@Param
+	private ExecutorType executorType;
+
+	@Param
+	private RegistryType registryType;
+
+	private ListeningExecutorService primaryPool;
+	private ListeningScheduledExecutorService retryPool;
+	private ExecutorService consumerPool;
+	private HashedWheelTimer backoffTimer;
+	private MakrutExecutor executor;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		primaryPool = executorType.create();
+		retryPool = MoreExecutors.listeningDecorator(new ScheduledThreadPoolExecutor(RETRY_THREADS));
+		consumerPool = Executors.newSingleThreadExecutor();
+
+		MakrutExecutorBuilder builder = Guice.createInjector(new MakrutCoreModule(registryType.create()))
+				.getInstance(MakrutExecutorBuilder.class);
+
+		executorType.configure(builder, primaryPool);
+		stage.apply(this, builder);
+
+		executor = builder.build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		primaryPool.shutdownNow();
+		retryPool.shutdownNow();
+		consumerPool.shutdownNow();
+
+		if (backoffTimer != null) {
+			backoffTimer.stop();
+		}
+	}
+
+	/**
+	 * A command that succeeds on its first attempt.
+	 */
+	@Benchmark
+	public Long submit(final CommandSource source) throws Exception {
+		return executor.submit(new BenchmarkCommand(source.nextId(), 0)).get();
+	}
+
+	/**
+	 * A command that fails its first attempt and succeeds on the second, so that the retry stages schedule a retry
+	 * and the other stages measure their failure path.
+	 */
+	@Benchmark
+	public Object submitFailingFirstAttempt(final CommandSource source) throws InterruptedException {
+		try {
+			return executor.submit(new BenchmarkCommand(source.nextId(), 1)).get();
+		} catch (ExecutionException ex) {
+			return ex;
+		}
+	}
+
+	/**
+	 * A batch of commands that each block for a millisecond, as a JDBC call would, so that a pooled executor can only
+	 * run as many at once as it has threads while virtual threads run the whole batch at once.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<Long> submitBlockingBatch(final CommandSource source) throws Exception {
+		List<ListenableFuture<Long>> futures = Lists.newArrayListWithCapacity(BLOCKING_BATCH);
+
+		for (int i = 0; i < BLOCKING_BATCH; i++) {
+			futures.add(executor.submit(new BlockingCommand(source.nextId())));
+		}
+
+		return Futures.allAsList(futures).get();
+	}
+
+	/**
+	 * The Flight Recorder probe is loaded by name, since makrut-jfr is only built, and on the class path, on Java 11 or
+	 * later.
+	 */
+	private static Optional<Class<? extends CommandProbe>> lookupJfrProbe() {
+		try {
+			return Optional.<Class<? extends CommandProbe>>of(
+					Class.forName("com.readytalk.makrut.jfr.JfrCommandProbe").asSubclass(CommandProbe.class));
+		} catch (ClassNotFoundException ex) {
+			return Optional.absent();
+		}
+	}
+
+	private Cache<Callable<?>, Object> newCache() {
+		return CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+	}
+
+	/**
+	 * A command that sleeps for a millisecond before returning its identifier.
+	 */
+	private static final class BlockingCommand extends MakrutCommand<Long> {
+		private final long id;
+
+		BlockingCommand(final long id) {
+			super("blocking", id);
+
+			this.id = id;
+		}
+
+		@Override
+		public Long call() throws Exception {
+			Thread.sleep(1L);
+
+			return id;
+		}
+	}
+
+	/**
+	 * A trivial command that fails a given number of times before returning its identifier.
+	 */
+	private static final class BenchmarkCommand extends MakrutCommand<Long> {
+		private final long id;
+		private final AtomicInteger failures;
+
+		BenchmarkCommand(final long id, final int failures) {
+			super("benchmark", id);
+
+			this.id = id;
+			this.failures = new AtomicInteger(failures);
+		}
+
+		@Override
+		public Long call() throws Exception {
+			if (failures.getAndDecrement() > 0) {
+				throw new IllegalStateException("Planned failure.");
+			}
+
+			return id;
+		}
+	}
+}
@@ -0,0 +1,6 @@
+/**
+ * JMH benchmarks for the Makrut execution stack.
+ */
+@com.readytalk.makrut.util.ReturnTypesAreNonnullByDefault
+@javax.annotation.ParametersAreNonnullByDefault
+package com.readytalk.makrut.benchmarks;
@@ -0,0 +1,134 @@
+package com.readytalk.makrut;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.readytalk.makrut.command.MakrutCommand;
+import com.readytalk.makrut.util.CallableUtils;
+import com.readytalk.makrut.util.CircuitBreaker;
+import com.readytalk.makrut.util.Dispatcher;
+import com.readytalk.makrut.util.FutureUtils;
+import com.readytalk.makrut.util.TokenBudget;
+
+/**
+ * Everything an executor needs to run a particular class of command that can be resolved ahead of time: its metric
+ * name, the utilities, with their metrics, used to decorate it, any per-command state such as a circuit breaker or
+ * retry budget, and the dispatchers that place it on its executors.  Built once per command class, or once per
+ * command name for MakrutCommands, and reused for every submission of that command.
+ */
+@ThreadSafe
+final class ExecutionPlan {
+	private final String name;
+	private final CallableUtils callUtils;
+	private final FutureUtils futureUtils;
+	private final Optional<CircuitBreaker> circuitBreaker;
+	private final Dispatcher dispatcher;
+	private final Optional<Dispatcher> retryDispatcher;
+	private final Optional<TokenBudget> retryBudget;
+
+	ExecutionPlan(final String name,
+			final CallableUtils callUtils,
+			final FutureUtils futureUtils,
+			final Optional<CircuitBreaker> circuitBreaker,
+			final Dispatcher dispatcher,
+			final Optional<Dispatcher> retryDispatcher,
+			final Optional<TokenBudget> retryBudget) {
+		this.name = name;
+		this.callUtils = callUtils;
+		this.futureUtils = futureUtils;
+		this.circuitBreaker = circuitBreaker;
+		this.dispatcher = dispatcher;
+		this.retryDispatcher = retryDispatcher;
+		this.retryBudget = retryBudget;
+	}
+
+	String name() {
+		return name;
+	}
+
+	CallableUtils callUtils() {
+		return callUtils;
+	}
+
+	FutureUtils futureUtils() {
+		return futureUtils;
+	}
+
+	Optional<CircuitBreaker> circuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Places the first attempt of a command on the primary executor.
+	 */
+	Dispatcher dispatcher() {
+		return dispatcher;
+	}
+
+	/**
+	 * Places retries on the retry executor, if there are dispatch stages that retries must also pass through.
+	 */
+	Optional<Dispatcher> retryDispatcher() {
+		return retryDispatcher;
+	}
+
+	/**
+	 * The budget that retries of this command are drawn from, if retries are budgeted.
+	 */
+	Optional<TokenBudget> retryBudget() {
+		return retryBudget;
+	}
+
+	/**
+	 * Identifies the commands that share a plan: those of the same class and, for MakrutCommands, the same name.
+	 */
+	@Immutable
+	static final class Key {
+		private final Class<?> type;
+		private final String commandName;
+
+		private Key(final Class<?> type, @Nullable final String commandName) {
+			this.type = type;
+			this.commandName = commandName;
+		}
+
+		static Key of(final Callable<?> command) {
+			String commandName = command instanceof MakrutCommand
+					? ((MakrutCommand<?>) command).getCommandName()
+					: null;
+
+			return new Key(command.getClass(), commandName);
+		}
+
+		Class<?> type() {
+			return type;
+		}
+
+		/**
+		 * The name of the command, if it is a MakrutCommand.
+		 */
+		Optional<String> commandName() {
+			return Optional.fromNullable(commandName);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) o;
+
+			return type.equals(other.type) && Objects.equal(commandName, other.commandName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(type, commandName);
+		}
+	}
+}
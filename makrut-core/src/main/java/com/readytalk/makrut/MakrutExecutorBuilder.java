@@ -9,56 +9,131 @@ import javax.annotation.Nonnegative;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.inject.Inject;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.readytalk.makrut.command.MakrutCommand;
+import com.readytalk.makrut.command.Prioritized;
+import com.readytalk.makrut.command.RequestCollapser;
+import com.readytalk.makrut.command.TimeBudgeted;
+import com.readytalk.makrut.strategy.BackoffStrategies;
 import com.readytalk.makrut.strategy.BackoffStrategy;
+import com.readytalk.makrut.strategy.HedgeStrategy;
 import com.readytalk.makrut.strategy.RetryStrategy;
+import com.readytalk.makrut.strategy.SampleStrategy;
+import com.readytalk.makrut.util.AdaptiveLimiter;
+import com.readytalk.makrut.util.AsyncBulkhead;
+import com.readytalk.makrut.util.AsyncRateLimiter;
 import com.readytalk.makrut.util.CacheWrapper;
 import com.readytalk.makrut.util.CallableUtils;
 import com.readytalk.makrut.util.CallableUtilsFactory;
+import com.readytalk.makrut.util.CircuitBreaker;
+import com.readytalk.makrut.util.CircuitBreakerBuilder;
+import com.readytalk.makrut.util.CoDelAdmission;
+import com.readytalk.makrut.util.CommandLifecycle;
+import com.readytalk.makrut.util.CommandProbe;
+import com.readytalk.makrut.util.Deadline;
+import com.readytalk.makrut.util.Dispatcher;
+import com.readytalk.makrut.util.Dispatchers;
 import com.readytalk.makrut.util.FutureUtils;
 import com.readytalk.makrut.util.FutureUtilsFactory;
+import com.readytalk.makrut.util.HashedWheelTimer;
+import com.readytalk.makrut.util.InFlightRegistry;
+import com.readytalk.makrut.util.InstrumentedExecutorService;
+import com.readytalk.makrut.util.LatencyBreakdown;
+import com.readytalk.makrut.util.LifecycleEvents;
 import com.readytalk.makrut.util.MakrutCommandWrapper;
+import com.readytalk.makrut.util.PriorityScheduler;
+import com.readytalk.makrut.util.TokenBudget;
+import com.readytalk.makrut.util.TraceSpan;
+import com.readytalk.makrut.util.Tracer;
+import com.readytalk.makrut.util.VirtualThreads;
 
 /**
  * A default builder that makes a few choices around execution ordering.
  *
  * <ol>
+ * <li>Hedging, circuit breaker check, rate limit, bulkhead, adaptive limit, priority scheduling, admission
+ * control and the queue timer, before a command is placed on the executor</li>
+ * <li>In-flight registration</li>
  * <li>Semaphore</li>
  * <li>Preliminary caching</li>
  * <li>Call timer</li>
- * <li>Time limit</li>
- * <li>Retry</li>
+ * <li>Time limit, capped by any deadline</li>
+ * <li>Circuit breaker</li>
+ * <li>Retry, within any retry budget and deadline</li>
  * </ol>
+ *
+ * Retries made in the thread are the exception: the call timer, time limit and circuit breaker run inside the retry
+ * loop, for each attempt, and the loop runs inside the semaphore.
+ *
+ * The executor resolves the utilities and metrics for a command class, or for each name of a MakrutCommand class,
+ * the first time it sees it, and keeps them for later submissions of the same command.  They are kept for the life of
+ * the executor, so command names must come from a fixed set; a name built from a request's arguments would add a plan,
+ * and its metrics, for every distinct value.  Stages shared by every command, such as the bulkhead, are reported once,
+ * under the executor's name.
  */
 @NotThreadSafe
 public class MakrutExecutorBuilder {
 
 	private final CallableUtilsFactory callUtilsFactory;
 	private final FutureUtilsFactory retryUtilsFactory;
+	private final Map<String, RequestCollapser<?>> collapsers = Maps.newHashMap();
+	private final Map<Class<?>, Integer> priorities = Maps.newHashMap();
 
 	private ListeningExecutorService primaryPool = null;
+	private String executorName = name(MakrutExecutor.class);
 
 	private Ticker callTicker = Ticker.systemTicker();
 
 	private Optional<Semaphore> callSemaphore = Optional.absent();
 	private Optional<CacheWrapper> blockingCache = Optional.absent();
 	private Optional<Long> individualTimeLimitMillis = Optional.absent();
+	private Optional<Long> deadlineMillis = Optional.absent();
 	private Optional<ListeningScheduledExecutorService> retryPool = Optional.absent();
 	private Optional<RetryStrategy> retry = Optional.absent();
 	private Optional<BackoffStrategy> backoff = Optional.absent();
+	private Optional<Long> inThreadMaxBackoffMillis = Optional.absent();
+	private Optional<HashedWheelTimer> backoffTimer = Optional.absent();
+	private Optional<TokenBudget> sharedRetryBudget = Optional.absent();
+	private Optional<Double> retryBudgetRatio = Optional.absent();
+	private int retryBudgetMaxTokens = 0;
 	private Optional<CacheWrapper> fallbackCache = Optional.absent();
+	private Optional<CircuitBreaker> sharedCircuitBreaker = Optional.absent();
+	private Optional<CircuitBreakerBuilder> circuitBreakerPerCommand = Optional.absent();
+	private Optional<AsyncBulkhead> bulkhead = Optional.absent();
+	private Optional<AdaptiveLimiter> adaptiveLimit = Optional.absent();
+	private Optional<AsyncRateLimiter> rateLimit = Optional.absent();
+	private Optional<PriorityScheduler> priorityScheduler = Optional.absent();
+	private Optional<CoDelAdmission> admission = Optional.absent();
+	private Optional<InFlightRegistry> inFlight = Optional.absent();
+	private Optional<LifecycleEvents> lifecycleEvents = Optional.absent();
+	private Optional<CommandProbe> probe = Optional.absent();
+	private Optional<Tracer> tracer = Optional.absent();
+	private Optional<SampleStrategy> callTimerSampling = Optional.absent();
+	private Optional<HedgeStrategy> hedge = Optional.absent();
+	private Optional<TokenBudget> hedgeBudget = Optional.absent();
+	private Optional<ScheduledExecutorService> hedgeTimer = Optional.absent();
 
 	private boolean callTimer = false;
 	private boolean callMeter = false;
+	private boolean queueTimer = false;
+	private boolean outcomes = false;
+	private boolean phases = false;
+	private boolean virtualThreads = false;
 
 	@Inject
 	public MakrutExecutorBuilder(final CallableUtilsFactory callUtilsFactory, final FutureUtilsFactory futureUtils) {
@@ -67,71 +142,527 @@ public class MakrutExecutorBuilder {
 	}
 
 	public MakrutExecutor build() {
-		final ListeningExecutorService pool = checkNotNull(primaryPool,
-				"Requires an executor service to be specified.");
+		if (virtualThreads) {
+			checkVirtualThreadStages();
+		}
+
+		final ListeningExecutorService pool = virtualThreads && VirtualThreads.isSupported()
+				? VirtualThreads.newPerTaskExecutor()
+				: checkNotNull(primaryPool, "Requires an executor service to be specified.");
+
+		reportSharedStages();
+
+		final ConcurrentMap<ExecutionPlan.Key, ExecutionPlan> plans = Maps.newConcurrentMap();
+		final ConcurrentMap<String, CircuitBreaker> breakers = Maps.newConcurrentMap();
+		final Map<String, RequestCollapser<?>> collapsing = ImmutableMap.copyOf(collapsers);
+		final Map<Class<?>, Integer> classPriorities = ImmutableMap.copyOf(priorities);
 
 		return new MakrutExecutor() {
 			@Override
 			public <T, V extends Callable<T>> ListenableFuture<T> submit(final V input) {
-				final MakrutCommandWrapper<T> command = buildCommand(input);
+				if (!collapsing.isEmpty() && input instanceof MakrutCommand) {
+					final RequestCollapser<?> collapser = collapsing.get(((MakrutCommand<?>) input).getCommandName());
+
+					if (collapser != null) {
+						return collapse(collapser, input, this);
+					}
+				}
+
+				final long submitted = outcomes ? callTicker.read() : 0L;
+				final Optional<LatencyBreakdown> breakdown = phases
+						? Optional.of(new LatencyBreakdown(callTicker))
+						: Optional.<LatencyBreakdown>absent();
+				final ExecutionPlan plan = planFor(plans, breakers, ExecutionPlan.Key.of(input), pool);
+				final Optional<CommandLifecycle> lifecycle = lifecycleFor(plan, input);
+				final MakrutCommandWrapper<T> command = buildCommand(plan, input, priorityOf(classPriorities, input),
+						deadlineFor(input), breakdown, lifecycle);
+				final ListenableFuture<T> future = buildFuture(plan, input, command,
+						plan.dispatcher().dispatch(command));
+
+				if (lifecycle.isPresent()) {
+					plan.futureUtils().publishCompletion(future, command, lifecycle.get());
+				}
 
-				return buildFuture(input, command, pool.submit(command));
+				if (outcomes) {
+					plan.futureUtils().recordOutcome(future, command, callTicker, submitted);
+				}
+
+				if (breakdown.isPresent()) {
+					plan.futureUtils().recordPhases(future, input, breakdown.get());
+				}
+
+				return future;
 			}
 		};
 	}
 
-	private <T, V extends Callable<T>> MakrutCommandWrapper<T> buildCommand(final V input) {
-		Callable<T> command = input;
+	/**
+	 * Refuses the stages that do not work on virtual threads, whatever the JDK, so that a configuration does not change
+	 * its meaning when it moves to one that provides them.
+	 */
+	private void checkVirtualThreadStages() {
+		checkState(!blockingCache.isPresent(), "The blocking cache pins virtual threads while it loads.");
+		checkState(!admission.isPresent(), "Admission control needs an executor queue, which virtual threads lack.");
+		checkState(!(primaryPool instanceof InstrumentedExecutorService),
+				"An instrumented executor service is not used with virtual threads.");
+	}
 
-		CallableUtils utils = callUtilsFactory.create(name(input.getClass()));
+	@SuppressWarnings("unchecked")
+	private static <T> ListenableFuture<T> collapse(final RequestCollapser<?> collapser,
+			final Callable<T> input,
+			final MakrutExecutor executor) {
+		return ((RequestCollapser<T>) collapser).submit((MakrutCommand<T>) input, executor);
+	}
 
-		if (callSemaphore.isPresent()) {
-			command = utils.withSemaphore(command, callSemaphore.get());
+	private static int priorityOf(final Map<Class<?>, Integer> classPriorities, final Callable<?> input) {
+		final Integer assigned = classPriorities.get(input.getClass());
+
+		if (assigned != null) {
+			return assigned;
+		} else if (input instanceof Prioritized) {
+			return ((Prioritized) input).getPriority();
 		}
 
-		if (blockingCache.isPresent()) {
-			command = utils.withBlockingCache(input, command, blockingCache.get());
+		return Prioritized.NORMAL;
+	}
+
+	/**
+	 * The deadline starts from submission, so that time spent waiting for the first attempt counts against it.
+	 */
+	private Optional<Deadline> deadlineFor(final Callable<?> input) {
+		Optional<Long> budgetMillis = deadlineMillis;
+
+		if (input instanceof TimeBudgeted) {
+			budgetMillis = ((TimeBudgeted) input).getTimeBudgetMillis().or(budgetMillis);
 		}
 
-		if (callTimer) {
-			command = utils.timeExecution(command);
+		if (!budgetMillis.isPresent()) {
+			return Optional.absent();
 		}
 
-		if (callMeter) {
-			command = utils.meterExecution(command);
+		return Optional.of(Deadline.after(budgetMillis.get(), TimeUnit.MILLISECONDS, callTicker));
+	}
+
+	private Optional<CommandLifecycle> lifecycleFor(final ExecutionPlan plan, final Callable<?> input) {
+		if (!lifecycleEvents.isPresent() && !probe.isPresent() && !tracer.isPresent()) {
+			return Optional.absent();
+		}
+
+		Optional<TraceSpan> trace = tracer.isPresent()
+				? Optional.of(tracer.get().start(plan.name()))
+				: Optional.<TraceSpan>absent();
+
+		CommandLifecycle lifecycle = new CommandLifecycle(lifecycleEvents, probe, trace, plan.name(), input);
+		lifecycle.submitted();
+
+		return Optional.of(lifecycle);
+	}
+
+	private ExecutionPlan planFor(final ConcurrentMap<ExecutionPlan.Key, ExecutionPlan> plans,
+			final ConcurrentMap<String, CircuitBreaker> breakers,
+			final ExecutionPlan.Key key,
+			final ListeningExecutorService pool) {
+		ExecutionPlan plan = plans.get(key);
+
+		if (plan == null) {
+			final String name = RequestCollapser.isBatch(key.type())
+					? name(RequestCollapser.class, key.commandName().get())
+					: name(key.type());
+			final FutureUtils futureUtils = retryUtilsFactory.create(name);
+			final Optional<CircuitBreaker> breaker = circuitBreakerFor(breakers, key.commandName().or(name));
+
+			plan = new ExecutionPlan(name, callUtilsFactory.create(name), futureUtils, breaker,
+					dispatcherFor(futureUtils, breaker, pool, key.type()),
+					retryDispatcherFor(futureUtils, breaker, pool, key.type()), retryBudgetFor());
+
+			final ExecutionPlan existing = plans.putIfAbsent(key, plan);
+
+			if (existing != null) {
+				plan = existing;
+			} else if (circuitBreakerPerCommand.isPresent()) {
+				plan.callUtils().reportCircuitBreaker(plan.circuitBreaker().get());
+			}
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Registers the gauges of the stages every command shares once, under the executor's name, rather than under the
+	 * name of each command that passes through them.
+	 */
+	private void reportSharedStages() {
+		FutureUtils utils = retryUtilsFactory.create(executorName);
+
+		if (sharedCircuitBreaker.isPresent()) {
+			callUtilsFactory.create(executorName).reportCircuitBreaker(sharedCircuitBreaker.get());
+		}
+
+		if (bulkhead.isPresent()) {
+			utils.reportBulkhead(bulkhead.get());
+		}
+
+		if (adaptiveLimit.isPresent()) {
+			utils.reportAdaptiveLimit(adaptiveLimit.get());
+		}
+
+		if (rateLimit.isPresent()) {
+			utils.reportRateLimit(rateLimit.get());
+		}
+
+		if (priorityScheduler.isPresent()) {
+			utils.reportPriorityScheduler(priorityScheduler.get());
+		}
+
+		if (admission.isPresent()) {
+			utils.reportAdmission(admission.get());
+		}
+
+		if (backoffTimer.isPresent()) {
+			utils.reportBackoffTimer(backoffTimer.get());
+		}
+	}
+
+	private Optional<TokenBudget> retryBudgetFor() {
+		if (retryBudgetRatio.isPresent()) {
+			return Optional.of(new TokenBudget(retryBudgetRatio.get(), retryBudgetMaxTokens));
+		}
+
+		return sharedRetryBudget;
+	}
+
+	/**
+	 * Per-command breakers are shared by every command with the same name, whatever its class.
+	 */
+	private Optional<CircuitBreaker> circuitBreakerFor(final ConcurrentMap<String, CircuitBreaker> breakers,
+			final String commandName) {
+		if (circuitBreakerPerCommand.isPresent()) {
+			CircuitBreaker breaker = breakers.get(commandName);
+
+			if (breaker == null) {
+				breaker = circuitBreakerPerCommand.get().build();
+
+				CircuitBreaker existing = breakers.putIfAbsent(commandName, breaker);
+
+				if (existing != null) {
+					breaker = existing;
+				}
+			}
+
+			return Optional.of(breaker);
+		}
+
+		return sharedCircuitBreaker;
+	}
+
+	/**
+	 * Only the first attempt is hedged; retries already follow a failure, and hedging them would compound the load.
+	 * Admission control and the queue timer only measure the primary executor's queue, so retries, which are placed on
+	 * the retry executor, do not pass through them.
+	 */
+	private Dispatcher dispatcherFor(final FutureUtils utils,
+			final Optional<CircuitBreaker> breaker,
+			final ListeningExecutorService pool,
+			final Class<?> type) {
+		Dispatcher dispatcher = executorDispatcher(utils, pool, type);
+
+		if (queueTimer) {
+			dispatcher = utils.withQueueTimer(dispatcher);
 		}
 
-		if (individualTimeLimitMillis.isPresent()) {
-			command = utils.addTimeLimit(command, individualTimeLimitMillis.get(), TimeUnit.MILLISECONDS);
+		if (admission.isPresent()) {
+			dispatcher = utils.withAdmissionControl(dispatcher, admission.get());
+		}
+
+		dispatcher = dispatchStages(utils, breaker, dispatcher);
+
+		if (hedge.isPresent()) {
+			dispatcher = utils.withHedging(dispatcher, hedge.get(), hedgeBudget.get(), hedgeTimer.get());
+		}
+
+		return dispatcher;
+	}
+
+	/**
+	 * Retries only need a dispatcher of their own when they must pass through a stage that limits concurrency or rate
+	 * across attempts, such as the bulkhead, when they run on virtual threads, or when their time limit must fail them
+	 * as it passes; otherwise they are submitted straight to the retry executor.
+	 */
+	private Optional<Dispatcher> retryDispatcherFor(final FutureUtils utils,
+			final Optional<CircuitBreaker> breaker,
+			final ListeningExecutorService pool,
+			final Class<?> type) {
+		if (!retryPool.isPresent()) {
+			return Optional.absent();
+		} else if (virtualThreads && VirtualThreads.isSupported()) {
+			return Optional.of(dispatchStages(utils, breaker, executorDispatcher(utils, pool, type)));
+		} else if (!(bulkhead.isPresent() || adaptiveLimit.isPresent() || rateLimit.isPresent()
+				|| priorityScheduler.isPresent())) {
+			return timeLimited(type)
+					? Optional.of(executorDispatcher(utils, retryPool.get(), type))
+					: Optional.<Dispatcher>absent();
+		}
+
+		return Optional.of(dispatchStages(utils, breaker, executorDispatcher(utils, retryPool.get(), type)));
+	}
+
+	/**
+	 * When commands have a time limit or a deadline, each attempt's future fails as soon as it passes, even while the
+	 * attempt is still running.  Retries in the thread are not failed this way, since their limit is on each attempt
+	 * within the call rather than on the call.  TimeBudgeted commands without a time limit are only failed this way
+	 * when the submission has a budget.
+	 */
+	private Dispatcher executorDispatcher(final FutureUtils utils,
+			final ListeningExecutorService service,
+			final Class<?> type) {
+		Dispatcher dispatcher = Dispatchers.forExecutor(service);
+
+		if (retriesInThread()) {
+			return dispatcher;
+		} else if (individualTimeLimitMillis.isPresent() || deadlineMillis.isPresent()) {
+			return utils.withTimeLimits(dispatcher);
+		} else if (TimeBudgeted.class.isAssignableFrom(type)) {
+			return utils.withDeadlineLimits(dispatcher);
+		}
+
+		return dispatcher;
+	}
+
+	private boolean timeLimited(final Class<?> type) {
+		if (retriesInThread()) {
+			return false;
+		}
+
+		return individualTimeLimitMillis.isPresent() || deadlineMillis.isPresent()
+				|| TimeBudgeted.class.isAssignableFrom(type);
+	}
+
+	private Dispatcher dispatchStages(final FutureUtils utils,
+			final Optional<CircuitBreaker> breaker,
+			final Dispatcher executor) {
+		Dispatcher dispatcher = executor;
+
+		if (priorityScheduler.isPresent()) {
+			dispatcher = utils.withPriority(dispatcher, priorityScheduler.get());
+		}
+
+		if (adaptiveLimit.isPresent()) {
+			dispatcher = utils.withAdaptiveLimit(dispatcher, adaptiveLimit.get());
+		}
+
+		if (bulkhead.isPresent()) {
+			dispatcher = utils.withBulkhead(dispatcher, bulkhead.get());
+		}
+
+		if (rateLimit.isPresent()) {
+			dispatcher = utils.withRateLimit(dispatcher, rateLimit.get());
+		}
+
+		if (breaker.isPresent()) {
+			dispatcher = utils.withCircuitBreaker(dispatcher, breaker.get());
+		}
+
+		return dispatcher;
+	}
+
+	private <T, V extends Callable<T>> MakrutCommandWrapper<T> buildCommand(final ExecutionPlan plan,
+			final V input,
+			final int priority,
+			final Optional<Deadline> deadline,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
+		Callable<T> attempts = buildAttempts(plan, input, deadline, breakdown, lifecycle);
+
+		CallableUtils utils = plan.callUtils();
+
+		if (callSemaphore.isPresent()) {
+			attempts = utils.withSemaphore(attempts, callSemaphore.get(), breakdown, lifecycle);
+		}
+
+		if (!blockingCache.isPresent()) {
+			Callable<T> command = guard(plan, input, attempts, deadline);
+
+			return new MakrutCommandWrapper<T>(command, callTicker, priority, deadline, breakdown, lifecycle);
+		}
+
+		Callable<T> command = guard(plan, input,
+				utils.withBlockingCache(input, attempts, blockingCache.get(), breakdown, lifecycle), deadline);
+
+		// A hedge would otherwise wait on the blocking cache for the load of the very attempt it is meant to overtake.
+		Callable<T> hedged = hedge.isPresent() ? guard(plan, input, attempts, deadline) : command;
+
+		return new MakrutCommandWrapper<T>(command, hedged, callTicker, priority, deadline, breakdown, lifecycle);
+	}
+
+	/**
+	 * The stages run around each attempt once it has been admitted by the semaphore and blocking cache.
+	 */
+	private <T, V extends Callable<T>> Callable<T> guard(final ExecutionPlan plan,
+			final V input,
+			final Callable<T> attempts,
+			final Optional<Deadline> deadline) {
+		Callable<T> command = attempts;
+
+		CallableUtils utils = plan.callUtils();
+
+		if (!retriesInThread()) {
+			command = limitTime(utils, instrument(utils, command), deadline);
 		}
 
 		if (fallbackCache.isPresent()) {
 			command = utils.populateCacheWithResult(input, command, fallbackCache.get());
 		}
 
-		return new MakrutCommandWrapper<T>(command, callTicker);
+		if (!retriesInThread() && plan.circuitBreaker().isPresent()) {
+			command = utils.withCircuitBreaker(command, plan.circuitBreaker().get());
+		}
+
+		return command;
+	}
+
+	/**
+	 * The stages run for each attempt.  When retrying in the thread, every attempt runs within a single call, inside
+	 * the semaphore and the stages outside it, and the call metrics, time limit and circuit breaker are run here, once
+	 * for each attempt.
+	 */
+	private <T, V extends Callable<T>> Callable<T> buildAttempts(final ExecutionPlan plan,
+			final V input,
+			final Optional<Deadline> deadline,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
+		Callable<T> command = input;
+
+		CallableUtils utils = plan.callUtils();
+
+		if (breakdown.isPresent()) {
+			command = utils.timePhase(command, breakdown.get(), LatencyBreakdown.Phase.EXECUTION);
+		}
+
+		if (inFlight.isPresent()) {
+			command = utils.trackInFlight(input, command, inFlight.get());
+		}
+
+		if (retriesInThread()) {
+			command = limitTime(utils, instrument(utils, command), deadline);
+
+			if (plan.circuitBreaker().isPresent()) {
+				command = utils.withCircuitBreaker(command, plan.circuitBreaker().get());
+			}
+
+			if (plan.retryBudget().isPresent()) {
+				command = utils.depositOnFirstSuccess(command, plan.retryBudget().get());
+			}
+
+			command = utils.retryInThread(command, retryStrategyFor(plan), inThreadBackoff(), callTicker, deadline,
+					breakdown, lifecycle);
+		}
+
+		return command;
+	}
+
+	/**
+	 * Whether failed calls are retried on the thread that made them.
+	 */
+	private boolean retriesInThread() {
+		return retry.isPresent() && inThreadMaxBackoffMillis.isPresent();
 	}
 
-	private <T> ListenableFuture<T> buildFuture(final Callable<T> input,
+	private Optional<BackoffStrategy> inThreadBackoff() {
+		if (!backoff.isPresent() || inThreadMaxBackoffMillis.get() == 0L) {
+			return Optional.absent();
+		}
+
+		return Optional.of(BackoffStrategies.applyMax(backoff.get(), inThreadMaxBackoffMillis.get(),
+				TimeUnit.MILLISECONDS));
+	}
+
+	private <T> Callable<T> limitTime(final CallableUtils utils,
+			final Callable<T> callable,
+			final Optional<Deadline> deadline) {
+		if (deadline.isPresent()) {
+			return utils.addDeadline(callable, deadline.get(), individualTimeLimitMillis);
+		} else if (individualTimeLimitMillis.isPresent()) {
+			return utils.addTimeLimit(callable, individualTimeLimitMillis.get(), TimeUnit.MILLISECONDS);
+		}
+
+		return callable;
+	}
+
+	private RetryStrategy retryStrategyFor(final ExecutionPlan plan) {
+		if (plan.retryBudget().isPresent()) {
+			return plan.futureUtils().withRetryBudget(retry.get(), plan.retryBudget().get());
+		}
+
+		return retry.get();
+	}
+
+	private <T> Callable<T> instrument(final CallableUtils utils, final Callable<T> callable) {
+		Callable<T> command = callable;
+
+		if (callTimerSampling.isPresent()) {
+			command = utils.timeExecution(command, callTimerSampling.get());
+		} else if (callTimer) {
+			command = utils.timeExecution(command);
+		}
+
+		if (callMeter) {
+			command = utils.meterExecution(command);
+		}
+
+		if (outcomes) {
+			command = utils.timeAttempts(command);
+		}
+
+		return command;
+	}
+
+	private <T> ListenableFuture<T> buildFuture(final ExecutionPlan plan,
+			final Callable<T> input,
 			final MakrutCommandWrapper<T> command,
 			final ListenableFuture<T> future) {
 		ListenableFuture<T> retval = future;
 
-		FutureUtils utils = retryUtilsFactory.create(name(input.getClass()));
+		FutureUtils utils = plan.futureUtils();
 
 		if (fallbackCache.isPresent()) {
-			retval = utils.withFallbackCache(input, retval, fallbackCache.get());
+			retval = utils.withFallbackCache(input, retval, fallbackCache.get(), command);
+		}
+
+		// In-thread retries happen inside future, so buildAttempts credits the budget from the first attempt instead.
+		if (retry.isPresent() && !retriesInThread() && plan.retryBudget().isPresent()) {
+			utils.depositOnSuccess(future, plan.retryBudget().get());
 		}
 
-		if (retry.isPresent()) {
+		if (retry.isPresent() && !inThreadMaxBackoffMillis.isPresent()) {
 			checkState(retryPool.isPresent(), "Retry executor service must also be provided.");
 
-			retval = utils.addRetry(retryPool.get(), retry.get(), backoff, retval, command);
+			RetryStrategy strategy = retryStrategyFor(plan);
+
+			if (backoffTimer.isPresent()) {
+				retval = utils.addRetry(retryPool.get(), backoffTimer.get(), plan.retryDispatcher(), strategy,
+						backoff, retval, command);
+			} else if (plan.retryDispatcher().isPresent()) {
+				retval = utils.addRetry(retryPool.get(), plan.retryDispatcher().get(), strategy, backoff, retval,
+						command);
+			} else {
+				retval = utils.addRetry(retryPool.get(), strategy, backoff, retval, command);
+			}
 		}
 
 		return retval;
 	}
 
+	/**
+	 * Names the metrics of the stages that every command shares, such as the gauges of the bulkhead, rate limit and
+	 * shared circuit breaker.  Defaults to the name of MakrutExecutor; executors sharing a registry need names of their
+	 * own.
+	 */
+	public MakrutExecutorBuilder withName(final String name) {
+		this.executorName = checkNotNull(name);
+
+		return this;
+	}
+
 	public MakrutExecutorBuilder withExecutorService(final ListeningExecutorService service) {
 		checkNotNull(service);
 
@@ -140,10 +671,57 @@ public class MakrutExecutorBuilder {
 		return this;
 	}
 
+	/**
+	 * Uses an executor service that reports how saturated it is: the time tasks wait for a thread, the number of
+	 * tasks running and waiting, and the number rejected, all under the given name.
+	 *
+	 * @see InstrumentedExecutorService
+	 */
+	public MakrutExecutorBuilder withExecutorService(final ListeningExecutorService service,
+			final MetricRegistry metrics,
+			final String name) {
+		return withExecutorService(new InstrumentedExecutorService(service, metrics, name));
+	}
+
+	/**
+	 * Runs each command on a virtual thread of its own in place of the executor service, on JDKs that provide virtual
+	 * threads (Java 21 and later), so that blocking commands are no longer limited by the size of a pool.  A bulkhead
+	 * or adaptive limit, rather than the pool, should then bound the load placed on the dependency.  Retries are also
+	 * run on virtual threads; the retry executor only schedules their backoff.
+	 *
+	 * On older JDKs the executor service is used as before, so one should still be given.  Since it is not used on
+	 * newer ones, it cannot be an instrumented executor service, and admission control, which watches its queue, cannot
+	 * be used either.  Nor can the blocking cache, since its loads hold a monitor that pins a virtual thread to its
+	 * carrier.  Building an executor with any of them fails with an IllegalStateException.
+	 */
+	public MakrutExecutorBuilder withVirtualThreads() {
+		this.virtualThreads = true;
+
+		return this;
+	}
+
+	/**
+	 * Limits each attempt to the given time.  Once it passes, the attempt's thread is interrupted and the attempt fails
+	 * with an UncheckedTimeoutException at once, whether or not the command gives way to the interrupt.
+	 */
 	public MakrutExecutorBuilder withIndividualTimeLimit(@Nonnegative final long value, final TimeUnit unit) {
 		checkArgument(value > 0, "Time limit must be greater than zero.");
 
-		individualTimeLimitMillis = Optional.of(unit.convert(value, TimeUnit.MILLISECONDS));
+		individualTimeLimitMillis = Optional.of(TimeUnit.MILLISECONDS.convert(value, unit));
+
+		return this;
+	}
+
+	/**
+	 * Gives every submission a deadline, the given time after it is submitted, that covers every attempt, queue and
+	 * backoff.  Each attempt's time limit is capped to the time remaining, attempts that would start after the deadline
+	 * fail at once with a DeadlineExceededException, and retries whose backoff would overrun it are not made.  Commands
+	 * that are TimeBudgeted may set their own deadline instead.
+	 */
+	public MakrutExecutorBuilder withDeadline(@Nonnegative final long value, final TimeUnit unit) {
+		checkArgument(value > 0, "Deadline must be greater than zero.");
+
+		deadlineMillis = Optional.of(TimeUnit.MILLISECONDS.convert(value, unit));
 
 		return this;
 	}
@@ -152,6 +730,40 @@ public class MakrutExecutorBuilder {
 			pool) {
 		this.retryPool = Optional.of(pool);
 		this.retry = Optional.of(strategy);
+		this.inThreadMaxBackoffMillis = Optional.absent();
+
+		return this;
+	}
+
+	/**
+	 * Retries failed calls on the thread that made them instead of resubmitting them to a retry pool, holding the
+	 * semaphore permit, and anything else the command acquired, until the last attempt finishes.  This saves a queue
+	 * handoff and a permit acquisition per retry, which suits cheap commands that fail fast and are worth retrying
+	 * quickly; commands with long backoffs are better retried from a pool, since the thread sleeps through them.
+	 *
+	 * The time limit, the call timer and meters and the circuit breaker apply to each in-thread attempt, so one that
+	 * times out is retried and the breaker sees every failure.  The executor sees every attempt as one, so the
+	 * lifecycle's attempt events and spans cover them all, though each retry is still published.  The backoff, if any,
+	 * still applies, capped at the maximum.
+	 *
+	 * Unlike pool retries, in-thread retries give up the executor-level limit that fails a command's future as soon
+	 * as its time limit or deadline passes, since failing the future would end the retries still to come.  A time
+	 * limit or deadline can then only interrupt an attempt.  An attempt that ignores the interrupt, such as a JDBC
+	 * read blocked on the socket, is unbounded: it holds its thread and permit, and the caller's future, until it
+	 * returns by itself.  Commands that can block like that should be retried from a pool, or bound their own calls,
+	 * e.g., with a statement or socket timeout.
+	 *
+	 * @param strategy Decides whether a failed call is retried.
+	 * @param maxBackoff The longest to sleep between attempts, whatever the backoff strategy asks for.
+	 * @param unit The unit of the maximum backoff.
+	 */
+	public MakrutExecutorBuilder withRetryInThread(final RetryStrategy strategy,
+			@Nonnegative final long maxBackoff,
+			final TimeUnit unit) {
+		checkArgument(maxBackoff >= 0, "Backoff must not be negative.");
+
+		this.retry = Optional.of(strategy);
+		this.inThreadMaxBackoffMillis = Optional.of(unit.toMillis(maxBackoff));
 
 		return this;
 	}
@@ -162,18 +774,162 @@ public class MakrutExecutorBuilder {
 		return this;
 	}
 
+	/**
+	 * Defers retries that are backing off on a hashed wheel timer rather than the retry executor's delay queue, which
+	 * becomes a point of contention once many commands are backing off at once.  The timer should run its tasks on
+	 * the retry executor, since without a dispatcher they are the retries themselves.
+	 */
+	public MakrutExecutorBuilder withBackoffTimer(final HashedWheelTimer timer) {
+		this.backoffTimer = Optional.of(timer);
+
+		return this;
+	}
+
+	/**
+	 * Draws every retry, across every command class, from a single budget that is credited by successful first
+	 * attempts.  Once the budget is spent, failed calls are not retried until enough calls succeed to refill it.
+	 */
+	public MakrutExecutorBuilder withRetryBudget(final TokenBudget budget) {
+		this.sharedRetryBudget = Optional.of(budget);
+		this.retryBudgetRatio = Optional.absent();
+
+		return this;
+	}
+
+	/**
+	 * Gives each command class its own retry budget, created the first time the class is submitted.  MakrutCommands
+	 * of one class are given a budget for each command name.
+	 *
+	 * @param ratio The fraction of successful first attempts that may be matched by a retry, e.g., 0.1.
+	 * @param maxTokens The most retries that may be saved up for a burst of failures.
+	 */
+	public MakrutExecutorBuilder withRetryBudgetPerCommand(@Nonnegative final double ratio,
+			@Nonnegative final int maxTokens) {
+		checkArgument(ratio > 0.0d && ratio <= 1.0d, "Ratio must be greater than zero and at most one.");
+		checkArgument(maxTokens > 0, "Must allow at least one token.");
+
+		this.retryBudgetRatio = Optional.of(ratio);
+		this.retryBudgetMaxTokens = maxTokens;
+		this.sharedRetryBudget = Optional.absent();
+
+		return this;
+	}
+
 	public MakrutExecutorBuilder timeIndividualCalls() {
 		this.callTimer = true;
 
 		return this;
 	}
 
+	/**
+	 * Times only the calls chosen by a sampling strategy, for commands so fast that timing every call costs a
+	 * noticeable share of the call.  Combine with meterIndividualCalls() to still count every call exactly.
+	 *
+	 * @param sampling Chooses the calls to time, e.g., SampleStrategies.oneIn(100).
+	 */
+	public MakrutExecutorBuilder timeIndividualCalls(final SampleStrategy sampling) {
+		this.callTimerSampling = Optional.of(sampling);
+
+		return this;
+	}
+
+	/**
+	 * Records what callers see of each command across all of its attempts: the end-to-end latency from submission to
+	 * completion, the number of attempts successful commands took, and a meter of failures for each class of exception.
+	 * Also times each attempt by its attempt number, from attempt.1.duration to attempt.5-plus.duration, which all
+	 * attempts after the fourth share.
+	 *
+	 * @see FutureUtils#recordOutcome
+	 * @see CallableUtils#timeAttempts
+	 */
+	public MakrutExecutorBuilder recordOutcomes() {
+		this.outcomes = true;
+
+		return this;
+	}
+
+	/**
+	 * Records where the time of each command goes, across all of its attempts: waiting to start, waiting for a
+	 * bulkhead or semaphore permit, waiting on a blocking cache, executing, backing off, waiting to retry and looking
+	 * for a fallback.  Each phase is reported per command as a timer, e.g., phase.queue, and commands that are
+	 * PhaseTimed are given their own breakdown once they complete.
+	 *
+	 * @see LatencyBreakdown
+	 * @see FutureUtils#recordPhases
+	 */
+	public MakrutExecutorBuilder recordPhases() {
+		this.phases = true;
+
+		return this;
+	}
+
+	/**
+	 * Times how long each command waits in the executor's queue before a thread starts it, reported per command as
+	 * queue.wait.  Only the first attempt is timed; retries wait on the retry executor.
+	 */
+	public MakrutExecutorBuilder timeQueueWait() {
+		this.queueTimer = true;
+
+		return this;
+	}
+
 	public MakrutExecutorBuilder meterIndividualCalls() {
 		this.callMeter = true;
 
 		return this;
 	}
 
+	/**
+	 * Records every attempt in a registry of running attempts while it runs, so that stuck commands can be found by
+	 * querying the registry or by an InFlightWatchdog.
+	 */
+	public MakrutExecutorBuilder withInFlightRegistry(final InFlightRegistry registry) {
+		this.inFlight = Optional.of(registry);
+
+		return this;
+	}
+
+	/**
+	 * Publishes the lifecycle events of every command to a buffer, from submission through each attempt, retry,
+	 * fallback and cache hit to completion, for listeners to consume on the buffer's own thread.  The events are
+	 * published by the stages already handling the command, and timestamped with the buffer's ticker.
+	 *
+	 * @param events The buffer to publish to.  It must be started, or drained, for its listeners to see the events.
+	 */
+	public MakrutExecutorBuilder withLifecycleEvents(final LifecycleEvents events) {
+		this.lifecycleEvents = Optional.of(events);
+
+		return this;
+	}
+
+	/**
+	 * Reports the stages of every command to a probe as they happen, on the threads that run them: each attempt,
+	 * semaphore wait and backoff as a span, and each retry, timeout, cache hit and cache miss as it occurs.  This is
+	 * for profiling tools that must see the work on the thread doing it; listeners that can wait should use
+	 * withLifecycleEvents instead.
+	 *
+	 * @param commandProbe The probe to report to.  It is called inline, so it should be cheap.
+	 */
+	public MakrutExecutorBuilder withProbe(final CommandProbe commandProbe) {
+		this.probe = Optional.of(commandProbe);
+
+		return this;
+	}
+
+	/**
+	 * Traces every command: a span from submission to completion, within whatever span is current on the submitting
+	 * thread, with a child span for each attempt, retry and fallback.  Each attempt's span is current on the thread
+	 * running it, in the primary and retry pools alike, so spans the command starts itself, such as for the SQL of a
+	 * database command, join the trace.
+	 *
+	 * @param commandTracer The tracer to start the spans with.
+	 */
+	public MakrutExecutorBuilder withTracer(final Tracer commandTracer) {
+		this.tracer = Optional.of(commandTracer);
+
+		return this;
+	}
+
 	public MakrutExecutorBuilder withTicker(final Ticker ticker) {
 		checkNotNull(ticker);
 
@@ -199,4 +955,163 @@ public class MakrutExecutorBuilder {
 		return this;
 	}
 
+	/**
+	 * Guards every command with a single shared circuit breaker, so that failures of any command open it for all of
+	 * them.  While the breaker is open, commands fail with a CircuitBreakerOpenException without taking a thread,
+	 * falling through to the fallback cache if there is one.
+	 */
+	public MakrutExecutorBuilder withCircuitBreaker(final CircuitBreaker breaker) {
+		this.sharedCircuitBreaker = Optional.of(breaker);
+		this.circuitBreakerPerCommand = Optional.absent();
+
+		return this;
+	}
+
+	/**
+	 * Guards each command name with its own circuit breaker, built from the given builder the first time the name is
+	 * submitted.  MakrutCommands are named by getCommandName(), so commands of one class with different names have
+	 * different breakers, and commands of different classes with the same name share one; other callables are named
+	 * by their class.
+	 */
+	public MakrutExecutorBuilder withCircuitBreakerPerCommand(final CircuitBreakerBuilder breakers) {
+		this.circuitBreakerPerCommand = Optional.of(breakers);
+		this.sharedCircuitBreaker = Optional.absent();
+
+		return this;
+	}
+
+	/**
+	 * Limits how many commands may be running at once, across every command class, using a bulkhead that holds
+	 * queued commands without blocking a thread.  Retries pass through the same bulkhead.  Commands rejected by the
+	 * bulkhead are not retried and fall through to the fallback cache if there is one.
+	 *
+	 * This is generally preferable to withSemaphore, which blocks a pool thread while it waits for a permit.
+	 */
+	public MakrutExecutorBuilder withBulkhead(final AsyncBulkhead asyncBulkhead) {
+		this.bulkhead = Optional.of(asyncBulkhead);
+
+		return this;
+	}
+
+	/**
+	 * Limits how many commands may be in flight at once, across every command class, to a limit that the limiter
+	 * adjusts from the round trip times and failures it observes.  Retries pass through the same limiter.  Commands
+	 * over the limit fail with a ConcurrencyLimitExceededException, are not retried, and fall through to the fallback
+	 * cache if there is one.  When combined with a bulkhead, the limit applies to commands the bulkhead has admitted.
+	 */
+	public MakrutExecutorBuilder withAdaptiveLimit(final AdaptiveLimiter limiter) {
+		this.adaptiveLimit = Optional.of(limiter);
+
+		return this;
+	}
+
+	/**
+	 * Limits the rate at which commands, across every command class, are placed on the executor.  Commands over the
+	 * rate wait on a timer rather than on a thread, for up to one burst's worth of permits, and beyond that fail with
+	 * a RateLimitExceededException, are not retried, and fall through to the fallback cache if there is one.  Retries
+	 * pass through the same limiter.
+	 *
+	 * @param permitsPerSecond The steady rate at which commands may be dispatched.
+	 * @param burst The number of commands that may be dispatched at once after a quiet period.
+	 */
+	public MakrutExecutorBuilder withRateLimit(@Nonnegative final double permitsPerSecond,
+			@Nonnegative final int burst) {
+		return withRateLimit(new AsyncRateLimiter(permitsPerSecond, burst));
+	}
+
+	/**
+	 * As withRateLimit, with a limiter that may be shared with other executors calling the same service.
+	 */
+	public MakrutExecutorBuilder withRateLimit(final AsyncRateLimiter limiter) {
+		this.rateLimit = Optional.of(limiter);
+
+		return this;
+	}
+
+	/**
+	 * Sheds new commands at once, with a QueueOverloadedException, while the primary executor's queue is overloaded:
+	 * that is, while the shortest time any command spent queued during each interval stays above the target.  Shed
+	 * commands are not retried and fall through to the fallback cache if there is one.
+	 *
+	 * @param target The longest that commands should wait in the queue once a burst has cleared, e.g., 5 ms.
+	 * @param interval How long the queue must stay above the target before commands are shed, e.g., 100 ms.
+	 * @param unit The unit of the target and interval.
+	 */
+	public MakrutExecutorBuilder withAdmissionControl(@Nonnegative final long target,
+			@Nonnegative final long interval,
+			final TimeUnit unit) {
+		return withAdmissionControl(new CoDelAdmission(target, interval, unit));
+	}
+
+	/**
+	 * As withAdmissionControl, with admission control that may be shared with other executors using the same
+	 * executor service.
+	 */
+	public MakrutExecutorBuilder withAdmissionControl(final CoDelAdmission control) {
+		this.admission = Optional.of(control);
+
+		return this;
+	}
+
+	/**
+	 * Places commands on the executor in order of priority, with aging, rather than in order of arrival.  Retries pass
+	 * through the same scheduler.  The scheduler's concurrency should normally match the number of threads in the
+	 * primary executor, so that commands wait in its priority queue rather than in the executor's own queue.
+	 */
+	public MakrutExecutorBuilder withPriorityScheduler(final PriorityScheduler scheduler) {
+		this.priorityScheduler = Optional.of(scheduler);
+
+		return this;
+	}
+
+	/**
+	 * Assigns a priority to every command of the given class, overriding any priority the commands carry themselves.
+	 *
+	 * @param commandClass The class of the commands.
+	 * @param priority Their priority; higher runs first.
+	 */
+	public MakrutExecutorBuilder withPriority(final Class<?> commandClass, final int priority) {
+		priorities.put(checkNotNull(commandClass), priority);
+
+		return this;
+	}
+
+	/**
+	 * Collapses commands with the given name into batches, which are submitted through this executor as single
+	 * commands.  The stages of the executor apply to each batch rather than to the commands within it.  Batches are
+	 * named after their commands, e.g., lookup-batch, so each collapser's batches have their own metrics, reported
+	 * under RequestCollapser, and their own per-command circuit breaker and retry budget.
+	 *
+	 * @param commandName The name of the MakrutCommands to collapse.
+	 * @param collapser The collapser that gathers and runs the batches.
+	 */
+	public MakrutExecutorBuilder withCollapser(final String commandName, final RequestCollapser<?> collapser) {
+		collapsers.put(checkNotNull(commandName), checkNotNull(collapser));
+
+		return this;
+	}
+
+	/**
+	 * Hedges commands that are slow to complete by dispatching a duplicate attempt once the strategy's delay has
+	 * passed, taking whichever attempt succeeds first and cancelling the other.  Hedged attempts pass through the
+	 * circuit breaker, bulkhead and adaptive limit like any other.
+	 *
+	 * A hedge skips the blocking cache, since it would only wait there for the primary attempt's load, and its result
+	 * is not stored in it.  It does take its own permit from a semaphore given to withSemaphore, waiting for one like
+	 * any other call, so a hedged command can hold two permits at once; size the semaphore for the extra attempts the
+	 * budget allows.
+	 *
+	 * @param strategy Decides, per command class, how long to wait before hedging.
+	 * @param budget Limits hedged attempts to a fraction of all commands; shared by every command class.
+	 * @param timer Triggers the hedged attempts.
+	 */
+	public MakrutExecutorBuilder withHedging(final HedgeStrategy strategy,
+			final TokenBudget budget,
+			final ScheduledExecutorService timer) {
+		this.hedge = Optional.of(strategy);
+		this.hedgeBudget = Optional.of(budget);
+		this.hedgeTimer = Optional.of(timer);
+
+		return this;
+	}
 }
@@ -17,7 +17,7 @@ import org.slf4j.LoggerFactory;
  * A version of the MakrutCommand that wraps submit functionality from the executor.
  */
 @ThreadSafe
-public abstract class BasicMakrutCommand<T> extends MakrutCommand<T> {
+public abstract class BasicMakrutCommand<T> extends MakrutCommand<T> implements Prioritized, TimeBudgeted {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BasicMakrutCommand.class);
 
 	private final MakrutExecutor executor;
@@ -39,6 +39,24 @@ public abstract class BasicMakrutCommand<T> extends MakrutCommand<T> {
 		return Optional.absent();
 	}
 
+	/**
+	 * The priority of the command when its executor schedules by priority.  Override to raise interactive commands
+	 * above background ones; a priority assigned to the command class by the builder takes precedence.
+	 */
+	@Override
+	public int getPriority() {
+		return NORMAL;
+	}
+
+	/**
+	 * How long the caller will wait for the command across every attempt.  Override to give the command a deadline of
+	 * its own in place of the executor's.
+	 */
+	@Override
+	public Optional<Long> getTimeBudgetMillis() {
+		return Optional.absent();
+	}
+
 	private ListenableFuture<T> addFallback(final ListenableFuture<T> future, final Callable<T> fallback) {
 		return Futures.withFallback(future, new FutureFallback<T>() {
 			@Override
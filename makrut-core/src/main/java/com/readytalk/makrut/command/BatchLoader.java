@@ -0,0 +1,20 @@
+package com.readytalk.makrut.command;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+
+/**
+ * Performs the work of many commands of the same name in a single call, such as looking up many ids at once.
+ */
+@ThreadSafe
+public interface BatchLoader<T> {
+	/**
+	 * Loads the results for a batch of commands.
+	 *
+	 * @param commands The distinct commands in the batch, in the order they were first submitted.
+	 *
+	 * @return The result, or the failure, for each command.  A command with neither fails with a
+	 * NoSuchElementException.  Throwing fails every command in the batch.
+	 */
+	BatchResult<T> load(List<MakrutCommand<T>> commands) throws Exception;
+}
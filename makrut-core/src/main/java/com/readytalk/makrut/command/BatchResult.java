@@ -0,0 +1,48 @@
+package com.readytalk.makrut.command;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The outcome of a BatchLoader, holding a value or a failure for each command in the batch.
+ */
+@NotThreadSafe
+public final class BatchResult<T> {
+	private final Map<MakrutCommand<T>, T> values = Maps.newHashMap();
+	private final Map<MakrutCommand<T>, Exception> failures = Maps.newHashMap();
+
+	public BatchResult<T> put(final MakrutCommand<T> command, final T value) {
+		values.put(checkNotNull(command), checkNotNull(value));
+		failures.remove(command);
+
+		return this;
+	}
+
+	public BatchResult<T> fail(final MakrutCommand<T> command, final Exception ex) {
+		failures.put(checkNotNull(command), checkNotNull(ex));
+		values.remove(command);
+
+		return this;
+	}
+
+	/**
+	 * @return The value for the command, or null if there is none.
+	 */
+	@Nullable
+	public T getValue(final MakrutCommand<T> command) {
+		return values.get(command);
+	}
+
+	/**
+	 * @return The failure for the command, or null if there is none.
+	 */
+	@Nullable
+	public Exception getFailure(final MakrutCommand<T> command) {
+		return failures.get(command);
+	}
+}
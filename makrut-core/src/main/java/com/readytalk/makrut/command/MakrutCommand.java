@@ -25,6 +25,21 @@ public abstract class MakrutCommand<T> implements Callable<T> {
 		this.args = args;
 	}
 
+	/**
+	 * The name of the command, shared by every instance that performs the same operation.  Executors keep metrics and
+	 * state for each name they see, so names should come from a fixed set rather than include the arguments.
+	 */
+	public String getCommandName() {
+		return commandName;
+	}
+
+	/**
+	 * A copy of the arguments that, together with the name, identify this command.
+	 */
+	public Object[] getArgs() {
+		return args.clone();
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public boolean equals(final Object o) {
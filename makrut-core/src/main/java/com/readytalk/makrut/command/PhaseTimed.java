@@ -0,0 +1,17 @@
+package com.readytalk.makrut.command;
+
+import com.readytalk.makrut.util.LatencyBreakdown;
+
+/**
+ * A command that is given the breakdown of where its time went once it completes, when the executor records phases.
+ * This allows a single slow call to be explained, where the per-command phase timers only show the distribution.
+ */
+public interface PhaseTimed {
+	/**
+	 * Called once the future for the command completes, whether or not it succeeded.  It may be called after the
+	 * caller has already been given the result.
+	 *
+	 * @param breakdown The time of each phase across every attempt of the command.
+	 */
+	void onPhasesRecorded(LatencyBreakdown breakdown);
+}
@@ -0,0 +1,17 @@
+package com.readytalk.makrut.command;
+
+/**
+ * A command that carries its own scheduling priority.  Commands with a higher priority are placed on the executor
+ * ahead of those with a lower one when an executor uses a PriorityScheduler.
+ */
+public interface Prioritized {
+	/**
+	 * The default priority, for commands that have not been given one.
+	 */
+	int NORMAL = 0;
+
+	/**
+	 * @return The priority of the command; higher runs first.
+	 */
+	int getPriority();
+}
@@ -0,0 +1,226 @@
+package com.readytalk.makrut.command;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.readytalk.makrut.MakrutExecutor;
+
+/**
+ * Gathers commands of the same name that are submitted close together and runs them as a single batch.
+ *
+ * The first command to arrive opens a batch, which is closed when the window has passed or when it holds the maximum
+ * number of distinct commands, whichever is first.  The closed batch is submitted to an executor as one command, so
+ * that the executor's stages apply to the batch as a whole, and its result is fanned back out to the future of each
+ * command.  Equal commands in the same batch share a single result.
+ *
+ * Executors name each batch after its commands, e.g., lookup-batch, rather than after its class, so each collapser's
+ * batches have their own metrics and per-command state.
+ */
+@ThreadSafe
+public class RequestCollapser<T> {
+
+	private final BatchLoader<T> loader;
+	private final int maxBatchSize;
+	private final long windowNanos;
+	private final ScheduledExecutorService timer;
+	private final Executor submitter;
+
+	@GuardedBy("this")
+	private Batch current = null;
+
+	/**
+	 * @param loader Runs each batch.
+	 * @param maxBatchSize The most distinct commands a batch may hold.
+	 * @param window How long a batch stays open after its first command arrives.
+	 * @param unit The unit of the window.
+	 * @param timer Closes batches once their window has passed.  Its tasks only hand the batch to the submitter.
+	 * @param submitter Submits batches closed by the timer to the executor, so that the dispatch stages do not run on
+	 * the timer's thread.  Batches closed by filling up are submitted by the thread that filled them.
+	 */
+	public RequestCollapser(final BatchLoader<T> loader,
+			@Nonnegative final int maxBatchSize,
+			@Nonnegative final long window,
+			final TimeUnit unit,
+			final ScheduledExecutorService timer,
+			final Executor submitter) {
+		checkArgument(maxBatchSize > 0, "Batches must hold at least one command.");
+		checkArgument(window > 0L, "Window must be greater than zero.");
+
+		this.loader = checkNotNull(loader);
+		this.maxBatchSize = maxBatchSize;
+		this.windowNanos = checkNotNull(unit).toNanos(window);
+		this.timer = checkNotNull(timer);
+		this.submitter = checkNotNull(submitter);
+	}
+
+	/**
+	 * Whether commands of the given class are batches submitted by a collapser.
+	 */
+	public static boolean isBatch(final Class<?> type) {
+		return CollapsedBatch.class.equals(type);
+	}
+
+	/**
+	 * Adds a command to the open batch, opening one if necessary.
+	 *
+	 * @param command The command to collapse.
+	 * @param executor The executor to submit the batch to, if this command opens or fills it.
+	 *
+	 * @return A future for the result of this command within its batch.
+	 */
+	public ListenableFuture<T> submit(final MakrutCommand<T> command, final MakrutExecutor executor) {
+		checkNotNull(command);
+		checkNotNull(executor);
+
+		Batch full = null;
+		SettableFuture<T> result;
+
+		synchronized (this) {
+			if (current == null) {
+				current = new Batch(command.getCommandName(), executor);
+			}
+
+			result = current.pending.get(command);
+
+			if (result == null) {
+				result = SettableFuture.create();
+				current.pending.put(command, result);
+			}
+
+			if (current.pending.size() >= maxBatchSize) {
+				full = current;
+				current = null;
+			}
+		}
+
+		if (full != null) {
+			full.run();
+		}
+
+		return result;
+	}
+
+	/**
+	 * The commands gathered in one window.
+	 */
+	private final class Batch implements Runnable {
+		private final String name;
+		private final MakrutExecutor executor;
+		private final Map<MakrutCommand<T>, SettableFuture<T>> pending = Maps.newLinkedHashMap();
+		private final ScheduledFuture<?> closer;
+
+		Batch(final String name, final MakrutExecutor executor) {
+			this.name = name;
+			this.executor = executor;
+			this.closer = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (RequestCollapser.this) {
+						if (current != Batch.this) {
+							return;
+						}
+
+						current = null;
+					}
+
+					try {
+						submitter.execute(Batch.this);
+					} catch (RejectedExecutionException ex) {
+						fail(ex);
+					}
+				}
+			}, windowNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Submits the batch and fans out its result.  Only called once the batch has been closed, so the pending map
+		 * is no longer modified.
+		 */
+		@Override
+		public void run() {
+			closer.cancel(false);
+
+			ListenableFuture<BatchResult<T>> future;
+
+			try {
+				future = executor.submit(new CollapsedBatch<T>(name, ImmutableList.copyOf(pending.keySet()), loader));
+			} catch (RuntimeException ex) {
+				future = Futures.immediateFailedFuture(ex);
+			}
+
+			Futures.addCallback(future, new FutureCallback<BatchResult<T>>() {
+				@Override
+				public void onSuccess(final BatchResult<T> result) {
+					for (Map.Entry<MakrutCommand<T>, SettableFuture<T>> entry : pending.entrySet()) {
+						T value = result.getValue(entry.getKey());
+						Exception failure = result.getFailure(entry.getKey());
+
+						if (value != null) {
+							entry.getValue().set(value);
+						} else if (failure != null) {
+							entry.getValue().setException(failure);
+						} else {
+							entry.getValue().setException(new NoSuchElementException("No result in batch for "
+									+ name + "."));
+						}
+					}
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					fail(t);
+				}
+			});
+		}
+
+		private void fail(final Throwable t) {
+			for (SettableFuture<T> result : pending.values()) {
+				if (t instanceof CancellationException) {
+					result.cancel(false);
+				} else {
+					result.setException(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A batch of commands, run as a single command.  Equal to another batch of the same commands, so a batch can be
+	 * cached like any other command.
+	 */
+	private static final class CollapsedBatch<T> extends MakrutCommand<BatchResult<T>> {
+		private final List<MakrutCommand<T>> commands;
+		private final BatchLoader<T> loader;
+
+		CollapsedBatch(final String name, final List<MakrutCommand<T>> commands, final BatchLoader<T> loader) {
+			super(name + "-batch", commands.toArray());
+
+			this.commands = commands;
+			this.loader = loader;
+		}
+
+		@Override
+		public BatchResult<T> call() throws Exception {
+			return loader.load(commands);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.readytalk.makrut.command;
+
+import com.google.common.base.Optional;
+
+/**
+ * A command that carries its own time budget: how long, from submission, its caller will wait for the result across
+ * every attempt.  The budget sets the command's deadline in place of any the executor would otherwise give it.
+ */
+public interface TimeBudgeted {
+	/**
+	 * @return The time budget of the command in milliseconds, or absent to use the executor's.
+	 */
+	Optional<Long> getTimeBudgetMillis();
+}
@@ -0,0 +1,62 @@
+package com.readytalk.makrut.strategy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Strategies for deciding how long to wait on a slow command before hedging it with a duplicate attempt.
+ */
+public final class HedgeStrategies {
+
+	private HedgeStrategies() {
+
+	}
+
+	/**
+	 * Always waits the same amount of time.
+	 *
+	 * @param time The amount of time to wait.
+	 * @param delayUnit The time unit for the delay.
+	 */
+	public static HedgeStrategy fixedDelay(@Nonnegative final long time, final TimeUnit delayUnit) {
+		checkArgument(time > 0L, "Hedge delay must be greater than zero.");
+
+		return new HedgeStrategy() {
+			@Override
+			public long hedgeDelay(final Snapshot recentLatencies, final TimeUnit unit) {
+				return unit.convert(time, delayUnit);
+			}
+		};
+	}
+
+	/**
+	 * Waits until a command has run longer than the given quantile of recent attempts, e.g., 0.95 hedges roughly the
+	 * slowest 5% of calls.  Never waits less than the minimum, which also applies until there are latencies to go by.
+	 *
+	 * @param quantile The quantile of recent latencies to wait for, between zero and one.
+	 * @param minimum The least amount of time to wait.
+	 * @param minimumUnit The time unit for the minimum.
+	 */
+	public static HedgeStrategy percentile(@Nonnegative final double quantile,
+			@Nonnegative final long minimum,
+			final TimeUnit minimumUnit) {
+		checkArgument(quantile > 0.0d && quantile < 1.0d, "Quantile must be between zero and one.");
+		checkArgument(minimum > 0L, "Minimum delay must be greater than zero.");
+
+		final long minimumNanos = minimumUnit.toNanos(minimum);
+
+		return new HedgeStrategy() {
+			@Override
+			public long hedgeDelay(final Snapshot recentLatencies, final TimeUnit unit) {
+				long nanos = recentLatencies.size() == 0 ? minimumNanos : Math.max(minimumNanos,
+						(long) recentLatencies.getValue(quantile));
+
+				return unit.convert(nanos, TimeUnit.NANOSECONDS);
+			}
+		};
+	}
+}
@@ -0,0 +1,19 @@
+package com.readytalk.makrut.strategy;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Snapshot;
+
+@ThreadSafe
+public interface HedgeStrategy {
+	/**
+	 * Determine how long to wait for a command before sending a duplicate attempt.
+	 *
+	 * @param recentLatencies Recent latencies, in nanoseconds, of attempts of the same command.
+	 * @param unit The TimeUnit to use.
+	 *
+	 * @return The amount of time to wait before hedging.
+	 */
+	long hedgeDelay(Snapshot recentLatencies, TimeUnit unit);
+}
@@ -0,0 +1,146 @@
+package com.readytalk.makrut.strategy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.AtomicDouble;
+
+/**
+ * Strategies for adjusting a concurrency limit from the round trip times and failures of completed calls.  Each of
+ * these only raises the limit while the calls in flight are using a reasonable share of it, so that an idle period
+ * does not leave behind a limit far above what the dependency was ever shown to handle.
+ */
+public final class LimitStrategies {
+
+	private static final double VEGAS_ALPHA = 3.0d;
+	private static final double VEGAS_BETA = 6.0d;
+
+	private static final double GRADIENT_MIN = 0.5d;
+	private static final double GRADIENT_SMOOTHING = 0.2d;
+	private static final int LONG_RTT_SAMPLES = 600;
+	private static final double LONG_RTT_SMOOTHING = 2.0d / (LONG_RTT_SAMPLES + 1);
+
+	private LimitStrategies() {
+
+	}
+
+	/**
+	 * Additive increase, multiplicative decrease: the limit grows by one after each successful call and is scaled
+	 * down by the backoff ratio after each dropped call.  Ignores latency entirely, so it reacts only to failures
+	 * such as timeouts.
+	 *
+	 * @param backoffRatio The multiple to apply to the limit when a call is dropped, e.g., 0.9.
+	 */
+	public static LimitStrategy aimd(final double backoffRatio) {
+		checkArgument(backoffRatio > 0.0d && backoffRatio < 1.0d, "Backoff ratio must be between zero and one.");
+
+		return new LimitStrategy() {
+			@Override
+			public int nextLimit(@Nonnegative final int currentLimit,
+					@Nonnegative final long rttNanos,
+					@Nonnegative final int inFlight,
+					final boolean dropped) {
+				if (dropped) {
+					return (int) (currentLimit * backoffRatio);
+				} else if (isUtilized(currentLimit, inFlight)) {
+					return currentLimit + 1;
+				}
+
+				return currentLimit;
+			}
+		};
+	}
+
+	/**
+	 * Estimates how many calls are queued at the dependency from how far the round trip time has risen above the
+	 * lowest seen, in the manner of TCP Vegas.  The limit grows while that estimate is small, shrinks while it is
+	 * large, and shrinks sharply when a call is dropped.
+	 */
+	public static LimitStrategy vegas() {
+		final AtomicLong minRttNanos = new AtomicLong(Long.MAX_VALUE);
+
+		return new LimitStrategy() {
+			@Override
+			public int nextLimit(@Nonnegative final int currentLimit,
+					@Nonnegative final long rttNanos,
+					@Nonnegative final int inFlight,
+					final boolean dropped) {
+				long minRtt = updateMinimum(minRttNanos, Math.max(rttNanos, 1L));
+				double step = Math.max(1.0d, Math.log10(currentLimit));
+
+				if (dropped) {
+					return (int) (currentLimit - VEGAS_BETA * step);
+				}
+
+				double queued = currentLimit * (1.0d - (double) minRtt / Math.max(rttNanos, 1L));
+
+				if (queued <= VEGAS_ALPHA * step && isUtilized(currentLimit, inFlight)) {
+					return (int) (currentLimit + step);
+				} else if (queued >= VEGAS_BETA * step) {
+					return (int) (currentLimit - step);
+				}
+
+				return currentLimit;
+			}
+		};
+	}
+
+	/**
+	 * Scales the limit by the ratio of a long-term average round trip time to the latest one, so that the limit
+	 * shrinks in proportion to how much slower the dependency has become, and allows a queue of the square root of the
+	 * limit on top.  Changes are smoothed, and a dropped call is treated as the largest slowdown the strategy allows,
+	 * halving the limit before smoothing.
+	 */
+	public static LimitStrategy gradient() {
+		final AtomicDouble longRttNanos = new AtomicDouble(0.0d);
+
+		return new LimitStrategy() {
+			@Override
+			public int nextLimit(@Nonnegative final int currentLimit,
+					@Nonnegative final long rttNanos,
+					@Nonnegative final int inFlight,
+					final boolean dropped) {
+				double rtt = Math.max(rttNanos, 1L);
+				double longRtt = updateAverage(longRttNanos, rtt);
+
+				double gradient = dropped ? GRADIENT_MIN : Math.max(GRADIENT_MIN, Math.min(1.0d, longRtt / rtt));
+				double target = currentLimit * gradient + Math.sqrt(currentLimit);
+
+				if (!isUtilized(currentLimit, inFlight)) {
+					target = Math.min(target, currentLimit);
+				}
+
+				return (int) Math.round(currentLimit * (1.0d - GRADIENT_SMOOTHING) + target * GRADIENT_SMOOTHING);
+			}
+		};
+	}
+
+	private static boolean isUtilized(final int currentLimit, final int inFlight) {
+		return inFlight * 2 >= currentLimit;
+	}
+
+	private static long updateMinimum(final AtomicLong minimum, final long sample) {
+		while (true) {
+			long current = minimum.get();
+
+			if (sample >= current) {
+				return current;
+			} else if (minimum.compareAndSet(current, sample)) {
+				return sample;
+			}
+		}
+	}
+
+	private static double updateAverage(final AtomicDouble average, final double sample) {
+		while (true) {
+			double current = average.get();
+			double next = current == 0.0d ? sample : current + (sample - current) * LONG_RTT_SMOOTHING;
+
+			if (average.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+}
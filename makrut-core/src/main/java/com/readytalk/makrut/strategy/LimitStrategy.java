@@ -0,0 +1,21 @@
+package com.readytalk.makrut.strategy;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+
+@ThreadSafe
+public interface LimitStrategy {
+	/**
+	 * Determine the concurrency limit after a call completes.  Called concurrently as calls complete, so any state the
+	 * strategy keeps must tolerate samples arriving out of order.
+	 *
+	 * @param currentLimit The number of calls currently allowed in flight.
+	 * @param rttNanos The round trip time, in nanoseconds, of the call that completed.
+	 * @param inFlight The number of calls that were in flight when the completed call was started, including itself.
+	 * @param dropped Whether the call failed in a way that indicates the dependency is overloaded.
+	 *
+	 * @return The suggested concurrency limit.  Callers will bound it to their own minimum and maximum.
+	 */
+	int nextLimit(@Nonnegative int currentLimit, @Nonnegative long rttNanos, @Nonnegative int inFlight,
+			boolean dropped);
+}
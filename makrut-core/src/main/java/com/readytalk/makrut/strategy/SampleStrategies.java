@@ -0,0 +1,193 @@
+package com.readytalk.makrut.strategy;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Strategies for deciding which calls to measure.
+ *
+ * The sampled strategies choose calls at random, independently of how long they take, so the latencies of the calls
+ * measured are an unbiased sample of the latencies of all calls.  Each thread draws from a random generator of its own,
+ * so sampling does not contend between threads, and only targetRate reads the clock, once every few calls.
+ */
+public final class SampleStrategies {
+	private static final long SAMPLES_PER_CHECK = 64L;
+	private static final long CALLS_PER_CLOCK_READ = 8L;
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1L);
+	private static final int RANDOM_BITS = 53;
+	private static final double RANDOM_RANGE = (double) (1L << RANDOM_BITS);
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
+
+	private static final SampleStrategy EVERY_CALL = new SampleStrategy() {
+		@Override
+		public boolean sample() {
+			return true;
+		}
+	};
+
+	private SampleStrategies() {
+
+	}
+
+	/**
+	 * Measures every call.
+	 */
+	public static SampleStrategy everyCall() {
+		return EVERY_CALL;
+	}
+
+	/**
+	 * Measures one call in every n on average, chosen at random.
+	 *
+	 * @param n How many calls there are for each one measured.
+	 */
+	public static SampleStrategy oneIn(@Nonnegative final int n) {
+		checkArgument(n > 0, "Must sample at least one call in n.");
+
+		if (n == 1) {
+			return EVERY_CALL;
+		}
+
+		final long threshold = threshold(1.0d / n);
+		final ThreadLocal<Generator> generators = generators();
+
+		return new SampleStrategy() {
+			@Override
+			public boolean sample() {
+				return generators.get().next() < threshold;
+			}
+		};
+	}
+
+	/**
+	 * Measures roughly the given number of calls per second, chosen at random, or every call when there are fewer.
+	 * The share of calls measured is recalculated each second from the rate of calls in the last second.
+	 *
+	 * Within each second the sample is unbiased, but busy seconds contribute no more measurements than quiet ones, so
+	 * over longer periods the latencies of busy seconds are under-represented in the sample.
+	 *
+	 * @param samplesPerSecond The number of calls to measure each second.
+	 */
+	public static SampleStrategy targetRate(@Nonnegative final double samplesPerSecond) {
+		return targetRate(samplesPerSecond, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param samplesPerSecond The number of calls to measure each second.
+	 * @param ticker The clock to measure the rate of calls by.
+	 *
+	 * @see #targetRate(double)
+	 */
+	public static SampleStrategy targetRate(@Nonnegative final double samplesPerSecond, final Ticker ticker) {
+		checkArgument(samplesPerSecond > 0.0d, "Must sample at least some calls.");
+
+		return new TargetRate(samplesPerSecond, checkNotNull(ticker));
+	}
+
+	private static long threshold(final double probability) {
+		return (long) (Math.min(1.0d, probability) * RANDOM_RANGE);
+	}
+
+	private static ThreadLocal<Generator> generators() {
+		return new ThreadLocal<Generator>() {
+			@Override
+			protected Generator initialValue() {
+				return new Generator(SEEDS.addAndGet(GOLDEN_GAMMA));
+			}
+		};
+	}
+
+	/**
+	 * A thread's own source of random numbers, a SplitMix64 generator, which unlike java.util.Random keeps its state
+	 * in a plain field.  Also counts the calls the thread has seen, for strategies that sample by rate.
+	 */
+	private static final class Generator {
+		private static final long MIX_1 = 0xBF58476D1CE4E5B9L;
+		private static final long MIX_2 = 0x94D049BB133111EBL;
+		private static final int SHIFT_1 = 30;
+		private static final int SHIFT_2 = 27;
+		private static final int SHIFT_3 = 31;
+		private static final int DISCARD = Long.SIZE - RANDOM_BITS;
+
+		private long state;
+		private long calls = 0L;
+
+		Generator(final long seed) {
+			this.state = seed;
+		}
+
+		/**
+		 * A random number in [0, 2^53).
+		 */
+		long next() {
+			state += GOLDEN_GAMMA;
+
+			long z = state;
+
+			z = (z ^ (z >>> SHIFT_1)) * MIX_1;
+			z = (z ^ (z >>> SHIFT_2)) * MIX_2;
+
+			return (z ^ (z >>> SHIFT_3)) >>> DISCARD;
+		}
+	}
+
+	/**
+	 * Each thread counts its own calls and adds them to the shared count in batches, so the count only contends once
+	 * every batch.  The thread also reads the clock every few calls, and adds a partial batch once the second is up,
+	 * so the share is recalculated when calls slow down too, rather than only when some thread fills a batch.
+	 */
+	private static final class TargetRate implements SampleStrategy {
+		private final double samplesPerSecond;
+		private final Ticker ticker;
+		private final ThreadLocal<Generator> generators = generators();
+
+		private final AtomicLong calls = new AtomicLong(0L);
+		private final AtomicLong windowStart;
+
+		private volatile long threshold = threshold(1.0d);
+
+		TargetRate(final double samplesPerSecond, final Ticker ticker) {
+			this.samplesPerSecond = samplesPerSecond;
+			this.ticker = ticker;
+			this.windowStart = new AtomicLong(ticker.read());
+		}
+
+		@Override
+		public boolean sample() {
+			Generator generator = generators.get();
+
+			if (++generator.calls % CALLS_PER_CLOCK_READ == 0L) {
+				long now = ticker.read();
+
+				if (generator.calls == SAMPLES_PER_CHECK || now - windowStart.get() >= WINDOW_NANOS) {
+					calls.addAndGet(generator.calls);
+					generator.calls = 0L;
+					adjust(now);
+				}
+			}
+
+			return generator.next() < threshold;
+		}
+
+		private void adjust(final long now) {
+			long start = windowStart.get();
+			long elapsed = now - start;
+
+			if (elapsed < WINDOW_NANOS || !windowStart.compareAndSet(start, now)) {
+				return;
+			}
+
+			double callsPerSecond = calls.getAndSet(0L) * (double) WINDOW_NANOS / elapsed;
+
+			threshold = threshold(samplesPerSecond / callsPerSecond);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.readytalk.makrut.strategy;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+@ThreadSafe
+public interface SampleStrategy {
+	/**
+	 * Determine whether to measure the current call.  Called on every call, from many threads at once, so it must be
+	 * much cheaper than the measurement it saves; in particular it should not read the clock on every call.
+	 *
+	 * @return Whether to measure the call.
+	 */
+	boolean sample();
+}
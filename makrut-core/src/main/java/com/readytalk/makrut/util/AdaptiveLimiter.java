@@ -0,0 +1,178 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.readytalk.makrut.strategy.LimitStrategy;
+
+/**
+ * Limits the number of commands in flight to a limit that is adjusted, by a LimitStrategy, from the round trip time
+ * and outcome of every command that completes.  The round trip time runs from dispatch until the command's future
+ * completes, so it includes any time spent waiting for a thread; a saturated executor is treated the same way as a
+ * slow dependency.
+ *
+ * Commands that arrive while the limit is reached fail at once with a ConcurrencyLimitExceededException rather than
+ * queuing, since a queue would hide the very latency the limit is measured from.
+ */
+@ThreadSafe
+public class AdaptiveLimiter {
+
+	/**
+	 * Time limits and rejections by a later stage, such as the executor or a deadline, which are the failures that
+	 * follow from overload; failures the command raises itself, such as a missing record, do not.
+	 */
+	private static final Predicate<Throwable> OVERLOAD = Predicates.or(
+			Predicates.instanceOf(UncheckedTimeoutException.class),
+			Predicates.instanceOf(CommandRejectedException.class));
+
+	private final LimitStrategy strategy;
+	private final int minLimit;
+	private final int maxLimit;
+	private final Predicate<Throwable> isDropped;
+	private final Ticker ticker;
+
+	private final AtomicInteger limit;
+	private final AtomicInteger inFlight = new AtomicInteger(0);
+
+	/**
+	 * Creates a limiter that treats timeouts and rejections, but not other failures, as signs of overload.
+	 *
+	 * @param strategy The strategy that adjusts the limit.
+	 * @param initialLimit The limit to start from.
+	 * @param minLimit The lowest the limit may fall to.
+	 * @param maxLimit The highest the limit may rise to.
+	 */
+	public AdaptiveLimiter(final LimitStrategy strategy,
+			@Nonnegative final int initialLimit,
+			@Nonnegative final int minLimit,
+			@Nonnegative final int maxLimit) {
+		this(strategy, initialLimit, minLimit, maxLimit, OVERLOAD, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param strategy The strategy that adjusts the limit.
+	 * @param initialLimit The limit to start from.
+	 * @param minLimit The lowest the limit may fall to.
+	 * @param maxLimit The highest the limit may rise to.
+	 * @param isDropped Which failures indicate overload.  Other failures are not used to adjust the limit, since
+	 * their round trip times say little about the dependency's capacity.
+	 * @param ticker The clock to measure round trip times with.
+	 */
+	public AdaptiveLimiter(final LimitStrategy strategy,
+			@Nonnegative final int initialLimit,
+			@Nonnegative final int minLimit,
+			@Nonnegative final int maxLimit,
+			final Predicate<Throwable> isDropped,
+			final Ticker ticker) {
+		checkArgument(minLimit > 0, "Minimum limit must be greater than zero.");
+		checkArgument(maxLimit >= minLimit, "Maximum limit must not be less than the minimum.");
+		checkArgument(initialLimit >= minLimit && initialLimit <= maxLimit, "Initial limit must be within bounds.");
+
+		this.strategy = checkNotNull(strategy);
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.isDropped = checkNotNull(isDropped);
+		this.ticker = checkNotNull(ticker);
+		this.limit = new AtomicInteger(initialLimit);
+	}
+
+	/**
+	 * The number of commands currently allowed in flight.
+	 */
+	public int getLimit() {
+		return limit.get();
+	}
+
+	/**
+	 * The number of commands currently in flight.
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Dispatches a command to the next dispatcher if the limit allows it.
+	 *
+	 * @param next The dispatcher to hand the command to.
+	 * @param command The command to run.
+	 *
+	 * @return A future for the result of the command, failed with a ConcurrencyLimitExceededException if the limit
+	 * had been reached.
+	 */
+	public <T> ListenableFuture<T> submit(final Dispatcher next, final Callable<T> command) {
+		checkNotNull(next);
+		checkNotNull(command);
+
+		final int started = tryAcquire();
+
+		if (started == 0) {
+			return Futures.immediateFailedFuture(new ConcurrencyLimitExceededException("Concurrency limit of "
+					+ limit.get() + " reached."));
+		}
+
+		final long start = ticker.read();
+		final ListenableFuture<T> future;
+
+		try {
+			future = next.dispatch(command);
+		} catch (RuntimeException ex) {
+			inFlight.decrementAndGet();
+			throw ex;
+		}
+
+		Futures.addCallback(future, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(final T result) {
+				complete(start, started, false);
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				if (t instanceof CancellationException || !isDropped.apply(t)) {
+					inFlight.decrementAndGet();
+				} else {
+					complete(start, started, true);
+				}
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * @return The number of commands in flight including this one, or zero if the limit has been reached.
+	 */
+	private int tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+
+			if (current >= limit.get()) {
+				return 0;
+			} else if (inFlight.compareAndSet(current, current + 1)) {
+				return current + 1;
+			}
+		}
+	}
+
+	private void complete(final long start, final int started, final boolean dropped) {
+		inFlight.decrementAndGet();
+
+		int current = limit.get();
+		int next = strategy.nextLimit(current, ticker.read() - start, started, dropped);
+
+		limit.compareAndSet(current, Math.max(minLimit, Math.min(maxLimit, next)));
+	}
+}
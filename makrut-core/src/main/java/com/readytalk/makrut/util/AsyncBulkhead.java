@@ -0,0 +1,290 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Limits the number of commands that are running at once without blocking any thread while a command waits.
+ *
+ * A command that arrives while every permit is taken is parked on a bounded FIFO queue and handed to the next
+ * dispatcher when a running command completes.  Once the queue is full, further commands fail at once with a
+ * BulkheadFullException; a command that waits for longer than the queue timeout fails with a
+ * BulkheadTimeoutException.  Both are CommandRejectedExceptions, so they are not retried and fall through to any
+ * fallback.
+ *
+ * Unlike a Semaphore inside the command, the permit is held from the moment the command is dispatched until its
+ * future completes, so a pool thread is never spent waiting on it.
+ */
+@ThreadSafe
+public class AsyncBulkhead {
+
+	private static final int WAITING = 0;
+	private static final int DISPATCHED = 1;
+	private static final int ABANDONED = 2;
+
+	private final int maxQueued;
+	private final long queueTimeoutNanos;
+	private final ScheduledExecutorService timer;
+
+	private final AtomicInteger available;
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private final AtomicInteger drainRequests = new AtomicInteger(0);
+	private final Queue<Pending<?>> waiting = new ConcurrentLinkedQueue<Pending<?>>();
+
+	/**
+	 * Creates a bulkhead whose queued commands wait for as long as it takes for a permit to free up.
+	 *
+	 * @param maxConcurrent The number of commands that may run at once.
+	 * @param maxQueued The number of commands that may wait for a permit.
+	 */
+	public AsyncBulkhead(@Nonnegative final int maxConcurrent, @Nonnegative final int maxQueued) {
+		this(maxConcurrent, maxQueued, 0L, TimeUnit.NANOSECONDS, null);
+	}
+
+	/**
+	 * Creates a bulkhead whose queued commands are rejected once they have waited for the given time.
+	 *
+	 * @param maxConcurrent The number of commands that may run at once.
+	 * @param maxQueued The number of commands that may wait for a permit.
+	 * @param queueTimeout How long a command may wait for a permit.
+	 * @param unit The unit of the queue timeout.
+	 * @param timer Used to expire commands that have waited too long.  Its tasks do very little work.
+	 */
+	public AsyncBulkhead(@Nonnegative final int maxConcurrent,
+			@Nonnegative final int maxQueued,
+			@Nonnegative final long queueTimeout,
+			final TimeUnit unit,
+			final ScheduledExecutorService timer) {
+		checkArgument(maxConcurrent > 0, "Must allow at least one concurrent command.");
+		checkArgument(maxQueued >= 0, "Queue size must not be negative.");
+		checkArgument(queueTimeout >= 0L, "Queue timeout must not be negative.");
+		checkArgument(queueTimeout == 0L || timer != null, "A queue timeout requires a timer.");
+
+		this.available = new AtomicInteger(maxConcurrent);
+		this.maxQueued = maxQueued;
+		this.queueTimeoutNanos = checkNotNull(unit).toNanos(queueTimeout);
+		this.timer = timer;
+	}
+
+	/**
+	 * The number of permits not currently held by a running command.
+	 */
+	public int getAvailablePermits() {
+		return available.get();
+	}
+
+	/**
+	 * The number of commands waiting for a permit.
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * Dispatches a command to the next dispatcher once a permit is free.
+	 *
+	 * @param next The dispatcher to hand the command to.
+	 * @param command The command to run.
+	 *
+	 * @return A future for the result of the command.  Cancelling it while the command is queued removes the command
+	 * from the queue; cancelling it afterwards cancels the dispatched command.
+	 */
+	public <T> ListenableFuture<T> submit(final Dispatcher next, final Callable<T> command) {
+		checkNotNull(next);
+		checkNotNull(command);
+
+		if (waiting.isEmpty() && tryAcquire()) {
+			return dispatchHoldingPermit(next, command);
+		}
+
+		if (queued.incrementAndGet() > maxQueued) {
+			queued.decrementAndGet();
+
+			return Futures.immediateFailedFuture(new BulkheadFullException("Bulkhead is full."));
+		}
+
+		final Pending<T> pending = new Pending<T>(next, command);
+
+		if (queueTimeoutNanos > 0L) {
+			pending.timeout = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (abandon(pending)) {
+						pending.result.setException(new BulkheadTimeoutException("Timed out waiting for bulkhead."));
+					}
+				}
+			}, queueTimeoutNanos, TimeUnit.NANOSECONDS);
+		}
+
+		pending.result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (pending.result.isCancelled() && !abandon(pending) && pending.dispatched != null) {
+					pending.dispatched.cancel(true);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		waiting.offer(pending);
+
+		drain();
+
+		return pending.result;
+	}
+
+	private boolean tryAcquire() {
+		while (true) {
+			int current = available.get();
+
+			if (current <= 0) {
+				return false;
+			} else if (available.compareAndSet(current, current - 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void release() {
+		available.incrementAndGet();
+
+		drain();
+	}
+
+	/**
+	 * Hands queued commands to their dispatchers while there are permits to give them.  The queue is checked again
+	 * after every permit is returned, so a command that was queued while this thread held a permit is not stranded.
+	 *
+	 * Only one thread drains at a time.  A call made while another is draining, including one made by a command that
+	 * completes as it is dispatched, only asks the draining thread to go round again, so commands that complete at
+	 * once are handed their permits in a loop rather than by recursion.
+	 */
+	private void drain() {
+		if (drainRequests.getAndIncrement() != 0) {
+			return;
+		}
+
+		int requests = 1;
+
+		do {
+			while (!waiting.isEmpty() && tryAcquire()) {
+				Pending<?> pending = waiting.poll();
+
+				if (pending != null && pending.state.compareAndSet(WAITING, DISPATCHED)) {
+					queued.decrementAndGet();
+					pending.start();
+				} else {
+					available.incrementAndGet();
+				}
+			}
+
+			requests = drainRequests.addAndGet(-requests);
+		} while (requests != 0);
+	}
+
+	private boolean abandon(final Pending<?> pending) {
+		if (!pending.state.compareAndSet(WAITING, ABANDONED)) {
+			return false;
+		}
+
+		queued.decrementAndGet();
+		waiting.remove(pending);
+
+		if (pending.timeout != null) {
+			pending.timeout.cancel(false);
+		}
+
+		return true;
+	}
+
+	private <T> ListenableFuture<T> dispatchHoldingPermit(final Dispatcher next, final Callable<T> command) {
+		final ListenableFuture<T> future;
+
+		try {
+			future = next.dispatch(command);
+		} catch (RuntimeException ex) {
+			release();
+			throw ex;
+		}
+
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		return future;
+	}
+
+	/**
+	 * A command waiting for a permit.
+	 */
+	private final class Pending<T> {
+		private final Dispatcher next;
+		private final Callable<T> command;
+		private final SettableFuture<T> result = SettableFuture.create();
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		private volatile ScheduledFuture<?> timeout = null;
+		private volatile ListenableFuture<T> dispatched = null;
+
+		Pending(final Dispatcher next, final Callable<T> command) {
+			this.next = next;
+			this.command = command;
+		}
+
+		void start() {
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+
+			final ListenableFuture<T> future;
+
+			try {
+				future = dispatchHoldingPermit(next, command);
+			} catch (RuntimeException ex) {
+				result.setException(ex);
+				return;
+			}
+
+			dispatched = future;
+
+			Futures.addCallback(future, new FutureCallback<T>() {
+				@Override
+				public void onSuccess(final T value) {
+					result.set(value);
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					if (t instanceof CancellationException) {
+						result.cancel(false);
+					} else {
+						result.setException(t);
+					}
+				}
+			});
+
+			if (result.isCancelled()) {
+				future.cancel(true);
+			}
+		}
+	}
+}
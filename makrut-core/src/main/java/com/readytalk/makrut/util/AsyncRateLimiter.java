@@ -0,0 +1,197 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Limits the rate at which commands are dispatched without blocking any thread while a command waits.
+ *
+ * The limiter is a token bucket that holds up to a burst of permits and refills at a steady rate.  Each command
+ * reserves the next permit as it arrives, so the order of arrival is kept, and if that permit is not yet available the
+ * command is parked on a timer until it is, rather than holding a thread the way RateLimiter.acquire() would.  A
+ * command whose permit would not be available within the maximum wait fails at once with a
+ * RateLimitExceededException, and takes no permit.
+ *
+ * A command that is cancelled while it waits does not give its permit back, since later commands have already been
+ * given the permits after it.
+ */
+@ThreadSafe
+public class AsyncRateLimiter {
+
+	private final long intervalNanos;
+	private final long burstNanos;
+	private final long maxWaitNanos;
+	private final ScheduledExecutorService timer;
+	private final Ticker ticker;
+
+	/**
+	 * The time at which the bucket will next be empty, were no more permits taken, as read from the ticker.
+	 */
+	private final AtomicLong emptyAt;
+	private final AtomicInteger waiting = new AtomicInteger(0);
+
+	/**
+	 * Creates a limiter that lets commands wait for up to one burst's worth of permits, on a timer shared with other
+	 * stages.
+	 *
+	 * @param permitsPerSecond The steady rate at which commands may be dispatched.
+	 * @param burst The number of commands that may be dispatched at once after a quiet period.
+	 */
+	public AsyncRateLimiter(@Nonnegative final double permitsPerSecond, @Nonnegative final int burst) {
+		this(permitsPerSecond, burst, (long) (TimeUnit.SECONDS.toNanos(1L) * burst / permitsPerSecond),
+				TimeUnit.NANOSECONDS, SharedTimer.INSTANCE, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param permitsPerSecond The steady rate at which commands may be dispatched.
+	 * @param burst The number of commands that may be dispatched at once after a quiet period.
+	 * @param maxWait The longest a command may wait for its permit before it is rejected instead.
+	 * @param unit The unit of the maximum wait.
+	 * @param timer Dispatches commands once their permits are available.  Its tasks only dispatch the command.
+	 * @param ticker The clock the bucket is refilled by.
+	 */
+	public AsyncRateLimiter(@Nonnegative final double permitsPerSecond,
+			@Nonnegative final int burst,
+			@Nonnegative final long maxWait,
+			final TimeUnit unit,
+			final ScheduledExecutorService timer,
+			final Ticker ticker) {
+		checkArgument(permitsPerSecond > 0.0d, "Rate must be greater than zero.");
+		checkArgument(burst > 0, "Burst must allow at least one command.");
+		checkArgument(maxWait >= 0L, "Maximum wait must not be negative.");
+
+		this.intervalNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1L) / permitsPerSecond));
+		this.burstNanos = intervalNanos * (burst - 1);
+		this.maxWaitNanos = checkNotNull(unit).toNanos(maxWait);
+		this.timer = checkNotNull(timer);
+		this.ticker = checkNotNull(ticker);
+		this.emptyAt = new AtomicLong(ticker.read());
+	}
+
+	/**
+	 * The number of commands waiting for their permits.
+	 */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	/**
+	 * Dispatches a command to the next dispatcher once a permit is available.
+	 *
+	 * @param next The dispatcher to hand the command to.
+	 * @param command The command to run.
+	 *
+	 * @return A future for the result of the command, failed with a RateLimitExceededException if the command would
+	 * have had to wait too long.  Cancelling it while the command waits stops the command from being dispatched;
+	 * cancelling it afterwards cancels the dispatched command.
+	 */
+	public <T> ListenableFuture<T> submit(final Dispatcher next, final Callable<T> command) {
+		checkNotNull(next);
+		checkNotNull(command);
+
+		final long wait = reserve();
+
+		if (wait < 0L) {
+			return Futures.immediateFailedFuture(new RateLimitExceededException("Rate limit exceeded."));
+		} else if (wait == 0L) {
+			return next.dispatch(command);
+		}
+
+		final SettableFuture<T> result = SettableFuture.create();
+
+		waiting.incrementAndGet();
+
+		final ScheduledFuture<?> scheduled = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				waiting.decrementAndGet();
+
+				if (result.isDone()) {
+					return;
+				}
+
+				try {
+					forward(next.dispatch(command), result);
+				} catch (RuntimeException ex) {
+					result.setException(ex);
+				}
+			}
+		}, wait, TimeUnit.NANOSECONDS);
+
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (result.isCancelled() && scheduled.cancel(false)) {
+					waiting.decrementAndGet();
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		return result;
+	}
+
+	/**
+	 * Takes the next permit.
+	 *
+	 * @return How long to wait for the permit, in nanoseconds, or -1 if that would be longer than the maximum wait, in
+	 * which case no permit was taken.
+	 */
+	private long reserve() {
+		while (true) {
+			long now = ticker.read();
+			long current = emptyAt.get();
+			long from = Math.max(current, now);
+			long wait = Math.max(0L, from - burstNanos - now);
+
+			if (wait > maxWaitNanos) {
+				return -1L;
+			} else if (emptyAt.compareAndSet(current, from + intervalNanos)) {
+				return wait;
+			}
+		}
+	}
+
+	private static <T> void forward(final ListenableFuture<T> dispatched, final SettableFuture<T> result) {
+		Futures.addCallback(dispatched, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(final T value) {
+				result.set(value);
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				if (t instanceof CancellationException) {
+					result.cancel(false);
+				} else {
+					result.setException(t);
+				}
+			}
+		});
+
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (result.isCancelled()) {
+					dispatched.cancel(true);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+}
@@ -0,0 +1,12 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command when its bulkhead has no permits free and no room left to queue.
+ */
+public class BulkheadFullException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public BulkheadFullException(final String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,12 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command that waited in its bulkhead's queue for longer than the queue timeout.
+ */
+public class BulkheadTimeoutException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public BulkheadTimeoutException(final String message) {
+		super(message);
+	}
+}
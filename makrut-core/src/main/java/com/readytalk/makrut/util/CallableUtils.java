@@ -5,28 +5,109 @@ import static com.google.inject.internal.util.$Preconditions.checkArgument;
 import static com.google.inject.internal.util.$Preconditions.checkNotNull;
 
 import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import com.google.common.util.concurrent.SimpleTimeLimiter;
-import com.google.common.util.concurrent.TimeLimiter;
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import com.readytalk.makrut.command.MakrutCommand;
+import com.readytalk.makrut.strategy.BackoffStrategy;
+import com.readytalk.makrut.strategy.RetryStrategy;
+import com.readytalk.makrut.strategy.SampleStrategy;
 
 /**
- * Utilities for constructing robust Callable objects.
+ * Utilities for constructing robust Callable objects.  Metrics are looked up in the registry the first time they are
+ * needed and reused afterwards, so an instance should be kept for as long as its name is in use.
  */
 @Immutable
 public class CallableUtils {
+	private static final int RUNNING = 0;
+	private static final int INTERRUPTING = 1;
+	private static final int TIMED_OUT = 2;
+	private static final int EXPIRED = 3;
+	private static final int COMPLETED = 4;
+	private static final int TIMED_ATTEMPTS = 5;
+
 	private final MetricRegistry metrics;
 	private final String name;
-	private final TimeLimiter limiter = new SimpleTimeLimiter();
+
+	private final Supplier<Meter> timeoutExceeded = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "call", "timeout-exceeded"));
+		}
+	});
+
+	private final Supplier<Meter> deadlineExceeded = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "call", "deadline-exceeded"));
+		}
+	});
+
+	private final Supplier<Timer> callDuration = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "call", "duration"));
+		}
+	});
+
+	private final Supplier<Meter> callCount = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "call", "count"));
+		}
+	});
+
+	private final Supplier<Timer[]> attemptDurations = Suppliers.memoize(new Supplier<Timer[]>() {
+		@Override
+		public Timer[] get() {
+			Timer[] timers = new Timer[TIMED_ATTEMPTS];
+
+			for (int i = 0; i < TIMED_ATTEMPTS - 1; i++) {
+				timers[i] = metrics.timer(name(name, "attempt", String.valueOf(i + 1), "duration"));
+			}
+
+			timers[TIMED_ATTEMPTS - 1] = metrics.timer(name(name, "attempt", TIMED_ATTEMPTS + "-plus", "duration"));
+
+			return timers;
+		}
+	});
+
+	private final Supplier<Meter> inThreadRetries = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "retry", "in-thread"));
+		}
+	});
+
+	private final Supplier<Meter> shortCircuited = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "circuit-breaker", "short-circuited"));
+		}
+	});
 
 	@AssistedInject
 	public CallableUtils(final MetricRegistry metrics, @Assisted final String name) {
@@ -36,39 +117,211 @@ public class CallableUtils {
 
 	/**
 	 * Puts a time limit on the execution of the callable, so that it will throw an UncheckedTimeoutException if the
-	 * call takes too long.
+	 * call takes too long.  The limit is enforced by a timer shared by every CallableUtils.
 	 *
-	 * @param callable The Callable to proxy.
+	 * @param callable The Callable to limit.
 	 * @param timeLimit The amount of time to take.
 	 * @param unit The desired unit for the amount of time.
 	 *
-	 * @return The proxied Callable.
+	 * @return The limited Callable.
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> Callable<T> addTimeLimit(final Callable<T> callable,
 			@Nonnegative final long timeLimit,
 			final TimeUnit unit) {
+		return addTimeLimit(callable, timeLimit, unit, SharedTimer.INSTANCE);
+	}
+
+	/**
+	 * Puts a time limit on the execution of the callable, so that it will throw an UncheckedTimeoutException if the
+	 * call takes too long.  The callable runs on the calling thread; once the limit passes, the timer interrupts that
+	 * thread, and the call fails as soon as the callable gives way to the interrupt.  The interrupt is cleared before
+	 * the call returns, so it never leaks into the next task run by the same pool thread.  When the call is an attempt
+	 * dispatched through FutureUtils.withTimeLimits, the timer also fails the attempt's future as the limit passes,
+	 * even if the callable never gives way.
+	 *
+	 * @param callable The Callable to limit.
+	 * @param timeLimit The amount of time to take.
+	 * @param unit The desired unit for the amount of time.
+	 * @param timer Interrupts calls that run for too long.  Its tasks do very little work.
+	 *
+	 * @return The limited Callable.
+	 */
+	public <T> Callable<T> addTimeLimit(final Callable<T> callable,
+			@Nonnegative final long timeLimit,
+			final TimeUnit unit,
+			final ScheduledExecutorService timer) {
 		checkArgument(timeLimit > 0, "Time limit must be greater than zero.");
 		checkNotNull(callable);
 		checkNotNull(unit);
+		checkNotNull(timer);
+
+		final Meter durationExceeded = timeoutExceeded.get();
+		final long limitNanos = unit.toNanos(timeLimit);
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return callWithin(callable, limitNanos, timer, durationExceeded, false);
+			}
+		};
+	}
+
+	/**
+	 * Bounds each call by the time remaining before a deadline, as well as by an individual time limit if there is
+	 * one, so that no attempt runs on after its caller has given up.  A call that would start after the deadline has
+	 * passed fails at once with a DeadlineExceededException, without running, as does a call that is cut short by the
+	 * deadline rather than by its own limit.  The limit is enforced by a timer shared by every CallableUtils.
+	 *
+	 * @param callable The Callable to limit.
+	 * @param deadline The deadline of the command.
+	 * @param timeLimitMillis The time limit of each individual call, if any.
+	 *
+	 * @return The limited Callable.
+	 */
+	public <T> Callable<T> addDeadline(final Callable<T> callable,
+			final Deadline deadline,
+			final Optional<Long> timeLimitMillis) {
+		return addDeadline(callable, deadline, timeLimitMillis, SharedTimer.INSTANCE);
+	}
 
-		final Meter durationExceeded = metrics.meter(name(name, "call", "timeout-exceeded"));
+	/**
+	 * As addDeadline, enforced by the given timer.
+	 *
+	 * @param callable The Callable to limit.
+	 * @param deadline The deadline of the command.
+	 * @param timeLimitMillis The time limit of each individual call, if any.
+	 * @param timer Interrupts calls that run for too long.  Its tasks do very little work.
+	 *
+	 * @return The limited Callable.
+	 */
+	public <T> Callable<T> addDeadline(final Callable<T> callable,
+			final Deadline deadline,
+			final Optional<Long> timeLimitMillis,
+			final ScheduledExecutorService timer) {
+		checkNotNull(callable);
+		checkNotNull(deadline);
+		checkNotNull(timer);
+		checkArgument(!timeLimitMillis.isPresent() || timeLimitMillis.get() > 0L,
+				"Time limit must be greater than zero.");
 
-		final Callable<T> retval = limiter.newProxy(callable, Callable.class, timeLimit, unit);
+		final Meter durationExceeded = timeoutExceeded.get();
+		final Meter pastDeadline = deadlineExceeded.get();
 
 		return new Callable<T>() {
 			@Override
 			public T call() throws Exception {
-				try {
-					return retval.call();
-				} catch (UncheckedTimeoutException ex) {
-					durationExceeded.mark();
-					throw ex;
+				long remaining = deadline.timeRemaining(TimeUnit.NANOSECONDS);
+
+				if (remaining == 0L) {
+					pastDeadline.mark();
+					throw new DeadlineExceededException("Deadline passed before the call started.");
+				} else if (timeLimitMillis.isPresent()
+						&& TimeUnit.MILLISECONDS.toNanos(timeLimitMillis.get()) < remaining) {
+					return callWithin(callable, TimeUnit.MILLISECONDS.toNanos(timeLimitMillis.get()), timer,
+							durationExceeded, false);
 				}
+
+				return callWithin(callable, remaining, timer, pastDeadline, true);
 			}
 		};
 	}
 
+	/**
+	 * Runs a call on the calling thread.  Once the limit passes, the timer fails the future of the attempt, if it was
+	 * dispatched with one, and interrupts the calling thread, so the attempt's caller need not wait for a call that
+	 * ignores the interrupt.  The call itself fails as soon as the callable gives way to the interrupt.
+	 *
+	 * @param exceeded Marked when the limit passes.
+	 * @param byDeadline Whether the limit is the command's deadline rather than an individual time limit.
+	 */
+	private static <T> T callWithin(final Callable<T> callable,
+			final long limitNanos,
+			final ScheduledExecutorService timer,
+			final Meter exceeded,
+			final boolean byDeadline) throws Exception {
+		final Thread runner = Thread.currentThread();
+		final SettableFuture<?> attempt = RunningAttempt.current();
+		final AtomicInteger state = new AtomicInteger(RUNNING);
+
+		final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!state.compareAndSet(RUNNING, INTERRUPTING)) {
+					return;
+				}
+
+				if (runner.isInterrupted()) {
+					state.set(EXPIRED);
+				} else {
+					runner.interrupt();
+					state.set(TIMED_OUT);
+				}
+
+				exceeded.mark();
+
+				if (attempt != null) {
+					attempt.setException(limitExceeded(byDeadline, null));
+				}
+			}
+		}, limitNanos, TimeUnit.NANOSECONDS);
+
+		T retval;
+
+		try {
+			retval = callable.call();
+		} catch (Exception ex) {
+			if (timedOut(expiry, state)) {
+				throw limitExceeded(byDeadline, ex);
+			}
+
+			throw ex;
+		} catch (Error er) {
+			timedOut(expiry, state);
+			throw er;
+		}
+
+		if (timedOut(expiry, state)) {
+			throw limitExceeded(byDeadline, null);
+		}
+
+		return retval;
+	}
+
+	private static RuntimeException limitExceeded(final boolean byDeadline, @Nullable final Exception cause) {
+		if (byDeadline) {
+			return new DeadlineExceededException("Call was still running when its deadline passed.", cause);
+		}
+
+		return new UncheckedTimeoutException("Call exceeded its time limit.", cause);
+	}
+
+	/**
+	 * Ends the time limit on a call that has returned or thrown.
+	 *
+	 * @return Whether the limit had already passed, in which case the timer's interrupt, if it made one, has been
+	 * cleared.  An interrupt that was already pending when the limit passed is left for the caller.
+	 */
+	private static boolean timedOut(final ScheduledFuture<?> expiry, final AtomicInteger state) {
+		expiry.cancel(false);
+
+		if (state.compareAndSet(RUNNING, COMPLETED)) {
+			return false;
+		}
+
+		int expired = state.get();
+
+		while (expired == INTERRUPTING) {
+			Thread.yield();
+			expired = state.get();
+		}
+
+		if (expired == TIMED_OUT) {
+			Thread.interrupted();
+		}
+
+		return true;
+	}
+
 	/**
 	 * Reports the amount of time that it takes to execute a Callable to a Timer object.
 	 *
@@ -79,7 +332,7 @@ public class CallableUtils {
 	public <T> Callable<T> timeExecution(final Callable<T> callable) {
 		checkNotNull(callable);
 
-		final Timer timer = metrics.timer(name(name, "call", "duration"));
+		final Timer timer = callDuration.get();
 
 		return new Callable<T>() {
 
@@ -90,10 +343,60 @@ public class CallableUtils {
 		};
 	}
 
+	/**
+	 * Reports the amount of time each attempt of a Callable takes to a Timer for its attempt number, e.g.,
+	 * attempt.2.duration for the first retry, so that retries can be told apart from first attempts.  The fifth and
+	 * later attempts share attempt.5-plus.duration.
+	 *
+	 * @param callable The Callable to report on, which is called once for each attempt.
+	 *
+	 * @return A Callable that will report the duration of every call to call() by its attempt number.
+	 */
+	public <T> Callable<T> timeAttempts(final Callable<T> callable) {
+		checkNotNull(callable);
+
+		final Timer[] timers = attemptDurations.get();
+		final AtomicInteger attempts = new AtomicInteger(0);
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				int attempt = Math.min(attempts.incrementAndGet(), TIMED_ATTEMPTS);
+
+				return timers[attempt - 1].time(callable);
+			}
+		};
+	}
+
+	/**
+	 * Reports the amount of time that it takes to execute a Callable to a Timer object, for only the calls chosen by a
+	 * sampling strategy.  The timer's count and rates are then those of the calls sampled; meterExecution still counts
+	 * every call.
+	 *
+	 * @param callable The Callable to report on.
+	 * @param sampling Chooses the calls to time.
+	 *
+	 * @return A Callable that will report the duration of the calls sampled.
+	 */
+	public <T> Callable<T> timeExecution(final Callable<T> callable, final SampleStrategy sampling) {
+		checkNotNull(callable);
+		checkNotNull(sampling);
+
+		final Timer timer = callDuration.get();
+
+		return new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				return sampling.sample() ? timer.time(callable) : callable.call();
+			}
+		};
+	}
+
 	public <T> Callable<T> meterExecution(final Callable<T> callable) {
 		checkNotNull(callable);
 
-		final Meter count = metrics.meter(name(name, "call", "count"));
+		final Meter count = callCount.get();
 		return new Callable<T>() {
 			@Override
 			public T call() throws Exception {
@@ -104,17 +407,92 @@ public class CallableUtils {
 		};
 	}
 
+	/**
+	 * Records the time each call takes as a phase of a command, less the time of any phases timed within it.
+	 *
+	 * @param callable The Callable to time.
+	 * @param breakdown The breakdown of the command the callable is part of.
+	 * @param phase The phase the time is recorded as.
+	 *
+	 * @return A Callable that will record the duration of every call to call().
+	 */
+	public <T> Callable<T> timePhase(final Callable<T> callable,
+			final LatencyBreakdown breakdown,
+			final LatencyBreakdown.Phase phase) {
+		checkNotNull(callable);
+		checkNotNull(breakdown);
+		checkNotNull(phase);
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				return breakdown.time(phase, callable);
+			}
+		};
+	}
+
 	/**
 	 * Locks access to a callable based on an external semaphore.
 	 */
 	public <V extends Callable<T>, T> Callable<T> withSemaphore(final V callable, final Semaphore sem) {
+		return withSemaphore(callable, sem, Optional.<LatencyBreakdown>absent());
+	}
+
+	/**
+	 * Locks access to a callable based on an external semaphore, recording the time spent waiting for a permit as the
+	 * permit phase of a breakdown.
+	 */
+	public <V extends Callable<T>, T> Callable<T> withSemaphore(final V callable,
+			final Semaphore sem,
+			final Optional<LatencyBreakdown> breakdown) {
+		return withSemaphore(callable, sem, breakdown, Optional.<CommandLifecycle>absent());
+	}
+
+	/**
+	 * As withSemaphore with a breakdown, but also reports each wait for a permit to the lifecycle's probe.
+	 */
+	public <V extends Callable<T>, T> Callable<T> withSemaphore(final V callable,
+			final Semaphore sem,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
 		checkNotNull(callable);
 		checkNotNull(sem);
+		checkNotNull(breakdown);
+		checkNotNull(lifecycle);
+
+		final Callable<Void> acquire = new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				if (!lifecycle.isPresent()) {
+					sem.acquire();
+
+					return null;
+				}
+
+				CommandProbe.Span span = lifecycle.get().permitRequested();
+				Throwable failure = null;
+
+				try {
+					sem.acquire();
+				} catch (InterruptedException ex) {
+					failure = ex;
+					throw ex;
+				} finally {
+					span.end(failure);
+				}
+
+				return null;
+			}
+		};
 
 		return new Callable<T>() {
 			@Override
 			public T call() throws Exception {
-				sem.acquire();
+				if (breakdown.isPresent()) {
+					breakdown.get().time(LatencyBreakdown.Phase.PERMIT, acquire);
+				} else {
+					acquire.call();
+				}
 
 				try {
 					return callable.call();
@@ -139,14 +517,229 @@ public class CallableUtils {
 	 * @return A callable that will block on the cache returning if other callers are requesting a resource.
 	 */
 	public <T> Callable<T> withBlockingCache(final Callable<T> key, final Callable<T> load, final CacheWrapper cache) {
+		return withBlockingCache(key, load, cache, Optional.<LatencyBreakdown>absent());
+	}
+
+	/**
+	 * As withBlockingCache, but records the time spent in the cache as the cache phase of a breakdown.  When this call
+	 * is the one that loads the value, the load is timed by its own phases, so only the time spent waiting on another
+	 * caller's load is counted.
+	 */
+	public <T> Callable<T> withBlockingCache(final Callable<T> key,
+			final Callable<T> load,
+			final CacheWrapper cache,
+			final Optional<LatencyBreakdown> breakdown) {
+		return withBlockingCache(key, load, cache, breakdown, Optional.<CommandLifecycle>absent());
+	}
+
+	/**
+	 * As withBlockingCache with a breakdown, but also publishes a cache hit for each call that is answered without
+	 * running its own load, whether the value was already cached or another caller loaded it, and reports a miss to
+	 * the lifecycle's probe for each call that runs it.
+	 */
+	public <T> Callable<T> withBlockingCache(final Callable<T> key,
+			final Callable<T> load,
+			final CacheWrapper cache,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
+		checkNotNull(breakdown);
+		checkNotNull(lifecycle);
+
+		Callable<T> lookup;
+
+		if (lifecycle.isPresent()) {
+			lookup = new PublishingLookup<T>(key, load, cache, lifecycle.get());
+		} else {
+			lookup = new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return cache.get(key, load);
+				}
+			};
+		}
+
+		if (!breakdown.isPresent()) {
+			return lookup;
+		}
+
+		return timePhase(lookup, breakdown.get(), LatencyBreakdown.Phase.CACHE);
+	}
+
+	/**
+	 * Credits a budget when the first call of a callable succeeds.  Placed inside retryInThread, this counts only
+	 * attempts that needed no retry, as depositOnSuccess does for the first attempt's future when retries are
+	 * dispatched to the pool.
+	 *
+	 * @param callable The Callable whose first call is watched; a new one should be made for every command.
+	 * @param budget The budget to deposit into.
+	 *
+	 * @return A Callable that deposits into the budget if its first call returns.
+	 */
+	public <T> Callable<T> depositOnFirstSuccess(final Callable<T> callable, final TokenBudget budget) {
+		checkNotNull(callable);
+		checkNotNull(budget);
+
+		final AtomicBoolean called = new AtomicBoolean(false);
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				boolean first = called.compareAndSet(false, true);
+				T value = callable.call();
+
+				if (first) {
+					budget.deposit();
+				}
+
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Records each attempt of a callable in a registry of running attempts for as long as it runs.
+	 *
+	 * @param key The command the callable runs, which names the attempts; a MakrutCommand is known by its command name
+	 * and anything else by the name of this instance.
+	 * @param callable The Callable to record.
+	 * @param registry The registry to record attempts in.
+	 *
+	 * @return A Callable that registers itself on the running thread for the duration of every call.
+	 */
+	public <T> Callable<T> trackInFlight(final Callable<T> key,
+			final Callable<T> callable,
+			final InFlightRegistry registry) {
+		checkNotNull(callable);
+		checkNotNull(registry);
+
+		final String commandName = key instanceof MakrutCommand ? ((MakrutCommand<?>) key).getCommandName() : name;
+		final int argsHash = key.hashCode();
+		final AtomicInteger attempts = new AtomicInteger(0);
+
 		return new Callable<T>() {
 			@Override
 			public T call() throws Exception {
-				return cache.get(key, load);
+				InFlightCall call = registry.register(commandName, argsHash, attempts.incrementAndGet());
+
+				try {
+					return callable.call();
+				} finally {
+					registry.remove(call);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Retries a callable on the thread that runs it, for as long as the strategy allows, rather than resubmitting it
+	 * to a retry pool.  Whatever the callable holds while it runs, such as a semaphore permit or a connection, is held
+	 * across every attempt, and there is no queue handoff between them.  Each retry marks retry.in-thread.
+	 *
+	 * Between attempts the thread sleeps for the backoff, which should be capped, since the thread holds its resources
+	 * throughout.  A retry whose backoff would pass the deadline is not made, and rejections, such as an open circuit
+	 * breaker, are never retried.
+	 *
+	 * @param callable The Callable to retry, which is called once for each attempt.
+	 * @param strategy Decides whether a failed attempt is retried.
+	 * @param backoff Decides how long to wait before each retry, if at all.
+	 * @param ticker The clock to measure the time elapsed since the first attempt by.
+	 * @param deadline The deadline the attempts must complete by, if any.
+	 * @param breakdown The breakdown to record the sleeps in as the backoff phase, if any.
+	 * @param lifecycle Where to publish each retry, if anywhere.
+	 *
+	 * @return A Callable that makes every attempt within a single call.
+	 */
+	public <T> Callable<T> retryInThread(final Callable<T> callable,
+			final RetryStrategy strategy,
+			final Optional<BackoffStrategy> backoff,
+			final Ticker ticker,
+			final Optional<Deadline> deadline,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
+		checkNotNull(callable);
+		checkNotNull(strategy);
+		checkNotNull(ticker);
+
+		final Meter retries = inThreadRetries.get();
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				Stopwatch timer = new Stopwatch(ticker).start();
+				long lastBackoffMillis = 0L;
+
+				for (int attempts = 1;; attempts++) {
+					try {
+						return callable.call();
+					} catch (InterruptedException ex) {
+						throw ex;
+					} catch (CommandRejectedException ex) {
+						throw ex;
+					} catch (Exception ex) {
+						if (backoff.isPresent()) {
+							lastBackoffMillis = backoff.get().nextWaitPeriod(attempts, lastBackoffMillis,
+									TimeUnit.MILLISECONDS);
+						}
+
+						// Before the strategy, as in FutureUtils.addRetry, so a refused retry spends no budget.
+						if (deadline.isPresent() && !deadline.get().allows(lastBackoffMillis, TimeUnit.MILLISECONDS)) {
+							throw ex;
+						}
+
+						if (!strategy.shouldRetry(attempts, timer.elapsed(TimeUnit.MILLISECONDS), ex)) {
+							throw ex;
+						}
+
+						retries.mark();
+						backOff(attempts, lastBackoffMillis, breakdown, lifecycle);
+					}
+				}
 			}
 		};
 	}
 
+	private static void backOff(final int attempts,
+			@Nonnegative final long millis,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) throws Exception {
+		Callable<Void> sleeper = new Callable<Void>() {
+			@Override
+			public Void call() throws InterruptedException {
+				if (millis > 0L) {
+					Thread.sleep(millis);
+				}
+
+				return null;
+			}
+		};
+
+		if (!lifecycle.isPresent()) {
+			sleep(sleeper, breakdown);
+			return;
+		}
+
+		lifecycle.get().retryScheduled(attempts, millis, TimeUnit.MILLISECONDS);
+
+		CommandProbe.Span span = lifecycle.get().backoffStarted(attempts, millis, TimeUnit.MILLISECONDS);
+
+		try {
+			sleep(sleeper, breakdown);
+		} finally {
+			span.end(null);
+		}
+
+		lifecycle.get().retryStarted();
+	}
+
+	private static void sleep(final Callable<Void> sleeper, final Optional<LatencyBreakdown> breakdown)
+			throws Exception {
+		if (breakdown.isPresent()) {
+			breakdown.get().time(LatencyBreakdown.Phase.BACKOFF, sleeper);
+		} else {
+			sleeper.call();
+		}
+	}
+
 	public <T> Callable<T> populateCacheWithResult(final Callable<T> key,
 			final Callable<T> callable,
 			final CacheWrapper cache) {
@@ -162,4 +755,141 @@ public class CallableUtils {
 			}
 		};
 	}
+
+	/**
+	 * Runs a callable only while a circuit breaker permits it, reporting each outcome to the breaker.  A refused call
+	 * throws a CircuitBreakerOpenException without running.  A call that is cancelled, such as a hedged attempt that
+	 * lost, is not reported, since its failure comes from the cancellation rather than from the dependency.
+	 *
+	 * @param callable The Callable to guard.
+	 * @param breaker The breaker guarding the dependency the callable uses.
+	 *
+	 * @return A Callable that consults the breaker on every call.
+	 */
+	public <T> Callable<T> withCircuitBreaker(final Callable<T> callable, final CircuitBreaker breaker) {
+		checkNotNull(callable);
+		checkNotNull(breaker);
+
+		final Meter rejected = shortCircuited.get();
+
+		return new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				if (!breaker.tryAcquirePermission()) {
+					rejected.mark();
+					throw new CircuitBreakerOpenException("Circuit breaker for " + name + " is open.");
+				}
+
+				T retval;
+
+				try {
+					retval = callable.call();
+				} catch (Exception ex) {
+					if (isCancellation(ex)) {
+						breaker.onIgnored();
+					} else {
+						breaker.onFailure(ex);
+					}
+
+					throw ex;
+				} catch (Error er) {
+					breaker.onFailure(new ExecutionException(er));
+					throw er;
+				}
+
+				breaker.onSuccess();
+
+				return retval;
+			}
+		};
+	}
+
+	/**
+	 * Whether a call failed because it was cancelled: it was interrupted, and either says so or left the interrupt set.
+	 */
+	private static boolean isCancellation(final Exception ex) {
+		return ex instanceof InterruptedException || ex instanceof CancellationException
+				|| Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Reports the state of a circuit breaker as gauges: circuit-breaker.state, the ordinal of the breaker's State (0
+	 * closed, 1 half open, 2 open), and circuit-breaker.failure-rate, the failure rate over its current window.  Any
+	 * gauges already registered under those names are replaced.
+	 *
+	 * @param breaker The breaker to report on.
+	 */
+	public void reportCircuitBreaker(final CircuitBreaker breaker) {
+		checkNotNull(breaker);
+
+		replaceGauge(name(name, "circuit-breaker", "state"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return breaker.getState().ordinal();
+			}
+		});
+
+		replaceGauge(name(name, "circuit-breaker", "failure-rate"), new Gauge<Double>() {
+			@Override
+			public Double getValue() {
+				return breaker.getFailureRate();
+			}
+		});
+	}
+
+	private void replaceGauge(final String gaugeName, final Gauge<?> gauge) {
+		metrics.remove(gaugeName);
+		metrics.register(gaugeName, gauge);
+	}
+
+	/**
+	 * A call through the blocking cache that publishes whether it hit.  The cache runs a load on the thread that asked
+	 * for it, so the loader notes its thread, and each call can tell its own load from a value that was already cached
+	 * or that another caller loaded, without wrapping the load anew for every call.
+	 */
+	private static final class PublishingLookup<T> implements Callable<T> {
+		private final AtomicReference<Thread> loading = new AtomicReference<Thread>();
+
+		private final Callable<T> key;
+		private final CacheWrapper cache;
+		private final CommandLifecycle lifecycle;
+		private final Callable<T> missed;
+
+		PublishingLookup(final Callable<T> key,
+				final Callable<T> load,
+				final CacheWrapper cache,
+				final CommandLifecycle lifecycle) {
+			this.key = key;
+			this.cache = cache;
+			this.lifecycle = lifecycle;
+			this.missed = new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					loading.set(Thread.currentThread());
+					lifecycle.cacheMissed();
+
+					return load.call();
+				}
+			};
+		}
+
+		@Override
+		public T call() throws Exception {
+			Thread caller = Thread.currentThread();
+			T value;
+			boolean loaded;
+
+			try {
+				value = cache.get(key, missed);
+			} finally {
+				loaded = loading.compareAndSet(caller, null);
+			}
+
+			if (!loaded) {
+				lifecycle.cacheHit();
+			}
+
+			return value;
+		}
+	}
 }
@@ -0,0 +1,297 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+
+/**
+ * A circuit breaker that stops calls to a failing dependency, giving it time to recover.
+ *
+ * <ul>
+ * <li>While CLOSED, every call is permitted and outcomes are counted over a sliding window. Once the window holds at
+ * least the minimum number of calls and the failure rate reaches the threshold, the breaker opens.</li>
+ * <li>While OPEN, calls are refused until the open period has passed, after which the breaker is HALF_OPEN.</li>
+ * <li>While HALF_OPEN, a limited number of trial calls are permitted. If all of them succeed the breaker closes with
+ * an empty window; any failure opens it again.</li>
+ * </ul>
+ *
+ * The breaker holds no locks: the state, its window and the trial permits are replaced together through a single
+ * compare-and-set, and the window counts are updated with atomic operations.  Build instances with a
+ * CircuitBreakerBuilder.
+ */
+@ThreadSafe
+public class CircuitBreaker {
+
+	/**
+	 * The states of the breaker, in increasing order of restriction.
+	 */
+	public enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final Ticker ticker;
+	private final double failureRateThreshold;
+	private final int minimumCalls;
+	private final int buckets;
+	private final long bucketNanos;
+	private final long openNanos;
+	private final int halfOpenCalls;
+	private final Predicate<Exception> isFailure;
+
+	private final AtomicReference<Status> status;
+
+	CircuitBreaker(final CircuitBreakerBuilder builder) {
+		this.ticker = checkNotNull(builder.getTicker());
+		this.failureRateThreshold = builder.getFailureRateThreshold();
+		this.minimumCalls = builder.getMinimumCalls();
+		this.buckets = builder.getBuckets();
+		this.bucketNanos = builder.getBucketNanos();
+		this.openNanos = builder.getOpenNanos();
+		this.halfOpenCalls = builder.getHalfOpenCalls();
+		this.isFailure = checkNotNull(builder.getFailurePredicate());
+
+		this.status = new AtomicReference<Status>(closed());
+	}
+
+	/**
+	 * The current state of the breaker.  An OPEN breaker whose open period has passed is reported as OPEN until the
+	 * next call attempts to pass through it.
+	 */
+	public State getState() {
+		return status.get().state;
+	}
+
+	/**
+	 * The failure rate, between zero and one, over the current window.  Zero unless the breaker is CLOSED.
+	 */
+	public double getFailureRate() {
+		Status current = status.get();
+
+		if (current.state != State.CLOSED) {
+			return 0.0d;
+		}
+
+		long[] counts = current.window.counts(ticker.read());
+
+		return counts[0] + counts[1] == 0 ? 0.0d : (double) counts[1] / (counts[0] + counts[1]);
+	}
+
+	/**
+	 * Whether a call would currently be permitted, without claiming a trial call if the breaker is HALF_OPEN.  Useful
+	 * for refusing work cheaply before it is queued.
+	 */
+	public boolean isCallPermitted() {
+		Status current = status.get();
+
+		switch (current.state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				return ticker.read() - current.sinceNanos >= openNanos;
+			default:
+				return current.trialPermits.get() > 0;
+		}
+	}
+
+	/**
+	 * Claims permission to make a call.  A caller that is given permission must report the outcome of its call with
+	 * onSuccess or onFailure.
+	 *
+	 * @return Whether the call may proceed.
+	 */
+	public boolean tryAcquirePermission() {
+		while (true) {
+			Status current = status.get();
+
+			switch (current.state) {
+				case CLOSED:
+					return true;
+				case OPEN:
+					long now = ticker.read();
+
+					if (now - current.sinceNanos < openNanos) {
+						return false;
+					}
+
+					status.compareAndSet(current, new Status(State.HALF_OPEN, now, null, halfOpenCalls));
+					break;
+				default:
+					return claim(current.trialPermits);
+			}
+		}
+	}
+
+	/**
+	 * Reports a successful call.
+	 */
+	public void onSuccess() {
+		Status current = status.get();
+
+		if (current.state == State.CLOSED) {
+			current.window.record(ticker.read(), false);
+		} else if (current.state == State.HALF_OPEN && current.trialSuccesses.incrementAndGet() >= halfOpenCalls) {
+			status.compareAndSet(current, closed());
+		}
+	}
+
+	/**
+	 * Reports a call that was given permission but was abandoned, such as by being cancelled, before its outcome said
+	 * anything about the dependency.  The call is not counted, and a trial call it claimed is returned.
+	 */
+	public void onIgnored() {
+		Status current = status.get();
+
+		if (current.state == State.HALF_OPEN) {
+			current.trialPermits.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Reports a failed call.  Exceptions that the breaker was not configured to treat as failures are counted as
+	 * successes, since the dependency did respond.
+	 *
+	 * @param ex The exception thrown by the call.
+	 */
+	public void onFailure(final Exception ex) {
+		if (!isFailure.apply(ex)) {
+			onSuccess();
+			return;
+		}
+
+		Status current = status.get();
+		long now = ticker.read();
+
+		if (current.state == State.CLOSED) {
+			current.window.record(now, true);
+
+			if (shouldTrip(current.window.counts(now))) {
+				status.compareAndSet(current, new Status(State.OPEN, now, null, 0));
+			}
+		} else if (current.state == State.HALF_OPEN) {
+			status.compareAndSet(current, new Status(State.OPEN, now, null, 0));
+		}
+	}
+
+	private boolean shouldTrip(final long[] counts) {
+		long total = counts[0] + counts[1];
+
+		return total >= minimumCalls && counts[1] >= failureRateThreshold * total;
+	}
+
+	private Status closed() {
+		return new Status(State.CLOSED, ticker.read(), new Window(buckets, bucketNanos), 0);
+	}
+
+	private static boolean claim(final AtomicInteger permits) {
+		while (true) {
+			int available = permits.get();
+
+			if (available <= 0) {
+				return false;
+			} else if (permits.compareAndSet(available, available - 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * A state of the breaker together with everything that is only meaningful in that state.
+	 */
+	private static final class Status {
+		private final State state;
+		private final long sinceNanos;
+		private final Window window;
+		private final AtomicInteger trialPermits;
+		private final AtomicInteger trialSuccesses = new AtomicInteger(0);
+
+		Status(final State state, final long sinceNanos, final Window window, @Nonnegative final int trialPermits) {
+			this.state = state;
+			this.sinceNanos = sinceNanos;
+			this.window = window;
+			this.trialPermits = new AtomicInteger(trialPermits);
+		}
+	}
+
+	/**
+	 * Success and failure counts over a ring of time buckets.  Each slot packs the bucket's sequence number into its
+	 * high 32 bits and the count into the low 32 bits, so that a stale bucket is reset and counted in a single
+	 * compare-and-set.
+	 */
+	@ThreadSafe
+	private static final class Window {
+		private static final int SEQUENCE_SHIFT = 32;
+		private static final long COUNT_MASK = 0xFFFFFFFFL;
+
+		private final int buckets;
+		private final long bucketNanos;
+		private final AtomicLongArray successes;
+		private final AtomicLongArray failures;
+
+		Window(final int buckets, final long bucketNanos) {
+			this.buckets = buckets;
+			this.bucketNanos = bucketNanos;
+			this.successes = new AtomicLongArray(buckets);
+			this.failures = new AtomicLongArray(buckets);
+		}
+
+		void record(final long nowNanos, final boolean failure) {
+			AtomicLongArray slots = failure ? failures : successes;
+			long sequence = nowNanos / bucketNanos;
+			int index = index(sequence);
+
+			while (true) {
+				long slot = slots.get(index);
+				int age = (int) sequence - (int) (slot >>> SEQUENCE_SHIFT);
+				long next;
+
+				if (age == 0) {
+					next = slot + 1;
+				} else if (age > 0 || (slot & COUNT_MASK) == 0L) {
+					next = (sequence << SEQUENCE_SHIFT) | 1L;
+				} else {
+					// The bucket has already moved on to a later period than this outcome belongs to.
+					return;
+				}
+
+				if (slots.compareAndSet(index, slot, next)) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return The number of successes and failures, in that order, in the buckets still inside the window.
+		 */
+		long[] counts(final long nowNanos) {
+			int sequence = (int) (nowNanos / bucketNanos);
+
+			return new long[] { sum(successes, sequence), sum(failures, sequence) };
+		}
+
+		private long sum(final AtomicLongArray slots, final int sequence) {
+			long total = 0L;
+
+			for (int i = 0; i < buckets; i++) {
+				long slot = slots.get(i);
+				int age = sequence - (int) (slot >>> SEQUENCE_SHIFT);
+
+				if (age >= 0 && age < buckets) {
+					total += slot & COUNT_MASK;
+				}
+			}
+
+			return total;
+		}
+
+		private int index(final long sequence) {
+			return (int) (((sequence % buckets) + buckets) % buckets);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Ticker;
+
+/**
+ * Builds CircuitBreakers.  By default a breaker opens when at least half of the calls in the last ten seconds have
+ * failed, provided there were at least twenty of them, stays open for five seconds and then lets a single trial call
+ * through.
+ */
+@NotThreadSafe
+public class CircuitBreakerBuilder {
+	private static final double DEFAULT_FAILURE_RATE = 0.5d;
+	private static final int DEFAULT_MINIMUM_CALLS = 20;
+	private static final int DEFAULT_BUCKETS = 10;
+	private static final long DEFAULT_WINDOW_SECONDS = 10L;
+	private static final long DEFAULT_OPEN_SECONDS = 5L;
+
+	private Ticker ticker = Ticker.systemTicker();
+	private double failureRateThreshold = DEFAULT_FAILURE_RATE;
+	private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+	private int buckets = DEFAULT_BUCKETS;
+	private long windowNanos = TimeUnit.SECONDS.toNanos(DEFAULT_WINDOW_SECONDS);
+	private long openNanos = TimeUnit.SECONDS.toNanos(DEFAULT_OPEN_SECONDS);
+	private int halfOpenCalls = 1;
+	private Predicate<Exception> isFailure = Predicates.alwaysTrue();
+
+	public CircuitBreaker build() {
+		return new CircuitBreaker(this);
+	}
+
+	/**
+	 * @param threshold The fraction of failed calls, greater than zero and at most one, at which the breaker opens.
+	 */
+	public CircuitBreakerBuilder withFailureRateThreshold(final double threshold) {
+		checkArgument(threshold > 0.0d && threshold <= 1.0d, "Failure rate threshold must be in (0, 1].");
+
+		this.failureRateThreshold = threshold;
+
+		return this;
+	}
+
+	/**
+	 * @param calls The number of calls the window must hold before the failure rate is considered.
+	 */
+	public CircuitBreakerBuilder withMinimumCalls(@Nonnegative final int calls) {
+		checkArgument(calls > 0, "Minimum calls must be greater than zero.");
+
+		this.minimumCalls = calls;
+
+		return this;
+	}
+
+	/**
+	 * @param length The length of the sliding window over which failures are counted.
+	 * @param unit The unit for the length.
+	 * @param bucketCount The number of buckets the window is divided into; the window slides one bucket at a time.
+	 */
+	public CircuitBreakerBuilder withWindow(@Nonnegative final long length, final TimeUnit unit,
+			@Nonnegative final int bucketCount) {
+		checkArgument(length > 0, "Window length must be greater than zero.");
+		checkArgument(bucketCount > 0, "Window must have at least one bucket.");
+
+		this.windowNanos = unit.toNanos(length);
+		this.buckets = bucketCount;
+
+		return this;
+	}
+
+	/**
+	 * @param duration How long the breaker stays open before permitting trial calls.
+	 * @param unit The unit for the duration.
+	 */
+	public CircuitBreakerBuilder withOpenDuration(@Nonnegative final long duration, final TimeUnit unit) {
+		checkArgument(duration > 0, "Open duration must be greater than zero.");
+
+		this.openNanos = unit.toNanos(duration);
+
+		return this;
+	}
+
+	/**
+	 * @param calls The number of trial calls permitted, and required to succeed, while half open.
+	 */
+	public CircuitBreakerBuilder withHalfOpenCalls(@Nonnegative final int calls) {
+		checkArgument(calls > 0, "Half open calls must be greater than zero.");
+
+		this.halfOpenCalls = calls;
+
+		return this;
+	}
+
+	/**
+	 * @param predicate Decides which exceptions count as failures of the dependency.  Others count as successes.
+	 */
+	public CircuitBreakerBuilder withFailurePredicate(final Predicate<Exception> predicate) {
+		this.isFailure = checkNotNull(predicate);
+
+		return this;
+	}
+
+	public CircuitBreakerBuilder withTicker(final Ticker value) {
+		this.ticker = checkNotNull(value);
+
+		return this;
+	}
+
+	Ticker getTicker() {
+		return ticker;
+	}
+
+	double getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	int getBuckets() {
+		return buckets;
+	}
+
+	long getBucketNanos() {
+		return Math.max(1L, windowNanos / buckets);
+	}
+
+	long getOpenNanos() {
+		return openNanos;
+	}
+
+	int getHalfOpenCalls() {
+		return halfOpenCalls;
+	}
+
+	Predicate<Exception> getFailurePredicate() {
+		return isFailure;
+	}
+}
@@ -0,0 +1,12 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command while its circuit breaker is open.
+ */
+public class CircuitBreakerOpenException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public CircuitBreakerOpenException(final String message) {
+		super(message);
+	}
+}
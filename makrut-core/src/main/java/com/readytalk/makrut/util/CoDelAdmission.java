@@ -0,0 +1,175 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Sheds commands at submission while an executor's queue is overloaded, in the manner of CoDel.
+ *
+ * The time each command spends queued, from dispatch until a thread starts it, is its sojourn time.  A queue that
+ * is merely absorbing a burst empties now and then, so some command in every interval starts quickly; one that has a
+ * standing backlog does not.  So at the end of each interval the queue is judged overloaded if even the shortest
+ * sojourn time in it was above the target, or if nothing started at all while commands were waiting.  For as long
+ * as it is judged overloaded, new commands that would have to wait behind others fail at once with a
+ * QueueOverloadedException, which keeps the backlog, and so latency, bounded rather than letting it grow without
+ * limit.
+ */
+@ThreadSafe
+public class CoDelAdmission {
+
+	private final long targetNanos;
+	private final long intervalNanos;
+	private final Ticker ticker;
+
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private final AtomicLong minSojourn = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong intervalEnd;
+
+	private volatile boolean overloaded = false;
+
+	/**
+	 * @param target The longest that commands should have to wait in the queue once any burst has cleared, e.g., 5
+	 * milliseconds.
+	 * @param interval How long sojourn times must stay above the target before commands are shed, and how often the
+	 * decision is revisited, e.g., 100 milliseconds.
+	 * @param unit The unit of the target and interval.
+	 */
+	public CoDelAdmission(@Nonnegative final long target, @Nonnegative final long interval, final TimeUnit unit) {
+		this(target, interval, unit, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param target The longest that commands should have to wait in the queue once any burst has cleared.
+	 * @param interval How long sojourn times must stay above the target before commands are shed.
+	 * @param unit The unit of the target and interval.
+	 * @param ticker The clock to measure sojourn times with.
+	 */
+	public CoDelAdmission(@Nonnegative final long target,
+			@Nonnegative final long interval,
+			final TimeUnit unit,
+			final Ticker ticker) {
+		checkArgument(target > 0L, "Target must be greater than zero.");
+		checkArgument(interval >= target, "Interval must not be shorter than the target.");
+
+		this.targetNanos = checkNotNull(unit).toNanos(target);
+		this.intervalNanos = unit.toNanos(interval);
+		this.ticker = checkNotNull(ticker);
+		this.intervalEnd = new AtomicLong(ticker.read() + intervalNanos);
+	}
+
+	/**
+	 * Whether the queue was overloaded as of the end of the last interval.
+	 */
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * The number of admitted commands that have not yet started.
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * Dispatches a command to the next dispatcher unless the queue is overloaded.
+	 *
+	 * @param next The dispatcher that places commands on the queue, normally the executor itself.
+	 * @param command The command to run.
+	 *
+	 * @return A future for the result of the command, failed with a QueueOverloadedException if it was shed.
+	 */
+	public <T> ListenableFuture<T> submit(final Dispatcher next, final Callable<T> command) {
+		checkNotNull(next);
+		checkNotNull(command);
+
+		final long enqueued = ticker.read();
+
+		evaluate(enqueued);
+
+		if (overloaded && queued.get() > 0) {
+			return Futures.immediateFailedFuture(new QueueOverloadedException("Executor queue is overloaded."));
+		}
+
+		final AtomicBoolean started = new AtomicBoolean(false);
+
+		queued.incrementAndGet();
+
+		final ListenableFuture<T> future;
+
+		try {
+			future = next.dispatch(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					if (started.compareAndSet(false, true)) {
+						queued.decrementAndGet();
+						record(enqueued);
+					}
+
+					return command.call();
+				}
+			});
+		} catch (RuntimeException ex) {
+			if (started.compareAndSet(false, true)) {
+				queued.decrementAndGet();
+			}
+
+			throw ex;
+		}
+
+		// Commands that are cancelled or rejected by the executor never start.
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (started.compareAndSet(false, true)) {
+					queued.decrementAndGet();
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		return future;
+	}
+
+	private void record(final long enqueued) {
+		long now = ticker.read();
+		long sojourn = now - enqueued;
+
+		while (true) {
+			long current = minSojourn.get();
+
+			if (sojourn >= current || minSojourn.compareAndSet(current, sojourn)) {
+				break;
+			}
+		}
+
+		evaluate(now);
+	}
+
+	/**
+	 * Ends the interval if it is over, judging whether the queue was overloaded during it.
+	 */
+	private void evaluate(final long now) {
+		long end = intervalEnd.get();
+
+		if (now - end < 0L || !intervalEnd.compareAndSet(end, now + intervalNanos)) {
+			return;
+		}
+
+		long min = minSojourn.getAndSet(Long.MAX_VALUE);
+
+		overloaded = min == Long.MAX_VALUE ? queued.get() > 0 : min > targetNanos;
+	}
+}
@@ -0,0 +1,239 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.readytalk.makrut.util.LifecycleEvent.Type;
+
+/**
+ * Publishes the lifecycle events of one submitted command to a LifecycleEvents buffer, a CommandProbe, a trace, or
+ * any of them.  The stages that already handle the command publish its events themselves, so recording them adds no
+ * stage of its own.
+ *
+ * The trace is a span for the whole command.  Each attempt, retry and fallback is a child span of it, and each attempt
+ * is entered on the thread that runs it, whichever pool that is, so that work done by the command joins the trace.
+ */
+@ThreadSafe
+public final class CommandLifecycle {
+
+	private static final CommandProbe.Span NO_SPAN = new CommandProbe.Span() {
+		@Override
+		public void end(@Nullable final Throwable failure) {
+		}
+	};
+
+	private final Optional<LifecycleEvents> events;
+	private final Optional<CommandProbe> probe;
+	private final Optional<TraceSpan> trace;
+	private final AtomicReference<TraceSpan> pendingRetry = new AtomicReference<TraceSpan>();
+	private final String commandName;
+	private final Callable<?> command;
+
+	/**
+	 * @param events The buffer to publish to.
+	 * @param commandName The name the command's metrics are reported under.
+	 * @param command The command as it was submitted.
+	 */
+	public CommandLifecycle(final LifecycleEvents events, final String commandName, final Callable<?> command) {
+		this(Optional.of(events), Optional.<CommandProbe>absent(), commandName, command);
+	}
+
+	/**
+	 * @param events The buffer to publish to, if any.
+	 * @param probe The probe to report each stage to as it happens, if any.
+	 * @param commandName The name the command's metrics are reported under.
+	 * @param command The command as it was submitted.
+	 */
+	public CommandLifecycle(final Optional<LifecycleEvents> events,
+			final Optional<CommandProbe> probe,
+			final String commandName,
+			final Callable<?> command) {
+		this(events, probe, Optional.<TraceSpan>absent(), commandName, command);
+	}
+
+	/**
+	 * @param events The buffer to publish to, if any.
+	 * @param probe The probe to report each stage to as it happens, if any.
+	 * @param trace The span for the command, if it is traced, which is ended when the command completes.
+	 * @param commandName The name the command's metrics are reported under.
+	 * @param command The command as it was submitted.
+	 */
+	public CommandLifecycle(final Optional<LifecycleEvents> events,
+			final Optional<CommandProbe> probe,
+			final Optional<TraceSpan> trace,
+			final String commandName,
+			final Callable<?> command) {
+		checkArgument(events.isPresent() || probe.isPresent() || trace.isPresent(),
+				"A lifecycle needs a buffer, a probe or a trace.");
+
+		this.events = events;
+		this.probe = probe;
+		this.trace = trace;
+		this.commandName = checkNotNull(commandName);
+		this.command = checkNotNull(command);
+	}
+
+	public void submitted() {
+		publish(Type.SUBMITTED, 0, 0L, null);
+	}
+
+	/**
+	 * @return The span of the attempt, which is to be ended on the same thread when it returns or throws.
+	 */
+	public CommandProbe.Span attemptStarted(final int attempt) {
+		publish(Type.ATTEMPT_STARTED, attempt, 0L, null);
+
+		CommandProbe.Span span = probe.isPresent() ? probe.get().attempt(commandName, attempt) : NO_SPAN;
+
+		if (!trace.isPresent()) {
+			return span;
+		}
+
+		retryStarted();
+
+		TraceSpan traced = trace.get().child("attempt").tag("attempt", attempt);
+
+		return new EnteredSpan(span, traced, traced.enter());
+	}
+
+	public void attemptFailed(final int attempt, final Throwable failure) {
+		publish(Type.ATTEMPT_FAILED, attempt, 0L, failure);
+
+		if (probe.isPresent()
+				&& (failure instanceof UncheckedTimeoutException || failure instanceof DeadlineExceededException)) {
+			probe.get().timedOut(commandName, attempt, failure);
+		}
+	}
+
+	/**
+	 * @return The span of the wait for a permit, which is to be ended once one is acquired.
+	 */
+	public CommandProbe.Span permitRequested() {
+		return probe.isPresent() ? probe.get().permitWait(commandName) : NO_SPAN;
+	}
+
+	/**
+	 * When the command is traced, starts a retry span that lasts until the retry starts running.
+	 */
+	public void retryScheduled(final int attempts, final long delay, final TimeUnit unit) {
+		publish(Type.RETRY_SCHEDULED, attempts, unit.toNanos(delay), null);
+
+		if (probe.isPresent()) {
+			probe.get().retryScheduled(commandName, attempts, unit.toNanos(delay));
+		}
+
+		if (trace.isPresent()) {
+			TraceSpan retry = trace.get().child("retry").tag("attempts", attempts).tag("backoff-ms",
+					unit.toMillis(delay));
+
+			TraceSpan previous = pendingRetry.getAndSet(retry);
+
+			if (previous != null) {
+				previous.end();
+			}
+		}
+	}
+
+	/**
+	 * @return The span of the backoff, which is to be ended when the retry runs.
+	 */
+	public CommandProbe.Span backoffStarted(final int attempts, final long delay, final TimeUnit unit) {
+		return probe.isPresent() ? probe.get().backoff(commandName, attempts, unit.toNanos(delay)) : NO_SPAN;
+	}
+
+	/**
+	 * A retry that was scheduled has started, which ends its span.  Attempts that start call this themselves.
+	 */
+	public void retryStarted() {
+		endRetry(null);
+	}
+
+	public void fallbackUsed(final int attempts, final Throwable failure) {
+		publish(Type.FALLBACK_USED, attempts, 0L, failure);
+
+		if (trace.isPresent()) {
+			trace.get().child("fallback").tag("attempts", attempts).tag("replaced", failure.getClass().getName()).end();
+		}
+	}
+
+	public void cacheHit() {
+		publish(Type.CACHE_HIT, 0, 0L, null);
+
+		if (trace.isPresent()) {
+			trace.get().tag("cache-hit", true);
+		}
+
+		if (probe.isPresent()) {
+			probe.get().cacheHit(commandName);
+		}
+	}
+
+	/**
+	 * Only reported to the probe; the buffer sees a miss as the attempt that loads the value.
+	 */
+	public void cacheMissed() {
+		if (probe.isPresent()) {
+			probe.get().cacheMiss(commandName);
+		}
+	}
+
+	public void completed(final int attempts, @Nullable final Throwable failure) {
+		publish(Type.COMPLETED, attempts, 0L, failure);
+
+		if (trace.isPresent()) {
+			endRetry(failure);
+			trace.get().tag("attempts", attempts).end(failure);
+		}
+	}
+
+	/**
+	 * The span for the command, if it is traced.
+	 */
+	public Optional<TraceSpan> getTrace() {
+		return trace;
+	}
+
+	private void endRetry(@Nullable final Throwable failure) {
+		TraceSpan retry = pendingRetry.getAndSet(null);
+
+		if (retry != null) {
+			retry.end(failure);
+		}
+	}
+
+	private void publish(final Type type, final int attempt, final long delayNanos, @Nullable final Throwable failure) {
+		if (events.isPresent()) {
+			events.get().publish(type, commandName, command, attempt, delayNanos, failure);
+		}
+	}
+
+	/**
+	 * An attempt reported to both the probe and the trace, with the trace's span entered on the attempt's thread.
+	 */
+	private static final class EnteredSpan implements CommandProbe.Span {
+		private final CommandProbe.Span probed;
+		private final TraceSpan traced;
+		private final TraceSpan.Scope scope;
+
+		private EnteredSpan(final CommandProbe.Span probed, final TraceSpan traced, final TraceSpan.Scope scope) {
+			this.probed = probed;
+			this.traced = traced;
+			this.scope = scope;
+		}
+
+		@Override
+		public void end(@Nullable final Throwable failure) {
+			scope.close();
+			traced.end(failure);
+			probed.end(failure);
+		}
+	}
+}
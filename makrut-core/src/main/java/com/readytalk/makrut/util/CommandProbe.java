@@ -0,0 +1,69 @@
+package com.readytalk.makrut.util;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+
+/**
+ * Observes the stages of commands as they happen, on the threads that run them.  Unlike a LifecycleListener, a probe
+ * is called synchronously, so it sees each stage begin and end on the thread doing the work and can time it there, as
+ * profilers and flight recorders need to.  It therefore adds its own cost to every command, and implementations must
+ * be cheap and must not block or throw.
+ */
+public interface CommandProbe {
+
+	/**
+	 * A stage of a command that takes time, from when it began until end is called.
+	 */
+	interface Span {
+		/**
+		 * @param failure The exception the stage ended with, if any.
+		 */
+		void end(@Nullable Throwable failure);
+	}
+
+	/**
+	 * An attempt of the command is starting on the calling thread.
+	 *
+	 * @param attempt The attempt, starting at one.
+	 */
+	Span attempt(String commandName, @Nonnegative int attempt);
+
+	/**
+	 * The command is waiting on the calling thread for a permit from its semaphore.
+	 */
+	Span permitWait(String commandName);
+
+	/**
+	 * The command is waiting out the backoff before a retry.  The span ends on the thread that runs the retry.
+	 *
+	 * @param attempts The number of attempts made so far.
+	 * @param delayNanos The backoff.
+	 */
+	Span backoff(String commandName, @Nonnegative int attempts, @Nonnegative long delayNanos);
+
+	/**
+	 * A retry of the command was scheduled.
+	 *
+	 * @param attempts The number of attempts made so far.
+	 * @param delayNanos The backoff before the retry, or zero.
+	 */
+	void retryScheduled(String commandName, @Nonnegative int attempts, @Nonnegative long delayNanos);
+
+	/**
+	 * An attempt of the command failed for running past its time limit or deadline.
+	 *
+	 * @param attempt The attempt, starting at one.
+	 * @param failure The UncheckedTimeoutException or DeadlineExceededException the attempt failed with.
+	 */
+	void timedOut(String commandName, @Nonnegative int attempt, Throwable failure);
+
+	/**
+	 * The blocking cache answered the command without running it.
+	 */
+	void cacheHit(String commandName);
+
+	/**
+	 * The blocking cache had no value for the command, so this call loads it.
+	 */
+	void cacheMiss(String commandName);
+}
@@ -0,0 +1,17 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command when a protective stage refuses to run it, such as an open circuit breaker.
+ * The command itself was never attempted, so these failures are not retried, but they are eligible for any fallback.
+ */
+public class CommandRejectedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public CommandRejectedException(final String message) {
+		super(message);
+	}
+
+	public CommandRejectedException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,12 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command when an adaptive concurrency limit has already been reached.
+ */
+public class ConcurrencyLimitExceededException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public ConcurrencyLimitExceededException(final String message) {
+		super(message);
+	}
+}
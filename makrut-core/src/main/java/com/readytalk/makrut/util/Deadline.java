@@ -0,0 +1,55 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * The point in time after which the caller of a command is no longer waiting for its result.  A deadline covers
+ * every attempt of the command, including the time spent waiting in queues and backing off between retries.
+ */
+@Immutable
+public final class Deadline {
+
+	private final long expiresAtNanos;
+	private final Ticker ticker;
+
+	private Deadline(final long expiresAtNanos, final Ticker ticker) {
+		this.expiresAtNanos = expiresAtNanos;
+		this.ticker = ticker;
+	}
+
+	/**
+	 * @param budget How long from now the deadline falls.
+	 * @param unit The unit of the budget.
+	 * @param ticker The clock the deadline is measured by.
+	 *
+	 * @return A deadline that falls after the given budget.
+	 */
+	public static Deadline after(@Nonnegative final long budget, final TimeUnit unit, final Ticker ticker) {
+		return new Deadline(ticker.read() + checkNotNull(unit).toNanos(budget), ticker);
+	}
+
+	/**
+	 * The time left before the deadline passes, or zero once it has.
+	 */
+	@Nonnegative
+	public long timeRemaining(final TimeUnit unit) {
+		return unit.convert(Math.max(0L, expiresAtNanos - ticker.read()), TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isExpired() {
+		return expiresAtNanos - ticker.read() <= 0L;
+	}
+
+	/**
+	 * Whether work deferred by the given delay would still start before the deadline passes.
+	 */
+	public boolean allows(@Nonnegative final long delay, final TimeUnit unit) {
+		return expiresAtNanos - ticker.read() - unit.toNanos(delay) > 0L;
+	}
+}
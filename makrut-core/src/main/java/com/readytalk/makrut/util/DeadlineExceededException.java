@@ -0,0 +1,17 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command, or in place of the result of an attempt that was cut short, once the
+ * command's deadline has passed.  The caller has stopped waiting, so these failures are not retried.
+ */
+public class DeadlineExceededException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public DeadlineExceededException(final String message) {
+		super(message);
+	}
+
+	public DeadlineExceededException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+}
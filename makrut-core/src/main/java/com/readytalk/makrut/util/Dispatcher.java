@@ -0,0 +1,22 @@
+package com.readytalk.makrut.util;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Places a command onto an executor.  Dispatchers can be layered, with each layer deciding when, or whether, a
+ * command reaches the next one.
+ */
+@ThreadSafe
+public interface Dispatcher {
+	/**
+	 * Dispatches the given command.
+	 *
+	 * @param command The command to run.
+	 *
+	 * @return A ListenableFuture for the result of the command, or for the reason it was not run.
+	 */
+	<T> ListenableFuture<T> dispatch(Callable<T> command);
+}
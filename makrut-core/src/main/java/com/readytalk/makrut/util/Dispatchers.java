@@ -0,0 +1,34 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Callable;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Common dispatchers.
+ */
+public final class Dispatchers {
+
+	private Dispatchers() {
+
+	}
+
+	/**
+	 * Submits every command directly to an executor.
+	 *
+	 * @param service The executor to submit to.
+	 */
+	public static Dispatcher forExecutor(final ListeningExecutorService service) {
+		checkNotNull(service);
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				return service.submit(command);
+			}
+		};
+	}
+}
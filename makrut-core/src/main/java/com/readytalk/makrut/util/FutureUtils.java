@@ -5,31 +5,213 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import javax.annotation.concurrent.Immutable;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
+import com.readytalk.makrut.command.PhaseTimed;
 import com.readytalk.makrut.strategy.BackoffStrategy;
+import com.readytalk.makrut.strategy.HedgeStrategy;
 import com.readytalk.makrut.strategy.RetryStrategy;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
- * Utilities for handling a ListenableFuture's failures.
+ * Utilities for handling a ListenableFuture's failures.  As with CallableUtils, metrics are looked up once and reused.
  */
 @Immutable
 public class FutureUtils {
+	private static final int HEDGE_DELAY_REFRESH = 100;
 
 	private final MetricRegistry metrics;
 	private final String name;
 
+	private final ConcurrentMap<Class<?>, Meter> failures = new ConcurrentHashMap<Class<?>, Meter>();
+
+	private final Supplier<Timer> endToEnd = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "end-to-end"));
+		}
+	});
+
+	private final Supplier<Histogram> attempts = Suppliers.memoize(new Supplier<Histogram>() {
+		@Override
+		public Histogram get() {
+			return metrics.histogram(name(name, "attempts"));
+		}
+	});
+
+	private final Supplier<Timer[]> phases = Suppliers.memoize(new Supplier<Timer[]>() {
+		@Override
+		public Timer[] get() {
+			LatencyBreakdown.Phase[] values = LatencyBreakdown.Phase.values();
+			Timer[] timers = new Timer[values.length];
+
+			for (LatencyBreakdown.Phase phase : values) {
+				timers[phase.ordinal()] = metrics.timer(name(name, "phase", phase.getMetricName()));
+			}
+
+			return timers;
+		}
+	});
+
+	private final Supplier<Meter> retryRate = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "retry", "rate"));
+		}
+	});
+
+	private final Supplier<Meter> retryBudgetExhausted = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "retry", "budget-exhausted"));
+		}
+	});
+
+	private final Supplier<Meter> retryDeadlineExceeded = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "retry", "deadline-exceeded"));
+		}
+	});
+
+	private final Supplier<Meter> fallbackHits = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "fallback", "cache", "hit", "rate"));
+		}
+	});
+
+	private final Supplier<Meter> shortCircuited = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "circuit-breaker", "short-circuited"));
+		}
+	});
+
+	private final Supplier<Meter> fallbackMisses = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "fallback", "cache", "miss", "rate"));
+		}
+	});
+
+	private final Supplier<Meter> bulkheadRejected = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "bulkhead", "rejected"));
+		}
+	});
+
+	private final Supplier<Meter> bulkheadTimeouts = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "bulkhead", "queue-timeout"));
+		}
+	});
+
+	private final Supplier<Timer> bulkheadWait = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "bulkhead", "wait"));
+		}
+	});
+
+	private final Supplier<Meter> rateLimited = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "rate-limit", "rejected"));
+		}
+	});
+
+	private final Supplier<Timer> rateLimitWait = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "rate-limit", "wait"));
+		}
+	});
+
+	private final Supplier<Meter> admissionShed = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "admission", "shed"));
+		}
+	});
+
+	private final Supplier<Timer> queueWait = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "queue", "wait"));
+		}
+	});
+
+	private final Supplier<Timer> priorityWait = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "priority", "wait"));
+		}
+	});
+
+	private final Supplier<Meter> limitExceeded = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "adaptive-limit", "rejected"));
+		}
+	});
+
+	private final Supplier<Timer> hedgeLatency = Suppliers.memoize(new Supplier<Timer>() {
+		@Override
+		public Timer get() {
+			return metrics.timer(name(name, "hedge", "latency"));
+		}
+	});
+
+	private final Supplier<Meter> hedgesSent = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "hedge", "sent"));
+		}
+	});
+
+	private final Supplier<Meter> hedgesWon = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "hedge", "won"));
+		}
+	});
+
+	private final Supplier<Meter> hedgeBudgetExhausted = Suppliers.memoize(new Supplier<Meter>() {
+		@Override
+		public Meter get() {
+			return metrics.meter(name(name, "hedge", "budget-exhausted"));
+		}
+	});
+
 	@AssistedInject
 	public FutureUtils(final MetricRegistry metrics, @Assisted final String name) {
 		this.metrics = metrics;
@@ -41,7 +223,9 @@ public class FutureUtils {
 	 * Makes a ListenableFuture retryable, delegating to a given command and placing it on an executor.
 	 *
 	 * It should be noted that this does not block the original thread and does not hold a resource if a backoff is
-	 * being used.
+	 * being used.  Commands that were rejected without running, such as by an open circuit breaker, are not retried.
+	 * Nor are commands whose deadline would pass before the retry started, once its backoff is taken into account;
+	 * these fail with their last exception and mark retry.deadline-exceeded.
 	 *
 	 * @param service The Executor to run the fallback on.  It is recommended that this be a limited pool of
 	 * some
@@ -57,11 +241,59 @@ public class FutureUtils {
 			final Optional<BackoffStrategy> backoffStrategy,
 			final ListenableFuture<T> future,
 			final MakrutCommandWrapper<T> command) {
+		return addRetry(service, Schedulers.forExecutor(service), Optional.<Dispatcher>absent(), retryStrategy,
+				backoffStrategy, future, command);
+	}
 
+	/**
+	 * As addRetry, but hands each retry to a dispatcher instead of submitting it to the executor, so that retries
+	 * pass through the same dispatch stages, such as a bulkhead, as the first attempt.  Backoff delays are still
+	 * scheduled on the executor.
+	 *
+	 * @param service The executor to schedule backoff delays on.
+	 * @param dispatcher The dispatcher to hand retries to, normally one that places them on the same executor.
+	 * @param retryStrategy The strategy that will indicate rather a retry should be attempted.
+	 * @param backoffStrategy How much to defer attempts to retry.
+	 * @param future The Future to trigger a retry off of if it fails.
+	 * @param command The command to run if the future fails.
+	 */
+	public <T> ListenableFuture<T> addRetry(final ListeningScheduledExecutorService service,
+			final Dispatcher dispatcher,
+			final RetryStrategy retryStrategy,
+			final Optional<BackoffStrategy> backoffStrategy,
+			final ListenableFuture<T> future,
+			final MakrutCommandWrapper<T> command) {
+		return addRetry(service, Schedulers.forExecutor(service), Optional.of(dispatcher), retryStrategy,
+				backoffStrategy, future, command);
+	}
+
+	/**
+	 * As addRetry, but defers retries that are backing off on a scheduler instead of the executor, such as a
+	 * HashedWheelTimer that can hold many more of them cheaply.
+	 *
+	 * @param service The executor to run retries on when there is no dispatcher.
+	 * @param scheduler The scheduler to defer retries on while they back off.  The tasks it runs are retries when
+	 * there is no dispatcher, so it should run them on an executor rather than on its own thread.
+	 * @param dispatcher The dispatcher to hand retries to, if any.
+	 * @param retryStrategy The strategy that will indicate rather a retry should be attempted.
+	 * @param backoffStrategy How much to defer attempts to retry.
+	 * @param future The Future to trigger a retry off of if it fails.
+	 * @param command The command to run if the future fails.
+	 */
+	public <T> ListenableFuture<T> addRetry(final ListeningScheduledExecutorService service,
+			final Scheduler scheduler,
+			final Optional<Dispatcher> dispatcher,
+			final RetryStrategy retryStrategy,
+			final Optional<BackoffStrategy> backoffStrategy,
+			final ListenableFuture<T> future,
+			final MakrutCommandWrapper<T> command) {
+
+		checkNotNull(scheduler);
 		checkNotNull(future);
 		checkNotNull(command);
 
-		final Meter retryRate = metrics.meter(name(name, "retry", "rate"));
+		final Meter retries = retryRate.get();
+		final Meter pastDeadline = retryDeadlineExceeded.get();
 
 		return Futures.withFallback(future, new FutureFallback<T>() {
 
@@ -78,28 +310,225 @@ public class FutureUtils {
 					ex = new Exception(t);
 				}
 
-				retryRate.mark();
+				if (ex instanceof CommandRejectedException) {
+					throw ex;
+				}
 
-				if (retryStrategy.shouldRetry(command.callCount(), command.timeElapsed(TimeUnit.MILLISECONDS), ex)) {
-					return addRetry(service, retryStrategy, backoffStrategy,
-							submit(service, backoffStrategy, command), command);
-				} else {
+				retries.mark();
+
+				Optional<Long> backoffMillis = Optional.absent();
+
+				if (backoffStrategy.isPresent()) {
+					backoffMillis = Optional.of(command.getAndSetNextBackoff(backoffStrategy.get()));
+				}
+
+				// Checked before the strategy, which may spend a token of a retry budget on the retry.
+				if (command.getDeadline().isPresent()
+						&& !command.getDeadline().get().allows(backoffMillis.or(0L), TimeUnit.MILLISECONDS)) {
+					pastDeadline.mark();
+					throw ex;
+				}
+
+				if (!retryStrategy.shouldRetry(command.callCount(), command.timeElapsed(TimeUnit.MILLISECONDS), ex)) {
 					throw ex;
 				}
+
+				if (command.getBreakdown().isPresent()) {
+					command.getBreakdown().get().mark();
+				}
+
+				if (command.getLifecycle().isPresent()) {
+					command.getLifecycle().get().retryScheduled(command.callCount(), backoffMillis.or(0L),
+							TimeUnit.MILLISECONDS);
+				}
+
+				return addRetry(service, scheduler, dispatcher, retryStrategy, backoffStrategy,
+						submit(service, scheduler, dispatcher, backoffMillis, command), command);
 			}
 		}, service);
 
 	}
 
+	/**
+	 * Limits retries to a budget, so that a failing dependency is not also hit by a retry of every call made to it.
+	 * Once the strategy allows a retry, a token must also be withdrawn from the budget; when there is none, the retry
+	 * is refused, the call fails with its last exception, and retry.budget-exhausted is marked.  The retry stages ask
+	 * for a retry only once the deadline, if any, allows it, so a retry the deadline refuses spends no token.
+	 *
+	 * @param strategy The strategy that decides whether a retry is warranted.
+	 * @param budget The budget retries are drawn from.  It should be credited with depositOnSuccess.
+	 *
+	 * @return A strategy that only allows retries the budget can pay for.
+	 */
+	public RetryStrategy withRetryBudget(final RetryStrategy strategy, final TokenBudget budget) {
+		checkNotNull(strategy);
+		checkNotNull(budget);
+
+		final Meter exhausted = retryBudgetExhausted.get();
+
+		return new RetryStrategy() {
+			@Override
+			public boolean shouldRetry(final int lastExecutionCount, final long timeSinceStartMillis,
+					final Exception ex) {
+				if (!strategy.shouldRetry(lastExecutionCount, timeSinceStartMillis, ex)) {
+					return false;
+				} else if (!budget.tryWithdraw()) {
+					exhausted.mark();
+					return false;
+				}
+
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Credits a budget once a future succeeds.
+	 *
+	 * @param future The future, normally a command's first attempt.
+	 * @param budget The budget to deposit into.
+	 */
+	public <T> void depositOnSuccess(final ListenableFuture<T> future, final TokenBudget budget) {
+		checkNotNull(future);
+		checkNotNull(budget);
+
+		Futures.addCallback(future, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(final T result) {
+				budget.deposit();
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+			}
+		});
+	}
+
+	/**
+	 * Records the outcome the caller sees once a command's future completes, across every attempt and backoff: the
+	 * time from submission to completion, as end-to-end; for successes, the number of attempts it took, as the
+	 * histogram attempts; and for failures, a meter named for the class of the exception, e.g.,
+	 * failure.UncheckedTimeoutException.
+	 *
+	 * @param future The future the caller is given.
+	 * @param command The command the future is for.
+	 * @param ticker The clock the submission time was read from.
+	 * @param submittedNanos When the command was submitted, as read from the ticker.
+	 */
+	public <T> void recordOutcome(final ListenableFuture<T> future,
+			final MakrutCommandWrapper<T> command,
+			final Ticker ticker,
+			final long submittedNanos) {
+		checkNotNull(future);
+		checkNotNull(command);
+		checkNotNull(ticker);
+
+		final Timer latency = endToEnd.get();
+		final Histogram attemptCount = attempts.get();
+
+		Futures.addCallback(future, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(final T result) {
+				latency.update(ticker.read() - submittedNanos, TimeUnit.NANOSECONDS);
+				attemptCount.update(command.callCount());
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				latency.update(ticker.read() - submittedNanos, TimeUnit.NANOSECONDS);
+				failureMeter(t.getClass()).mark();
+			}
+		});
+	}
+
+	/**
+	 * Records where a command's time went once its future completes, updating a timer for each phase the command
+	 * went through, e.g., phase.queue and phase.execution, with the total time of the phase across every attempt.
+	 * Phases the command did not go through, such as backoff for a command that was not retried, are left out.  A
+	 * command that is PhaseTimed is then given the breakdown itself.
+	 *
+	 * @param future The future the caller is given.
+	 * @param input The command as it was submitted.
+	 * @param breakdown The breakdown the command's phases were recorded in.
+	 */
+	public <T> void recordPhases(final ListenableFuture<T> future,
+			final Callable<T> input,
+			final LatencyBreakdown breakdown) {
+		checkNotNull(future);
+		checkNotNull(input);
+		checkNotNull(breakdown);
+
+		final Timer[] timers = phases.get();
+
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				for (LatencyBreakdown.Phase phase : LatencyBreakdown.Phase.values()) {
+					if (breakdown.getCount(phase) > 0L) {
+						timers[phase.ordinal()].update(breakdown.getTime(phase, TimeUnit.NANOSECONDS),
+								TimeUnit.NANOSECONDS);
+					}
+				}
+
+				if (input instanceof PhaseTimed) {
+					((PhaseTimed) input).onPhasesRecorded(breakdown);
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+	}
+
+	/**
+	 * Publishes a completed event for a command once its future completes, with the failure the caller sees, if any.
+	 *
+	 * @param future The future the caller is given.
+	 * @param command The command the future is for.
+	 * @param lifecycle Where the command's events are published.
+	 */
+	public <T> void publishCompletion(final ListenableFuture<T> future,
+			final MakrutCommandWrapper<T> command,
+			final CommandLifecycle lifecycle) {
+		checkNotNull(future);
+		checkNotNull(command);
+		checkNotNull(lifecycle);
+
+		Futures.addCallback(future, new FutureCallback<T>() {
+			@Override
+			public void onSuccess(final T result) {
+				lifecycle.completed(command.callCount(), null);
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				lifecycle.completed(command.callCount(), t);
+			}
+		});
+	}
+
+	private Meter failureMeter(final Class<?> type) {
+		Meter meter = failures.get(type);
+
+		if (meter == null) {
+			String typeName = type.getSimpleName().isEmpty() ? type.getName() : type.getSimpleName();
+
+			meter = metrics.meter(name(name, "failure", typeName));
+			failures.putIfAbsent(type, meter);
+		}
+
+		return meter;
+	}
+
 	private <T> ListenableFuture<T> submit(final ListeningScheduledExecutorService service,
-			final Optional<BackoffStrategy> backoffStrategy,
+			final Scheduler scheduler,
+			final Optional<Dispatcher> dispatcher,
+			final Optional<Long> backoffMillis,
 			final MakrutCommandWrapper<T> command) {
 
-		if (backoffStrategy.isPresent()) {
-			long valueMillis = command.getAndSetNextBackoff(backoffStrategy.get());
-
+		if (dispatcher.isPresent()) {
+			return dispatch(scheduler, dispatcher.get(), backoffMillis, command);
+		} else if (backoffMillis.isPresent()) {
 			ListenableFutureTask<T> task = ListenableFutureTask.create(command);
-			service.schedule(task, valueMillis, TimeUnit.MILLISECONDS);
+			scheduler.schedule(afterBackoff(task, command, backoffMillis.get()), backoffMillis.get(),
+					TimeUnit.MILLISECONDS);
 
 			return task;
 		} else {
@@ -107,25 +536,767 @@ public class FutureUtils {
 		}
 	}
 
+	private <T> ListenableFuture<T> dispatch(final Scheduler scheduler,
+			final Dispatcher dispatcher,
+			final Optional<Long> backoffMillis,
+			final MakrutCommandWrapper<T> command) {
+
+		if (backoffMillis.isPresent()) {
+			ListenableFutureTask<ListenableFuture<T>> task = ListenableFutureTask.create(
+					new Callable<ListenableFuture<T>>() {
+						@Override
+						public ListenableFuture<T> call() {
+							return dispatcher.dispatch(command);
+						}
+					});
+			scheduler.schedule(afterBackoff(task, command, backoffMillis.get()), backoffMillis.get(),
+					TimeUnit.MILLISECONDS);
+
+			return Futures.dereference(task);
+		} else {
+			return dispatcher.dispatch(command);
+		}
+	}
+
+	/**
+	 * Ends the backoff lap of a command whose phases are recorded, and the backoff span of one with a lifecycle,
+	 * before running the task that retries it.
+	 */
+	private static Runnable afterBackoff(final Runnable task,
+			final MakrutCommandWrapper<?> command,
+			final long backoffMillis) {
+		if (!command.getBreakdown().isPresent() && !command.getLifecycle().isPresent()) {
+			return task;
+		}
+
+		final Optional<LatencyBreakdown> breakdown = command.getBreakdown();
+		final Optional<CommandProbe.Span> backoff = command.getLifecycle().isPresent()
+				? Optional.of(command.getLifecycle().get().backoffStarted(command.callCount(), backoffMillis,
+						TimeUnit.MILLISECONDS))
+				: Optional.<CommandProbe.Span>absent();
+
+		return new Runnable() {
+			@Override
+			public void run() {
+				if (breakdown.isPresent()) {
+					breakdown.get().lap(LatencyBreakdown.Phase.BACKOFF);
+				}
+
+				if (backoff.isPresent()) {
+					backoff.get().end(null);
+				}
+
+				task.run();
+			}
+		};
+	}
+
+	/**
+	 * Places a circuit breaker in front of a dispatcher.  While the breaker is refusing calls, commands fail with a
+	 * CircuitBreakerOpenException without being passed on, so they neither wait in a queue nor take a thread.
+	 *
+	 * @param next The dispatcher to pass permitted commands to.
+	 * @param breaker The breaker guarding the commands.
+	 */
+	public Dispatcher withCircuitBreaker(final Dispatcher next, final CircuitBreaker breaker) {
+		checkNotNull(next);
+		checkNotNull(breaker);
+
+		final Meter rejected = shortCircuited.get();
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				if (!breaker.isCallPermitted()) {
+					rejected.mark();
+
+					return Futures.immediateFailedFuture(new CircuitBreakerOpenException("Circuit breaker for " + name
+							+ " is open."));
+				}
+
+				return next.dispatch(command);
+			}
+		};
+	}
+
+	/**
+	 * Places a bulkhead in front of a dispatcher, timing how long each command waits for a permit and marking the
+	 * commands that the bulkhead rejects, either because it was full or because they waited too long.
+	 *
+	 * @param next The dispatcher to pass commands to once they hold a permit.
+	 * @param bulkhead The bulkhead limiting the commands.
+	 */
+	public Dispatcher withBulkhead(final Dispatcher next, final AsyncBulkhead bulkhead) {
+		checkNotNull(next);
+		checkNotNull(bulkhead);
+
+		final Ticker ticker = Ticker.systemTicker();
+		final Timer wait = bulkheadWait.get();
+		final Meter rejected = bulkheadRejected.get();
+		final Meter timeouts = bulkheadTimeouts.get();
+
+		final FutureCallback<Object> outcomes = new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(final Object result) {
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				if (t instanceof BulkheadFullException) {
+					rejected.mark();
+				} else if (t instanceof BulkheadTimeoutException) {
+					timeouts.mark();
+				}
+			}
+		};
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				final long start = ticker.read();
+
+				ListenableFuture<T> future = bulkhead.submit(new Dispatcher() {
+					@Override
+					public <V> ListenableFuture<V> dispatch(final Callable<V> admitted) {
+						wait.update(ticker.read() - start, TimeUnit.NANOSECONDS);
+
+						if (admitted instanceof MakrutCommandWrapper) {
+							lapPermit((MakrutCommandWrapper<?>) admitted);
+						}
+
+						return next.dispatch(admitted);
+					}
+				}, command);
+
+				Futures.addCallback(future, outcomes);
+
+				return future;
+			}
+		};
+	}
+
+	private static void lapPermit(final MakrutCommandWrapper<?> command) {
+		if (command.getBreakdown().isPresent()) {
+			command.getBreakdown().get().lap(LatencyBreakdown.Phase.PERMIT);
+		}
+	}
+
+	/**
+	 * Registers gauges for the free permits and the queue depth of a bulkhead under this name, replacing any that
+	 * are already registered.
+	 */
+	public void reportBulkhead(final AsyncBulkhead bulkhead) {
+		checkNotNull(bulkhead);
+
+		replaceGauge(name(name, "bulkhead", "available"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return bulkhead.getAvailablePermits();
+			}
+		});
+
+		replaceGauge(name(name, "bulkhead", "queued"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return bulkhead.getQueueDepth();
+			}
+		});
+	}
+
+	/**
+	 * Places an adaptive concurrency limit in front of a dispatcher, marking the commands it rejects.
+	 *
+	 * @param next The dispatcher to pass commands to while the limit allows.
+	 * @param limiter The limiter whose limit applies.
+	 */
+	public Dispatcher withAdaptiveLimit(final Dispatcher next, final AdaptiveLimiter limiter) {
+		checkNotNull(next);
+		checkNotNull(limiter);
+
+		final Meter rejected = limitExceeded.get();
+
+		final FutureCallback<Object> outcomes = new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(final Object result) {
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				if (t instanceof ConcurrencyLimitExceededException) {
+					rejected.mark();
+				}
+			}
+		};
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				ListenableFuture<T> future = limiter.submit(next, command);
+
+				Futures.addCallback(future, outcomes);
+
+				return future;
+			}
+		};
+	}
+
+	/**
+	 * Registers gauges for the current limit and the commands in flight under an adaptive limiter, replacing any
+	 * that are already registered.
+	 */
+	public void reportAdaptiveLimit(final AdaptiveLimiter limiter) {
+		checkNotNull(limiter);
+
+		replaceGauge(name(name, "adaptive-limit", "limit"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return limiter.getLimit();
+			}
+		});
+
+		replaceGauge(name(name, "adaptive-limit", "in-flight"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return limiter.getInFlight();
+			}
+		});
+	}
+
+	/**
+	 * Times how long each command waits between being handed to a dispatcher and a thread starting it, as the timer
+	 * queue.wait.  Placed directly in front of the executor, this is the time the command spent in the executor's
+	 * queue, which the call timer, started inside the command, cannot see.
+	 *
+	 * @param next The dispatcher that places commands on the executor.
+	 */
+	public Dispatcher withQueueTimer(final Dispatcher next) {
+		checkNotNull(next);
+
+		final Ticker ticker = Ticker.systemTicker();
+		final Timer wait = queueWait.get();
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				final long start = ticker.read();
+
+				return next.dispatch(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						wait.update(ticker.read() - start, TimeUnit.NANOSECONDS);
+
+						return command.call();
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * Lets the time limit or deadline of each command fail the command's future as soon as it passes, rather than
+	 * when the command gives way to the interrupt and returns.  The command keeps its thread until it does return, and
+	 * what it then returns or throws is discarded.  Placed directly in front of the executor, so that the limit starts
+	 * when the command does.
+	 *
+	 * @param next The dispatcher that places commands on the executor.
+	 */
+	public Dispatcher withTimeLimits(final Dispatcher next) {
+		checkNotNull(next);
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				final SettableFuture<T> result = SettableFuture.create();
+
+				final ListenableFuture<T> running = next.dispatch(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						return RunningAttempt.run(result, command);
+					}
+				});
+
+				Futures.addCallback(running, new FutureCallback<T>() {
+					@Override
+					public void onSuccess(final T value) {
+						result.set(value);
+					}
+
+					@Override
+					public void onFailure(final Throwable t) {
+						if (t instanceof CancellationException) {
+							result.cancel(false);
+						} else {
+							result.setException(t);
+						}
+					}
+				});
+
+				result.addListener(new Runnable() {
+					@Override
+					public void run() {
+						if (result.isCancelled()) {
+							running.cancel(true);
+						}
+					}
+				}, MoreExecutors.sameThreadExecutor());
+
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * As withTimeLimits, for only the commands that have a deadline; the rest are dispatched straight to the next
+	 * dispatcher, without the cost of a second future.  For commands whose deadline is set, or not, one submission at
+	 * a time, such as TimeBudgeted commands.
+	 *
+	 * @param next The dispatcher that places commands on the executor.
+	 */
+	public Dispatcher withDeadlineLimits(final Dispatcher next) {
+		final Dispatcher limited = withTimeLimits(next);
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				if (command instanceof MakrutCommandWrapper
+						&& ((MakrutCommandWrapper<?>) command).getDeadline().isPresent()) {
+					return limited.dispatch(command);
+				}
+
+				return next.dispatch(command);
+			}
+		};
+	}
+
+	/**
+	 * Places admission control in front of a dispatcher, marking admission.shed for every command it sheds.
+	 *
+	 * @param next The dispatcher whose queue is measured, normally one that places commands on the executor.
+	 * @param admission The admission control the commands share.
+	 */
+	public Dispatcher withAdmissionControl(final Dispatcher next, final CoDelAdmission admission) {
+		checkNotNull(next);
+		checkNotNull(admission);
+
+		final Meter shed = admissionShed.get();
+
+		final FutureCallback<Object> outcomes = new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(final Object result) {
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				if (t instanceof QueueOverloadedException) {
+					shed.mark();
+				}
+			}
+		};
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				ListenableFuture<T> future = admission.submit(next, command);
+
+				Futures.addCallback(future, outcomes);
+
+				return future;
+			}
+		};
+	}
+
+	/**
+	 * Reports the number of commands admitted but not yet started, and whether the queue is overloaded, as the gauges
+	 * admission.queued and admission.overloaded, replacing any gauges already registered under those names.
+	 *
+	 * @param admission The admission control to report on.
+	 */
+	public void reportAdmission(final CoDelAdmission admission) {
+		checkNotNull(admission);
+
+		replaceGauge(name(name, "admission", "queued"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return admission.getQueued();
+			}
+		});
+
+		replaceGauge(name(name, "admission", "overloaded"), new Gauge<Boolean>() {
+			@Override
+			public Boolean getValue() {
+				return admission.isOverloaded();
+			}
+		});
+	}
+
+	/**
+	 * Places a priority scheduler in front of a dispatcher, timing how long each command waits to be dispatched.
+	 *
+	 * @param next The dispatcher to pass commands to in order of priority.
+	 * @param scheduler The scheduler the commands share.
+	 */
+	public Dispatcher withPriority(final Dispatcher next, final PriorityScheduler scheduler) {
+		checkNotNull(next);
+		checkNotNull(scheduler);
+
+		final Ticker ticker = Ticker.systemTicker();
+		final Timer wait = priorityWait.get();
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				final long start = ticker.read();
+
+				return scheduler.submit(new Dispatcher() {
+					@Override
+					public <V> ListenableFuture<V> dispatch(final Callable<V> scheduled) {
+						wait.update(ticker.read() - start, TimeUnit.NANOSECONDS);
+
+						return next.dispatch(scheduled);
+					}
+				}, command);
+			}
+		};
+	}
+
+	/**
+	 * Reports the number of commands waiting on a priority scheduler as the gauge priority.queued, replacing any gauge
+	 * already registered under that name.
+	 *
+	 * @param scheduler The scheduler to report on.
+	 */
+	public void reportPriorityScheduler(final PriorityScheduler scheduler) {
+		checkNotNull(scheduler);
+
+		replaceGauge(name(name, "priority", "queued"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return scheduler.getQueueDepth();
+			}
+		});
+	}
+
+	/**
+	 * Places a rate limiter in front of a dispatcher, timing how long each command waits for its permit and marking
+	 * the commands that the limiter rejects.
+	 *
+	 * @param next The dispatcher to pass commands to once they have a permit.
+	 * @param limiter The limiter the commands share.
+	 */
+	public Dispatcher withRateLimit(final Dispatcher next, final AsyncRateLimiter limiter) {
+		checkNotNull(next);
+		checkNotNull(limiter);
+
+		final Ticker ticker = Ticker.systemTicker();
+		final Timer wait = rateLimitWait.get();
+		final Meter rejected = rateLimited.get();
+
+		final FutureCallback<Object> outcomes = new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(final Object result) {
+			}
+
+			@Override
+			public void onFailure(final Throwable t) {
+				if (t instanceof RateLimitExceededException) {
+					rejected.mark();
+				}
+			}
+		};
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				final long start = ticker.read();
+
+				ListenableFuture<T> future = limiter.submit(new Dispatcher() {
+					@Override
+					public <V> ListenableFuture<V> dispatch(final Callable<V> permitted) {
+						wait.update(ticker.read() - start, TimeUnit.NANOSECONDS);
+
+						return next.dispatch(permitted);
+					}
+				}, command);
+
+				Futures.addCallback(future, outcomes);
+
+				return future;
+			}
+		};
+	}
+
+	/**
+	 * Reports the number of commands waiting on a rate limiter as the gauge rate-limit.waiting, replacing any gauge
+	 * already registered under that name.
+	 *
+	 * @param limiter The limiter to report on.
+	 */
+	public void reportRateLimit(final AsyncRateLimiter limiter) {
+		checkNotNull(limiter);
+
+		replaceGauge(name(name, "rate-limit", "waiting"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return limiter.getWaiting();
+			}
+		});
+	}
+
+	/**
+	 * Reports the number of retries that are backing off on a timer as the gauge retry.backoff.pending, replacing any
+	 * gauge already registered under that name.  The count covers every command that shares the timer.
+	 *
+	 * @param timer The timer to report on.
+	 */
+	public void reportBackoffTimer(final HashedWheelTimer timer) {
+		checkNotNull(timer);
+
+		replaceGauge(name(name, "retry", "backoff", "pending"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return timer.getPendingTimeouts();
+			}
+		});
+	}
+
+	/**
+	 * Hedges slow commands: if a command has not completed once the strategy's delay has passed, a duplicate attempt
+	 * is dispatched, budget permitting, and whichever attempt succeeds first provides the result while the other is
+	 * cancelled.  A failure only completes the command if no other attempt is still running.
+	 *
+	 * The delay is recomputed every hundred commands from the recent latencies of this command's attempts, which are
+	 * kept in the hedge.latency timer.  A MakrutCommandWrapper is hedged with its hedge copy, which counts its own
+	 * attempts, so the hedge is numbered as the attempt it duplicates and does not use up a retry; any other command
+	 * is run again as it is.  The attempt that loses is cancelled without being counted against the circuit breaker.
+	 *
+	 * @param next The dispatcher to send attempts to.
+	 * @param strategy Decides how long to wait before hedging.
+	 * @param budget Limits how many commands may be hedged.  Every command dispatched here deposits into it.
+	 * @param timer Triggers the hedged attempts.  Its tasks only dispatch the attempt.
+	 */
+	public Dispatcher withHedging(final Dispatcher next,
+			final HedgeStrategy strategy,
+			final TokenBudget budget,
+			final ScheduledExecutorService timer) {
+		checkNotNull(next);
+		checkNotNull(strategy);
+		checkNotNull(budget);
+		checkNotNull(timer);
+
+		final Timer latency = hedgeLatency.get();
+		final AtomicLong delayNanos = new AtomicLong(strategy.hedgeDelay(latency.getSnapshot(), TimeUnit.NANOSECONDS));
+		final AtomicInteger untilRefresh = new AtomicInteger(HEDGE_DELAY_REFRESH);
+
+		final Meter sent = hedgesSent.get();
+		final Meter won = hedgesWon.get();
+		final Meter exhausted = hedgeBudgetExhausted.get();
+
+		return new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				budget.deposit();
+
+				if (untilRefresh.decrementAndGet() == 0) {
+					delayNanos.set(strategy.hedgeDelay(latency.getSnapshot(), TimeUnit.NANOSECONDS));
+					untilRefresh.set(HEDGE_DELAY_REFRESH);
+				}
+
+				final HedgedCall<T> call = new HedgedCall<T>(next, command, latency, won);
+
+				call.start();
+				call.trigger(timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (call.isDone()) {
+							return;
+						} else if (!budget.tryWithdraw()) {
+							exhausted.mark();
+							return;
+						}
+
+						sent.mark();
+						call.hedge();
+					}
+				}, delayNanos.get(), TimeUnit.NANOSECONDS));
+
+				return call.result;
+			}
+		};
+	}
+
 	public <T> ListenableFuture<T> withFallbackCache(final Callable<T> key,
 			final ListenableFuture<T> future,
 			final CacheWrapper cache) {
+		return withFallbackCache(key, future, cache, Optional.<MakrutCommandWrapper<T>>absent());
+	}
+
+	/**
+	 * As withFallbackCache, but records the time spent looking for a fallback value as the fallback phase of the
+	 * command's breakdown, and publishes a fallback used event when one is found, if the command records them.
+	 */
+	public <T> ListenableFuture<T> withFallbackCache(final Callable<T> key,
+			final ListenableFuture<T> future,
+			final CacheWrapper cache,
+			final MakrutCommandWrapper<T> command) {
+		return withFallbackCache(key, future, cache, Optional.of(command));
+	}
+
+	private <T> ListenableFuture<T> withFallbackCache(final Callable<T> key,
+			final ListenableFuture<T> future,
+			final CacheWrapper cache,
+			final Optional<MakrutCommandWrapper<T>> command) {
+		final Optional<LatencyBreakdown> breakdown = command.isPresent()
+				? command.get().getBreakdown()
+				: Optional.<LatencyBreakdown>absent();
+
+		final Callable<Optional<T>> lookup = new Callable<Optional<T>>() {
+			@Override
+			public Optional<T> call() {
+				return cache.getOptional(key);
+			}
+		};
+
 		return Futures.withFallback(future, new FutureFallback<T>() {
 			@Override
 			public ListenableFuture<T> create(final Throwable th) throws Exception {
-				Optional<T> value = cache.getOptional(key);
+				Optional<T> value = breakdown.isPresent()
+						? breakdown.get().time(LatencyBreakdown.Phase.FALLBACK, lookup)
+						: lookup.call();
 
 				if (future.isCancelled()) {
 					return Futures.immediateCancelledFuture();
 				} else if (value.isPresent()) {
-					metrics.meter(name(name, "fallback", "cache", "hit", "rate")).mark();
+					fallbackHits.get().mark();
+
+					if (command.isPresent() && command.get().getLifecycle().isPresent()) {
+						command.get().getLifecycle().get().fallbackUsed(command.get().callCount(), th);
+					}
+
 					return Futures.immediateFuture(value.get());
 				} else {
-					metrics.meter(name(name, "fallback", "cache", "miss", "rate")).mark();
+					fallbackMisses.get().mark();
 					return Futures.immediateFailedFuture(th);
 				}
 			}
 		});
 	}
 
+	private void replaceGauge(final String gaugeName, final Gauge<?> gauge) {
+		metrics.remove(gaugeName);
+		metrics.register(gaugeName, gauge);
+	}
+
+	/**
+	 * The attempts made for one hedged command.
+	 */
+	private static final class HedgedCall<T> {
+		private final Ticker ticker = Ticker.systemTicker();
+		private final SettableFuture<T> result = SettableFuture.create();
+		private final AtomicInteger running = new AtomicInteger(0);
+
+		private final Dispatcher next;
+		private final Callable<T> command;
+		private final Timer latency;
+		private final Meter won;
+
+		private volatile ListenableFuture<T> primary = null;
+		private volatile ListenableFuture<T> hedged = null;
+
+		HedgedCall(final Dispatcher next, final Callable<T> command, final Timer latency, final Meter won) {
+			this.next = next;
+			this.command = command;
+			this.latency = latency;
+			this.won = won;
+		}
+
+		boolean isDone() {
+			return result.isDone();
+		}
+
+		void start() {
+			result.addListener(new Runnable() {
+				@Override
+				public void run() {
+					cancel(primary);
+					cancel(hedged);
+				}
+			}, MoreExecutors.sameThreadExecutor());
+
+			primary = attempt(false);
+
+			if (result.isDone()) {
+				cancel(primary);
+			}
+		}
+
+		/**
+		 * Cancels the task that triggers the hedge once the command completes.  The task is only scheduled after the
+		 * primary attempt has been dispatched, so the hedge can never be dispatched first.
+		 */
+		void trigger(final ScheduledFuture<?> hedgeTask) {
+			result.addListener(new Runnable() {
+				@Override
+				public void run() {
+					hedgeTask.cancel(false);
+				}
+			}, MoreExecutors.sameThreadExecutor());
+		}
+
+		void hedge() {
+			hedged = attempt(true);
+
+			if (result.isDone()) {
+				cancel(hedged);
+			}
+		}
+
+		private ListenableFuture<T> attempt(final boolean isHedge) {
+			running.incrementAndGet();
+
+			final long start = ticker.read();
+			ListenableFuture<T> future;
+
+			try {
+				future = next.dispatch(isHedge ? hedgeOf(command) : command);
+			} catch (RuntimeException ex) {
+				future = Futures.immediateFailedFuture(ex);
+			}
+
+			Futures.addCallback(future, new FutureCallback<T>() {
+				@Override
+				public void onSuccess(final T value) {
+					latency.update(ticker.read() - start, TimeUnit.NANOSECONDS);
+
+					if (result.set(value) && isHedge) {
+						won.mark();
+					}
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					if (running.decrementAndGet() > 0) {
+						return;
+					}
+
+					if (t instanceof CancellationException) {
+						result.cancel(false);
+					} else {
+						result.setException(t);
+					}
+				}
+			});
+
+			return future;
+		}
+
+		private void cancel(final ListenableFuture<T> attempt) {
+			if (attempt != null) {
+				attempt.cancel(true);
+			}
+		}
+
+		private static <T> Callable<T> hedgeOf(final Callable<T> command) {
+			return command instanceof MakrutCommandWrapper ? ((MakrutCommandWrapper<T>) command).hedge() : command;
+		}
+	}
 }
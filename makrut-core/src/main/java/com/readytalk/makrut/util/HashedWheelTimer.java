@@ -0,0 +1,381 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A Scheduler that keeps its tasks on a hashed wheel rather than a heap, for the large numbers of short delays that
+ * build up when every command is backing off during an outage.
+ *
+ * Scheduling and cancelling a task are both constant time, and neither takes a lock: new and cancelled tasks are
+ * handed to a single worker thread through lock-free queues.  The worker advances the wheel one bucket per tick and
+ * hands each task whose delay has passed to an executor, so tasks run up to one tick late and never on the worker
+ * itself.  A delay longer than a full turn of the wheel simply stays in its bucket for more than one turn.
+ *
+ * The worker thread is started the first time a task is scheduled, and runs until the timer is stopped.
+ */
+@ThreadSafe
+public class HashedWheelTimer implements Scheduler {
+
+	private static final int INIT = 0;
+	private static final int STARTED = 1;
+	private static final int STOPPED = 2;
+
+	private static final int WAITING = 0;
+	private static final int EXPIRED = 1;
+	private static final int CANCELLED = 2;
+
+	private static final int MAX_TICKS_PER_WHEEL = 1073741824;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Executor executor;
+	private final Thread worker;
+
+	private final AtomicInteger state = new AtomicInteger(INIT);
+	private final AtomicInteger pending = new AtomicInteger(0);
+	private final Queue<WheelTimeout> added = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+	private final CountDownLatch started = new CountDownLatch(1);
+
+	private volatile long startTime = 0L;
+
+	/**
+	 * Creates a timer whose worker is a daemon thread.
+	 *
+	 * @param tickDuration How far the wheel advances on each tick, and so the resolution of its delays.
+	 * @param unit The unit of the tick duration.
+	 * @param ticksPerWheel The number of buckets on the wheel, rounded up to a power of two.  Delays shorter than a
+	 * full turn of the wheel are cheapest to keep.
+	 * @param executor Runs the tasks once their delays have passed.
+	 */
+	public HashedWheelTimer(@Nonnegative final long tickDuration,
+			final TimeUnit unit,
+			@Nonnegative final int ticksPerWheel,
+			final Executor executor) {
+		this(tickDuration, unit, ticksPerWheel, executor,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("makrut-wheel-timer-%d").build());
+	}
+
+	/**
+	 * @param tickDuration How far the wheel advances on each tick, and so the resolution of its delays.
+	 * @param unit The unit of the tick duration.
+	 * @param ticksPerWheel The number of buckets on the wheel, rounded up to a power of two.
+	 * @param executor Runs the tasks once their delays have passed.
+	 * @param threadFactory Creates the worker thread.
+	 */
+	public HashedWheelTimer(@Nonnegative final long tickDuration,
+			final TimeUnit unit,
+			@Nonnegative final int ticksPerWheel,
+			final Executor executor,
+			final ThreadFactory threadFactory) {
+		checkArgument(tickDuration > 0L, "Tick duration must be greater than zero.");
+		checkArgument(ticksPerWheel > 0 && ticksPerWheel <= MAX_TICKS_PER_WHEEL, "Ticks per wheel out of range.");
+		checkNotNull(threadFactory);
+
+		this.tickNanos = checkNotNull(unit).toNanos(tickDuration);
+		this.executor = checkNotNull(executor);
+
+		int size = Integer.highestOneBit(ticksPerWheel);
+
+		if (size < ticksPerWheel) {
+			size <<= 1;
+		}
+
+		this.wheel = new Bucket[size];
+		this.mask = size - 1;
+
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+
+		this.worker = threadFactory.newThread(new Worker());
+	}
+
+	/**
+	 * The number of tasks that are waiting for their delays to pass.
+	 */
+	public int getPendingTimeouts() {
+		return pending.get();
+	}
+
+	@Override
+	public ListenableFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+		checkNotNull(task);
+		checkNotNull(unit);
+
+		start();
+
+		long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(0L, delay));
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+
+		pending.incrementAndGet();
+		added.offer(timeout);
+
+		// The worker may have already stopped and cancelled everything else it held.
+		if (state.get() == STOPPED) {
+			timeout.cancel(false);
+		}
+
+		return timeout;
+	}
+
+	/**
+	 * Stops the worker thread and cancels every task that has not yet run.  Tasks can no longer be scheduled once the
+	 * timer is stopped.
+	 */
+	public void stop() {
+		if (state.getAndSet(STOPPED) == STARTED) {
+			worker.interrupt();
+		}
+	}
+
+	private void start() {
+		int current = state.get();
+
+		if (current == INIT && state.compareAndSet(INIT, STARTED)) {
+			worker.start();
+		} else {
+			checkState(current != STOPPED, "Timer has been stopped.");
+		}
+
+		while (startTime == 0L) {
+			try {
+				started.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while starting timer.", ex);
+			}
+		}
+	}
+
+	/**
+	 * Advances the wheel.  The buckets, and the links between the tasks in them, are only touched by this thread.
+	 */
+	private final class Worker implements Runnable {
+		private long tick = 0L;
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+
+			// Zero marks the start time as unset.
+			startTime = now == 0L ? 1L : now;
+			started.countDown();
+
+			while (state.get() == STARTED) {
+				long deadline = tickNanos * (tick + 1);
+
+				if (!awaitTick(deadline)) {
+					break;
+				}
+
+				removeCancelled();
+				transferAdded();
+
+				wheel[(int) (tick & mask)].expire(deadline);
+				tick++;
+			}
+
+			cancelAll();
+		}
+
+		/**
+		 * @return Whether the tick was reached, rather than the timer being stopped.
+		 */
+		private boolean awaitTick(final long deadline) {
+			while (true) {
+				long remaining = deadline - (System.nanoTime() - startTime);
+
+				if (remaining <= 0L) {
+					return true;
+				}
+
+				long millis = TimeUnit.NANOSECONDS.toMillis(remaining);
+
+				try {
+					Thread.sleep(millis, (int) (remaining - TimeUnit.MILLISECONDS.toNanos(millis)));
+				} catch (InterruptedException ex) {
+					if (state.get() == STOPPED) {
+						return false;
+					}
+				}
+			}
+		}
+
+		private void removeCancelled() {
+			WheelTimeout timeout;
+
+			while ((timeout = cancelled.poll()) != null) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		private void transferAdded() {
+			WheelTimeout timeout;
+
+			while ((timeout = added.poll()) != null) {
+				if (timeout.state.get() != WAITING) {
+					continue;
+				}
+
+				long due = timeout.deadline / tickNanos;
+
+				timeout.remainingRounds = (due - tick) / wheel.length;
+				wheel[(int) (Math.max(due, tick) & mask)].add(timeout);
+			}
+		}
+
+		private void cancelAll() {
+			for (Bucket bucket : wheel) {
+				while (bucket.head != null) {
+					WheelTimeout timeout = bucket.head;
+
+					bucket.remove(timeout);
+					timeout.cancel(false);
+				}
+			}
+
+			WheelTimeout timeout;
+
+			while ((timeout = added.poll()) != null) {
+				timeout.cancel(false);
+			}
+
+			cancelled.clear();
+		}
+	}
+
+	/**
+	 * A doubly linked list of the tasks that fall on one bucket of the wheel.
+	 */
+	private final class Bucket {
+		private WheelTimeout head = null;
+		private WheelTimeout tail = null;
+
+		void add(final WheelTimeout timeout) {
+			timeout.bucket = this;
+
+			if (head == null) {
+				head = timeout;
+				tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(final WheelTimeout timeout) {
+			if (timeout.prev == null) {
+				head = timeout.next;
+			} else {
+				timeout.prev.next = timeout.next;
+			}
+
+			if (timeout.next == null) {
+				tail = timeout.prev;
+			} else {
+				timeout.next.prev = timeout.prev;
+			}
+
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		/**
+		 * Runs the tasks that are due on this turn of the wheel, and counts down the rest.
+		 */
+		void expire(final long deadline) {
+			WheelTimeout timeout = head;
+
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+
+				if (timeout.remainingRounds <= 0L && timeout.deadline <= deadline) {
+					remove(timeout);
+					timeout.expire();
+				} else {
+					timeout.remainingRounds--;
+				}
+
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * A task on the wheel, and the future for its completion.
+	 */
+	private final class WheelTimeout extends AbstractFuture<Void> {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(WAITING);
+
+		private long remainingRounds = 0L;
+		private Bucket bucket = null;
+		private WheelTimeout prev = null;
+		private WheelTimeout next = null;
+
+		WheelTimeout(final Runnable task, final long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			if (!state.compareAndSet(WAITING, CANCELLED)) {
+				return false;
+			}
+
+			pending.decrementAndGet();
+			cancelled.offer(this);
+
+			return super.cancel(false);
+		}
+
+		void expire() {
+			if (!state.compareAndSet(WAITING, EXPIRED)) {
+				return;
+			}
+
+			pending.decrementAndGet();
+
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							task.run();
+							set(null);
+						} catch (RuntimeException ex) {
+							setException(ex);
+						}
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				setException(ex);
+			}
+		}
+	}
+}
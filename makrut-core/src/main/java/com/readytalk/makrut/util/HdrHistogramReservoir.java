@@ -0,0 +1,96 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A reservoir that records every value in an HdrHistogram, so that high percentiles are accurate to the chosen number
+ * of significant digits however rare the values behind them, rather than estimated from a sample.
+ *
+ * Values are recorded into one of several recorders, chosen by the recording thread, so that threads on different
+ * cores seldom write to the same memory; recording takes no locks.  Each snapshot holds the values recorded since the
+ * previous snapshot was taken, so a reservoir should be read by a single reporter, once per reporting interval.
+ */
+@ThreadSafe
+public class HdrHistogramReservoir implements Reservoir {
+	private static final int DEFAULT_SIGNIFICANT_DIGITS = 3;
+
+	private final Recorder[] stripes;
+	private final int mask;
+
+	@GuardedBy("this")
+	private final Histogram scratch;
+
+	@GuardedBy("this")
+	private long lastCount = 0L;
+
+	/**
+	 * Creates a reservoir that records values to three significant digits, with a recorder for each processor.
+	 */
+	public HdrHistogramReservoir() {
+		this(DEFAULT_SIGNIFICANT_DIGITS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param significantDigits The number of significant digits to keep values to, from zero to five.
+	 * @param concurrency The number of threads expected to record values at once, which is rounded up to a power of two
+	 * to give the number of recorders.
+	 */
+	public HdrHistogramReservoir(final int significantDigits, final int concurrency) {
+		checkArgument(concurrency > 0, "Concurrency must be greater than zero.");
+
+		int count = Integer.highestOneBit(concurrency);
+
+		if (count < concurrency) {
+			count <<= 1;
+		}
+
+		this.stripes = new Recorder[count];
+		this.mask = count - 1;
+		this.scratch = new Histogram(significantDigits);
+
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Recorder(significantDigits);
+		}
+	}
+
+	/**
+	 * The number of values in the last snapshot.
+	 */
+	@Override
+	public synchronized int size() {
+		return (int) Math.min(Integer.MAX_VALUE, lastCount);
+	}
+
+	/**
+	 * Records a value.  Negative values, which a histogram cannot hold, are recorded as zero.
+	 */
+	@Override
+	public void update(final long value) {
+		stripes[(int) Thread.currentThread().getId() & mask].recordValue(Math.max(0L, value));
+	}
+
+	/**
+	 * Takes the values recorded since the last snapshot.
+	 */
+	@Override
+	public synchronized Snapshot getSnapshot() {
+		Histogram interval = new Histogram(scratch.getNumberOfSignificantValueDigits());
+
+		for (Recorder stripe : stripes) {
+			stripe.getIntervalHistogramInto(scratch);
+			interval.add(scratch);
+		}
+
+		lastCount = interval.getTotalCount();
+
+		return new HdrHistogramSnapshot(interval);
+	}
+}
@@ -0,0 +1,96 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.concurrent.Immutable;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+
+/**
+ * A snapshot backed by an HdrHistogram rather than by an array of sampled values.  The histogram must not be changed
+ * once the snapshot is made.
+ */
+@Immutable
+final class HdrHistogramSnapshot extends Snapshot {
+	private static final double PERCENT = 100.0d;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final Histogram histogram;
+
+	HdrHistogramSnapshot(final Histogram histogram) {
+		super(new long[0]);
+
+		this.histogram = checkNotNull(histogram);
+	}
+
+	@Override
+	public double getValue(final double quantile) {
+		if (quantile < 0.0d || quantile > 1.0d) {
+			throw new IllegalArgumentException(quantile + " is not in [0..1]");
+		}
+
+		return histogram.getValueAtPercentile(quantile * PERCENT);
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(Integer.MAX_VALUE, histogram.getTotalCount());
+	}
+
+	/**
+	 * Every value in the snapshot, in order, each rounded to the precision of the histogram.  The array holds one
+	 * element per value recorded, so it is costly for large intervals; the percentiles do not need it.
+	 */
+	@Override
+	public long[] getValues() {
+		long[] values = new long[size()];
+		int i = 0;
+
+		for (HistogramIterationValue value : histogram.recordedValues()) {
+			for (long n = 0; n < value.getCountAtValueIteratedTo() && i < values.length; n++) {
+				values[i++] = histogram.highestEquivalentValue(value.getValueIteratedTo());
+			}
+		}
+
+		return values;
+	}
+
+	@Override
+	public long getMax() {
+		return histogram.getMaxValue();
+	}
+
+	@Override
+	public long getMin() {
+		return histogram.getMinValue();
+	}
+
+	@Override
+	public double getMean() {
+		return histogram.getMean();
+	}
+
+	@Override
+	public double getStdDev() {
+		return histogram.getStdDeviation();
+	}
+
+	@Override
+	public void dump(final OutputStream output) {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(output, UTF_8));
+
+		try {
+			for (long value : getValues()) {
+				out.printf("%d%n", value);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.readytalk.makrut.util;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * A metric registry whose timers and histograms record into an HdrHistogramReservoir, for accurate high percentiles
+ * without the lock that the default, exponentially decaying reservoir takes on every update.  Metrics are registered
+ * under the same names as in any other registry, so it can be given to the MakrutCoreModule in place of one.
+ *
+ * Counters and meters are left as they are: they already count into striped adders, which do not contend between
+ * cores.  Since each snapshot of an HdrHistogramReservoir only holds the values recorded since the last, the timers
+ * and histograms should be read by a single reporter.
+ */
+@ThreadSafe
+public class HdrMetricRegistry extends MetricRegistry {
+
+	@Override
+	public Timer timer(final String name) {
+		Metric existing = getMetrics().get(name);
+
+		if (existing instanceof Timer) {
+			return (Timer) existing;
+		} else if (existing != null) {
+			throw new IllegalArgumentException(name + " is already used for a different type of metric");
+		}
+
+		try {
+			return register(name, new Timer(new HdrHistogramReservoir()));
+		} catch (IllegalArgumentException ex) {
+			// Registered by another thread in the meantime.
+			return timer(name);
+		}
+	}
+
+	@Override
+	public Histogram histogram(final String name) {
+		Metric existing = getMetrics().get(name);
+
+		if (existing instanceof Histogram) {
+			return (Histogram) existing;
+		} else if (existing != null) {
+			throw new IllegalArgumentException(name + " is already used for a different type of metric");
+		}
+
+		try {
+			return register(name, new Histogram(new HdrHistogramReservoir()));
+		} catch (IllegalArgumentException ex) {
+			return histogram(name);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * An attempt of a command that is running, as recorded in an InFlightRegistry.
+ */
+@Immutable
+public final class InFlightCall {
+
+	private final long id;
+	private final String commandName;
+	private final int argsHash;
+	private final int attempt;
+	private final long startNanos;
+	private final Thread thread;
+	private final Ticker ticker;
+
+	InFlightCall(final long id,
+			final String commandName,
+			final int argsHash,
+			final int attempt,
+			final Thread thread,
+			final Ticker ticker) {
+		this.id = id;
+		this.commandName = checkNotNull(commandName);
+		this.argsHash = argsHash;
+		this.attempt = attempt;
+		this.thread = checkNotNull(thread);
+		this.ticker = checkNotNull(ticker);
+		this.startNanos = ticker.read();
+	}
+
+	long getId() {
+		return id;
+	}
+
+	/**
+	 * The name of the command, or of its class if it is not a MakrutCommand.
+	 */
+	public String getCommandName() {
+		return commandName;
+	}
+
+	/**
+	 * The hash code of the command, which for a MakrutCommand is derived from its arguments.
+	 */
+	public int getArgsHash() {
+		return argsHash;
+	}
+
+	/**
+	 * Which attempt of the command this is, starting at one.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	/**
+	 * The thread the attempt is running on.
+	 */
+	public Thread getThread() {
+		return thread;
+	}
+
+	/**
+	 * How long the attempt has been running.
+	 */
+	@Nonnegative
+	public long getRunningTime(final TimeUnit unit) {
+		return unit.convert(Math.max(0L, ticker.read() - startNanos), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The stack of the attempt's thread as it is now.  The attempt may have completed since it was looked up, in
+	 * which case the thread may have moved on to other work.
+	 */
+	public StackTraceElement[] getStackTrace() {
+		return thread.getStackTrace();
+	}
+
+	@Override
+	public String toString() {
+		return commandName + " (args hash " + argsHash + ", attempt " + attempt + ") on " + thread.getName();
+	}
+}
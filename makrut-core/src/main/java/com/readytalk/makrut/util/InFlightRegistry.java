@@ -0,0 +1,96 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The attempts of commands that are running right now, for finding the ones that are stuck without taking a thread
+ * dump.
+ *
+ * Registering and removing an attempt take no locks: attempts are kept in a concurrent skip list, keyed in the order
+ * they started, so that they can be listed oldest first while others come and go.
+ */
+@ThreadSafe
+public class InFlightRegistry {
+
+	private final Ticker ticker;
+
+	private final AtomicLong sequence = new AtomicLong(0L);
+	private final ConcurrentNavigableMap<Long, InFlightCall> calls = new ConcurrentSkipListMap<Long, InFlightCall>();
+
+	public InFlightRegistry() {
+		this(Ticker.systemTicker());
+	}
+
+	/**
+	 * @param ticker The clock to measure how long attempts have been running by.
+	 */
+	public InFlightRegistry(final Ticker ticker) {
+		this.ticker = checkNotNull(ticker);
+	}
+
+	/**
+	 * Records that an attempt of a command has started on the current thread.
+	 *
+	 * @param commandName The name of the command.
+	 * @param argsHash The hash code of the command's arguments.
+	 * @param attempt Which attempt of the command this is, starting at one.
+	 *
+	 * @return The attempt, to be removed once it completes.
+	 */
+	public InFlightCall register(final String commandName, final int argsHash, @Nonnegative final int attempt) {
+		InFlightCall call = new InFlightCall(sequence.incrementAndGet(), commandName, argsHash, attempt,
+				Thread.currentThread(), ticker);
+
+		calls.put(call.getId(), call);
+
+		return call;
+	}
+
+	/**
+	 * Records that an attempt has completed.
+	 */
+	public void remove(final InFlightCall call) {
+		calls.remove(call.getId(), call);
+	}
+
+	/**
+	 * The number of attempts running.  Counting them takes time in proportion to their number.
+	 */
+	public int size() {
+		return calls.size();
+	}
+
+	/**
+	 * The attempts running, oldest first.
+	 */
+	public List<InFlightCall> getInFlight() {
+		return ImmutableList.copyOf(calls.values());
+	}
+
+	/**
+	 * The attempts that have been running for longer than the given time, oldest first.
+	 */
+	public List<InFlightCall> getRunningLongerThan(@Nonnegative final long time, final TimeUnit unit) {
+		long threshold = unit.toNanos(time);
+		ImmutableList.Builder<InFlightCall> builder = ImmutableList.builder();
+
+		for (InFlightCall call : calls.values()) {
+			if (call.getRunningTime(TimeUnit.NANOSECONDS) > threshold) {
+				builder.add(call);
+			}
+		}
+
+		return builder.build();
+	}
+}
@@ -0,0 +1,123 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flags attempts that have been running for longer than a threshold, logging a warning the first time each one is
+ * found, optionally with the stack of the thread it is running on, so that a saturated pool can be diagnosed without
+ * a full thread dump.
+ */
+@ThreadSafe
+public class InFlightWatchdog {
+	private static final Logger LOGGER = LoggerFactory.getLogger(InFlightWatchdog.class);
+
+	private final InFlightRegistry registry;
+	private final long thresholdNanos;
+	private final boolean captureStackTraces;
+
+	private final Set<InFlightCall> flagged = Sets.newSetFromMap(
+			new ConcurrentHashMap<InFlightCall, Boolean>());
+
+	private volatile int stuck = 0;
+
+	/**
+	 * @param registry The registry of running attempts to watch.
+	 * @param threshold How long an attempt may run before it is flagged.
+	 * @param unit The unit of the threshold.
+	 * @param captureStackTraces Whether to log the stack of each flagged attempt's thread.
+	 */
+	public InFlightWatchdog(final InFlightRegistry registry,
+			@Nonnegative final long threshold,
+			final TimeUnit unit,
+			final boolean captureStackTraces) {
+		checkArgument(threshold > 0L, "Threshold must be greater than zero.");
+
+		this.registry = checkNotNull(registry);
+		this.thresholdNanos = checkNotNull(unit).toNanos(threshold);
+		this.captureStackTraces = captureStackTraces;
+	}
+
+	/**
+	 * The number of attempts over the threshold as of the last check.
+	 */
+	public int getStuckCount() {
+		return stuck;
+	}
+
+	/**
+	 * Finds the attempts that have been running for longer than the threshold, logging those not already flagged.
+	 *
+	 * @return The attempts over the threshold, oldest first.
+	 */
+	public List<InFlightCall> check() {
+		List<InFlightCall> found = registry.getRunningLongerThan(thresholdNanos, TimeUnit.NANOSECONDS);
+
+		flagged.retainAll(found);
+
+		for (InFlightCall call : found) {
+			if (flagged.add(call)) {
+				warn(call);
+			}
+		}
+
+		stuck = found.size();
+
+		return found;
+	}
+
+	/**
+	 * Checks for stuck attempts periodically.
+	 *
+	 * @param timer The executor to check on.  Capturing stacks pauses the threads involved briefly, so a timer that
+	 * is shared with latency-sensitive work should not be used when stacks are captured.
+	 * @param period How often to check.
+	 * @param unit The unit of the period.
+	 *
+	 * @return The scheduled checks, which may be cancelled to stop them.
+	 */
+	public ScheduledFuture<?> start(final ScheduledExecutorService timer,
+			@Nonnegative final long period,
+			final TimeUnit unit) {
+		return timer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					check();
+				} catch (RuntimeException ex) {
+					LOGGER.warn("In-flight check failed.", ex);
+				}
+			}
+		}, period, period, unit);
+	}
+
+	private void warn(final InFlightCall call) {
+		long runningMillis = call.getRunningTime(TimeUnit.MILLISECONDS);
+
+		if (!captureStackTraces) {
+			LOGGER.warn("{} has been running for {} ms.", call, runningMillis);
+			return;
+		}
+
+		StringBuilder trace = new StringBuilder();
+
+		for (StackTraceElement element : call.getStackTrace()) {
+			trace.append("\n\tat ").append(element);
+		}
+
+		LOGGER.warn("{} has been running for {} ms:{}", call, runningMillis, trace);
+	}
+}
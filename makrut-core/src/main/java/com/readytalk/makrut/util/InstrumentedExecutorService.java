@@ -0,0 +1,340 @@
+package com.readytalk.makrut.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ForwardingListeningExecutorService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * An executor service that reports how saturated it is.  Each task is timed from submission until a thread starts
+ * it, as the timer queue-wait, and the gauges active and queued report the number of tasks running and waiting for a
+ * thread.  Tasks the executor refuses mark the meter rejected before the RejectedExecutionException is rethrown.
+ *
+ * The counts are kept by the wrapper itself, so they cover only the tasks submitted through it, but they work the
+ * same for any executor.  A task that is cancelled before it starts stops being counted as queued once its future is
+ * cancelled, though the executor may still hold it, and one that shutdownNow removes from the executor's queue stops
+ * being counted once shutdownNow returns.
+ */
+@ThreadSafe
+public class InstrumentedExecutorService extends ForwardingListeningExecutorService {
+
+	private final ListeningExecutorService delegate;
+	private final Ticker ticker;
+
+	private final Timer queueWait;
+	private final Meter rejected;
+
+	private final AtomicInteger queued = new AtomicInteger(0);
+	private final AtomicInteger active = new AtomicInteger(0);
+
+	/**
+	 * @param delegate The executor service to run tasks on.
+	 * @param metrics The registry to report to.
+	 * @param name The name the metrics are reported under, e.g., the name of the pool.
+	 */
+	public InstrumentedExecutorService(final ListeningExecutorService delegate,
+			final MetricRegistry metrics,
+			final String name) {
+		this(delegate, metrics, name, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param delegate The executor service to run tasks on.
+	 * @param metrics The registry to report to.
+	 * @param name The name the metrics are reported under, e.g., the name of the pool.
+	 * @param ticker The clock to time queue waits with.
+	 */
+	public InstrumentedExecutorService(final ListeningExecutorService delegate,
+			final MetricRegistry metrics,
+			final String name,
+			final Ticker ticker) {
+		this.delegate = checkNotNull(delegate);
+		this.ticker = checkNotNull(ticker);
+
+		checkNotNull(metrics);
+		checkNotNull(name);
+
+		this.queueWait = metrics.timer(name(name, "queue-wait"));
+		this.rejected = metrics.meter(name(name, "rejected"));
+
+		metrics.remove(name(name, "queued"));
+		metrics.register(name(name, "queued"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return queued.get();
+			}
+		});
+
+		metrics.remove(name(name, "active"));
+		metrics.register(name(name, "active"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return active.get();
+			}
+		});
+	}
+
+	@Override
+	protected ListeningExecutorService delegate() {
+		return delegate;
+	}
+
+	/**
+	 * The number of tasks submitted that have not yet started.
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * The number of tasks running.
+	 */
+	public int getActive() {
+		return active.get();
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		final Entry entry = new Entry();
+
+		try {
+			delegate.execute(entry.wrap(command));
+		} catch (RejectedExecutionException ex) {
+			throw rejected(entry, ex);
+		}
+	}
+
+	@Override
+	public <T> ListenableFuture<T> submit(final Callable<T> task) {
+		return enqueue(ListenableFutureTask.create(checkNotNull(task)));
+	}
+
+	@Override
+	public ListenableFuture<?> submit(final Runnable task) {
+		return enqueue(ListenableFutureTask.create(checkNotNull(task), null));
+	}
+
+	@Override
+	public <T> ListenableFuture<T> submit(final Runnable task, final T result) {
+		return enqueue(ListenableFutureTask.create(checkNotNull(task), result));
+	}
+
+	/**
+	 * Submitted tasks are handed to the executor as plain tasks, so that shutdownNow can recognise the ones it
+	 * removes.
+	 */
+	private <T> ListenableFuture<T> enqueue(final ListenableFutureTask<T> future) {
+		final Entry entry = new Entry();
+
+		try {
+			delegate.execute(entry.wrap(future));
+		} catch (RejectedExecutionException ex) {
+			throw rejected(entry, ex);
+		}
+
+		return entry.watch(future);
+	}
+
+	/**
+	 * The tasks that the executor removes from its queue without starting stop being counted as queued.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> pending = delegate.shutdownNow();
+
+		for (Runnable task : pending) {
+			if (task instanceof Queued) {
+				((Queued) task).entry.settle();
+			}
+		}
+
+		return pending;
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException {
+		final List<Entry> entries = Lists.newArrayListWithCapacity(tasks.size());
+
+		try {
+			return delegate.invokeAll(wrapAll(tasks, entries));
+		} finally {
+			settleAll(entries);
+		}
+	}
+
+	@Override
+	public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks,
+			final long timeout,
+			final TimeUnit unit) throws InterruptedException {
+		final List<Entry> entries = Lists.newArrayListWithCapacity(tasks.size());
+
+		try {
+			return delegate.invokeAll(wrapAll(tasks, entries), timeout, unit);
+		} finally {
+			settleAll(entries);
+		}
+	}
+
+	@Override
+	public <T> T invokeAny(final Collection<? extends Callable<T>> tasks)
+			throws InterruptedException, ExecutionException {
+		final List<Entry> entries = Lists.newArrayListWithCapacity(tasks.size());
+
+		try {
+			return delegate.invokeAny(wrapAll(tasks, entries));
+		} finally {
+			settleAll(entries);
+		}
+	}
+
+	@Override
+	public <T> T invokeAny(final Collection<? extends Callable<T>> tasks, final long timeout, final TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final List<Entry> entries = Lists.newArrayListWithCapacity(tasks.size());
+
+		try {
+			return delegate.invokeAny(wrapAll(tasks, entries), timeout, unit);
+		} finally {
+			settleAll(entries);
+		}
+	}
+
+	private RejectedExecutionException rejected(final Entry entry, final RejectedExecutionException ex) {
+		entry.settle();
+		rejected.mark();
+
+		return ex;
+	}
+
+	private <T> List<Callable<T>> wrapAll(final Collection<? extends Callable<T>> tasks, final List<Entry> entries) {
+		List<Callable<T>> wrapped = Lists.newArrayListWithCapacity(tasks.size());
+
+		for (Callable<T> task : tasks) {
+			Entry entry = new Entry();
+
+			entries.add(entry);
+			wrapped.add(entry.wrap(task));
+		}
+
+		return wrapped;
+	}
+
+	/**
+	 * Once invokeAll or invokeAny returns, any task that has not started never will.
+	 */
+	private static void settleAll(final List<Entry> entries) {
+		for (Entry entry : entries) {
+			entry.settle();
+		}
+	}
+
+	/**
+	 * A task from submission until it starts, or until it is known that it never will.
+	 */
+	private final class Entry {
+		private final AtomicBoolean started = new AtomicBoolean(false);
+		private final long submitted;
+
+		Entry() {
+			queued.incrementAndGet();
+			submitted = ticker.read();
+		}
+
+		<T> Callable<T> wrap(final Callable<T> task) {
+			checkNotNull(task);
+
+			return new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					start();
+
+					try {
+						return task.call();
+					} finally {
+						active.decrementAndGet();
+					}
+				}
+			};
+		}
+
+		Runnable wrap(final Runnable task) {
+			return new Queued(this, checkNotNull(task));
+		}
+
+		/**
+		 * Stops counting the task as queued if its future completes without it having started, as when it is
+		 * cancelled while it waits.
+		 */
+		<F extends ListenableFuture<?>> F watch(final F future) {
+			future.addListener(new Runnable() {
+				@Override
+				public void run() {
+					settle();
+				}
+			}, MoreExecutors.sameThreadExecutor());
+
+			return future;
+		}
+
+		void settle() {
+			if (started.compareAndSet(false, true)) {
+				queued.decrementAndGet();
+			}
+		}
+
+		void start() {
+			active.incrementAndGet();
+
+			if (started.compareAndSet(false, true)) {
+				queued.decrementAndGet();
+				queueWait.update(ticker.read() - submitted, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+
+	/**
+	 * A task as it is handed to the executor.
+	 */
+	private final class Queued implements Runnable {
+		private final Entry entry;
+		private final Runnable task;
+
+		Queued(final Entry entry, final Runnable task) {
+			this.entry = entry;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			entry.start();
+
+			try {
+				task.run();
+			} finally {
+				active.decrementAndGet();
+			}
+		}
+	}
+}
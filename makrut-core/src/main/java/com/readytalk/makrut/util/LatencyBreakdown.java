@@ -0,0 +1,179 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Where the time of one submitted command went, phase by phase, across all of its attempts.
+ *
+ * Waits between stages are recorded as laps: each lap is the time since the previous lap or mark, starting from when
+ * the breakdown was created, normally on submission.  Work done inside a stage is timed instead, and a timed phase
+ * does not count the time of any phase timed within it, so that, e.g., the wait on a blocking cache does not include
+ * the execution of the load it waited for.  No time is counted twice, though the time between phases that no stage
+ * records, such as deciding whether to retry, is not counted at all.
+ *
+ * The attempts of a hedged command share its breakdown and run at the same time, so their laps interleave and the
+ * phases of a hedged command are only approximate.
+ */
+@ThreadSafe
+public class LatencyBreakdown {
+
+	/**
+	 * The phases a command's time is divided into.
+	 */
+	public enum Phase {
+		/**
+		 * From submission until the first attempt starts running, less any time waiting for a bulkhead permit.
+		 */
+		QUEUE,
+
+		/**
+		 * Waiting for a bulkhead or semaphore permit.
+		 */
+		PERMIT,
+
+		/**
+		 * Waiting on a blocking cache for another call to load the value.
+		 */
+		CACHE,
+
+		/**
+		 * Running the command itself, in every attempt.
+		 */
+		EXECUTION,
+
+		/**
+		 * Backing off before a retry.
+		 */
+		BACKOFF,
+
+		/**
+		 * From the end of a backoff, or the failure if there is none, until the retry starts running.
+		 */
+		RETRY_QUEUE,
+
+		/**
+		 * Looking for a fallback value after the command failed.
+		 */
+		FALLBACK;
+
+		/**
+		 * The name the phase is reported under, e.g., retry-queue.
+		 */
+		public String getMetricName() {
+			return name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final Ticker ticker;
+	private final long created;
+	private final AtomicLong mark;
+	private final AtomicLong timed = new AtomicLong(0L);
+	private final AtomicLongArray nanos = new AtomicLongArray(PHASES.length);
+	private final AtomicLongArray counts = new AtomicLongArray(PHASES.length);
+
+	/**
+	 * Creates a breakdown whose first lap starts now.
+	 *
+	 * @param ticker The clock to time phases by.
+	 */
+	public LatencyBreakdown(final Ticker ticker) {
+		this.ticker = checkNotNull(ticker);
+		this.created = ticker.read();
+		this.mark = new AtomicLong(created);
+	}
+
+	/**
+	 * Records the time since the last lap or mark as a phase, and starts the next lap.
+	 */
+	public void lap(final Phase phase) {
+		checkNotNull(phase);
+
+		long now = ticker.read();
+
+		record(phase, now - mark.getAndSet(now));
+	}
+
+	/**
+	 * Starts the next lap without recording the time since the last one.
+	 */
+	public void mark() {
+		mark.set(ticker.read());
+	}
+
+	/**
+	 * Calls a callable and records the time it took as a phase, less the time of any phases timed within it.  The time
+	 * is recorded whether or not the callable throws.
+	 */
+	public <T> T time(final Phase phase, final Callable<T> callable) throws Exception {
+		checkNotNull(phase);
+		checkNotNull(callable);
+
+		long start = ticker.read();
+		long nested = timed.get();
+
+		try {
+			return callable.call();
+		} finally {
+			long exclusive = Math.max(0L, ticker.read() - start - (timed.get() - nested));
+
+			record(phase, exclusive);
+			timed.addAndGet(exclusive);
+		}
+	}
+
+	/**
+	 * The time recorded for a phase, across every attempt.
+	 */
+	@Nonnegative
+	public long getTime(final Phase phase, final TimeUnit unit) {
+		return unit.convert(nanos.get(phase.ordinal()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The number of times a phase was recorded, such as once for each attempt that ran.  A phase that was never
+	 * recorded did not take place, and its time is not reported.
+	 */
+	@Nonnegative
+	public long getCount(final Phase phase) {
+		return counts.get(phase.ordinal());
+	}
+
+	/**
+	 * The time since the breakdown was created.
+	 */
+	@Nonnegative
+	public long getElapsed(final TimeUnit unit) {
+		return unit.convert(Math.max(0L, ticker.read() - created), TimeUnit.NANOSECONDS);
+	}
+
+	private void record(final Phase phase, final long duration) {
+		nanos.addAndGet(phase.ordinal(), Math.max(0L, duration));
+		counts.incrementAndGet(phase.ordinal());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+
+		for (Phase phase : PHASES) {
+			if (getCount(phase) > 0L) {
+				builder.append(builder.length() == 0 ? "" : ", ").append(phase.getMetricName()).append(' ')
+						.append(getTime(phase, TimeUnit.MICROSECONDS)).append("us");
+			}
+		}
+
+		return builder.toString();
+	}
+}
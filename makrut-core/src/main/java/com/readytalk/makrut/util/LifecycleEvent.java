@@ -0,0 +1,147 @@
+package com.readytalk.makrut.util;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+
+/**
+ * Something that happened to a command, as published to a LifecycleEvents buffer.
+ *
+ * Events are preallocated slots in the buffer and are reused once every listener has seen them, so an event is only
+ * valid for the duration of the call to the listener; a listener that keeps anything from it must copy it.
+ */
+@NotThreadSafe
+public final class LifecycleEvent {
+
+	/**
+	 * The kinds of event a command goes through.
+	 */
+	public enum Type {
+		/**
+		 * The command was submitted to the executor.
+		 */
+		SUBMITTED,
+
+		/**
+		 * An attempt of the command started running.
+		 */
+		ATTEMPT_STARTED,
+
+		/**
+		 * An attempt of the command threw; the failure is the exception it threw.
+		 */
+		ATTEMPT_FAILED,
+
+		/**
+		 * A retry of the command was scheduled; the delay is its backoff.
+		 */
+		RETRY_SCHEDULED,
+
+		/**
+		 * The command failed and a value from the fallback cache was used instead; the failure is why.
+		 */
+		FALLBACK_USED,
+
+		/**
+		 * The blocking cache already held the command's value, or another caller loaded it, so the command did not
+		 * run.
+		 */
+		CACHE_HIT,
+
+		/**
+		 * The future for the command completed; the failure, if any, is what the caller sees.
+		 */
+		COMPLETED
+	}
+
+	private Type type;
+	private String commandName;
+	private Callable<?> command;
+	private int attempt;
+	private long nanoTime;
+	private long delayNanos;
+	private Throwable failure;
+
+	LifecycleEvent() {
+
+	}
+
+	void set(final Type eventType,
+			final String name,
+			final Callable<?> input,
+			final int attemptNumber,
+			final long time,
+			final long delay,
+			@Nullable final Throwable cause) {
+		this.type = eventType;
+		this.commandName = name;
+		this.command = input;
+		this.attempt = attemptNumber;
+		this.nanoTime = time;
+		this.delayNanos = delay;
+		this.failure = cause;
+	}
+
+	/**
+	 * Drops the references the event holds once every listener has seen it.
+	 */
+	void clear() {
+		this.command = null;
+		this.failure = null;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * The name the executor reports the command's metrics under.
+	 */
+	public String getCommandName() {
+		return commandName;
+	}
+
+	/**
+	 * The command as it was submitted.
+	 */
+	public Callable<?> getCommand() {
+		return command;
+	}
+
+	/**
+	 * The attempt the event is for, starting at one, or the number of attempts made so far for events that are not
+	 * about a single attempt.
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	/**
+	 * When the event happened, as read from the executor's ticker.
+	 */
+	public long getNanoTime() {
+		return nanoTime;
+	}
+
+	/**
+	 * The backoff before a scheduled retry, or zero for other events.
+	 */
+	public long getDelay(final TimeUnit unit) {
+		return unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The exception a failed attempt threw, the failure a fallback replaced, or the failure a command completed with.
+	 */
+	public Optional<Throwable> getFailure() {
+		return Optional.fromNullable(failure);
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + commandName + " (attempt " + attempt + ")";
+	}
+}
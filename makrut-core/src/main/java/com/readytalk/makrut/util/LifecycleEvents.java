@@ -0,0 +1,219 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A buffer of command lifecycle events that passes them from the threads running commands to listeners on a
+ * consumer thread of its own, so that listeners add no latency to the commands.
+ *
+ * The buffer is a ring of preallocated events.  Publishing claims the next slot with a compare-and-set, fills it in
+ * and marks it published, without locking or allocating.  When the consumer has fallen a full ring behind, new events
+ * are dropped and counted rather than making the publisher wait.  The consumer hands each published event to every
+ * listener in turn, in the order the slots were claimed, and then frees the slot.
+ */
+@ThreadSafe
+public class LifecycleEvents {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LifecycleEvents.class);
+	private static final int IDLE_YIELDS = 100;
+	private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+	private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+
+	private final LifecycleEvent[] slots;
+	private final AtomicLongArray published;
+	private final int mask;
+	private final List<LifecycleListener> listeners;
+	private final Ticker ticker;
+
+	private final AtomicLong claimed = new AtomicLong(0L);
+	private final AtomicLong dropped = new AtomicLong(0L);
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	private volatile long consumed = 0L;
+
+	/**
+	 * @param capacity The number of events the buffer holds before it drops them, which is rounded up to a power of
+	 * two.
+	 * @param listeners The listeners to hand events to, in the order they are called.
+	 */
+	public LifecycleEvents(final int capacity, final List<LifecycleListener> listeners) {
+		this(capacity, listeners, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param capacity The number of events the buffer holds before it drops them, which is rounded up to a power of
+	 * two.
+	 * @param listeners The listeners to hand events to, in the order they are called.
+	 * @param ticker The clock events are timestamped by.
+	 */
+	public LifecycleEvents(final int capacity, final List<LifecycleListener> listeners, final Ticker ticker) {
+		checkArgument(capacity > 0, "Capacity must be greater than zero.");
+
+		int size = Integer.highestOneBit(capacity);
+
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		this.slots = new LifecycleEvent[size];
+		this.published = new AtomicLongArray(size);
+		this.mask = size - 1;
+		this.listeners = ImmutableList.copyOf(listeners);
+		this.ticker = checkNotNull(ticker);
+
+		for (int i = 0; i < size; i++) {
+			slots[i] = new LifecycleEvent();
+			published.set(i, -1L);
+		}
+	}
+
+	/**
+	 * Publishes an event, timestamped now.
+	 *
+	 * @param type The kind of event.
+	 * @param commandName The name the command's metrics are reported under.
+	 * @param command The command as it was submitted.
+	 * @param attempt The attempt the event is for, or the number of attempts made so far.
+	 * @param delayNanos The backoff of a scheduled retry, or zero.
+	 * @param failure The failure the event is about, if any.
+	 *
+	 * @return Whether the event was published; it is dropped if the buffer is full.
+	 */
+	public boolean publish(final LifecycleEvent.Type type,
+			final String commandName,
+			final Callable<?> command,
+			final int attempt,
+			@Nonnegative final long delayNanos,
+			@Nullable final Throwable failure) {
+		long sequence;
+
+		do {
+			sequence = claimed.get();
+
+			if (sequence - consumed >= slots.length) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1L));
+
+		int index = (int) sequence & mask;
+
+		slots[index].set(type, commandName, command, attempt, ticker.read(), delayNanos, failure);
+		published.lazySet(index, sequence);
+
+		return true;
+	}
+
+	/**
+	 * Hands every event published so far to the listeners.  Only one thread drains at a time; if another thread is
+	 * already draining, this returns without doing anything.
+	 *
+	 * @return The number of events handed to the listeners.
+	 */
+	public int drain() {
+		if (!draining.compareAndSet(false, true)) {
+			return 0;
+		}
+
+		int count = 0;
+
+		try {
+			long sequence = consumed;
+			int index = (int) sequence & mask;
+
+			while (published.get(index) == sequence) {
+				deliver(slots[index]);
+
+				sequence++;
+				consumed = sequence;
+				count++;
+				index = (int) sequence & mask;
+			}
+		} finally {
+			draining.set(false);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Drains events continuously on a thread of the given executor until the returned future is cancelled.  When
+	 * there are no events, the consumer first yields a number of times, then parks for 50 microseconds, doubling the
+	 * pause each time it still finds none up to 10 milliseconds, so an idle buffer wakes its consumer about a hundred
+	 * times a second.  The first event it finds resets the pause.  The executor should have a thread to spare for as
+	 * long as the buffer is in use.
+	 *
+	 * @return The running consumer.  Cancelling it, with interruption, stops the consumer once it has drained the
+	 * events already published.
+	 */
+	public Future<?> start(final ExecutorService consumer) {
+		return consumer.submit(new Runnable() {
+			@Override
+			public void run() {
+				int yields = 0;
+				long idleNanos = MIN_IDLE_NANOS;
+
+				while (!Thread.currentThread().isInterrupted()) {
+					if (drain() > 0) {
+						yields = 0;
+						idleNanos = MIN_IDLE_NANOS;
+					} else if (yields < IDLE_YIELDS) {
+						yields++;
+						Thread.yield();
+					} else {
+						LockSupport.parkNanos(idleNanos);
+						idleNanos = Math.min(idleNanos * 2L, MAX_IDLE_NANOS);
+					}
+				}
+
+				drain();
+			}
+		});
+	}
+
+	/**
+	 * The number of events published that the consumer has not yet drained.
+	 */
+	@Nonnegative
+	public long getPending() {
+		return Math.max(0L, claimed.get() - consumed);
+	}
+
+	/**
+	 * The number of events dropped because the buffer was full.
+	 */
+	@Nonnegative
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private void deliver(final LifecycleEvent event) {
+		for (LifecycleListener listener : listeners) {
+			try {
+				listener.onEvent(event);
+			} catch (RuntimeException ex) {
+				LOGGER.warn("Lifecycle listener failed on {}.", event, ex);
+			}
+		}
+
+		event.clear();
+	}
+}
@@ -0,0 +1,13 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Receives the lifecycle events of commands from a LifecycleEvents buffer.  Listeners are called on the buffer's
+ * consumer thread, one event at a time and in the order the events were published, never on the threads running the
+ * commands.
+ */
+public interface LifecycleListener {
+	/**
+	 * @param event The event.  It is reused once this returns, so anything kept from it must be copied.
+	 */
+	void onEvent(LifecycleEvent event);
+}
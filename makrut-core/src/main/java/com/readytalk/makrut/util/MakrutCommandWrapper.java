@@ -9,8 +9,10 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
+import com.readytalk.makrut.command.Prioritized;
 import com.readytalk.makrut.strategy.BackoffStrategy;
 
 /**
@@ -18,24 +20,119 @@ import com.readytalk.makrut.strategy.BackoffStrategy;
  * visibility, but not to be executed on those threads at the same time as being scheduled.
  */
 @ThreadSafe
-public class MakrutCommandWrapper<T> implements Callable<T> {
+public class MakrutCommandWrapper<T> implements Callable<T>, Prioritized {
 
 	private final Lock timerLock = new ReentrantLock();
 	private final AtomicInteger callCount = new AtomicInteger(0);
 	private final AtomicLong lastBackoffMillis = new AtomicLong(0);
 
 	private final Callable<T> delegate;
+	private final Callable<T> hedgeDelegate;
+	private final Ticker ticker;
 	private final Stopwatch timer;
+	private final int priority;
+	private final Optional<Deadline> deadline;
+	private final Optional<LatencyBreakdown> breakdown;
+	private final Optional<CommandLifecycle> lifecycle;
 
 	public MakrutCommandWrapper(final Callable<T> delegate, final Ticker ticker) {
+		this(delegate, ticker, NORMAL);
+	}
+
+	/**
+	 * @param delegate The command to run.
+	 * @param ticker The clock to time the command's attempts by.
+	 * @param priority The priority to schedule every attempt of the command at.
+	 */
+	public MakrutCommandWrapper(final Callable<T> delegate, final Ticker ticker, final int priority) {
+		this(delegate, ticker, priority, Optional.<Deadline>absent());
+	}
+
+	/**
+	 * @param delegate The command to run.
+	 * @param ticker The clock to time the command's attempts by.
+	 * @param priority The priority to schedule every attempt of the command at.
+	 * @param deadline The deadline every attempt of the command must complete by, if any.
+	 */
+	public MakrutCommandWrapper(final Callable<T> delegate,
+			final Ticker ticker,
+			final int priority,
+			final Optional<Deadline> deadline) {
+		this(delegate, ticker, priority, deadline, Optional.<LatencyBreakdown>absent());
+	}
+
+	/**
+	 * @param delegate The command to run.
+	 * @param ticker The clock to time the command's attempts by.
+	 * @param priority The priority to schedule every attempt of the command at.
+	 * @param deadline The deadline every attempt of the command must complete by, if any.
+	 * @param breakdown The breakdown to record the command's phases in, if any.  The start of each attempt ends the
+	 * lap it was queued for.
+	 */
+	public MakrutCommandWrapper(final Callable<T> delegate,
+			final Ticker ticker,
+			final int priority,
+			final Optional<Deadline> deadline,
+			final Optional<LatencyBreakdown> breakdown) {
+		this(delegate, ticker, priority, deadline, breakdown, Optional.<CommandLifecycle>absent());
+	}
+
+	/**
+	 * @param delegate The command to run.
+	 * @param ticker The clock to time the command's attempts by.
+	 * @param priority The priority to schedule every attempt of the command at.
+	 * @param deadline The deadline every attempt of the command must complete by, if any.
+	 * @param breakdown The breakdown to record the command's phases in, if any.  The start of each attempt ends the
+	 * lap it was queued for.
+	 * @param lifecycle Where to publish the command's lifecycle events, if anywhere.  Each attempt publishes its start
+	 * and any failure, and is reported to the lifecycle's probe as a span.
+	 */
+	public MakrutCommandWrapper(final Callable<T> delegate,
+			final Ticker ticker,
+			final int priority,
+			final Optional<Deadline> deadline,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
+		this(delegate, delegate, ticker, priority, deadline, breakdown, lifecycle);
+	}
+
+	/**
+	 * @param delegate The command to run.
+	 * @param hedgeDelegate The command a hedge of this one runs instead, such as the same command without stages that
+	 * would make it wait on this one.
+	 * @param ticker The clock to time the command's attempts by.
+	 * @param priority The priority to schedule every attempt of the command at.
+	 * @param deadline The deadline every attempt of the command must complete by, if any.
+	 * @param breakdown The breakdown to record the command's phases in, if any.  The start of each attempt ends the
+	 * lap it was queued for.
+	 * @param lifecycle Where to publish the command's lifecycle events, if anywhere.  Each attempt publishes its start
+	 * and any failure, and is reported to the lifecycle's probe as a span.
+	 */
+	public MakrutCommandWrapper(final Callable<T> delegate,
+			final Callable<T> hedgeDelegate,
+			final Ticker ticker,
+			final int priority,
+			final Optional<Deadline> deadline,
+			final Optional<LatencyBreakdown> breakdown,
+			final Optional<CommandLifecycle> lifecycle) {
 		this.delegate = delegate;
+		this.hedgeDelegate = hedgeDelegate;
+		this.ticker = ticker;
 		this.timer = new Stopwatch(ticker);
-
+		this.priority = priority;
+		this.deadline = deadline;
+		this.breakdown = breakdown;
+		this.lifecycle = lifecycle;
 	}
 
 	@Override
 	public T call() throws Exception {
 
+		if (breakdown.isPresent()) {
+			breakdown.get().lap(callCount.get() == 0 ? LatencyBreakdown.Phase.QUEUE
+					: LatencyBreakdown.Phase.RETRY_QUEUE);
+		}
+
 		timerLock.lock();
 
 		try {
@@ -46,10 +143,34 @@ public class MakrutCommandWrapper<T> implements Callable<T> {
 			timerLock.unlock();
 		}
 
-		callCount.incrementAndGet();
+		int attempt = callCount.incrementAndGet();
 
+		if (!lifecycle.isPresent()) {
+			return delegate.call();
+		}
 
-		return delegate.call();
+		CommandProbe.Span span = lifecycle.get().attemptStarted(attempt);
+		Throwable failure = null;
+
+		try {
+			return delegate.call();
+		} catch (Exception ex) {
+			failure = ex;
+			lifecycle.get().attemptFailed(attempt, ex);
+			throw ex;
+		} finally {
+			span.end(failure);
+		}
+	}
+
+	/**
+	 * A copy of the command to run alongside its first attempt as a hedge.  The copy runs the hedge delegate, counts
+	 * its own attempts and records no phases, so the attempt count that retries are decided on, and the command's
+	 * breakdown, only see the first.
+	 */
+	public MakrutCommandWrapper<T> hedge() {
+		return new MakrutCommandWrapper<T>(hedgeDelegate, hedgeDelegate, ticker, priority, deadline,
+				Optional.<LatencyBreakdown>absent(), lifecycle);
 	}
 
 	/**
@@ -75,6 +196,32 @@ public class MakrutCommandWrapper<T> implements Callable<T> {
 		}
 	}
 
+	@Override
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * The deadline that every attempt of the command must complete by, if it has one.
+	 */
+	public Optional<Deadline> getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * The breakdown the command's phases are recorded in, if they are recorded.
+	 */
+	public Optional<LatencyBreakdown> getBreakdown() {
+		return breakdown;
+	}
+
+	/**
+	 * Where the command's lifecycle events are published, if anywhere.
+	 */
+	public Optional<CommandLifecycle> getLifecycle() {
+		return lifecycle;
+	}
+
 	/**
 	 * Number of times a method has been called.  Increments prior to the delegate method being called.
 	 */
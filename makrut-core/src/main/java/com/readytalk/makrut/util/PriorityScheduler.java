@@ -0,0 +1,404 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.readytalk.makrut.command.Prioritized;
+
+/**
+ * Places commands on an executor in order of priority rather than arrival.
+ *
+ * The scheduler lets a fixed number of commands run at once, normally the number of threads in the executor, so that
+ * the executor's own FIFO queue stays empty; the rest wait in a priority queue and are dispatched as running commands
+ * complete.  A command's priority is taken from the command if it is Prioritized, and is otherwise normal.
+ *
+ * Waiting commands age so that low priority work is not starved: each step of priority is worth one aging step of
+ * waiting, so a command that has waited for longer than the aging step is dispatched ahead of a newer command one
+ * priority above it.  Optionally, retries are dispatched ahead of any new work, since their callers have already
+ * waited for one attempt.
+ *
+ * Commands with a deadline are ranked by their deadline rather than their arrival, so that they are dispatched
+ * earliest deadline first, and all of them are dispatched ahead of commands without one, which age among themselves
+ * by arrival.  A command whose deadline passes while it waits is dropped from the queue, failing with a
+ * DeadlineExceededException, without taking a slot.
+ */
+@ThreadSafe
+public class PriorityScheduler {
+
+	private static final int RETRY_TIER = 0;
+	private static final int DEADLINE_TIER = 1;
+	private static final int ARRIVAL_TIER = 2;
+
+	private final int maxConcurrent;
+	private final long agingNanos;
+	private final boolean retriesFirst;
+	private final Ticker ticker;
+
+	private final Lock lock = new ReentrantLock();
+	private final AtomicInteger drainRequests = new AtomicInteger(0);
+
+	@GuardedBy("lock")
+	private final PriorityQueue<Waiting<?>> waiting = new PriorityQueue<Waiting<?>>();
+
+	@GuardedBy("lock")
+	private int running = 0;
+
+	@GuardedBy("lock")
+	private long sequence = 0L;
+
+	/**
+	 * Creates a scheduler that orders retries like any other command.
+	 *
+	 * @param maxConcurrent The number of commands that may run at once.
+	 * @param agingStep How long a command must wait to be dispatched as though it were one priority higher.
+	 * @param unit The unit of the aging step.
+	 */
+	public PriorityScheduler(@Nonnegative final int maxConcurrent,
+			@Nonnegative final long agingStep,
+			final TimeUnit unit) {
+		this(maxConcurrent, agingStep, unit, false, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param maxConcurrent The number of commands that may run at once.
+	 * @param agingStep How long a command must wait to be dispatched as though it were one priority higher.
+	 * @param unit The unit of the aging step.
+	 * @param retriesFirst Whether retries are dispatched ahead of commands on their first attempt.
+	 * @param ticker The clock that commands age by.
+	 */
+	public PriorityScheduler(@Nonnegative final int maxConcurrent,
+			@Nonnegative final long agingStep,
+			final TimeUnit unit,
+			final boolean retriesFirst,
+			final Ticker ticker) {
+		checkArgument(maxConcurrent > 0, "Must allow at least one concurrent command.");
+		checkArgument(agingStep > 0L, "Aging step must be greater than zero.");
+
+		this.maxConcurrent = maxConcurrent;
+		this.agingNanos = checkNotNull(unit).toNanos(agingStep);
+		this.retriesFirst = retriesFirst;
+		this.ticker = checkNotNull(ticker);
+	}
+
+	/**
+	 * The number of commands waiting to be dispatched.
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+
+		try {
+			return waiting.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Dispatches a command to the next dispatcher once it is the most urgent command waiting and a slot is free.
+	 *
+	 * @param next The dispatcher to hand the command to.
+	 * @param command The command to run.
+	 *
+	 * @return A future for the result of the command.  Cancelling it while the command waits removes the command from
+	 * the queue; cancelling it afterwards cancels the dispatched command.
+	 */
+	public <T> ListenableFuture<T> submit(final Dispatcher next, final Callable<T> command) {
+		checkNotNull(next);
+		checkNotNull(command);
+
+		final Waiting<T> entry;
+
+		final Optional<Deadline> deadline = deadlineOf(command);
+
+		if (deadline.isPresent() && deadline.get().isExpired()) {
+			return Futures.immediateFailedFuture(new DeadlineExceededException("Deadline passed before dispatch."));
+		}
+
+		lock.lock();
+
+		try {
+			if (running < maxConcurrent && waiting.isEmpty()) {
+				running++;
+				entry = null;
+			} else {
+				entry = new Waiting<T>(next, command, deadline, tier(command, deadline), rank(command, deadline),
+						sequence++);
+				waiting.add(entry);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (entry == null) {
+			return dispatchHoldingSlot(next, command);
+		}
+
+		entry.result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				if (entry.result.isCancelled()) {
+					lock.lock();
+
+					try {
+						waiting.remove(entry);
+					} finally {
+						lock.unlock();
+					}
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		drain();
+
+		return entry.result;
+	}
+
+	private static Optional<Deadline> deadlineOf(final Callable<?> command) {
+		if (command instanceof MakrutCommandWrapper) {
+			return ((MakrutCommandWrapper<?>) command).getDeadline();
+		}
+
+		return Optional.absent();
+	}
+
+	/**
+	 * The class of commands the command is queued among: retries when they go first, then commands with a deadline,
+	 * then the rest.  Every command of one class is dispatched ahead of any of the next.
+	 */
+	private int tier(final Callable<?> command, final Optional<Deadline> deadline) {
+		if (retriesFirst && command instanceof MakrutCommandWrapper
+				&& ((MakrutCommandWrapper<?>) command).callCount() > 0) {
+			return RETRY_TIER;
+		}
+
+		return deadline.isPresent() ? DEADLINE_TIER : ARRIVAL_TIER;
+	}
+
+	/**
+	 * The command's place among its class: the time it is due, either its deadline or its arrival, less an aging step
+	 * for each step of priority.
+	 */
+	private long rank(final Callable<?> command, final Optional<Deadline> deadline) {
+		int priority = command instanceof Prioritized ? ((Prioritized) command).getPriority() : Prioritized.NORMAL;
+		long due = ticker.read();
+
+		if (deadline.isPresent()) {
+			due += deadline.get().timeRemaining(TimeUnit.NANOSECONDS);
+		}
+
+		return due - priority * agingNanos;
+	}
+
+	private <T> ListenableFuture<T> dispatchHoldingSlot(final Dispatcher next, final Callable<T> command) {
+		final ListenableFuture<T> future;
+
+		try {
+			future = next.dispatch(command);
+		} catch (RuntimeException ex) {
+			release();
+			throw ex;
+		}
+
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				release();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		return future;
+	}
+
+	/**
+	 * Frees the slot of a completed command and hands it on.
+	 */
+	private void release() {
+		freeSlot();
+		drain();
+	}
+
+	private void freeSlot() {
+		lock.lock();
+
+		try {
+			running--;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands free slots to the most urgent waiting commands while there are both.
+	 *
+	 * Only one thread drains at a time.  A call made while another is draining, including one made by a command that
+	 * completes as it is dispatched, only asks the draining thread to go round again, so commands that complete at
+	 * once are handed their slots in a loop rather than by recursion.
+	 */
+	private void drain() {
+		if (drainRequests.getAndIncrement() != 0) {
+			return;
+		}
+
+		int requests = 1;
+
+		do {
+			Waiting<?> entry = takeSlot();
+
+			while (entry != null) {
+				entry.start();
+				entry = takeSlot();
+			}
+
+			requests = drainRequests.addAndGet(-requests);
+		} while (requests != 0);
+	}
+
+	/**
+	 * Takes a free slot for the most urgent waiting command, dropping any whose deadline has passed along the way.
+	 *
+	 * @return The command to start in the slot, or null if there is no free slot or no command waiting.
+	 */
+	@Nullable
+	private Waiting<?> takeSlot() {
+		List<Waiting<?>> expired = null;
+		Waiting<?> entry = null;
+
+		lock.lock();
+
+		try {
+			if (running < maxConcurrent) {
+				entry = waiting.poll();
+
+				while (entry != null && entry.deadline.isPresent() && entry.deadline.get().isExpired()) {
+					if (expired == null) {
+						expired = Lists.newArrayList();
+					}
+
+					expired.add(entry);
+					entry = waiting.poll();
+				}
+
+				if (entry != null) {
+					running++;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		if (expired != null) {
+			for (Waiting<?> dropped : expired) {
+				dropped.result.setException(new DeadlineExceededException(
+						"Deadline passed while waiting for dispatch."));
+			}
+		}
+
+		return entry;
+	}
+
+	/**
+	 * A command waiting for a slot.
+	 */
+	private final class Waiting<T> implements Comparable<Waiting<?>> {
+		private final Dispatcher next;
+		private final Callable<T> command;
+		private final Optional<Deadline> deadline;
+		private final int tier;
+		private final long rank;
+		private final long order;
+		private final SettableFuture<T> result = SettableFuture.create();
+
+		Waiting(final Dispatcher next,
+				final Callable<T> command,
+				final Optional<Deadline> deadline,
+				final int tier,
+				final long rank,
+				final long order) {
+			this.next = next;
+			this.command = command;
+			this.deadline = deadline;
+			this.tier = tier;
+			this.rank = rank;
+			this.order = order;
+		}
+
+		@Override
+		public int compareTo(final Waiting<?> other) {
+			if (tier != other.tier) {
+				return tier < other.tier ? -1 : 1;
+			}
+
+			if (rank != other.rank) {
+				return rank < other.rank ? -1 : 1;
+			}
+
+			return order < other.order ? -1 : (order == other.order ? 0 : 1);
+		}
+
+		/**
+		 * Dispatches the command in the slot taken for it.  A command that was cancelled in the meantime gives the
+		 * slot back for the draining thread to hand on.
+		 */
+		void start() {
+			if (result.isDone()) {
+				freeSlot();
+				return;
+			}
+
+			final ListenableFuture<T> future;
+
+			try {
+				future = dispatchHoldingSlot(next, command);
+			} catch (RuntimeException ex) {
+				result.setException(ex);
+				return;
+			}
+
+			Futures.addCallback(future, new FutureCallback<T>() {
+				@Override
+				public void onSuccess(final T value) {
+					result.set(value);
+				}
+
+				@Override
+				public void onFailure(final Throwable t) {
+					if (t instanceof CancellationException) {
+						result.cancel(false);
+					} else {
+						result.setException(t);
+					}
+				}
+			});
+
+			result.addListener(new Runnable() {
+				@Override
+				public void run() {
+					if (result.isCancelled()) {
+						future.cancel(true);
+					}
+				}
+			}, MoreExecutors.sameThreadExecutor());
+		}
+	}
+}
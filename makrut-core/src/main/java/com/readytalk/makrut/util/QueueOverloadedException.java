@@ -0,0 +1,13 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command when admission control finds the executor's queue overloaded, so that the
+ * command is shed at once rather than joining a queue it would wait too long in.
+ */
+public class QueueOverloadedException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public QueueOverloadedException(final String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,13 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Thrown in place of running a command when a rate limiter could not let it through without it waiting for longer
+ * than the limiter allows.
+ */
+public class RateLimitExceededException extends CommandRejectedException {
+	private static final long serialVersionUID = 1L;
+
+	public RateLimitExceededException(final String message) {
+		super(message);
+	}
+}
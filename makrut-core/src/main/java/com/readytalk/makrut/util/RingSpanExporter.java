@@ -0,0 +1,59 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Keeps the most recently ended spans in memory, dropping the oldest once it is full.  Intended for tests and for
+ * looking at recent requests from a debugging endpoint, not for heavy use.
+ */
+@ThreadSafe
+public class RingSpanExporter implements SpanExporter {
+
+	private final TraceSpan[] spans;
+
+	private long exported = 0L;
+
+	/**
+	 * @param capacity The number of spans to keep.
+	 */
+	public RingSpanExporter(final int capacity) {
+		checkArgument(capacity > 0, "Capacity must be greater than zero.");
+
+		this.spans = new TraceSpan[capacity];
+	}
+
+	@Override
+	public synchronized void export(final TraceSpan span) {
+		spans[(int) (exported % spans.length)] = span;
+		exported++;
+	}
+
+	/**
+	 * The spans kept, in the order they ended.
+	 */
+	public synchronized List<TraceSpan> getSpans() {
+		ImmutableList.Builder<TraceSpan> builder = ImmutableList.builder();
+
+		for (long i = Math.max(0L, exported - spans.length); i < exported; i++) {
+			builder.add(spans[(int) (i % spans.length)]);
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * Drops every span kept.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < spans.length; i++) {
+			spans[i] = null;
+		}
+
+		exported = 0L;
+	}
+}
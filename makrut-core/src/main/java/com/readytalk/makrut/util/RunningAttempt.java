@@ -0,0 +1,47 @@
+package com.readytalk.makrut.util;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Callable;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * The future of the attempt running on the current thread, when the attempt was dispatched through
+ * FutureUtils.withTimeLimits.  A time limit on the attempt fails this future as soon as the limit passes, so that the
+ * attempt's caller is not kept waiting by a call that ignores the interrupt.
+ */
+final class RunningAttempt {
+
+	private static final ThreadLocal<SettableFuture<?>> CURRENT = new ThreadLocal<SettableFuture<?>>();
+
+	private RunningAttempt() {
+
+	}
+
+	/**
+	 * Runs an attempt on the current thread, with the given future as the attempt's own.
+	 */
+	static <T> T run(final SettableFuture<T> future, final Callable<T> command) throws Exception {
+		SettableFuture<?> previous = CURRENT.get();
+
+		CURRENT.set(future);
+
+		try {
+			return command.call();
+		} finally {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+
+	/**
+	 * The future of the attempt running on the current thread, or null if it was not dispatched with one.
+	 */
+	@Nullable
+	static SettableFuture<?> current() {
+		return CURRENT.get();
+	}
+}
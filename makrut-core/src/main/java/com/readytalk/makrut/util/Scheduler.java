@@ -0,0 +1,24 @@
+package com.readytalk.makrut.util;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Runs tasks after a delay.  Used to defer retries while they back off.
+ */
+@ThreadSafe
+public interface Scheduler {
+	/**
+	 * Schedules a task to run once the delay has passed.
+	 *
+	 * @param task The task to run.
+	 * @param delay How long to wait before running the task.
+	 * @param unit The unit of the delay.
+	 *
+	 * @return A ListenableFuture that completes once the task has run.  Cancelling it before then stops the task from
+	 * running.
+	 */
+	ListenableFuture<?> schedule(Runnable task, long delay, TimeUnit unit);
+}
@@ -0,0 +1,38 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Common schedulers.
+ */
+public final class Schedulers {
+
+	private Schedulers() {
+
+	}
+
+	/**
+	 * Schedules every task on a ScheduledExecutorService, which runs it on one of its own threads.
+	 *
+	 * @param service The executor to schedule on.
+	 */
+	public static Scheduler forExecutor(final ScheduledExecutorService service) {
+		checkNotNull(service);
+
+		return new Scheduler() {
+			@Override
+			public ListenableFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+				ListenableFutureTask<Void> future = ListenableFutureTask.create(task, null);
+				service.schedule(future, delay, unit);
+
+				return future;
+			}
+		};
+	}
+}
@@ -0,0 +1,28 @@
+package com.readytalk.makrut.util;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The timer used by stages that are not given one, started the first time it is needed.  Its tasks must do very
+ * little work, since they all share its single daemon thread.  Most of them, such as time limits, are cancelled long
+ * before they are due, so cancelled tasks are removed from its queue at once rather than kept until they expire.
+ */
+final class SharedTimer {
+	static final ScheduledExecutorService INSTANCE = create();
+
+	private SharedTimer() {
+
+	}
+
+	private static ScheduledExecutorService create() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("makrut-timer-%d").build());
+
+		timer.setRemoveOnCancelPolicy(true);
+
+		return timer;
+	}
+}
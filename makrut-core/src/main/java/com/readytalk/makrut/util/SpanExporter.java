@@ -0,0 +1,12 @@
+package com.readytalk.makrut.util;
+
+/**
+ * Receives trace spans as they end.  Exporters are called on the thread that ends the span, which is often one
+ * running a command, so they should hand the span off rather than doing slow work themselves.
+ */
+public interface SpanExporter {
+	/**
+	 * @param span The span, which has ended.
+	 */
+	void export(TraceSpan span);
+}
@@ -0,0 +1,73 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps extra work, such as hedged attempts or retries, at a fraction of the calls made.  Each call deposits that
+ * fraction of a token and each extra attempt withdraws a whole one, so over time extra attempts cannot exceed the
+ * fraction of calls, while the balance, capped at a maximum, allows for short bursts.  The budget starts full.
+ */
+@ThreadSafe
+public class TokenBudget {
+	private static final long SCALE = 1000L;
+
+	private final long depositPerCall;
+	private final long maxBalance;
+	private final AtomicLong balance;
+
+	/**
+	 * @param ratio The fraction of calls that may be matched by an extra attempt, e.g., 0.05.
+	 * @param maxTokens The most extra attempts that may be saved up for a burst.
+	 */
+	public TokenBudget(@Nonnegative final double ratio, @Nonnegative final int maxTokens) {
+		checkArgument(ratio > 0.0d && ratio <= 1.0d, "Ratio must be greater than zero and at most one.");
+		checkArgument(maxTokens > 0, "Must allow at least one token.");
+
+		this.depositPerCall = Math.max(1L, Math.round(ratio * SCALE));
+		this.maxBalance = maxTokens * SCALE;
+		this.balance = new AtomicLong(maxBalance);
+	}
+
+	/**
+	 * Records a call, earning it a fraction of a token.
+	 */
+	public void deposit() {
+		while (true) {
+			long current = balance.get();
+
+			if (current >= maxBalance) {
+				return;
+			} else if (balance.compareAndSet(current, Math.min(maxBalance, current + depositPerCall))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Spends a token on an extra attempt, if one is available.
+	 *
+	 * @return Whether the extra attempt may be made.
+	 */
+	public boolean tryWithdraw() {
+		while (true) {
+			long current = balance.get();
+
+			if (current < SCALE) {
+				return false;
+			} else if (balance.compareAndSet(current, current - SCALE)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The number of tokens currently available.
+	 */
+	public double getTokens() {
+		return (double) balance.get() / SCALE;
+	}
+}
@@ -0,0 +1,194 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A timed piece of work within a trace, such as a submitted command or one of its attempts.  Spans form a tree: each
+ * trace has a root span, and every other span has the span it was started within as its parent.
+ *
+ * A span may be entered on a thread, which makes it the current span there until the scope is closed, so that work
+ * on that thread can start its own spans as children without being handed the parent.  A span is exported to its
+ * tracer's exporter once, when it is first ended.
+ */
+@ThreadSafe
+public final class TraceSpan {
+	private static final ThreadLocal<TraceSpan> CURRENT = new ThreadLocal<TraceSpan>();
+
+	private final Tracer tracer;
+	private final String name;
+	private final long traceId;
+	private final long spanId;
+	private final long parentId;
+	private final long startNanos;
+	private final Map<String, String> tags = new LinkedHashMap<String, String>();
+	private final AtomicBoolean ended = new AtomicBoolean(false);
+
+	private volatile long durationNanos = 0L;
+	private volatile Throwable failure = null;
+
+	TraceSpan(final Tracer tracer,
+			final String name,
+			final long traceId,
+			final long spanId,
+			final long parentId,
+			final long startNanos) {
+		this.tracer = tracer;
+		this.name = checkNotNull(name);
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentId = parentId;
+		this.startNanos = startNanos;
+	}
+
+	/**
+	 * The span entered on the calling thread, if any.
+	 */
+	public static Optional<TraceSpan> current() {
+		return Optional.fromNullable(CURRENT.get());
+	}
+
+	/**
+	 * Starts a span within this one.
+	 */
+	public TraceSpan child(final String childName) {
+		return tracer.start(this, childName);
+	}
+
+	/**
+	 * Attaches a value to the span, replacing any already attached under the key.
+	 *
+	 * @return This span.
+	 */
+	public TraceSpan tag(final String key, final Object value) {
+		checkNotNull(key);
+		checkNotNull(value);
+
+		synchronized (tags) {
+			tags.put(key, String.valueOf(value));
+		}
+
+		return this;
+	}
+
+	/**
+	 * Makes this the current span on the calling thread until the returned scope is closed, which must be done on the
+	 * same thread.
+	 */
+	public Scope enter() {
+		Scope scope = new Scope(CURRENT.get());
+
+		CURRENT.set(this);
+
+		return scope;
+	}
+
+	public void end() {
+		end(null);
+	}
+
+	/**
+	 * Ends the span and exports it.  Only the first call has any effect.
+	 *
+	 * @param cause The exception the work failed with, if any.
+	 */
+	public void end(@Nullable final Throwable cause) {
+		if (!ended.compareAndSet(false, true)) {
+			return;
+		}
+
+		this.failure = cause;
+		this.durationNanos = Math.max(0L, tracer.read() - startNanos);
+
+		tracer.export(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The trace the span belongs to, which is the span ID of its root.
+	 */
+	public long getTraceId() {
+		return traceId;
+	}
+
+	public long getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * The span this one was started within, or zero for the root of a trace.
+	 */
+	public long getParentId() {
+		return parentId;
+	}
+
+	/**
+	 * When the span started, as read from the tracer's ticker.
+	 */
+	public long getStartNanos() {
+		return startNanos;
+	}
+
+	/**
+	 * How long the span ran, or zero if it has not ended.
+	 */
+	@Nonnegative
+	public long getDuration(final TimeUnit unit) {
+		return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public boolean isEnded() {
+		return ended.get();
+	}
+
+	public Map<String, String> getTags() {
+		synchronized (tags) {
+			return ImmutableMap.copyOf(tags);
+		}
+	}
+
+	public Optional<Throwable> getFailure() {
+		return Optional.fromNullable(failure);
+	}
+
+	@Override
+	public String toString() {
+		return name + " [" + traceId + "/" + spanId + "/" + parentId + "] "
+				+ getDuration(TimeUnit.MICROSECONDS) + "us " + getTags();
+	}
+
+	/**
+	 * The time a span is current on a thread.
+	 */
+	public static final class Scope {
+		private final TraceSpan previous;
+
+		private Scope(@Nullable final TraceSpan previous) {
+			this.previous = previous;
+		}
+
+		/**
+		 * Restores the span that was current on the thread before this scope was entered.
+		 */
+		public void close() {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.readytalk.makrut.util;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts trace spans and hands them to an exporter as they end.  Span IDs are unique within a tracer, and each
+ * trace is identified by the ID of its root span.
+ */
+@ThreadSafe
+public class Tracer {
+	private static final Logger LOGGER = LoggerFactory.getLogger(Tracer.class);
+
+	private final SpanExporter exporter;
+	private final Ticker ticker;
+	private final AtomicLong ids = new AtomicLong(0L);
+
+	public Tracer(final SpanExporter exporter) {
+		this(exporter, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param exporter Where spans are sent as they end.
+	 * @param ticker The clock spans are timed by.
+	 */
+	public Tracer(final SpanExporter exporter, final Ticker ticker) {
+		this.exporter = checkNotNull(exporter);
+		this.ticker = checkNotNull(ticker);
+	}
+
+	/**
+	 * Starts a span within the span current on the calling thread, or, if there is none, as the root of a new trace.
+	 */
+	public TraceSpan start(final String name) {
+		return start(TraceSpan.current().orNull(), name);
+	}
+
+	TraceSpan start(@Nullable final TraceSpan parent, final String name) {
+		long id = ids.incrementAndGet();
+
+		if (parent == null) {
+			return new TraceSpan(this, name, id, id, 0L, ticker.read());
+		}
+
+		return new TraceSpan(this, name, parent.getTraceId(), id, parent.getSpanId(), ticker.read());
+	}
+
+	long read() {
+		return ticker.read();
+	}
+
+	void export(final TraceSpan span) {
+		try {
+			exporter.export(span);
+		} catch (RuntimeException ex) {
+			LOGGER.warn("Span exporter failed on {}.", span, ex);
+		}
+	}
+}
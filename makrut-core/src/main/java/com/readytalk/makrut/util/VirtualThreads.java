@@ -0,0 +1,66 @@
+package com.readytalk.makrut.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Executors that run each task on a virtual thread of its own, on JDKs that provide them (Java 21 and later).  The
+ * library still builds for older JDKs, so the virtual-thread executor is looked up when this class is loaded rather
+ * than referenced directly.
+ *
+ * Apart from the blocking cache, none of the stages hold a monitor while a command runs, so a blocked command parks
+ * its virtual thread rather than pinning its carrier: the semaphore, locks and futures they wait on are all from
+ * java.util.concurrent, and the time limit interrupts a virtual thread the same way as a platform one.  The blocking
+ * cache loads inside a monitor held by the cache, which pins the loading thread's carrier for the whole command, so
+ * the builder refuses it with virtual threads.
+ */
+public final class VirtualThreads {
+
+	private static final Optional<Method> PER_TASK_EXECUTOR = lookup();
+
+	private VirtualThreads() {
+
+	}
+
+	/**
+	 * Whether the running JDK provides virtual threads.
+	 */
+	public static boolean isSupported() {
+		return PER_TASK_EXECUTOR.isPresent();
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for every task.  Its threads are not pooled, so it needs no
+	 * sizing, and it need not be shut down once its tasks are complete.
+	 *
+	 * @throws UnsupportedOperationException If the running JDK does not provide virtual threads.
+	 */
+	public static ListeningExecutorService newPerTaskExecutor() {
+		if (!PER_TASK_EXECUTOR.isPresent()) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later.");
+		}
+
+		try {
+			return MoreExecutors.listeningDecorator((ExecutorService) PER_TASK_EXECUTOR.get().invoke(null));
+		} catch (IllegalAccessException ex) {
+			throw new UnsupportedOperationException("Virtual thread executor is not accessible.", ex);
+		} catch (InvocationTargetException ex) {
+			throw Throwables.propagate(ex.getCause());
+		}
+	}
+
+	private static Optional<Method> lookup() {
+		try {
+			return Optional.of(Executors.class.getMethod("newVirtualThreadPerTaskExecutor"));
+		} catch (NoSuchMethodException ex) {
+			return Optional.absent();
+		}
+	}
+}
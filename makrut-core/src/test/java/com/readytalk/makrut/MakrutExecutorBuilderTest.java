@@ -1,9 +1,11 @@
 package com.readytalk.makrut;
 
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -11,6 +13,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
@@ -23,8 +26,11 @@ import com.readytalk.makrut.strategy.RetryStrategy;
 import com.readytalk.makrut.util.CacheWrapper;
 import com.readytalk.makrut.util.CallableUtils;
 import com.readytalk.makrut.util.CallableUtilsFactory;
+import com.readytalk.makrut.util.CommandLifecycle;
+import com.readytalk.makrut.util.Dispatcher;
 import com.readytalk.makrut.util.FutureUtils;
 import com.readytalk.makrut.util.FutureUtilsFactory;
+import com.readytalk.makrut.util.LatencyBreakdown;
 import com.readytalk.makrut.util.MakrutCommandWrapper;
 import org.junit.After;
 import org.junit.Before;
@@ -88,12 +94,18 @@ public class MakrutExecutorBuilderTest {
 		when(callUtils.addTimeLimit(any(Callable.class), anyLong(), any(TimeUnit.class))).thenReturn(callable);
 		when(callUtils.timeExecution(any(Callable.class))).thenReturn(callable);
 		when(callUtils.withBlockingCache(any(Callable.class), any(Callable.class),
-				any(CacheWrapper.class))).thenReturn(
+				any(CacheWrapper.class), any(Optional.class), any(Optional.class))).thenReturn(
 				callable);
-		when(callUtils.withSemaphore(any(Callable.class), any(Semaphore.class))).thenReturn(callable);
+		when(callUtils.withSemaphore(any(Callable.class), any(Semaphore.class), any(Optional.class),
+				any(Optional.class))).thenReturn(callable);
 
 		when(futureUtils.addRetry(any(ListeningScheduledExecutorService.class), any(RetryStrategy.class),
 				any(Optional.class), any(ListenableFuture.class), any(MakrutCommandWrapper.class))).thenReturn(future);
+		when(futureUtils.addRetry(any(ListeningScheduledExecutorService.class), any(Dispatcher.class),
+				any(RetryStrategy.class), any(Optional.class), any(ListenableFuture.class),
+				any(MakrutCommandWrapper.class))).thenReturn(future);
+		when(futureUtils.withTimeLimits(any(Dispatcher.class))).then(returnsFirstArg());
+		when(futureUtils.withDeadlineLimits(any(Dispatcher.class))).then(returnsFirstArg());
 
 		when(executorService.submit(any(Callable.class))).thenReturn(future);
 
@@ -129,18 +141,49 @@ public class MakrutExecutorBuilderTest {
 
 		InOrder order = Mockito.inOrder(callUtils, futureUtils);
 
-		order.verify(callUtils).withSemaphore(any(Callable.class), eq(sem));
-		order.verify(callUtils).withBlockingCache(any(Callable.class), any(Callable.class), any(CacheWrapper.class));
+		order.verify(callUtils).withSemaphore(any(Callable.class), eq(sem), eq(Optional.<LatencyBreakdown>absent()),
+				eq(Optional.<CommandLifecycle>absent()));
+		order.verify(callUtils).withBlockingCache(any(Callable.class), any(Callable.class), any(CacheWrapper.class),
+				eq(Optional.<LatencyBreakdown>absent()), eq(Optional.<CommandLifecycle>absent()));
 		order.verify(callUtils).timeExecution(any(Callable.class));
 		order.verify(callUtils).addTimeLimit(any(Callable.class), anyLong(), any(TimeUnit.class));
 		order.verify(callUtils).populateCacheWithResult(eq(callable), any(Callable.class), any(CacheWrapper.class));
 
-		order.verify(futureUtils).withFallbackCache(eq(callable), eq(future), any(CacheWrapper.class));
+		order.verify(futureUtils).withFallbackCache(eq(callable), eq(future), any(CacheWrapper.class),
+				any(MakrutCommandWrapper.class));
 
 		order.verify(futureUtils)
-				.addRetry(eq(retryService), eq(retry), eq(Optional.of(backoff)), any(ListenableFuture.class),
-						any(MakrutCommandWrapper.class));
+				.addRetry(eq(retryService), any(Dispatcher.class), eq(retry), eq(Optional.of(backoff)),
+						any(ListenableFuture.class), any(MakrutCommandWrapper.class));
 
 		verify(callUtils).meterExecution(any(Callable.class));
 	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void withIndividualTimeLimit_InSeconds_LimitsCallsInMilliseconds() {
+		builder.withExecutorService(executorService);
+		builder.withIndividualTimeLimit(1L, TimeUnit.SECONDS);
+
+		builder.build().submit(callable);
+
+		verify(callUtils).addTimeLimit(any(Callable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void build_OnRepeatedSubmits_CreatesUtilitiesOncePerClass() {
+		builder.withExecutorService(executorService);
+		builder.timeIndividualCalls();
+
+		MakrutExecutor executor = builder.build();
+
+		executor.submit(callable);
+		executor.submit(callable);
+		executor.submit(callable);
+
+		verify(callableUtilsFactory, times(1)).create(anyString());
+		verify(futureUtilsFactory, times(1)).create(MetricRegistry.name(callable.getClass()));
+		verify(callUtils, times(3)).timeExecution(any(Callable.class));
+	}
 }
@@ -1,6 +1,8 @@
 package com.readytalk.makrut;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
@@ -13,6 +15,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -23,22 +27,56 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Provider;
+import com.readytalk.makrut.command.BasicMakrutCommand;
+import com.readytalk.makrut.command.BatchLoader;
+import com.readytalk.makrut.command.BatchResult;
 import com.readytalk.makrut.command.MakrutCommand;
+import com.readytalk.makrut.command.RequestCollapser;
 import com.readytalk.makrut.inject.MakrutCoreModule;
 import com.readytalk.makrut.strategy.BackoffStrategy;
+import com.readytalk.makrut.strategy.HedgeStrategies;
+import com.readytalk.makrut.strategy.LimitStrategies;
 import com.readytalk.makrut.strategy.RetryStrategy;
+import com.readytalk.makrut.strategy.SampleStrategies;
+import com.readytalk.makrut.util.AdaptiveLimiter;
+import com.readytalk.makrut.util.AsyncBulkhead;
+import com.readytalk.makrut.util.BulkheadFullException;
+import com.readytalk.makrut.util.CircuitBreaker;
+import com.readytalk.makrut.util.CircuitBreakerBuilder;
+import com.readytalk.makrut.util.CircuitBreakerOpenException;
+import com.readytalk.makrut.util.CoDelAdmission;
+import com.readytalk.makrut.util.DeadlineExceededException;
+import com.readytalk.makrut.util.HashedWheelTimer;
+import com.readytalk.makrut.util.InFlightCall;
+import com.readytalk.makrut.util.InFlightRegistry;
+import com.readytalk.makrut.util.LifecycleEvent;
+import com.readytalk.makrut.util.LifecycleEvents;
+import com.readytalk.makrut.util.LifecycleListener;
+import com.readytalk.makrut.util.PriorityScheduler;
+import com.readytalk.makrut.util.RingSpanExporter;
+import com.readytalk.makrut.util.TokenBudget;
+import com.readytalk.makrut.util.TraceSpan;
+import com.readytalk.makrut.util.Tracer;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -46,6 +84,8 @@ import org.junit.rules.ExpectedException;
 import org.junit.rules.Timeout;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class MakrutIntegrationTest {
 
@@ -110,6 +150,42 @@ public class MakrutIntegrationTest {
 		assertEquals(obj, builder.build().submit(callable).get());
 	}
 
+	@Test
+	public void withVirtualThreads_OnAnyJdk_ExecutesAndRetries() throws Exception {
+		Exception th = new RuntimeException();
+		when(callable.call()).thenThrow(th).thenReturn(obj);
+
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+
+		MakrutExecutor mexec = builder.withVirtualThreads().withRetry(retryStrategy, retryExecutor)
+				.withSemaphore(new Semaphore(1)).withIndividualTimeLimit(10L, TimeUnit.SECONDS).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		verify(callable, times(2)).call();
+	}
+
+	@Test
+	public void withVirtualThreads_WithBlockingCache_Throws() {
+		thrown.expect(IllegalStateException.class);
+
+		builder.withVirtualThreads().withBlockingCache(cache).build();
+	}
+
+	@Test
+	public void withVirtualThreads_WithInstrumentedExecutor_Throws() {
+		thrown.expect(IllegalStateException.class);
+
+		builder.withExecutorService(executor, metrics, "pool").withVirtualThreads().build();
+	}
+
+	@Test
+	public void withVirtualThreads_WithAdmissionControl_Throws() {
+		thrown.expect(IllegalStateException.class);
+
+		builder.withVirtualThreads().withAdmissionControl(5L, 100L, TimeUnit.MILLISECONDS).build();
+	}
+
 	@Test
 	public void withBlockingCache_OnSecondCall_ReturnsCachedValue() throws Exception {
 		when(callable.call()).thenReturn(obj);
@@ -291,6 +367,101 @@ public class MakrutIntegrationTest {
 		verify(retryStrategy).shouldRetry(anyInt(), eq(5L), eq(th));
 	}
 
+	@Test
+	public void withDeadline_WhenBackoffWouldOverrun_FailsWithoutRetry() throws Exception {
+		Exception th = new RuntimeException();
+		when(callable.call()).thenThrow(th).thenReturn(obj);
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+		when(backoffStrategy.nextWaitPeriod(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(60000L);
+
+		MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor).withBackoff(backoffStrategy)
+				.withDeadline(5L, TimeUnit.SECONDS).build();
+
+		try {
+			mexec.submit(callable).get();
+			fail("Expected an exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(th, ex.getCause());
+		}
+
+		verify(callable, times(1)).call();
+	}
+
+	@Test
+	public void withDeadline_OnSlowCall_CutsAttemptShort() throws Exception {
+		Callable<Object> slow = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(10000L);
+				return obj;
+			}
+		};
+
+		MakrutExecutor mexec = builder.withDeadline(10L, TimeUnit.MILLISECONDS)
+				.withIndividualTimeLimit(10L, TimeUnit.SECONDS).build();
+
+		try {
+			mexec.submit(slow).get();
+			fail("Expected an exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof DeadlineExceededException);
+		}
+	}
+
+	@Test
+	public void withIndividualTimeLimit_OnCallIgnoringInterrupt_FailsAtLimit() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		Callable<Object> stuck = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Uninterruptibles.awaitUninterruptibly(release);
+				return obj;
+			}
+		};
+
+		MakrutExecutor mexec = builder.withIndividualTimeLimit(10L, TimeUnit.MILLISECONDS).build();
+
+		try {
+			mexec.submit(stuck).get(5L, TimeUnit.SECONDS);
+			fail("Expected an exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof UncheckedTimeoutException);
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void withDeadline_OnTimeBudgetedCommand_UsesCommandBudget() throws Exception {
+		final AtomicBoolean ran = new AtomicBoolean(false);
+
+		BasicMakrutCommand<Object> command = new BasicMakrutCommand<Object>(builder.build(), "budgeted") {
+			@Override
+			protected Object doCall() {
+				ran.set(true);
+				return obj;
+			}
+
+			@Override
+			public Optional<Long> getTimeBudgetMillis() {
+				return Optional.of(0L);
+			}
+		};
+
+		MakrutExecutor mexec = builder.withDeadline(10L, TimeUnit.SECONDS).build();
+
+		try {
+			mexec.submit(command).get();
+			fail("Expected an exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof DeadlineExceededException);
+		}
+
+		assertFalse(ran.get());
+	}
+
 	@Test
 	public void withRetryAndPushback_OnFailure_PushesBackRuntime() throws Exception {
 		Exception th = new RuntimeException();
@@ -310,6 +481,111 @@ public class MakrutIntegrationTest {
 		verify(callable, times(2)).call();
 	}
 
+	@Test
+	public void withBackoffTimer_OnFailure_DefersRetryOnTimer() throws Exception {
+		when(callable.call()).thenThrow(new RuntimeException()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+		when(backoffStrategy.nextWaitPeriod(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(10L);
+
+		HashedWheelTimer timer = new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, 8, retryExecutor);
+
+		try {
+			MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor)
+					.withBackoff(backoffStrategy)
+					.withBackoffTimer(timer)
+					.build();
+
+			assertEquals(obj, mexec.submit(callable).get());
+
+			verify(retryExecutor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+			verify(callable, times(2)).call();
+			assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void withRetryBudget_WhenExhausted_FailsWithoutRetry() throws Exception {
+		Exception th = new RuntimeException();
+		when(callable.call()).thenThrow(th);
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+		budget.tryWithdraw();
+
+		MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor).withRetryBudget(budget).build();
+
+		try {
+			mexec.submit(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(th, ex.getCause());
+		}
+
+		verify(callable, times(1)).call();
+	}
+
+	@Test
+	public void withRateLimit_OverBurst_WaitsThenRuns() throws Exception {
+		when(callable.call()).thenReturn(obj);
+
+		MakrutExecutor mexec = builder.withRateLimit(1000.0d, 1).build();
+
+		ListenableFuture<Object> first = mexec.submit(callable);
+		ListenableFuture<Object> second = mexec.submit(callable);
+
+		assertEquals(obj, first.get());
+		assertEquals(obj, second.get());
+		verify(callable, times(2)).call();
+	}
+
+	@Test
+	public void withPriorityScheduler_WhenSaturated_RunsHigherPriorityFirst() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> order = Collections.synchronizedList(Lists.<String>newArrayList());
+
+		Callable<String> blocking = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				release.await();
+				return "blocking";
+			}
+		};
+
+		Callable<String> low = new Callable<String>() {
+			@Override
+			public String call() {
+				order.add("low");
+				return "low";
+			}
+		};
+
+		Callable<String> high = new Callable<String>() {
+			@Override
+			public String call() {
+				order.add("high");
+				return "high";
+			}
+		};
+
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.MINUTES);
+		MakrutExecutor mexec = builder.withPriorityScheduler(scheduler).withPriority(high.getClass(), 1).build();
+
+		ListenableFuture<String> first = mexec.submit(blocking);
+		ListenableFuture<String> lowResult = mexec.submit(low);
+		ListenableFuture<String> highResult = mexec.submit(high);
+
+		assertEquals(2, scheduler.getQueueDepth());
+
+		release.countDown();
+
+		assertEquals("blocking", first.get());
+		assertEquals("low", lowResult.get());
+		assertEquals("high", highResult.get());
+		assertEquals(ImmutableList.of("high", "low"), order);
+	}
+
 	@Test
 	public void withSemaphoreAndBlockingCache_OnSecondCall_ReturnsCachedValue() throws Exception {
 		final Semaphore sem = new Semaphore(1);
@@ -362,6 +638,223 @@ public class MakrutIntegrationTest {
 
 	}
 
+	@Test
+	public void timeIndividualCalls_WithSampling_MetersEveryCallAndTimesSample() throws Exception {
+		when(callable.call()).thenReturn(obj);
+
+		MakrutExecutor mexec = builder.timeIndividualCalls(SampleStrategies.oneIn(Integer.MAX_VALUE))
+				.meterIndividualCalls().build();
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals(obj, mexec.submit(callable).get());
+		}
+
+		SortedMap<String, Meter> meters = metrics.getMeters();
+
+		assertEquals(10, meters.get(meters.firstKey()).getCount());
+		assertTrue(metrics.getTimers().values().iterator().next().getCount() < 10L);
+	}
+
+	@Test
+	public void recordOutcomes_OnRetry_RecordsEndToEndAndAttempts() throws Exception {
+		when(callable.call()).thenThrow(new IllegalStateException()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+
+		MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor).recordOutcomes().build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		String name = MetricRegistry.name(callable.getClass());
+
+		while (metrics.histogram(MetricRegistry.name(name, "attempts")).getCount() == 0L) {
+			Thread.sleep(1L);
+		}
+
+		assertEquals(2L, metrics.histogram(MetricRegistry.name(name, "attempts")).getSnapshot().getMax());
+		assertEquals(1L, metrics.timer(MetricRegistry.name(name, "end-to-end")).getCount());
+		assertEquals(1L, metrics.timer(MetricRegistry.name(name, "attempt", "1", "duration")).getCount());
+		assertEquals(1L, metrics.timer(MetricRegistry.name(name, "attempt", "2", "duration")).getCount());
+	}
+
+	@Test
+	public void recordPhases_OnRetry_TimesEachPhase() throws Exception {
+		when(callable.call()).thenThrow(new IllegalStateException()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+
+		MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor).recordPhases().build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		String name = MetricRegistry.name(callable.getClass());
+
+		while (metrics.timer(MetricRegistry.name(name, "phase", "execution")).getCount() == 0L) {
+			Thread.sleep(1L);
+		}
+
+		assertEquals(1L, metrics.timer(MetricRegistry.name(name, "phase", "queue")).getCount());
+		assertEquals(1L, metrics.timer(MetricRegistry.name(name, "phase", "retry-queue")).getCount());
+		assertEquals(0L, metrics.timer(MetricRegistry.name(name, "phase", "backoff")).getCount());
+	}
+
+	@Test
+	public void withLifecycleEvents_OnRetry_PublishesEachStep() throws Exception {
+		when(callable.call()).thenThrow(new IllegalStateException()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+
+		final List<LifecycleEvent.Type> types = Lists.newArrayList();
+		LifecycleEvents events = new LifecycleEvents(16, ImmutableList.<LifecycleListener>of(new LifecycleListener() {
+			@Override
+			public void onEvent(final LifecycleEvent event) {
+				types.add(event.getType());
+			}
+		}));
+
+		MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor).withLifecycleEvents(events).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		while (!types.contains(LifecycleEvent.Type.COMPLETED)) {
+			events.drain();
+			Thread.sleep(1L);
+		}
+
+		assertEquals(ImmutableList.of(LifecycleEvent.Type.SUBMITTED, LifecycleEvent.Type.ATTEMPT_STARTED,
+				LifecycleEvent.Type.ATTEMPT_FAILED, LifecycleEvent.Type.RETRY_SCHEDULED,
+				LifecycleEvent.Type.ATTEMPT_STARTED, LifecycleEvent.Type.COMPLETED), types);
+	}
+
+	@Test
+	public void withTracer_OnRetry_TracesAttemptsAcrossPools() throws Exception {
+		final List<TraceSpan> current = Lists.newCopyOnWriteArrayList();
+		final RingSpanExporter exporter = new RingSpanExporter(16);
+
+		when(callable.call()).thenThrow(new IllegalStateException()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) {
+				current.add(TraceSpan.current().get());
+				TraceSpan.current().get().child("work").end();
+
+				return obj;
+			}
+		});
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+
+		MakrutExecutor mexec = builder.withRetry(retryStrategy, retryExecutor)
+				.withTracer(new Tracer(exporter)).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		while (exporter.getSpans().size() < 5) {
+			Thread.sleep(1L);
+		}
+
+		List<TraceSpan> spans = exporter.getSpans();
+		TraceSpan root = spans.get(4);
+
+		assertEquals(ImmutableList.of("attempt", "retry", "work", "attempt"),
+				ImmutableList.of(spans.get(0).getName(), spans.get(1).getName(), spans.get(2).getName(),
+						spans.get(3).getName()));
+		assertEquals(0L, root.getParentId());
+		assertEquals(root.getSpanId(), spans.get(0).getParentId());
+		assertEquals(root.getSpanId(), spans.get(1).getParentId());
+		assertEquals(spans.get(3).getSpanId(), spans.get(2).getParentId());
+		assertEquals(spans.get(3), current.get(0));
+		assertEquals("2", spans.get(3).getTags().get("attempt"));
+		assertEquals(root.getTraceId(), spans.get(2).getTraceId());
+		assertFalse(TraceSpan.current().isPresent());
+	}
+
+	@Test
+	public void withRetryInThread_OnRetry_HoldsPermitOnSameThread() throws Exception {
+		final Semaphore sem = new Semaphore(1);
+		final List<Thread> threads = Lists.newCopyOnWriteArrayList();
+		final List<Integer> permits = Lists.newCopyOnWriteArrayList();
+
+		when(callable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) {
+				threads.add(Thread.currentThread());
+				permits.add(sem.availablePermits());
+
+				if (threads.size() == 1) {
+					throw new IllegalStateException();
+				}
+
+				return obj;
+			}
+		});
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(Exception.class))).thenReturn(true);
+
+		MakrutExecutor mexec = builder.withSemaphore(sem).withRetryInThread(retryStrategy, 1L, TimeUnit.MILLISECONDS)
+				.build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		assertEquals(threads.get(0), threads.get(1));
+		assertEquals(ImmutableList.of(0, 0), permits);
+		assertEquals(1, sem.availablePermits());
+		verifyZeroInteractions(retryExecutor);
+	}
+
+	@Test
+	public void withRetryInThread_WithTimeLimit_LimitsEachAttempt() throws Exception {
+		when(callable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws InterruptedException {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(5L));
+				return obj;
+			}
+		}).thenReturn(obj2);
+		when(retryStrategy.shouldRetry(eq(1), anyLong(), any(UncheckedTimeoutException.class))).thenReturn(true);
+
+		MakrutExecutor mexec = builder.withIndividualTimeLimit(50L, TimeUnit.MILLISECONDS)
+				.withRetryInThread(retryStrategy, 1L, TimeUnit.MILLISECONDS).build();
+
+		assertEquals(obj2, mexec.submit(callable).get());
+
+		verify(callable, times(2)).call();
+	}
+
+	@Test
+	public void withRetryInThread_WithRetryBudget_DepositsOnlyForFirstAttemptSuccess() throws Exception {
+		when(callable.call()).thenThrow(new IllegalStateException()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		TokenBudget budget = new TokenBudget(0.5d, 2);
+		budget.tryWithdraw();
+
+		MakrutExecutor mexec = builder.withRetryInThread(retryStrategy, 1L, TimeUnit.MILLISECONDS)
+				.withRetryBudget(budget).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+		assertEquals(0.0d, budget.getTokens(), 0.001d);
+
+		assertEquals(obj, mexec.submit(callable).get());
+		assertEquals(0.5d, budget.getTokens(), 0.001d);
+	}
+
+	@Test
+	public void withRetryInThread_WithCircuitBreaker_RecordsEachAttempt() throws Exception {
+		when(callable.call()).thenThrow(new IllegalStateException()).thenThrow(new IllegalStateException())
+				.thenReturn(obj);
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		CircuitBreaker breaker = new CircuitBreakerBuilder().withMinimumCalls(2).build();
+
+		MakrutExecutor mexec = builder.withCircuitBreaker(breaker)
+				.withRetryInThread(retryStrategy, 1L, TimeUnit.MILLISECONDS).build();
+
+		try {
+			mexec.submit(callable).get();
+			fail("Expected an exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof CircuitBreakerOpenException);
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		verify(callable, times(2)).call();
+	}
+
 	@Test
 	public void meterIndividualCalls_OnRetry_CountsRetries() throws Exception {
 		Exception th = new RuntimeException();
@@ -378,4 +871,366 @@ public class MakrutIntegrationTest {
 
 		assertEquals(2, meters.get(meters.firstKey()).getCount());
 	}
+
+	@Test
+	public void withCircuitBreaker_WhenOpen_FallsBackToCacheWithoutCalling() throws Exception {
+		Exception th = new RuntimeException();
+		when(callable.call()).thenReturn(obj).thenThrow(th);
+
+		CircuitBreaker breaker = new CircuitBreakerBuilder().withMinimumCalls(2).build();
+
+		MakrutExecutor mexec = builder.withCircuitBreaker(breaker).withFallbackCache(cache).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+		assertEquals(obj, mexec.submit(callable).get());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		verify(callable, times(2)).call();
+	}
+
+	@Test
+	public void withCircuitBreakerPerCommand_WhenOneOpens_OthersStillRun() throws Exception {
+		when(callable.call()).thenThrow(new RuntimeException());
+		when(callable2.call()).thenReturn(obj2);
+
+		final Callable<Object> other = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return callable2.call();
+			}
+		};
+
+		MakrutExecutor mexec = builder.withCircuitBreakerPerCommand(new CircuitBreakerBuilder().withMinimumCalls(1))
+				.build();
+
+		try {
+			mexec.submit(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(RuntimeException.class, ex.getCause().getClass());
+		}
+
+		try {
+			mexec.submit(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(CircuitBreakerOpenException.class, ex.getCause().getClass());
+		}
+
+		assertEquals(obj2, mexec.submit(other).get());
+		verify(callable, times(1)).call();
+	}
+
+	@Test
+	public void withCircuitBreakerPerCommand_OnCommandsOfOneClass_KeysBreakersByName() throws Exception {
+		when(callable.call()).thenThrow(new RuntimeException());
+		when(callable2.call()).thenReturn(obj2);
+
+		MakrutExecutor mexec = builder.withCircuitBreakerPerCommand(new CircuitBreakerBuilder().withMinimumCalls(1))
+				.build();
+
+		try {
+			mexec.submit(new DelegatingCommand("failing", callable)).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(RuntimeException.class, ex.getCause().getClass());
+		}
+
+		try {
+			mexec.submit(new MakrutCommand<Object>("failing") {
+				@Override
+				public Object call() throws Exception {
+					return callable2.call();
+				}
+			}).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(CircuitBreakerOpenException.class, ex.getCause().getClass());
+		}
+
+		assertEquals(obj2, mexec.submit(new DelegatingCommand("passing", callable2)).get());
+		verify(callable2, times(1)).call();
+	}
+
+	@Test
+	public void withBulkhead_WhenFull_RejectsWithoutCalling() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(callable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				release.await();
+				return obj;
+			}
+		});
+
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 0);
+
+		MakrutExecutor mexec = builder.withBulkhead(bulkhead).build();
+
+		ListenableFuture<Object> running = mexec.submit(callable);
+		started.await();
+
+		try {
+			mexec.submit(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(BulkheadFullException.class, ex.getCause().getClass());
+		}
+
+		release.countDown();
+
+		assertEquals(obj, running.get());
+
+		while (bulkhead.getAvailablePermits() == 0) {
+			Thread.sleep(1L);
+		}
+
+		assertEquals(obj, mexec.submit(callable).get());
+		verify(callable, times(2)).call();
+	}
+
+	@Test
+	public void timeQueueWait_OnInstrumentedExecutor_ReportsWaitPerCommandAndPool() throws Exception {
+		when(callable.call()).thenReturn(obj);
+
+		MakrutExecutor mexec = executorBuilderProvider.get().withExecutorService(executor, metrics, "pool")
+				.timeQueueWait().build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		assertEquals(1L, metrics.timer(MetricRegistry.name(callable.getClass(), "queue", "wait")).getCount());
+		assertEquals(1L, metrics.timer(MetricRegistry.name("pool", "queue-wait")).getCount());
+	}
+
+	@Test
+	public void withInFlightRegistry_WhileRunning_ListsCommand() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(callable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				release.await();
+				return obj;
+			}
+		});
+
+		InFlightRegistry registry = new InFlightRegistry();
+		MakrutExecutor mexec = builder.withInFlightRegistry(registry).build();
+
+		ListenableFuture<Object> future = mexec.submit(callable);
+
+		started.await();
+
+		InFlightCall call = registry.getInFlight().get(0);
+
+		assertEquals(MetricRegistry.name(callable.getClass()), call.getCommandName());
+		assertEquals(1, call.getAttempt());
+
+		release.countDown();
+
+		assertEquals(obj, future.get());
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void withAdmissionControl_WhenQueueStands_ShedsToFallbackCache() throws Exception {
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(callable.call()).thenReturn(obj);
+		when(callable2.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				started.countDown();
+				release.await();
+				return obj2;
+			}
+		});
+		when(ticker.read()).thenReturn(0L);
+
+		CoDelAdmission admission = new CoDelAdmission(1L, 10L, TimeUnit.MILLISECONDS, ticker);
+		MakrutExecutor mexec = builder.withAdmissionControl(admission).withFallbackCache(cache).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+
+		mexec.submit(callable2);
+		mexec.submit(callable2);
+		started.await();
+
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(20L));
+		ListenableFuture<Object> waiting = mexec.submit(callable2);
+
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(40L));
+		assertEquals(obj, mexec.submit(callable).get());
+
+		verify(callable, times(1)).call();
+
+		release.countDown();
+
+		assertEquals(obj2, waiting.get());
+	}
+
+	@Test
+	public void withBulkhead_ForEachCommand_ReportsGaugesOnceUnderExecutorName() throws Exception {
+		when(callable.call()).thenReturn(obj);
+		when(callable2.call()).thenReturn(obj2);
+
+		MakrutExecutor mexec = builder.withName("shared").withBulkhead(new AsyncBulkhead(2, 0)).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+		assertEquals(obj2, mexec.submit(new DelegatingCommand("other", callable2)).get());
+
+		assertEquals(ImmutableSet.of(MetricRegistry.name("shared", "bulkhead", "available"),
+				MetricRegistry.name("shared", "bulkhead", "queued")), metrics.getGauges(new MetricFilter() {
+			@Override
+			public boolean matches(final String gaugeName, final Metric metric) {
+				return gaugeName.contains("bulkhead");
+			}
+		}).keySet());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void withBulkheadAndRetry_OnFailure_RetriesThroughBulkhead() throws Exception {
+		when(callable.call()).thenThrow(new RuntimeException()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 1);
+
+		MakrutExecutor mexec = builder.withBulkhead(bulkhead).withRetry(retryStrategy, retryExecutor).build();
+
+		assertEquals(obj, mexec.submit(callable).get());
+		verify(retryExecutor).submit(any(Callable.class));
+
+		while (bulkhead.getAvailablePermits() == 0) {
+			Thread.sleep(1L);
+		}
+	}
+
+	@Test
+	public void withAdaptiveLimit_OnTimeouts_LowersLimit() throws Exception {
+		when(callable.call()).thenThrow(new UncheckedTimeoutException());
+
+		AdaptiveLimiter limiter = new AdaptiveLimiter(LimitStrategies.aimd(0.5d), 8, 1, 8);
+
+		MakrutExecutor mexec = executorBuilderProvider.get().withExecutorService(MoreExecutors.sameThreadExecutor())
+				.withAdaptiveLimit(limiter).build();
+
+		for (int i = 0; i < 3; i++) {
+			try {
+				mexec.submit(callable).get();
+				fail("Expected exception.");
+			} catch (ExecutionException ex) {
+				assertEquals(UncheckedTimeoutException.class, ex.getCause().getClass());
+			}
+		}
+
+		assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	public void withCollapser_OnConcurrentCommands_RunsOneBatch() throws Exception {
+		final BatchLoader<Object> loader = new BatchLoader<Object>() {
+			@Override
+			public BatchResult<Object> load(final List<MakrutCommand<Object>> commands) throws Exception {
+				BatchResult<Object> result = new BatchResult<Object>();
+
+				for (MakrutCommand<Object> command : commands) {
+					result.put(command, command.getArgs()[0]);
+				}
+
+				return result;
+			}
+		};
+
+		MakrutExecutor mexec = builder.withCollapser("lookup", new RequestCollapser<Object>(loader, 2, 1L,
+				TimeUnit.HOURS, retryExecutor, executor)).meterIndividualCalls().build();
+
+		ListenableFuture<Object> first = mexec.submit(new LookupCommand(obj));
+		ListenableFuture<Object> second = mexec.submit(new LookupCommand(obj2));
+
+		assertEquals(obj, first.get());
+		assertEquals(obj2, second.get());
+
+		SortedMap<String, Meter> meters = metrics.getMeters();
+		assertEquals(1, meters.size());
+		assertEquals(MetricRegistry.name(RequestCollapser.class, "lookup-batch", "call", "count"), meters.firstKey());
+		assertEquals(1L, meters.get(meters.firstKey()).getCount());
+	}
+
+	@Test
+	public void withHedging_OnSlowCall_ReturnsHedgedResult() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(callable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return obj;
+			}
+		}).thenReturn(obj2);
+
+		MakrutExecutor mexec = builder.withHedging(HedgeStrategies.fixedDelay(1L, TimeUnit.MILLISECONDS),
+				new TokenBudget(0.1d, 1), retryExecutor).build();
+
+		assertEquals(obj2, mexec.submit(callable).get());
+		verify(callable, times(2)).call();
+	}
+
+	@Test
+	public void withHedging_WithBlockingCache_HedgeSkipsPrimaryLoad() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(callable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return obj;
+			}
+		}).thenReturn(obj2);
+
+		MakrutExecutor mexec = builder.withBlockingCache(cache).withHedging(
+				HedgeStrategies.fixedDelay(1L, TimeUnit.MILLISECONDS), new TokenBudget(0.1d, 1), retryExecutor).build();
+
+		try {
+			assertEquals(obj2, mexec.submit(callable).get(5L, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+		}
+
+		verify(callable, times(2)).call();
+	}
+
+	private static final class DelegatingCommand extends MakrutCommand<Object> {
+		private final Callable<Object> delegate;
+
+		DelegatingCommand(final String name, final Callable<Object> delegate) {
+			super(name);
+
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			return delegate.call();
+		}
+	}
+
+	private static final class LookupCommand extends MakrutCommand<Object> {
+		LookupCommand(final Object id) {
+			super("lookup", id);
+		}
+
+		@Override
+		public Object call() throws Exception {
+			throw new UnsupportedOperationException("Only run in batches.");
+		}
+	}
 }
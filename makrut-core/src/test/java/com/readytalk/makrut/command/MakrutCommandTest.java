@@ -176,4 +176,19 @@ public class MakrutCommandTest {
 
 		assertNotEquals(command1.hashCode(), command2.hashCode());
 	}
+
+	@Test
+	public void getArgs_OnModification_DoesNotChangeCommand() {
+		MakrutCommand<Object> command = new MakrutCommand<Object>(NAME1, 1, 2) {
+			@Override
+			public Object call() throws Exception {
+				return obj;
+			}
+		};
+
+		command.getArgs()[0] = 3;
+
+		assertEquals(NAME1, command.getCommandName());
+		assertEquals(1, command.getArgs()[0]);
+	}
 }
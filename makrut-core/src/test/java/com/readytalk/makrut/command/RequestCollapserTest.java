@@ -0,0 +1,199 @@
+package com.readytalk.makrut.command;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.readytalk.makrut.MakrutExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class RequestCollapserTest {
+
+	private static final String NAME = "lookup";
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final MakrutExecutor executor = new MakrutExecutor() {
+		@Override
+		public <T, V extends Callable<T>> ListenableFuture<T> submit(final V input) {
+			return MoreExecutors.sameThreadExecutor().submit(input);
+		}
+	};
+
+	private final AtomicInteger submitted = new AtomicInteger(0);
+
+	private final Executor submitter = new Executor() {
+		@Override
+		public void execute(final Runnable command) {
+			submitted.incrementAndGet();
+			command.run();
+		}
+	};
+
+	private final LookupCommand one = new LookupCommand(1);
+	private final LookupCommand two = new LookupCommand(2);
+
+	private ScheduledThreadPoolExecutor timer;
+
+	@Mock
+	private BatchLoader<String> loader;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		timer = new ScheduledThreadPoolExecutor(1);
+	}
+
+	@After
+	public void tearDown() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void submit_AtMaxBatchSize_RunsOneBatch() throws Exception {
+		when(loader.load(ImmutableList.<MakrutCommand<String>>of(one, two))).thenReturn(
+				new BatchResult<String>().put(one, "1").put(two, "2"));
+
+		RequestCollapser<String> collapser = new RequestCollapser<String>(loader, 2, 1L, TimeUnit.HOURS, timer, submitter);
+
+		ListenableFuture<String> first = collapser.submit(one, executor);
+		assertFalse(first.isDone());
+
+		ListenableFuture<String> second = collapser.submit(two, executor);
+
+		assertEquals("1", first.get());
+		assertEquals("2", second.get());
+		verify(loader, times(1)).load(Matchers.<List<MakrutCommand<String>>>any());
+		assertEquals(0, submitted.get());
+	}
+
+	@Test
+	public void submit_AfterWindow_RunsPartialBatch() throws Exception {
+		when(loader.load(ImmutableList.<MakrutCommand<String>>of(one))).thenReturn(
+				new BatchResult<String>().put(one, "1"));
+
+		RequestCollapser<String> collapser = new RequestCollapser<String>(loader, 10, 1L, TimeUnit.MILLISECONDS,
+				timer, submitter);
+
+		assertEquals("1", collapser.submit(one, executor).get());
+		assertEquals(1, submitted.get());
+	}
+
+	@Test
+	public void submit_WithEqualCommands_SharesResult() throws Exception {
+		when(loader.load(ImmutableList.<MakrutCommand<String>>of(one, two))).thenReturn(
+				new BatchResult<String>().put(one, "1").put(two, "2"));
+
+		RequestCollapser<String> collapser = new RequestCollapser<String>(loader, 2, 1L, TimeUnit.HOURS, timer, submitter);
+
+		ListenableFuture<String> first = collapser.submit(one, executor);
+		ListenableFuture<String> again = collapser.submit(new LookupCommand(1), executor);
+		collapser.submit(two, executor);
+
+		assertSame(first, again);
+		assertEquals("1", again.get());
+	}
+
+	@Test
+	public void submit_OnPerCommandFailure_FailsOnlyThatCommand() throws Exception {
+		final Exception ex = new IllegalStateException();
+
+		when(loader.load(Matchers.<List<MakrutCommand<String>>>any())).thenReturn(
+				new BatchResult<String>().put(one, "1").fail(two, ex));
+
+		RequestCollapser<String> collapser = new RequestCollapser<String>(loader, 2, 1L, TimeUnit.HOURS, timer, submitter);
+
+		ListenableFuture<String> first = collapser.submit(one, executor);
+		ListenableFuture<String> second = collapser.submit(two, executor);
+
+		assertEquals("1", first.get());
+
+		try {
+			second.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ee) {
+			assertSame(ex, ee.getCause());
+		}
+	}
+
+	@Test
+	public void submit_OnMissingResult_FailsWithNoSuchElement() throws Exception {
+		when(loader.load(Matchers.<List<MakrutCommand<String>>>any())).thenReturn(new BatchResult<String>().put(one, "1"));
+
+		RequestCollapser<String> collapser = new RequestCollapser<String>(loader, 2, 1L, TimeUnit.HOURS, timer, submitter);
+
+		collapser.submit(one, executor);
+
+		try {
+			collapser.submit(two, executor).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof NoSuchElementException);
+		}
+	}
+
+	@Test
+	public void submit_OnBatchFailure_FailsEveryCommand() throws Exception {
+		final Exception ex = new IllegalStateException();
+
+		when(loader.load(Matchers.<List<MakrutCommand<String>>>any())).thenThrow(ex);
+
+		RequestCollapser<String> collapser = new RequestCollapser<String>(loader, 2, 1L, TimeUnit.HOURS, timer, submitter);
+
+		ListenableFuture<String> first = collapser.submit(one, executor);
+		ListenableFuture<String> second = collapser.submit(two, executor);
+
+		for (ListenableFuture<String> future : ImmutableList.of(first, second)) {
+			try {
+				future.get();
+				fail("Expected exception.");
+			} catch (ExecutionException ee) {
+				assertSame(ex, ee.getCause());
+			}
+		}
+	}
+
+	@Test
+	public void constructor_WithEmptyBatch_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new RequestCollapser<String>(loader, 0, 1L, TimeUnit.SECONDS, timer, submitter);
+	}
+
+	private static final class LookupCommand extends MakrutCommand<String> {
+		LookupCommand(final int id) {
+			super(NAME, id);
+		}
+
+		@Override
+		public String call() throws Exception {
+			throw new UnsupportedOperationException("Only run in batches.");
+		}
+	}
+}
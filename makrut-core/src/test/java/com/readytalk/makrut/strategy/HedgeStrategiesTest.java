@@ -0,0 +1,54 @@
+package com.readytalk.makrut.strategy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class HedgeStrategiesTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Snapshot empty = new Snapshot(new long[0]);
+
+	@Test
+	public void fixedDelay_OnInput_ReturnsDelay() {
+		assertEquals(5L, HedgeStrategies.fixedDelay(5L, TimeUnit.SECONDS).hedgeDelay(empty, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void percentile_WithoutLatencies_ReturnsMinimum() {
+		assertEquals(10L, HedgeStrategies.percentile(0.9d, 10L, TimeUnit.MILLISECONDS).hedgeDelay(empty,
+				TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void percentile_WithLatencies_ReturnsQuantile() {
+		long[] latencies = new long[100];
+
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = TimeUnit.MILLISECONDS.toNanos(i + 1);
+		}
+
+		assertEquals(90L, HedgeStrategies.percentile(0.9d, 1L, TimeUnit.MILLISECONDS).hedgeDelay(
+				new Snapshot(latencies), TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void percentile_BelowMinimum_ReturnsMinimum() {
+		assertEquals(50L, HedgeStrategies.percentile(0.9d, 50L, TimeUnit.MILLISECONDS).hedgeDelay(
+				new Snapshot(new long[] { 1L, 2L, 3L }), TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void percentile_OnInvalidQuantile_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		HedgeStrategies.percentile(1.0d, 1L, TimeUnit.MILLISECONDS);
+	}
+}
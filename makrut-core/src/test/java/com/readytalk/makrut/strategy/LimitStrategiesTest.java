@@ -0,0 +1,83 @@
+package com.readytalk.makrut.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class LimitStrategiesTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final long rtt = TimeUnit.MILLISECONDS.toNanos(10L);
+
+	@Test
+	public void aimd_OnDrop_ScalesDown() {
+		assertEquals(90, LimitStrategies.aimd(0.9d).nextLimit(100, rtt, 100, true));
+	}
+
+	@Test
+	public void aimd_OnSuccessWhenUtilized_Increments() {
+		assertEquals(101, LimitStrategies.aimd(0.9d).nextLimit(100, rtt, 100, false));
+	}
+
+	@Test
+	public void aimd_OnSuccessWhenIdle_KeepsLimit() {
+		assertEquals(100, LimitStrategies.aimd(0.9d).nextLimit(100, rtt, 10, false));
+	}
+
+	@Test
+	public void aimd_OnInvalidRatio_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		LimitStrategies.aimd(1.0d);
+	}
+
+	@Test
+	public void vegas_AtMinimumRtt_Increases() {
+		assertEquals(102, LimitStrategies.vegas().nextLimit(100, rtt, 100, false));
+	}
+
+	@Test
+	public void vegas_OnRisingRtt_Decreases() {
+		LimitStrategy strategy = LimitStrategies.vegas();
+
+		strategy.nextLimit(100, rtt, 100, false);
+
+		assertEquals(98, strategy.nextLimit(100, rtt * 2, 100, false));
+	}
+
+	@Test
+	public void vegas_OnDrop_DecreasesSharply() {
+		assertEquals(88, LimitStrategies.vegas().nextLimit(100, rtt, 100, true));
+	}
+
+	@Test
+	public void gradient_AtSteadyRtt_Increases() {
+		assertEquals(102, LimitStrategies.gradient().nextLimit(100, rtt, 100, false));
+	}
+
+	@Test
+	public void gradient_OnRisingRtt_Decreases() {
+		LimitStrategy strategy = LimitStrategies.gradient();
+
+		strategy.nextLimit(100, rtt, 100, false);
+
+		assertTrue(strategy.nextLimit(100, rtt * 2, 100, false) < 100);
+	}
+
+	@Test
+	public void gradient_OnDrop_Decreases() {
+		assertEquals(92, LimitStrategies.gradient().nextLimit(100, rtt, 100, true));
+	}
+
+	@Test
+	public void gradient_WhenIdle_KeepsLimit() {
+		assertEquals(100, LimitStrategies.gradient().nextLimit(100, rtt, 10, false));
+	}
+}
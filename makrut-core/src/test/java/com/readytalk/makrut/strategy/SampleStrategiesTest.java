@@ -0,0 +1,102 @@
+package com.readytalk.makrut.strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class SampleStrategiesTest {
+	private static final int CALLS = 100000;
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void everyCall_OnCall_Samples() {
+		assertTrue(SampleStrategies.everyCall().sample());
+	}
+
+	@Test
+	public void oneIn_WithOne_SamplesEveryCall() {
+		assertSame(SampleStrategies.everyCall(), SampleStrategies.oneIn(1));
+	}
+
+	@Test
+	public void oneIn_OverManyCalls_SamplesShare() {
+		assertEquals(CALLS / 10, sampled(SampleStrategies.oneIn(10), CALLS), CALLS / 100);
+	}
+
+	@Test
+	public void targetRate_BeforeFirstSecond_SamplesEveryCall() {
+		Ticker ticker = mock(Ticker.class);
+
+		when(ticker.read()).thenReturn(0L);
+
+		assertEquals(CALLS, sampled(SampleStrategies.targetRate(10.0d, ticker), CALLS));
+	}
+
+	@Test
+	public void targetRate_AfterBusySecond_SamplesTargetShare() {
+		Ticker ticker = mock(Ticker.class);
+
+		when(ticker.read()).thenReturn(0L);
+
+		SampleStrategy strategy = SampleStrategies.targetRate(CALLS / 10, ticker);
+
+		sampled(strategy, CALLS - 1);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1L));
+
+		sampled(strategy, 1);
+
+		assertEquals(CALLS / 10, sampled(strategy, CALLS), CALLS / 100);
+	}
+
+	@Test
+	public void targetRate_AfterQuietSecond_SamplesEveryCallAgain() {
+		Ticker ticker = mock(Ticker.class);
+
+		when(ticker.read()).thenReturn(0L);
+
+		SampleStrategy strategy = SampleStrategies.targetRate(CALLS / 10, ticker);
+
+		sampled(strategy, CALLS - 1);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1L));
+
+		sampled(strategy, 33);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(2L));
+
+		sampled(strategy, 8);
+
+		assertEquals(16, sampled(strategy, 16));
+	}
+
+	@Test
+	public void oneIn_WithZero_Throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		SampleStrategies.oneIn(0);
+	}
+
+	private static int sampled(final SampleStrategy strategy, final int calls) {
+		int sampled = 0;
+
+		for (int i = 0; i < calls; i++) {
+			if (strategy.sample()) {
+				sampled++;
+			}
+		}
+
+		return sampled;
+	}
+}
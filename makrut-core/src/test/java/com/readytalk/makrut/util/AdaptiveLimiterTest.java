@@ -0,0 +1,154 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Predicates;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.readytalk.makrut.strategy.LimitStrategy;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class AdaptiveLimiterTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Object obj = new Object();
+
+	private final SettableFuture<Object> first = SettableFuture.create();
+	private final SettableFuture<Object> second = SettableFuture.create();
+
+	@Mock
+	private LimitStrategy strategy;
+
+	@Mock
+	private Ticker ticker;
+
+	@Mock
+	private Dispatcher dispatcher;
+
+	@Mock
+	private Callable<Object> callable;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L, 5L);
+		when(dispatcher.dispatch(callable)).thenReturn(first).thenReturn(second);
+	}
+
+	@Test
+	public void submit_AtLimit_Rejects() throws Exception {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(strategy, 1, 1, 10);
+
+		limiter.submit(dispatcher, callable);
+
+		try {
+			limiter.submit(dispatcher, callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof ConcurrencyLimitExceededException);
+		}
+
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_OnSuccess_AdjustsLimitFromRtt() {
+		when(strategy.nextLimit(1, 5L, 1, false)).thenReturn(2);
+
+		AdaptiveLimiter limiter = new AdaptiveLimiter(strategy, 1, 1, 10, Predicates.<Throwable>alwaysTrue(),
+				ticker);
+
+		limiter.submit(dispatcher, callable);
+		first.set(obj);
+
+		assertEquals(2, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void submit_OnDrop_ReportsDrop() {
+		when(strategy.nextLimit(anyInt(), anyLong(), anyInt(), anyBoolean())).thenReturn(1);
+
+		AdaptiveLimiter limiter = new AdaptiveLimiter(strategy, 2, 1, 10, Predicates.<Throwable>alwaysTrue(),
+				ticker);
+
+		limiter.submit(dispatcher, callable);
+		first.setException(new Exception());
+
+		verify(strategy).nextLimit(eq(2), eq(5L), eq(1), eq(true));
+		assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	public void submit_OnIgnoredFailure_LeavesLimit() {
+		AdaptiveLimiter limiter = new AdaptiveLimiter(strategy, 2, 1, 10, Predicates.<Throwable>alwaysFalse(),
+				ticker);
+
+		limiter.submit(dispatcher, callable);
+		first.setException(new Exception());
+
+		verify(strategy, never()).nextLimit(anyInt(), anyLong(), anyInt(), anyBoolean());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void submit_ByDefault_OnlyReportsTimeoutsAsDrops() {
+		when(strategy.nextLimit(anyInt(), anyLong(), anyInt(), anyBoolean())).thenReturn(2);
+
+		AdaptiveLimiter limiter = new AdaptiveLimiter(strategy, 2, 1, 10);
+
+		limiter.submit(dispatcher, callable);
+		first.setException(new IllegalArgumentException());
+
+		verify(strategy, never()).nextLimit(anyInt(), anyLong(), anyInt(), anyBoolean());
+
+		limiter.submit(dispatcher, callable);
+		second.setException(new UncheckedTimeoutException());
+
+		verify(strategy).nextLimit(eq(2), anyLong(), eq(1), eq(true));
+	}
+
+	@Test
+	public void submit_WhenStrategyExceedsBounds_Clamps() {
+		when(strategy.nextLimit(anyInt(), anyLong(), anyInt(), anyBoolean())).thenReturn(100, 0);
+
+		AdaptiveLimiter limiter = new AdaptiveLimiter(strategy, 2, 1, 10);
+
+		limiter.submit(dispatcher, callable);
+		first.set(obj);
+		assertEquals(10, limiter.getLimit());
+
+		limiter.submit(dispatcher, callable);
+		second.set(obj);
+		assertEquals(1, limiter.getLimit());
+	}
+
+	@Test
+	public void constructor_WithInitialOutOfBounds_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new AdaptiveLimiter(strategy, 11, 1, 10);
+	}
+}
@@ -0,0 +1,203 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class AsyncBulkheadTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Object obj = new Object();
+
+	private final SettableFuture<Object> first = SettableFuture.create();
+	private final SettableFuture<Object> second = SettableFuture.create();
+
+	private ScheduledExecutorService timer;
+
+	@Mock
+	private Dispatcher dispatcher;
+
+	@Mock
+	private Callable<Object> callable;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		timer = new ScheduledThreadPoolExecutor(1);
+
+		when(dispatcher.dispatch(callable)).thenReturn(first).thenReturn(second);
+	}
+
+	@After
+	public void tearDown() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void submit_WithFreePermit_DispatchesImmediately() {
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 0);
+
+		assertEquals(first, bulkhead.submit(dispatcher, callable));
+		assertEquals(0, bulkhead.getAvailablePermits());
+	}
+
+	@Test
+	public void submit_WhenFull_Rejects() throws Exception {
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 0);
+
+		bulkhead.submit(dispatcher, callable);
+
+		thrown.expect(ExecutionException.class);
+
+		try {
+			bulkhead.submit(dispatcher, callable).get();
+		} finally {
+			verify(dispatcher, times(1)).dispatch(callable);
+		}
+	}
+
+	@Test
+	public void submit_WhenQueued_DispatchesOnCompletion() throws Exception {
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 1);
+
+		bulkhead.submit(dispatcher, callable);
+		ListenableFuture<Object> queued = bulkhead.submit(dispatcher, callable);
+
+		assertEquals(1, bulkhead.getQueueDepth());
+		assertFalse(queued.isDone());
+
+		first.set(obj);
+		second.set(obj);
+
+		assertEquals(obj, queued.get());
+		assertEquals(0, bulkhead.getQueueDepth());
+		assertEquals(1, bulkhead.getAvailablePermits());
+	}
+
+	@Test
+	public void submit_OnQueueTimeout_FailsWithoutDispatching() throws Exception {
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 1, 1L, TimeUnit.MILLISECONDS, timer);
+
+		bulkhead.submit(dispatcher, callable);
+		ListenableFuture<Object> queued = bulkhead.submit(dispatcher, callable);
+
+		try {
+			queued.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BulkheadTimeoutException);
+		}
+
+		first.set(obj);
+
+		assertEquals(0, bulkhead.getQueueDepth());
+		assertEquals(1, bulkhead.getAvailablePermits());
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_WhenCancelledWhileQueued_IsNotDispatched() {
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 1);
+
+		bulkhead.submit(dispatcher, callable);
+		bulkhead.submit(dispatcher, callable).cancel(true);
+
+		assertEquals(0, bulkhead.getQueueDepth());
+
+		first.set(obj);
+
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_WhenCancelledAfterDispatch_CancelsDispatched() {
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 1);
+
+		bulkhead.submit(dispatcher, callable);
+		ListenableFuture<Object> queued = bulkhead.submit(dispatcher, callable);
+
+		first.set(obj);
+		queued.cancel(true);
+
+		assertTrue(second.isCancelled());
+	}
+
+	@Test
+	public void submit_WhenDispatchFails_ReleasesPermit() {
+		when(dispatcher.dispatch(callable)).thenThrow(new IllegalStateException());
+
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 0);
+
+		try {
+			bulkhead.submit(dispatcher, callable);
+			fail("Expected exception.");
+		} catch (IllegalStateException ex) {
+			assertEquals(1, bulkhead.getAvailablePermits());
+		}
+	}
+
+	@Test
+	public void submit_WhenQueuedCommandsCompleteAtOnce_DrainsWithoutRecursion() {
+		when(dispatcher.dispatch(callable)).thenReturn(first)
+				.thenReturn(Futures.<Object>immediateFailedFuture(new IllegalStateException()));
+
+		AsyncBulkhead bulkhead = new AsyncBulkhead(1, 20000);
+
+		bulkhead.submit(dispatcher, callable);
+
+		List<ListenableFuture<Object>> queued = Lists.newArrayList();
+
+		for (int i = 0; i < 20000; i++) {
+			queued.add(bulkhead.submit(dispatcher, callable));
+		}
+
+		first.set(obj);
+
+		for (ListenableFuture<Object> future : queued) {
+			assertTrue(future.isDone());
+		}
+
+		assertEquals(0, bulkhead.getQueueDepth());
+		assertEquals(1, bulkhead.getAvailablePermits());
+	}
+
+	@Test
+	public void constructor_WithTimeoutAndNoTimer_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new AsyncBulkhead(1, 1, 1L, TimeUnit.SECONDS, null);
+	}
+
+	@Test
+	public void constructor_WithNoPermits_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new AsyncBulkhead(0, 1);
+	}
+}
@@ -0,0 +1,172 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class AsyncRateLimiterTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Object obj = new Object();
+
+	private ScheduledExecutorService timer;
+
+	@Mock
+	private Dispatcher dispatcher;
+
+	@Mock
+	private Callable<Object> callable;
+
+	@Mock
+	private Ticker ticker;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		timer = new ScheduledThreadPoolExecutor(1);
+
+		when(ticker.read()).thenReturn(0L);
+		when(dispatcher.dispatch(callable)).thenReturn(Futures.immediateFuture(obj));
+	}
+
+	@After
+	public void tearDown() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void submit_WithinBurst_DispatchesImmediately() {
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1.0d, 2, 10L, TimeUnit.SECONDS, timer, ticker);
+
+		assertTrue(limiter.submit(dispatcher, callable).isDone());
+		assertTrue(limiter.submit(dispatcher, callable).isDone());
+
+		verify(dispatcher, times(2)).dispatch(callable);
+		assertEquals(0, limiter.getWaiting());
+	}
+
+	@Test
+	public void submit_BeyondBurst_WaitsForPermit() throws Exception {
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1000.0d, 1, 10L, TimeUnit.SECONDS, timer, ticker);
+
+		limiter.submit(dispatcher, callable);
+		ListenableFuture<Object> waiting = limiter.submit(dispatcher, callable);
+
+		assertEquals(obj, waiting.get());
+		verify(dispatcher, times(2)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_BeyondMaximumWait_Rejects() throws Exception {
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1.0d, 1, 0L, TimeUnit.SECONDS, timer, ticker);
+
+		limiter.submit(dispatcher, callable);
+
+		try {
+			limiter.submit(dispatcher, callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RateLimitExceededException);
+		}
+
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_AfterRefill_DispatchesImmediately() {
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1.0d, 1, 0L, TimeUnit.SECONDS, timer, ticker);
+
+		limiter.submit(dispatcher, callable);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1L));
+
+		assertTrue(limiter.submit(dispatcher, callable).isDone());
+		verify(dispatcher, times(2)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_WhenRejected_TakesNoPermit() {
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1.0d, 1, 0L, TimeUnit.SECONDS, timer, ticker);
+
+		limiter.submit(dispatcher, callable);
+		limiter.submit(dispatcher, callable);
+		limiter.submit(dispatcher, callable);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1L));
+
+		assertTrue(limiter.submit(dispatcher, callable).isDone());
+		verify(dispatcher, times(2)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_WhenCancelledWhileWaiting_IsNotDispatched() {
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1.0d, 1, 10L, TimeUnit.SECONDS, timer, ticker);
+
+		limiter.submit(dispatcher, callable);
+		ListenableFuture<Object> waiting = limiter.submit(dispatcher, callable);
+
+		assertEquals(1, limiter.getWaiting());
+		assertFalse(waiting.isDone());
+
+		waiting.cancel(true);
+
+		assertEquals(0, limiter.getWaiting());
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void submit_WhenDispatchFailsAfterWaiting_FailsFuture() throws Exception {
+		when(dispatcher.dispatch(callable)).thenReturn(Futures.immediateFuture(obj))
+				.thenThrow(new IllegalStateException());
+
+		AsyncRateLimiter limiter = new AsyncRateLimiter(1000.0d, 1, 10L, TimeUnit.SECONDS, timer, ticker);
+
+		limiter.submit(dispatcher, callable);
+
+		try {
+			limiter.submit(dispatcher, callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void constructor_WithNoBurst_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new AsyncRateLimiter(1.0d, 0);
+	}
+
+	@Test
+	public void constructor_WithZeroRate_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new AsyncRateLimiter(0.0d, 1);
+	}
+
+}
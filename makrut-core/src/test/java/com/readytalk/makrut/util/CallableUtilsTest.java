@@ -2,11 +2,25 @@ package com.readytalk.makrut.util;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.util.Collections;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -14,9 +28,15 @@ import java.util.concurrent.TimeUnit;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.readytalk.makrut.command.MakrutCommand;
+import com.readytalk.makrut.strategy.BackoffStrategy;
+import com.readytalk.makrut.strategy.RetryStrategy;
+import com.readytalk.makrut.strategy.SampleStrategy;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.junit.After;
 import org.junit.Before;
@@ -26,6 +46,8 @@ import org.junit.rules.ExpectedException;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class CallableUtilsTest {
 
@@ -86,6 +108,138 @@ public class CallableUtilsTest {
 	}
 
 
+	@Test
+	public void addTimeLimit_OnTimeout_MarksMeterAndClearsInterrupt() throws Exception {
+		Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(10000L);
+				return obj;
+			}
+		};
+
+		try {
+			utils.addTimeLimit(callable, 1L, TimeUnit.MILLISECONDS).call();
+			fail("Expected exception.");
+		} catch (UncheckedTimeoutException ex) {
+			assertFalse(Thread.currentThread().isInterrupted());
+			assertEquals(1L, metrics.meter(name(testcallable.getClass(), "call", "timeout-exceeded")).getCount());
+		}
+	}
+
+	@Test
+	public void addTimeLimit_WhenAlreadyInterrupted_LeavesInterrupt() throws Exception {
+		Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50L);
+
+				while (System.nanoTime() < until) {
+					Thread.yield();
+				}
+
+				return obj;
+			}
+		};
+
+		Thread.currentThread().interrupt();
+
+		try {
+			utils.addTimeLimit(callable, 1L, TimeUnit.MILLISECONDS).call();
+			fail("Expected exception.");
+		} catch (UncheckedTimeoutException ex) {
+			assertTrue(Thread.interrupted());
+		}
+	}
+
+	@Test
+	public void addTimeLimit_UnderLimit_RunsOnCallingThread() throws Exception {
+		final Thread caller = Thread.currentThread();
+
+		Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				assertSame(caller, Thread.currentThread());
+				return obj;
+			}
+		};
+
+		assertEquals(obj, utils.addTimeLimit(callable, 10L, TimeUnit.SECONDS).call());
+		assertEquals(0L, metrics.meter(name(testcallable.getClass(), "call", "timeout-exceeded")).getCount());
+	}
+
+	@Test
+	public void addDeadline_WhenPassed_FailsWithoutRunning() throws Exception {
+		Deadline deadline = Deadline.after(0L, TimeUnit.MILLISECONDS, Ticker.systemTicker());
+
+		try {
+			utils.addDeadline(testcallable, deadline, Optional.<Long>absent()).call();
+			fail("Expected exception.");
+		} catch (DeadlineExceededException ex) {
+			verify(testcallable, never()).call();
+			assertEquals(1L, metrics.meter(name(testcallable.getClass(), "call", "deadline-exceeded")).getCount());
+		}
+	}
+
+	@Test
+	public void addDeadline_WhenDeadlineComesFirst_FailsWithDeadlineExceeded() throws Exception {
+		Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(10000L);
+				return obj;
+			}
+		};
+
+		Deadline deadline = Deadline.after(1L, TimeUnit.MILLISECONDS, Ticker.systemTicker());
+
+		try {
+			utils.addDeadline(callable, deadline, Optional.of(10000L)).call();
+			fail("Expected exception.");
+		} catch (DeadlineExceededException ex) {
+			assertFalse(Thread.currentThread().isInterrupted());
+			assertEquals(0L, metrics.meter(name(testcallable.getClass(), "call", "timeout-exceeded")).getCount());
+		}
+	}
+
+	@Test
+	public void addDeadline_WhenTimeLimitComesFirst_FailsWithTimeout() throws Exception {
+		Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Thread.sleep(10000L);
+				return obj;
+			}
+		};
+
+		Deadline deadline = Deadline.after(10L, TimeUnit.SECONDS, Ticker.systemTicker());
+
+		try {
+			utils.addDeadline(callable, deadline, Optional.of(1L)).call();
+			fail("Expected exception.");
+		} catch (UncheckedTimeoutException ex) {
+			assertEquals(1L, metrics.meter(name(testcallable.getClass(), "call", "timeout-exceeded")).getCount());
+			assertEquals(0L, metrics.meter(name(testcallable.getClass(), "call", "deadline-exceeded")).getCount());
+		}
+	}
+
+	@Test
+	public void addDeadline_BeforeDeadline_ReturnsResult() throws Exception {
+		when(testcallable.call()).thenReturn(obj);
+
+		Deadline deadline = Deadline.after(10L, TimeUnit.SECONDS, Ticker.systemTicker());
+
+		assertEquals(obj, utils.addDeadline(testcallable, deadline, Optional.<Long>absent()).call());
+	}
+
+	@Test
+	@SuppressFBWarnings("NP_NONNULL_PARAM_VIOLATION")
+	public void addTimeLimit_OnNullTimer_ThrowsException() {
+		thrown.expect(NullPointerException.class);
+
+		utils.addTimeLimit(testcallable, 500L, TimeUnit.MILLISECONDS, null);
+	}
+
 	@Test
 	@SuppressFBWarnings({ "TQ_NEVER_VALUE_USED_WHERE_ALWAYS_REQUIRED" })
 	public void addTimeLimit_OnNegativeTime_ThrowsException() {
@@ -134,6 +288,43 @@ public class CallableUtilsTest {
 		assertEquals(1, timer.getCount());
 	}
 
+	@Test
+	public void timeAttempts_OnRepeatedCalls_TimesByAttempt() throws Exception {
+		when(testcallable.call()).thenReturn(obj);
+
+		Callable<Object> callable = utils.timeAttempts(testcallable);
+
+		for (int i = 0; i < 6; i++) {
+			callable.call();
+		}
+
+		assertEquals(1L, metrics.timer(name(testcallable.getClass(), "attempt", "1", "duration")).getCount());
+		assertEquals(1L, metrics.timer(name(testcallable.getClass(), "attempt", "4", "duration")).getCount());
+		assertEquals(2L, metrics.timer(name(testcallable.getClass(), "attempt", "5-plus", "duration")).getCount());
+	}
+
+	@Test
+	public void timeExecution_WithSampling_TimesOnlySampledCalls() throws Exception {
+		when(testcallable.call()).thenReturn(obj);
+
+		Callable<Object> callable = utils.timeExecution(testcallable, new SampleStrategy() {
+			private boolean next = false;
+
+			@Override
+			public boolean sample() {
+				next = !next;
+				return next;
+			}
+		});
+
+		for (int i = 0; i < 4; i++) {
+			assertSame(obj, callable.call());
+		}
+
+		verify(testcallable, times(4)).call();
+		assertEquals(2, timer.getCount());
+	}
+
 	@Test
 	@SuppressFBWarnings({ "NP_NONNULL_PARAM_VIOLATION" })
 	public void timeExecution_OnNullCallable_ThrowsException() {
@@ -172,6 +363,226 @@ public class CallableUtilsTest {
 		verify(testcallable, never()).call();
 	}
 
+	@Test
+	public void withSemaphore_WithBreakdown_RecordsPermitWait() throws Exception {
+		Ticker ticker = mock(Ticker.class);
+		when(ticker.read()).thenReturn(0L, 10L, 35L);
+
+		LatencyBreakdown breakdown = new LatencyBreakdown(ticker);
+
+		utils.withSemaphore(testcallable, sem, Optional.of(breakdown)).call();
+
+		verify(sem).acquire();
+		assertEquals(25L, breakdown.getTime(LatencyBreakdown.Phase.PERMIT, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void withBlockingCache_WithBreakdown_RecordsWaitLessLoad() throws Exception {
+		Ticker ticker = mock(Ticker.class);
+		when(ticker.read()).thenReturn(0L, 10L, 20L, 60L, 70L);
+		when(testcallable.call()).thenReturn(obj);
+
+		LatencyBreakdown breakdown = new LatencyBreakdown(ticker);
+		Callable<Object> load = utils.timePhase(testcallable, breakdown, LatencyBreakdown.Phase.EXECUTION);
+
+		assertEquals(obj, utils.withBlockingCache(testcallable, load, wrapper, Optional.of(breakdown)).call());
+
+		assertEquals(40L, breakdown.getTime(LatencyBreakdown.Phase.EXECUTION, TimeUnit.NANOSECONDS));
+		assertEquals(20L, breakdown.getTime(LatencyBreakdown.Phase.CACHE, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void withBlockingCache_WithLifecycleOnPresent_PublishesCacheHit() throws Exception {
+		LifecycleEvents events = new LifecycleEvents(8, Collections.<LifecycleListener>emptyList());
+		Optional<CommandLifecycle> lifecycle = Optional.of(new CommandLifecycle(events, "test", testcallable));
+
+		when(testcallable.call()).thenReturn(obj);
+
+		Callable<Object> cached = utils.withBlockingCache(testcallable, testcallable, wrapper,
+				Optional.<LatencyBreakdown>absent(), lifecycle);
+
+		cached.call();
+		assertEquals(0L, events.getPending());
+
+		cached.call();
+		assertEquals(1L, events.getPending());
+	}
+
+	@Test
+	public void withBlockingCache_WithProbe_ReportsMissThenHit() throws Exception {
+		CommandProbe probe = mock(CommandProbe.class);
+		Optional<CommandLifecycle> lifecycle = Optional.of(new CommandLifecycle(Optional.<LifecycleEvents>absent(),
+				Optional.of(probe), "test", testcallable));
+
+		when(testcallable.call()).thenReturn(obj);
+
+		Callable<Object> cached = utils.withBlockingCache(testcallable, testcallable, wrapper,
+				Optional.<LatencyBreakdown>absent(), lifecycle);
+
+		cached.call();
+		cached.call();
+
+		InOrder order = inOrder(probe);
+		order.verify(probe).cacheMiss("test");
+		order.verify(probe).cacheHit("test");
+	}
+
+	@Test
+	public void withBlockingCache_WithProbeAfterFailedLoad_ReportsOnlyMisses() throws Exception {
+		CommandProbe probe = mock(CommandProbe.class);
+		Optional<CommandLifecycle> lifecycle = Optional.of(new CommandLifecycle(Optional.<LifecycleEvents>absent(),
+				Optional.of(probe), "test", testcallable));
+
+		when(testcallable.call()).thenThrow(new IllegalStateException()).thenReturn(obj);
+
+		Callable<Object> cached = utils.withBlockingCache(testcallable, testcallable, wrapper,
+				Optional.<LatencyBreakdown>absent(), lifecycle);
+
+		try {
+			cached.call();
+			fail("Expected exception.");
+		} catch (Exception ex) {
+			assertEquals(obj, cached.call());
+		}
+
+		verify(probe, times(2)).cacheMiss("test");
+		verify(probe, never()).cacheHit("test");
+	}
+
+	@Test
+	public void withSemaphore_WithProbe_EndsPermitSpanOnceAcquired() throws Exception {
+		CommandProbe probe = mock(CommandProbe.class);
+		CommandProbe.Span span = mock(CommandProbe.Span.class);
+		Optional<CommandLifecycle> lifecycle = Optional.of(new CommandLifecycle(Optional.<LifecycleEvents>absent(),
+				Optional.of(probe), "test", testcallable));
+
+		when(probe.permitWait("test")).thenReturn(span);
+
+		utils.withSemaphore(testcallable, sem, Optional.<LatencyBreakdown>absent(), lifecycle).call();
+
+		InOrder order = inOrder(sem, span, testcallable);
+		order.verify(sem).acquire();
+		order.verify(span).end(null);
+		order.verify(testcallable).call();
+	}
+
+	@Test
+	public void retryInThread_OnFailure_RetriesWithinCall() throws Exception {
+		RetryStrategy strategy = mock(RetryStrategy.class);
+		IllegalStateException failure = new IllegalStateException();
+
+		when(testcallable.call()).thenThrow(failure).thenReturn(obj);
+		when(strategy.shouldRetry(eq(1), anyLong(), eq(failure))).thenReturn(true);
+
+		Callable<Object> retried = utils.retryInThread(testcallable, strategy, Optional.<BackoffStrategy>absent(),
+				Ticker.systemTicker(), Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+				Optional.<CommandLifecycle>absent());
+
+		assertEquals(obj, retried.call());
+		verify(testcallable, times(2)).call();
+		assertEquals(1L, metrics.meter(name(testcallable.getClass(), "retry", "in-thread")).getCount());
+	}
+
+	@Test
+	public void retryInThread_WhenStrategyRefuses_ThrowsLastFailure() throws Exception {
+		RetryStrategy strategy = mock(RetryStrategy.class);
+		IllegalStateException failure = new IllegalStateException();
+
+		when(testcallable.call()).thenThrow(failure);
+
+		thrown.expect(IllegalStateException.class);
+
+		utils.retryInThread(testcallable, strategy, Optional.<BackoffStrategy>absent(),
+				Ticker.systemTicker(), Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+				Optional.<CommandLifecycle>absent()).call();
+	}
+
+	@Test
+	public void retryInThread_OnRetry_MeasuresElapsedTimeByTicker() throws Exception {
+		RetryStrategy strategy = mock(RetryStrategy.class);
+		Ticker ticker = mock(Ticker.class);
+		IllegalStateException failure = new IllegalStateException();
+
+		when(ticker.read()).thenReturn(0L, TimeUnit.SECONDS.toNanos(3L));
+		when(testcallable.call()).thenThrow(failure).thenReturn(obj);
+		when(strategy.shouldRetry(1, 3000L, failure)).thenReturn(true);
+
+		Callable<Object> retried = utils.retryInThread(testcallable, strategy, Optional.<BackoffStrategy>absent(),
+				ticker, Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+				Optional.<CommandLifecycle>absent());
+
+		assertEquals(obj, retried.call());
+		verify(strategy).shouldRetry(1, 3000L, failure);
+	}
+
+	@Test
+	public void retryInThread_OnRejection_ThrowsWithoutRetry() throws Exception {
+		RetryStrategy strategy = mock(RetryStrategy.class);
+
+		when(testcallable.call()).thenThrow(new CircuitBreakerOpenException("open")).thenReturn(obj);
+		when(strategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		try {
+			utils.retryInThread(testcallable, strategy, Optional.<BackoffStrategy>absent(), Ticker.systemTicker(),
+					Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+					Optional.<CommandLifecycle>absent()).call();
+			fail("Expected exception.");
+		} catch (CircuitBreakerOpenException ex) {
+			verify(testcallable, times(1)).call();
+			verifyZeroInteractions(strategy);
+		}
+	}
+
+	@Test
+	public void depositOnFirstSuccess_OnFirstCall_Deposits() throws Exception {
+		TokenBudget budget = new TokenBudget(0.5d, 1);
+		budget.tryWithdraw();
+
+		when(testcallable.call()).thenReturn(obj);
+
+		assertEquals(obj, utils.depositOnFirstSuccess(testcallable, budget).call());
+		assertEquals(0.5d, budget.getTokens(), 0.001d);
+	}
+
+	@Test
+	public void depositOnFirstSuccess_OnLaterCall_DoesNotDeposit() throws Exception {
+		TokenBudget budget = new TokenBudget(0.5d, 1);
+		budget.tryWithdraw();
+
+		when(testcallable.call()).thenThrow(new IllegalStateException()).thenReturn(obj);
+
+		Callable<Object> depositing = utils.depositOnFirstSuccess(testcallable, budget);
+
+		try {
+			depositing.call();
+			fail("Expected exception.");
+		} catch (IllegalStateException ex) {
+			assertEquals(obj, depositing.call());
+		}
+
+		assertEquals(0.0d, budget.getTokens(), 0.001d);
+	}
+
+	@Test
+	public void retryInThread_WhenBackoffPassesDeadline_ThrowsWithoutRetry() throws Exception {
+		RetryStrategy strategy = mock(RetryStrategy.class);
+		BackoffStrategy backoff = mock(BackoffStrategy.class);
+		Deadline deadline = Deadline.after(1L, TimeUnit.SECONDS, Ticker.systemTicker());
+
+		when(testcallable.call()).thenThrow(new IllegalStateException());
+		when(strategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+		when(backoff.nextWaitPeriod(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(TimeUnit.HOURS.toMillis(1L));
+
+		try {
+			utils.retryInThread(testcallable, strategy, Optional.of(backoff), Ticker.systemTicker(),
+					Optional.of(deadline), Optional.<LatencyBreakdown>absent(), Optional.<CommandLifecycle>absent())
+					.call();
+			fail("Expected exception.");
+		} catch (IllegalStateException ex) {
+			verify(testcallable, times(1)).call();
+		}
+	}
+
 	@Test
 	public void populateCacheWithResult_WhenCalled_ReturnsValue() throws Exception {
 		when(testcallable.call()).thenReturn(obj);
@@ -214,4 +625,168 @@ public class CallableUtilsTest {
 		assertEquals(obj, callable.call());
 	}
 
+
+	@Test
+	public void timeExecution_OnRepeatedUse_LooksUpTimerOnce() throws Exception {
+		MetricRegistry registry = spy(new MetricRegistry());
+
+		CallableUtils spied = new CallableUtils(registry, name(testcallable.getClass()));
+
+		spied.timeExecution(testcallable).call();
+		spied.timeExecution(testcallable).call();
+
+		verify(registry, times(1)).timer(anyString());
+		assertEquals(2, registry.timer(name(testcallable.getClass(), "call", "duration")).getCount());
+	}
+
+	@Test
+	public void withCircuitBreaker_WhenOpen_ThrowsWithoutCalling() throws Exception {
+		CircuitBreaker breaker = trippedBreaker();
+
+		try {
+			utils.withCircuitBreaker(testcallable, breaker).call();
+			fail("Expected exception.");
+		} catch (CircuitBreakerOpenException ex) {
+			// Expected
+		}
+
+		verify(testcallable, never()).call();
+		assertEquals(1, metrics.meter(name(testcallable.getClass(), "circuit-breaker", "short-circuited")).getCount());
+	}
+
+	@Test
+	public void withCircuitBreaker_OnFailures_OpensBreaker() throws Exception {
+		when(testcallable.call()).thenThrow(new IllegalStateException());
+
+		CircuitBreaker breaker = new CircuitBreakerBuilder().withMinimumCalls(2).build();
+		Callable<Object> callable = utils.withCircuitBreaker(testcallable, breaker);
+
+		for (int i = 0; i < 2; i++) {
+			try {
+				callable.call();
+				fail("Expected exception.");
+			} catch (IllegalStateException ex) {
+				// Expected
+			}
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void withCircuitBreaker_WhenInterrupted_DoesNotCountFailure() throws Exception {
+		when(testcallable.call()).thenThrow(new InterruptedException());
+
+		CircuitBreaker breaker = new CircuitBreakerBuilder().withMinimumCalls(1).build();
+
+		try {
+			utils.withCircuitBreaker(testcallable, breaker).call();
+			fail("Expected exception.");
+		} catch (InterruptedException ex) {
+			// Expected
+		}
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0.0d, breaker.getFailureRate(), 0.0d);
+	}
+
+	@Test
+	public void withCircuitBreaker_OnSuccess_ReturnsValue() throws Exception {
+		when(testcallable.call()).thenReturn(obj);
+
+		CircuitBreaker breaker = new CircuitBreakerBuilder().build();
+
+		assertEquals(obj, utils.withCircuitBreaker(testcallable, breaker).call());
+		assertEquals(0.0d, breaker.getFailureRate(), 0.0d);
+	}
+
+	@Test
+	public void reportCircuitBreaker_WhenOpen_ReportsOpenState() {
+		utils.reportCircuitBreaker(trippedBreaker());
+
+		assertEquals(CircuitBreaker.State.OPEN.ordinal(),
+				metrics.getGauges().get(name(testcallable.getClass(), "circuit-breaker", "state")).getValue());
+	}
+
+	@Test
+	public void reportCircuitBreaker_WhenCalledTwice_ReplacesGauges() {
+		utils.reportCircuitBreaker(new CircuitBreakerBuilder().build());
+		utils.reportCircuitBreaker(trippedBreaker());
+
+		assertEquals(CircuitBreaker.State.OPEN.ordinal(),
+				metrics.getGauges().get(name(testcallable.getClass(), "circuit-breaker", "state")).getValue());
+	}
+
+	private CircuitBreaker trippedBreaker() {
+		CircuitBreaker breaker = new CircuitBreakerBuilder().withMinimumCalls(1).withTicker(new Ticker() {
+			@Override
+			public long read() {
+				return 0L;
+			}
+		}).build();
+
+		breaker.onFailure(new Exception());
+
+		return breaker;
+	}
+
+	@Test
+	public void trackInFlight_WhileRunning_RegistersAttempt() throws Exception {
+		final InFlightRegistry registry = new InFlightRegistry();
+		final Callable<Object> key = new TestCommand("name", 1);
+
+		when(testcallable.call()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) {
+				InFlightCall call = registry.getInFlight().get(0);
+
+				assertEquals("name", call.getCommandName());
+				assertEquals(key.hashCode(), call.getArgsHash());
+				assertSame(Thread.currentThread(), call.getThread());
+
+				return obj;
+			}
+		});
+
+		Callable<Object> tracked = utils.trackInFlight(key, testcallable, registry);
+
+		assertSame(obj, tracked.call());
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void trackInFlight_OnRetry_CountsAttempts() throws Exception {
+		final InFlightRegistry registry = new InFlightRegistry();
+
+		when(testcallable.call()).thenThrow(new IllegalStateException()).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(final InvocationOnMock invocation) {
+				assertEquals(2, registry.getInFlight().get(0).getAttempt());
+
+				return obj;
+			}
+		});
+
+		Callable<Object> tracked = utils.trackInFlight(key, testcallable, registry);
+
+		try {
+			tracked.call();
+			fail("Expected exception.");
+		} catch (IllegalStateException ex) {
+			assertEquals(0, registry.size());
+		}
+
+		assertSame(obj, tracked.call());
+	}
+
+	private static final class TestCommand extends MakrutCommand<Object> {
+		TestCommand(final String commandName, final Object... args) {
+			super(commandName, args);
+		}
+
+		@Override
+		public Object call() {
+			return null;
+		}
+	}
 }
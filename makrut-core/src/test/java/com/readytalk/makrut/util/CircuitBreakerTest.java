@@ -0,0 +1,212 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Predicates;
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class CircuitBreakerTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Exception ex = new IOException();
+
+	@Mock
+	private Ticker ticker;
+
+	private CircuitBreakerBuilder builder;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+
+		builder = new CircuitBreakerBuilder().withTicker(ticker)
+				.withMinimumCalls(4)
+				.withFailureRateThreshold(0.5d)
+				.withWindow(10L, TimeUnit.SECONDS, 10)
+				.withOpenDuration(5L, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void tryAcquirePermission_WhenClosed_Permits() {
+		CircuitBreaker breaker = builder.build();
+
+		assertTrue(breaker.tryAcquirePermission());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void onFailure_BelowMinimumCalls_StaysClosed() {
+		CircuitBreaker breaker = builder.build();
+
+		breaker.onFailure(ex);
+		breaker.onFailure(ex);
+		breaker.onFailure(ex);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(1.0d, breaker.getFailureRate(), 0.0d);
+	}
+
+	@Test
+	public void onFailure_AtThreshold_Opens() {
+		CircuitBreaker breaker = builder.build();
+
+		breaker.onSuccess();
+		breaker.onSuccess();
+		breaker.onFailure(ex);
+		breaker.onFailure(ex);
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquirePermission());
+		assertFalse(breaker.isCallPermitted());
+	}
+
+	@Test
+	public void onFailure_BelowThreshold_StaysClosed() {
+		CircuitBreaker breaker = builder.build();
+
+		breaker.onSuccess();
+		breaker.onSuccess();
+		breaker.onSuccess();
+		breaker.onFailure(ex);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0.25d, breaker.getFailureRate(), 0.0d);
+	}
+
+	@Test
+	public void onFailure_WhenPredicateRejects_CountsAsSuccess() {
+		CircuitBreaker breaker = builder.withFailurePredicate(Predicates.<Exception>alwaysFalse()).build();
+
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure(ex);
+		}
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0.0d, breaker.getFailureRate(), 0.0d);
+	}
+
+	@Test
+	public void onFailure_AfterWindowPasses_ForgetsOldFailures() {
+		CircuitBreaker breaker = builder.build();
+
+		breaker.onFailure(ex);
+		breaker.onFailure(ex);
+		breaker.onFailure(ex);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(11L));
+
+		breaker.onFailure(ex);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void tryAcquirePermission_AfterOpenDuration_PermitsSingleTrial() {
+		CircuitBreaker breaker = trip(builder.build());
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5L));
+
+		assertTrue(breaker.isCallPermitted());
+		assertTrue(breaker.tryAcquirePermission());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.isCallPermitted());
+		assertFalse(breaker.tryAcquirePermission());
+	}
+
+	@Test
+	public void onSuccess_WhenHalfOpen_Closes() {
+		CircuitBreaker breaker = trip(builder.build());
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5L));
+
+		breaker.tryAcquirePermission();
+		breaker.onSuccess();
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0.0d, breaker.getFailureRate(), 0.0d);
+	}
+
+	@Test
+	public void onSuccess_WhenHalfOpenWithSeveralTrials_ClosesAfterAllSucceed() {
+		CircuitBreaker breaker = trip(builder.withHalfOpenCalls(2).build());
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5L));
+
+		assertTrue(breaker.tryAcquirePermission());
+		assertTrue(breaker.tryAcquirePermission());
+
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void onIgnored_WhenHalfOpen_ReturnsTrialPermit() {
+		CircuitBreaker breaker = trip(builder.build());
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5L));
+
+		assertTrue(breaker.tryAcquirePermission());
+		assertFalse(breaker.tryAcquirePermission());
+
+		breaker.onIgnored();
+
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquirePermission());
+	}
+
+	@Test
+	public void onFailure_WhenHalfOpen_Reopens() {
+		CircuitBreaker breaker = trip(builder.build());
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5L));
+
+		breaker.tryAcquirePermission();
+		breaker.onFailure(ex);
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquirePermission());
+	}
+
+	@Test
+	public void withFailureRateThreshold_OnZero_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		builder.withFailureRateThreshold(0.0d);
+	}
+
+	@Test
+	public void withWindow_OnNoBuckets_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		builder.withWindow(1L, TimeUnit.SECONDS, 0);
+	}
+
+	private CircuitBreaker trip(final CircuitBreaker breaker) {
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure(ex);
+		}
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		return breaker;
+	}
+}
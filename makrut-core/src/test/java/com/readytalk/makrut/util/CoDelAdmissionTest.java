@@ -0,0 +1,178 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CoDelAdmissionTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Object obj = new Object();
+
+	private final List<Callable<?>> dispatched = Lists.newArrayList();
+	private final List<SettableFuture<Object>> running = Lists.newArrayList();
+
+	@Mock
+	private Dispatcher dispatcher;
+
+	@Mock
+	private Callable<Object> callable;
+
+	@Mock
+	private Ticker ticker;
+
+	private CoDelAdmission admission;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+		when(callable.call()).thenReturn(obj);
+		when(dispatcher.dispatch(any(Callable.class))).thenAnswer(new Answer<ListenableFuture<Object>>() {
+			@Override
+			public ListenableFuture<Object> answer(final InvocationOnMock invocation) {
+				SettableFuture<Object> future = SettableFuture.create();
+
+				dispatched.add((Callable<?>) invocation.getArguments()[0]);
+				running.add(future);
+
+				return future;
+			}
+		});
+
+		admission = new CoDelAdmission(5L, 100L, TimeUnit.MILLISECONDS, ticker);
+	}
+
+	@Test
+	public void submit_WhenNotOverloaded_Admits() throws Exception {
+		admission.submit(dispatcher, callable);
+		admission.submit(dispatcher, callable);
+
+		assertEquals(2, dispatched.size());
+		assertEquals(2, admission.getQueued());
+
+		assertEquals(obj, dispatched.get(0).call());
+		assertEquals(1, admission.getQueued());
+	}
+
+	@Test
+	public void submit_AfterIntervalAboveTarget_ShedsWhileQueued() throws Exception {
+		admission.submit(dispatcher, callable);
+		admission.submit(dispatcher, callable);
+
+		at(50L);
+		dispatched.get(0).call();
+
+		at(101L);
+		ListenableFuture<Object> shed = admission.submit(dispatcher, callable);
+
+		assertTrue(admission.isOverloaded());
+		assertEquals(2, dispatched.size());
+		assertOverloaded(shed);
+	}
+
+	@Test
+	public void submit_WhenOverloadedWithEmptyQueue_Admits() throws Exception {
+		admission.submit(dispatcher, callable);
+
+		at(50L);
+		dispatched.get(0).call();
+
+		at(101L);
+		admission.submit(dispatcher, callable);
+
+		assertTrue(admission.isOverloaded());
+		assertEquals(2, dispatched.size());
+	}
+
+	@Test
+	public void submit_WhenNothingStartedDuringInterval_Sheds() throws Exception {
+		admission.submit(dispatcher, callable);
+
+		at(101L);
+		ListenableFuture<Object> shed = admission.submit(dispatcher, callable);
+
+		assertOverloaded(shed);
+	}
+
+	@Test
+	public void submit_AfterIntervalWithinTarget_Recovers() throws Exception {
+		admission.submit(dispatcher, callable);
+
+		at(101L);
+		admission.submit(dispatcher, callable);
+		assertTrue(admission.isOverloaded());
+
+		dispatched.get(0).call();
+
+		at(150L);
+		admission.submit(dispatcher, callable);
+
+		at(151L);
+		dispatched.get(1).call();
+
+		at(202L);
+		admission.submit(dispatcher, callable);
+
+		assertFalse(admission.isOverloaded());
+		assertEquals(3, dispatched.size());
+	}
+
+	@Test
+	public void submit_CancelledBeforeStarting_IsNoLongerQueued() throws Exception {
+		ListenableFuture<Object> result = admission.submit(dispatcher, callable);
+
+		result.cancel(true);
+
+		assertEquals(0, admission.getQueued());
+
+		dispatched.get(0).call();
+
+		assertEquals(0, admission.getQueued());
+	}
+
+	@Test
+	public void constructor_WithIntervalShorterThanTarget_Throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new CoDelAdmission(10L, 5L, TimeUnit.MILLISECONDS);
+	}
+
+	private void at(final long millis) {
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	private static void assertOverloaded(final ListenableFuture<?> future) throws Exception {
+		try {
+			future.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof QueueOverloadedException);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class DeadlineTest {
+
+	@Mock
+	private Ticker ticker;
+
+	private Deadline deadline;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+
+		deadline = Deadline.after(10L, TimeUnit.MILLISECONDS, ticker);
+	}
+
+	@Test
+	public void timeRemaining_BeforeDeadline_ReturnsTimeLeft() {
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(4L));
+
+		assertEquals(6L, deadline.timeRemaining(TimeUnit.MILLISECONDS));
+		assertFalse(deadline.isExpired());
+	}
+
+	@Test
+	public void timeRemaining_AfterDeadline_ReturnsZero() {
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(20L));
+
+		assertEquals(0L, deadline.timeRemaining(TimeUnit.MILLISECONDS));
+		assertTrue(deadline.isExpired());
+	}
+
+	@Test
+	public void allows_DelayEndingBeforeDeadline_ReturnsTrue() {
+		assertTrue(deadline.allows(9L, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void allows_DelayEndingAtDeadline_ReturnsFalse() {
+		assertFalse(deadline.allows(10L, TimeUnit.MILLISECONDS));
+	}
+}
@@ -2,29 +2,46 @@ package com.readytalk.makrut.util;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.readytalk.makrut.command.PhaseTimed;
 import com.readytalk.makrut.strategy.BackoffStrategy;
+import com.readytalk.makrut.strategy.HedgeStrategies;
+import com.readytalk.makrut.strategy.LimitStrategies;
 import com.readytalk.makrut.strategy.RetryStrategy;
 import org.junit.After;
 import org.junit.Before;
@@ -53,6 +70,9 @@ public class FutureUtilsTest {
 	@Mock
 	private Callable<Object> callable;
 
+	@Mock
+	private Dispatcher dispatcher;
+
 	private FutureUtils utils;
 
 	@Before
@@ -61,6 +81,10 @@ public class FutureUtilsTest {
 
 		executorService = MoreExecutors.listeningDecorator(new ScheduledThreadPoolExecutor(1));
 
+		when(command.getDeadline()).thenReturn(Optional.<Deadline>absent());
+		when(command.getBreakdown()).thenReturn(Optional.<LatencyBreakdown>absent());
+		when(command.getLifecycle()).thenReturn(Optional.<CommandLifecycle>absent());
+
 		utils = new FutureUtils(new MetricRegistry(), name(callable.getClass()));
 	}
 
@@ -118,6 +142,58 @@ public class FutureUtilsTest {
 
 	}
 
+	@Test
+	public void addRetry_WhenBackoffOverrunsDeadline_FailsWithoutRetry() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+		SettableFuture<Object> value = SettableFuture.create();
+		Exception failure = new Exception();
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+		when(backoffStrategy.nextWaitPeriod(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(60000L);
+		when(command.getAndSetNextBackoff(backoffStrategy)).thenReturn(60000L);
+		when(command.getDeadline()).thenReturn(
+				Optional.of(Deadline.after(10L, TimeUnit.SECONDS, Ticker.systemTicker())));
+
+		ListenableFuture<Object> withRetry = metered.addRetry(executorService, retryStrategy,
+				Optional.of(backoffStrategy), value, command);
+
+		value.setException(failure);
+
+		try {
+			withRetry.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(failure, ex.getCause());
+		}
+
+		verify(command, never()).call();
+		assertEquals(1L, registry.meter(name("test", "retry", "deadline-exceeded")).getCount());
+	}
+
+	@Test
+	public void addRetry_WithBudgetWhenBackoffOverrunsDeadline_KeepsToken() throws Exception {
+		SettableFuture<Object> value = SettableFuture.create();
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+		when(command.getAndSetNextBackoff(backoffStrategy)).thenReturn(60000L);
+		when(command.getDeadline()).thenReturn(
+				Optional.of(Deadline.after(10L, TimeUnit.SECONDS, Ticker.systemTicker())));
+
+		ListenableFuture<Object> withRetry = utils.addRetry(executorService,
+				utils.withRetryBudget(retryStrategy, budget), Optional.of(backoffStrategy), value, command);
+
+		value.setException(new Exception());
+
+		try {
+			withRetry.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertEquals(1.0d, budget.getTokens(), 0.0d);
+		}
+	}
+
 	@Test
 	public void addRetry_OnFailure_PushesBack() throws Exception {
 		SettableFuture<Object> value = SettableFuture.create();
@@ -236,4 +312,663 @@ public class FutureUtilsTest {
 
 		assertTrue(future.isCancelled());
 	}
+
+	@Test
+	public void withFallbackCache_OnRepeatedHits_LooksUpMeterOnce() throws Exception {
+		when(cache.getOptional(callable)).thenReturn(Optional.of(obj));
+
+		MetricRegistry registry = spy(new MetricRegistry());
+
+		FutureUtils spied = new FutureUtils(registry, name(callable.getClass()));
+
+		for (int i = 0; i < 2; i++) {
+			SettableFuture<Object> settable = SettableFuture.create();
+
+			ListenableFuture<Object> future = spied.withFallbackCache(callable, settable, cache);
+
+			settable.setException(new Exception());
+
+			assertEquals(obj, future.get());
+		}
+
+		verify(registry, times(1)).meter(anyString());
+	}
+
+	@Test
+	public void addRetry_OnRejectedCommand_SkipsRetry() throws Exception {
+		SettableFuture<Object> value = SettableFuture.create();
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		ListenableFuture<Object> withRetry = utils.addRetry(executorService, retryStrategy,
+				Optional.of(backoffStrategy), value, command);
+
+		value.setException(new CircuitBreakerOpenException("Open."));
+
+		try {
+			withRetry.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof CircuitBreakerOpenException);
+		}
+
+		verify(retryStrategy, never()).shouldRetry(anyInt(), anyLong(), any(Exception.class));
+		verify(command, never()).call();
+	}
+
+	@Test
+	public void withCircuitBreaker_WhenOpen_FailsWithoutDispatching() throws Exception {
+		CircuitBreaker breaker = new CircuitBreakerBuilder().withMinimumCalls(1).build();
+		breaker.onFailure(new Exception());
+
+		ListenableFuture<Object> future = utils.withCircuitBreaker(Dispatchers.forExecutor(executorService), breaker)
+				.dispatch(command);
+
+		try {
+			future.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof CircuitBreakerOpenException);
+		}
+
+		verify(command, never()).call();
+	}
+
+	@Test
+	public void withCircuitBreaker_WhenClosed_Dispatches() throws Exception {
+		when(command.call()).thenReturn(obj);
+
+		ListenableFuture<Object> future = utils.withCircuitBreaker(Dispatchers.forExecutor(executorService),
+				new CircuitBreakerBuilder().build()).dispatch(command);
+
+		assertEquals(obj, future.get());
+	}
+
+	@Test
+	public void withBulkhead_WhenFull_MarksRejection() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		SettableFuture<Object> running = SettableFuture.create();
+		when(dispatcher.dispatch(callable)).thenReturn(running);
+
+		Dispatcher bulkheaded = metered.withBulkhead(dispatcher, new AsyncBulkhead(1, 0));
+
+		bulkheaded.dispatch(callable);
+		ListenableFuture<Object> rejected = bulkheaded.dispatch(callable);
+
+		try {
+			rejected.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BulkheadFullException);
+		}
+
+		assertEquals(1L, registry.meter(name("test", "bulkhead", "rejected")).getCount());
+		assertEquals(1L, registry.timer(name("test", "bulkhead", "wait")).getCount());
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void withBulkhead_OnQueueTimeout_MarksTimeout() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		SettableFuture<Object> running = SettableFuture.create();
+		when(dispatcher.dispatch(callable)).thenReturn(running);
+
+		Dispatcher bulkheaded = metered.withBulkhead(dispatcher,
+				new AsyncBulkhead(1, 1, 1L, TimeUnit.MILLISECONDS, executorService));
+
+		bulkheaded.dispatch(callable);
+		ListenableFuture<Object> queued = bulkheaded.dispatch(callable);
+
+		try {
+			queued.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BulkheadTimeoutException);
+		}
+
+		Meter timeouts = registry.meter(name("test", "bulkhead", "queue-timeout"));
+
+		while (timeouts.getCount() == 0L) {
+			Thread.sleep(1L);
+		}
+
+		assertEquals(1L, timeouts.getCount());
+	}
+
+	@Test
+	public void reportBulkhead_OnRegister_ReportsPermitsAndQueue() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		metered.reportBulkhead(new AsyncBulkhead(3, 2));
+		metered.reportBulkhead(new AsyncBulkhead(4, 2));
+
+		assertEquals(4, registry.getGauges().get(name("test", "bulkhead", "available")).getValue());
+		assertEquals(0, registry.getGauges().get(name("test", "bulkhead", "queued")).getValue());
+	}
+
+	@Test
+	public void addRetry_WithDispatcher_DispatchesRetries() throws Exception {
+		SettableFuture<Object> value = SettableFuture.create();
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true, false);
+		when(dispatcher.dispatch(command)).thenReturn(Futures.immediateFuture(obj));
+
+		ListenableFuture<Object> withRetry = utils.addRetry(executorService, dispatcher, retryStrategy,
+				Optional.of(backoffStrategy), value, command);
+
+		value.setException(new Exception());
+
+		assertEquals(obj, withRetry.get());
+		verify(dispatcher).dispatch(command);
+		verify(command).getAndSetNextBackoff(eq(backoffStrategy));
+	}
+
+	@Test
+	public void addRetry_WithScheduler_DefersRetryOnScheduler() throws Exception {
+		SettableFuture<Object> value = SettableFuture.create();
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true, false);
+		when(command.call()).thenReturn(obj);
+		when(command.getAndSetNextBackoff(backoffStrategy)).thenReturn(1L);
+
+		HashedWheelTimer timer = new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, 8, executorService);
+
+		try {
+			ListenableFuture<Object> withRetry = utils.addRetry(executorService, timer, Optional.<Dispatcher>absent(),
+					retryStrategy, Optional.of(backoffStrategy), value, command);
+
+			value.setException(new Exception());
+
+			assertEquals(obj, withRetry.get());
+			assertEquals(0, timer.getPendingTimeouts());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void reportBackoffTimer_OnRegister_ReportsPending() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		HashedWheelTimer timer = new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, 8, executorService);
+
+		try {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 1L, TimeUnit.MINUTES);
+
+			metered.reportBackoffTimer(timer);
+
+			assertEquals(1, registry.getGauges().get(name("test", "retry", "backoff", "pending")).getValue());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void withRetryBudget_WithTokens_AllowsRetry() {
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		assertTrue(utils.withRetryBudget(retryStrategy, budget).shouldRetry(1, 0L, new Exception()));
+		assertEquals(0.0d, budget.getTokens(), 0.0d);
+	}
+
+	@Test
+	public void withRetryBudget_WhenExhausted_RefusesAndMarks() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+		budget.tryWithdraw();
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+
+		assertFalse(metered.withRetryBudget(retryStrategy, budget).shouldRetry(1, 0L, new Exception()));
+		assertEquals(1L, registry.meter(name("test", "retry", "budget-exhausted")).getCount());
+	}
+
+	@Test
+	public void withRetryBudget_WhenStrategyRefuses_KeepsTokens() {
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(false);
+
+		assertFalse(utils.withRetryBudget(retryStrategy, budget).shouldRetry(1, 0L, new Exception()));
+		assertEquals(1.0d, budget.getTokens(), 0.0d);
+	}
+
+	@Test
+	public void depositOnSuccess_OnSuccessOnly_Deposits() {
+		TokenBudget budget = new TokenBudget(0.5d, 1);
+		budget.tryWithdraw();
+
+		utils.depositOnSuccess(Futures.immediateFailedFuture(new Exception()), budget);
+		assertEquals(0.0d, budget.getTokens(), 0.0d);
+
+		utils.depositOnSuccess(Futures.immediateFuture(obj), budget);
+		assertEquals(0.5d, budget.getTokens(), 0.0d);
+	}
+
+	@Test
+	public void withRateLimit_OverRate_MarksRejection() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		when(dispatcher.dispatch(callable)).thenReturn(Futures.immediateFuture(obj));
+
+		Dispatcher limited = metered.withRateLimit(dispatcher,
+				new AsyncRateLimiter(1.0d, 1, 0L, TimeUnit.SECONDS, executorService, Ticker.systemTicker()));
+
+		assertEquals(obj, limited.dispatch(callable).get());
+
+		try {
+			limited.dispatch(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof RateLimitExceededException);
+		}
+
+		assertEquals(1L, registry.meter(name("test", "rate-limit", "rejected")).getCount());
+		assertEquals(1L, registry.timer(name("test", "rate-limit", "wait")).getCount());
+	}
+
+	@Test
+	public void reportRateLimit_OnRegister_ReportsWaiting() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		metered.reportRateLimit(new AsyncRateLimiter(1.0d, 1));
+
+		assertEquals(0, registry.getGauges().get(name("test", "rate-limit", "waiting")).getValue());
+	}
+
+	@Test
+	public void withPriority_WhenSlotFree_DispatchesAndTimesWait() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		when(dispatcher.dispatch(callable)).thenReturn(Futures.immediateFuture(obj));
+
+		Dispatcher scheduled = metered.withPriority(dispatcher, new PriorityScheduler(1, 1L, TimeUnit.SECONDS));
+
+		assertEquals(obj, scheduled.dispatch(callable).get());
+		assertEquals(obj, scheduled.dispatch(callable).get());
+
+		assertEquals(2L, registry.timer(name("test", "priority", "wait")).getCount());
+	}
+
+	@Test
+	public void reportPriorityScheduler_OnRegister_ReportsQueueDepth() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		metered.reportPriorityScheduler(new PriorityScheduler(1, 1L, TimeUnit.SECONDS));
+
+		assertEquals(0, registry.getGauges().get(name("test", "priority", "queued")).getValue());
+	}
+
+	@Test
+	public void recordOutcome_OnSuccess_RecordsLatencyAndAttempts() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+		Ticker ticker = mock(Ticker.class);
+		SettableFuture<Object> future = SettableFuture.create();
+
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(30L));
+		when(command.callCount()).thenReturn(3);
+
+		metered.recordOutcome(future, command, ticker, TimeUnit.MILLISECONDS.toNanos(10L));
+		future.set(obj);
+
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(20L),
+				registry.timer(name("test", "end-to-end")).getSnapshot().getMax());
+		assertEquals(3L, registry.histogram(name("test", "attempts")).getSnapshot().getMax());
+	}
+
+	@Test
+	public void recordOutcome_OnFailure_MarksMeterForExceptionClass() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		metered.recordOutcome(Futures.immediateFailedFuture(new IllegalStateException()), command,
+				Ticker.systemTicker(), 0L);
+		metered.recordOutcome(Futures.immediateFailedFuture(new IllegalStateException()), command,
+				Ticker.systemTicker(), 0L);
+
+		assertEquals(2L, registry.meter(name("test", "failure", "IllegalStateException")).getCount());
+		assertEquals(2L, registry.timer(name("test", "end-to-end")).getCount());
+		assertEquals(0L, registry.histogram(name("test", "attempts")).getCount());
+	}
+
+	@Test
+	public void recordPhases_OnCompletion_TimesRecordedPhasesAndNotifiesCommand() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		Ticker ticker = mock(Ticker.class);
+		when(ticker.read()).thenReturn(0L, 40L);
+
+		LatencyBreakdown breakdown = new LatencyBreakdown(ticker);
+		breakdown.lap(LatencyBreakdown.Phase.QUEUE);
+
+		TimedCommand input = new TimedCommand();
+
+		metered.recordPhases(Futures.<Object>immediateFuture(obj), input, breakdown);
+
+		assertEquals(1L, registry.timer(name("test", "phase", "queue")).getCount());
+		assertEquals(0L, registry.timer(name("test", "phase", "backoff")).getCount());
+		assertEquals(breakdown, input.recorded);
+	}
+
+	@Test
+	public void addRetry_WithBreakdownAndBackoff_RecordsBackoffAndRetryQueue() throws Exception {
+		LatencyBreakdown breakdown = new LatencyBreakdown(Ticker.systemTicker());
+		MakrutCommandWrapper<Object> wrapper = new MakrutCommandWrapper<Object>(callable, Ticker.systemTicker(), 0,
+				Optional.<Deadline>absent(), Optional.of(breakdown));
+
+		when(callable.call()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+		when(backoffStrategy.nextWaitPeriod(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(1L);
+
+		wrapper.call();
+
+		ListenableFuture<Object> withRetry = utils.addRetry(executorService, retryStrategy,
+				Optional.of(backoffStrategy), Futures.immediateFailedFuture(new Exception()), wrapper);
+
+		assertEquals(obj, withRetry.get());
+		assertEquals(1L, breakdown.getCount(LatencyBreakdown.Phase.BACKOFF));
+		assertEquals(1L, breakdown.getCount(LatencyBreakdown.Phase.RETRY_QUEUE));
+		assertEquals(1L, breakdown.getCount(LatencyBreakdown.Phase.QUEUE));
+	}
+
+	@Test
+	public void addRetry_WithProbeAndBackoff_ReportsRetryAndBackoffSpan() throws Exception {
+		CommandProbe probe = mock(CommandProbe.class);
+		CommandProbe.Span span = mock(CommandProbe.Span.class);
+		MakrutCommandWrapper<Object> wrapper = new MakrutCommandWrapper<Object>(callable, Ticker.systemTicker(), 0,
+				Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+				Optional.of(new CommandLifecycle(Optional.<LifecycleEvents>absent(), Optional.of(probe), "test",
+						callable)));
+
+		when(probe.attempt(anyString(), anyInt())).thenReturn(span);
+		when(probe.backoff(anyString(), anyInt(), anyLong())).thenReturn(span);
+		when(callable.call()).thenReturn(obj);
+		when(retryStrategy.shouldRetry(anyInt(), anyLong(), any(Exception.class))).thenReturn(true);
+		when(backoffStrategy.nextWaitPeriod(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(1L);
+
+		wrapper.call();
+
+		ListenableFuture<Object> withRetry = utils.addRetry(executorService, retryStrategy,
+				Optional.of(backoffStrategy), Futures.immediateFailedFuture(new Exception()), wrapper);
+
+		assertEquals(obj, withRetry.get());
+		verify(probe).retryScheduled("test", 1, TimeUnit.MILLISECONDS.toNanos(1L));
+		verify(probe).backoff("test", 1, TimeUnit.MILLISECONDS.toNanos(1L));
+		verify(span, times(3)).end(null);
+	}
+
+	@Test
+	public void withFallbackCache_WithBreakdown_RecordsFallback() throws Exception {
+		LatencyBreakdown breakdown = new LatencyBreakdown(Ticker.systemTicker());
+		MakrutCommandWrapper<Object> wrapper = new MakrutCommandWrapper<Object>(callable, Ticker.systemTicker(), 0,
+				Optional.<Deadline>absent(), Optional.of(breakdown));
+
+		when(cache.getOptional(callable)).thenReturn(Optional.of(obj));
+
+		ListenableFuture<Object> future = utils.withFallbackCache(callable,
+				Futures.immediateFailedFuture(new Exception()), cache, wrapper);
+
+		assertEquals(obj, future.get());
+		assertEquals(1L, breakdown.getCount(LatencyBreakdown.Phase.FALLBACK));
+	}
+
+	@Test
+	public void withQueueTimer_OnStart_TimesWait() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		when(callable.call()).thenReturn(obj);
+
+		Dispatcher timed = metered.withQueueTimer(Dispatchers.forExecutor(executorService));
+
+		assertEquals(obj, timed.dispatch(callable).get());
+		assertEquals(1L, registry.timer(name("test", "queue", "wait")).getCount());
+	}
+
+	@Test
+	public void withTimeLimits_WhenCallIgnoresInterrupt_FailsFutureAtLimit() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		CallableUtils callUtils = new CallableUtils(new MetricRegistry(), "test");
+
+		Callable<Object> stuck = callUtils.addTimeLimit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Uninterruptibles.awaitUninterruptibly(release);
+				return obj;
+			}
+		}, 10L, TimeUnit.MILLISECONDS);
+
+		ListenableFuture<Object> future = utils.withTimeLimits(Dispatchers.forExecutor(executorService))
+				.dispatch(stuck);
+
+		try {
+			future.get(5L, TimeUnit.SECONDS);
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof UncheckedTimeoutException);
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void withDeadlineLimits_WithoutDeadline_DispatchesStraightThrough() {
+		SettableFuture<Object> running = SettableFuture.create();
+
+		when(command.getDeadline()).thenReturn(Optional.<Deadline>absent());
+		when(dispatcher.dispatch(command)).thenReturn(running);
+
+		assertSame(running, utils.withDeadlineLimits(dispatcher).dispatch(command));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void withDeadlineLimits_WithDeadline_LimitsCommand() {
+		SettableFuture<Object> running = SettableFuture.create();
+
+		when(command.getDeadline()).thenReturn(Optional.of(Deadline.after(1L, TimeUnit.SECONDS,
+				Ticker.systemTicker())));
+		when(dispatcher.dispatch(any(Callable.class))).thenReturn(running);
+
+		assertNotSame(running, utils.withDeadlineLimits(dispatcher).dispatch(command));
+		verify(dispatcher, never()).dispatch(command);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void withAdmissionControl_WhenOverloaded_MarksShed() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+		Ticker ticker = mock(Ticker.class);
+
+		when(ticker.read()).thenReturn(0L);
+		when(dispatcher.dispatch(any(Callable.class))).thenReturn(SettableFuture.<Object>create());
+
+		CoDelAdmission admission = new CoDelAdmission(1L, 10L, TimeUnit.MILLISECONDS, ticker);
+		Dispatcher admitted = metered.withAdmissionControl(dispatcher, admission);
+
+		admitted.dispatch(callable);
+
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(20L));
+
+		try {
+			admitted.dispatch(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof QueueOverloadedException);
+		}
+
+		assertEquals(1L, registry.meter(name("test", "admission", "shed")).getCount());
+	}
+
+	@Test
+	public void reportAdmission_OnRegister_ReportsQueuedAndOverloaded() {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		metered.reportAdmission(new CoDelAdmission(5L, 100L, TimeUnit.MILLISECONDS));
+
+		assertEquals(0, registry.getGauges().get(name("test", "admission", "queued")).getValue());
+		assertEquals(false, registry.getGauges().get(name("test", "admission", "overloaded")).getValue());
+	}
+
+	@Test
+	public void withAdaptiveLimit_AtLimit_MarksRejection() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		when(dispatcher.dispatch(callable)).thenReturn(SettableFuture.<Object>create());
+
+		AdaptiveLimiter limiter = new AdaptiveLimiter(LimitStrategies.aimd(0.5d), 1, 1, 1);
+		Dispatcher limited = metered.withAdaptiveLimit(dispatcher, limiter);
+
+		limited.dispatch(callable);
+
+		try {
+			limited.dispatch(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof ConcurrencyLimitExceededException);
+		}
+
+		metered.reportAdaptiveLimit(limiter);
+
+		assertEquals(1L, registry.meter(name("test", "adaptive-limit", "rejected")).getCount());
+		assertEquals(1, registry.getGauges().get(name("test", "adaptive-limit", "in-flight")).getValue());
+	}
+
+	@Test
+	public void withHedging_WhenPrimaryIsSlow_TakesHedgeAndCancelsPrimary() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		SettableFuture<Object> slow = SettableFuture.create();
+		when(dispatcher.dispatch(callable)).thenReturn(slow).thenReturn(Futures.immediateFuture(obj));
+
+		Dispatcher hedged = metered.withHedging(dispatcher, HedgeStrategies.fixedDelay(1L, TimeUnit.MILLISECONDS),
+				new TokenBudget(0.1d, 1), executorService);
+
+		assertEquals(obj, hedged.dispatch(callable).get());
+
+		Meter won = registry.meter(name("test", "hedge", "won"));
+
+		while (won.getCount() == 0L || !slow.isCancelled()) {
+			Thread.sleep(1L);
+		}
+
+		assertEquals(1L, registry.meter(name("test", "hedge", "sent")).getCount());
+		assertEquals(1L, won.getCount());
+	}
+
+	@Test
+	public void withHedging_OnCommandWrapper_DoesNotCountHedgeAsAttempt() throws Exception {
+		when(callable.call()).thenReturn(obj);
+
+		final SettableFuture<Object> slow = SettableFuture.create();
+		final MakrutCommandWrapper<Object> command = new MakrutCommandWrapper<Object>(callable, Ticker.systemTicker());
+
+		Dispatcher primaryHeld = new Dispatcher() {
+			private final AtomicInteger dispatched = new AtomicInteger(0);
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public <T> ListenableFuture<T> dispatch(final Callable<T> attempt) {
+				if (dispatched.incrementAndGet() == 1) {
+					return (ListenableFuture<T>) slow;
+				}
+
+				try {
+					return Futures.immediateFuture(attempt.call());
+				} catch (Exception ex) {
+					return Futures.immediateFailedFuture(ex);
+				}
+			}
+		};
+
+		Dispatcher hedged = utils.withHedging(primaryHeld, HedgeStrategies.fixedDelay(1L, TimeUnit.MILLISECONDS),
+				new TokenBudget(0.1d, 1), executorService);
+
+		assertEquals(obj, hedged.dispatch(command).get());
+		assertEquals(0, command.callCount());
+		verify(callable, times(1)).call();
+	}
+
+	@Test
+	public void withHedging_WhenBudgetExhausted_DoesNotHedge() throws Exception {
+		MetricRegistry registry = new MetricRegistry();
+		FutureUtils metered = new FutureUtils(registry, "test");
+
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+		budget.tryWithdraw();
+
+		final SettableFuture<Object> slow = SettableFuture.create();
+		when(dispatcher.dispatch(callable)).thenReturn(slow);
+
+		Dispatcher hedged = metered.withHedging(dispatcher, HedgeStrategies.fixedDelay(1L, TimeUnit.MILLISECONDS),
+				budget, executorService);
+
+		ListenableFuture<Object> future = hedged.dispatch(callable);
+
+		while (registry.meter(name("test", "hedge", "budget-exhausted")).getCount() == 0L) {
+			Thread.sleep(1L);
+		}
+
+		slow.set(obj);
+
+		assertEquals(obj, future.get());
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	@Test
+	public void withHedging_WhenPrimaryFailsFirst_Fails() throws Exception {
+		final Exception ex = new Exception();
+
+		when(dispatcher.dispatch(callable)).thenReturn(Futures.immediateFailedFuture(ex));
+
+		Dispatcher hedged = utils.withHedging(dispatcher, HedgeStrategies.fixedDelay(1L, TimeUnit.HOURS),
+				new TokenBudget(0.1d, 1), executorService);
+
+		try {
+			hedged.dispatch(callable).get();
+			fail("Expected exception.");
+		} catch (ExecutionException ee) {
+			assertEquals(ex, ee.getCause());
+		}
+
+		verify(dispatcher, times(1)).dispatch(callable);
+	}
+
+	private static final class TimedCommand implements Callable<Object>, PhaseTimed {
+		private LatencyBreakdown recorded = null;
+
+		@Override
+		public Object call() {
+			return null;
+		}
+
+		@Override
+		public void onPhasesRecorded(final LatencyBreakdown breakdown) {
+			recorded = breakdown;
+		}
+	}
 }
@@ -0,0 +1,173 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class HashedWheelTimerTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public final Timeout timeout = new Timeout(10000);
+
+	@Mock
+	private Runnable task;
+
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		timer = new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, 8, MoreExecutors.sameThreadExecutor());
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	public void schedule_AfterDelay_RunsTask() throws Exception {
+		long start = System.nanoTime();
+
+		timer.schedule(task, 5L, TimeUnit.MILLISECONDS).get();
+
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(5L));
+		verify(task).run();
+	}
+
+	@Test
+	public void schedule_BeyondOneTurn_WaitsForLaterTurn() throws Exception {
+		long start = System.nanoTime();
+
+		timer.schedule(task, 20L, TimeUnit.MILLISECONDS).get();
+
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20L));
+		verify(task).run();
+	}
+
+	@Test
+	public void schedule_OnExecutor_RunsTaskOnExecutor() throws Exception {
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		HashedWheelTimer pooled = new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, 8, pool);
+
+		final Thread[] ranOn = new Thread[1];
+
+		try {
+			pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					ranOn[0] = Thread.currentThread();
+				}
+			}).get();
+
+			final Thread[] taskRanOn = new Thread[1];
+
+			pooled.schedule(new Runnable() {
+				@Override
+				public void run() {
+					taskRanOn[0] = Thread.currentThread();
+				}
+			}, 1L, TimeUnit.MILLISECONDS).get();
+
+			assertEquals(ranOn[0], taskRanOn[0]);
+		} finally {
+			pooled.stop();
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void getPendingTimeouts_WhileWaiting_CountsTasks() {
+		timer.schedule(task, 1L, TimeUnit.MINUTES);
+		timer.schedule(task, 1L, TimeUnit.MINUTES);
+
+		assertEquals(2, timer.getPendingTimeouts());
+	}
+
+	@Test
+	public void cancel_BeforeDelay_DoesNotRunTask() throws Exception {
+		ListenableFuture<?> future = timer.schedule(task, 5L, TimeUnit.MILLISECONDS);
+
+		assertTrue(future.cancel(false));
+		assertEquals(0, timer.getPendingTimeouts());
+
+		timer.schedule(task, 10L, TimeUnit.MILLISECONDS).get();
+
+		verify(task).run();
+	}
+
+	@Test
+	public void cancel_AfterRun_ReturnsFalse() throws Exception {
+		ListenableFuture<?> future = timer.schedule(task, 1L, TimeUnit.MILLISECONDS);
+
+		future.get();
+
+		assertFalse(future.cancel(false));
+	}
+
+	@Test
+	public void stop_WithPendingTasks_CancelsThem() throws Exception {
+		final CountDownLatch cancelled = new CountDownLatch(1);
+
+		final ListenableFuture<?> future = timer.schedule(task, 1L, TimeUnit.MINUTES);
+
+		future.addListener(new Runnable() {
+			@Override
+			public void run() {
+				cancelled.countDown();
+			}
+		}, MoreExecutors.sameThreadExecutor());
+
+		timer.stop();
+		cancelled.await();
+
+		assertTrue(future.isCancelled());
+		assertEquals(0, timer.getPendingTimeouts());
+		verify(task, never()).run();
+	}
+
+	@Test
+	public void schedule_AfterStop_ThrowsException() {
+		timer.stop();
+
+		thrown.expect(IllegalStateException.class);
+
+		timer.schedule(task, 1L, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void constructor_WithNoTicks_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new HashedWheelTimer(1L, TimeUnit.MILLISECONDS, 0, MoreExecutors.sameThreadExecutor());
+	}
+
+	@Test
+	public void constructor_WithZeroTickDuration_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new HashedWheelTimer(0L, TimeUnit.MILLISECONDS, 8, MoreExecutors.sameThreadExecutor());
+	}
+}
@@ -0,0 +1,96 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class HdrHistogramReservoirTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final HdrHistogramReservoir reservoir = new HdrHistogramReservoir(3, 4);
+
+	@Test
+	public void getSnapshot_WithRareSlowValue_ReportsItAtTail() {
+		for (int i = 0; i < 9999; i++) {
+			reservoir.update(1000L);
+		}
+
+		reservoir.update(1000000L);
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		assertEquals(10000, snapshot.size());
+		assertEquals(1000.0d, snapshot.get99thPercentile(), 1.0d);
+		assertEquals(1000000.0d, snapshot.getValue(1.0d), 1000.0d);
+		assertEquals(1000L, snapshot.getMin());
+		assertEquals(1000000L, snapshot.getMax(), 1000L);
+	}
+
+	@Test
+	public void getSnapshot_AfterSnapshot_HoldsOnlyNewValues() {
+		reservoir.update(5L);
+		reservoir.getSnapshot();
+
+		reservoir.update(7L);
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		assertArrayEquals(new long[] {7L}, snapshot.getValues());
+		assertEquals(1, reservoir.size());
+	}
+
+	@Test
+	public void getSnapshot_WhenEmpty_ReportsZeroes() {
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		assertEquals(0, snapshot.size());
+		assertEquals(0.0d, snapshot.getMean(), 0.0d);
+		assertEquals(0L, snapshot.getMax());
+	}
+
+	@Test
+	public void update_FromManyThreads_RecordsEveryValue() throws Exception {
+		final int threads = 8;
+		final int perThread = 1000;
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						reservoir.update(i);
+					}
+
+					done.countDown();
+				}
+			}).start();
+		}
+
+		done.await();
+
+		assertEquals(threads * perThread, reservoir.getSnapshot().size());
+	}
+
+	@Test
+	public void update_WithNegativeValue_RecordsZero() {
+		reservoir.update(-1L);
+
+		assertEquals(0L, reservoir.getSnapshot().getMax());
+	}
+
+	@Test
+	public void getValue_OutOfRange_Throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		reservoir.getSnapshot().getValue(1.5d);
+	}
+}
@@ -0,0 +1,51 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Timer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class HdrMetricRegistryTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final HdrMetricRegistry metrics = new HdrMetricRegistry();
+
+	@Test
+	public void timer_OnRepeatedName_ReturnsSameTimer() {
+		Timer timer = metrics.timer("timer");
+
+		assertSame(timer, metrics.timer("timer"));
+	}
+
+	@Test
+	public void timer_OnUpdate_RecordsIntoHistogram() {
+		Timer timer = metrics.timer("timer");
+
+		timer.update(3L, TimeUnit.MILLISECONDS);
+
+		assertEquals(1L, timer.getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(3L), timer.getSnapshot().getMax(),
+				TimeUnit.MICROSECONDS.toNanos(10L));
+	}
+
+	@Test
+	public void histogram_OnRepeatedName_ReturnsSameHistogram() {
+		assertSame(metrics.histogram("histogram"), metrics.histogram("histogram"));
+	}
+
+	@Test
+	public void timer_WithNameOfOtherType_Throws() {
+		metrics.meter("meter");
+
+		thrown.expect(IllegalArgumentException.class);
+
+		metrics.timer("meter");
+	}
+}
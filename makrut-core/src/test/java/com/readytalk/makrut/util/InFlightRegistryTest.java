@@ -0,0 +1,78 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class InFlightRegistryTest {
+
+	@Mock
+	private Ticker ticker;
+
+	private InFlightRegistry registry;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+
+		registry = new InFlightRegistry(ticker);
+	}
+
+	@Test
+	public void register_OnCurrentThread_RecordsCall() {
+		InFlightCall call = registry.register("command", 17, 2);
+
+		assertEquals("command", call.getCommandName());
+		assertEquals(17, call.getArgsHash());
+		assertEquals(2, call.getAttempt());
+		assertSame(Thread.currentThread(), call.getThread());
+		assertTrue(call.getStackTrace().length > 0);
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void getInFlight_WithSeveralCalls_ListsOldestFirst() {
+		InFlightCall first = registry.register("first", 0, 1);
+		InFlightCall second = registry.register("second", 0, 1);
+
+		List<InFlightCall> calls = registry.getInFlight();
+
+		assertSame(first, calls.get(0));
+		assertSame(second, calls.get(1));
+	}
+
+	@Test
+	public void remove_OnCompletion_RemovesCall() {
+		InFlightCall call = registry.register("command", 0, 1);
+
+		registry.remove(call);
+
+		assertTrue(registry.getInFlight().isEmpty());
+	}
+
+	@Test
+	public void getRunningLongerThan_WithOldAndNewCalls_ListsOldOnly() {
+		InFlightCall old = registry.register("old", 0, 1);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5L));
+		registry.register("new", 0, 1);
+
+		List<InFlightCall> stuck = registry.getRunningLongerThan(1L, TimeUnit.SECONDS);
+
+		assertEquals(1, stuck.size());
+		assertSame(old, stuck.get(0));
+		assertEquals(5L, old.getRunningTime(TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,91 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class InFlightWatchdogTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Rule
+	public final Timeout timeout = new Timeout(10000);
+
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+	@Mock
+	private Ticker ticker;
+
+	private InFlightRegistry registry;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+
+		registry = new InFlightRegistry(ticker);
+	}
+
+	@After
+	public void tearDown() {
+		timer.shutdownNow();
+	}
+
+	@Test
+	public void check_WithCallOverThreshold_FlagsIt() {
+		InFlightWatchdog watchdog = new InFlightWatchdog(registry, 1L, TimeUnit.SECONDS, true);
+		InFlightCall call = registry.register("command", 0, 1);
+
+		assertTrue(watchdog.check().isEmpty());
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(2L));
+
+		assertEquals(call, watchdog.check().get(0));
+		assertEquals(1, watchdog.getStuckCount());
+
+		registry.remove(call);
+
+		assertTrue(watchdog.check().isEmpty());
+		assertEquals(0, watchdog.getStuckCount());
+	}
+
+	@Test
+	public void start_OnTimer_ChecksPeriodically() throws Exception {
+		InFlightWatchdog watchdog = new InFlightWatchdog(registry, 1L, TimeUnit.SECONDS, false);
+
+		registry.register("command", 0, 1);
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(2L));
+
+		ScheduledFuture<?> checks = watchdog.start(timer, 1L, TimeUnit.MILLISECONDS);
+
+		while (watchdog.getStuckCount() == 0) {
+			Thread.sleep(1L);
+		}
+
+		checks.cancel(false);
+	}
+
+	@Test
+	public void constructor_WithNoThreshold_Throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new InFlightWatchdog(registry, 0L, TimeUnit.SECONDS, false);
+	}
+}
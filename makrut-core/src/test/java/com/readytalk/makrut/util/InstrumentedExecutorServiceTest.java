@@ -0,0 +1,203 @@
+package com.readytalk.makrut.util;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class InstrumentedExecutorServiceTest {
+
+	private final Object obj = new Object();
+
+	private final MetricRegistry metrics = new MetricRegistry();
+
+	private final ListeningExecutorService pool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
+
+	@Mock
+	private Callable<Object> callable;
+
+	@Mock
+	private Ticker ticker;
+
+	@Mock
+	private ListeningExecutorService rejecting;
+
+	private InstrumentedExecutorService executor;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		executor = new InstrumentedExecutorService(pool, metrics, "pool", ticker);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void submit_WhileThreadBusy_ReportsQueuedActiveAndWait() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(ticker.read()).thenReturn(0L);
+		when(callable.call()).thenReturn(obj);
+
+		ListenableFuture<?> blocking = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		started.await();
+
+		ListenableFuture<Object> waiting = executor.submit(callable);
+
+		assertEquals(1, metrics.getGauges().get(name("pool", "active")).getValue());
+		assertEquals(1, metrics.getGauges().get(name("pool", "queued")).getValue());
+
+		when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(5L));
+		release.countDown();
+
+		blocking.get();
+		assertEquals(obj, waiting.get());
+
+		assertEquals(0, executor.getQueued());
+		assertEquals(2L, metrics.timer(name("pool", "queue-wait")).getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5L),
+				metrics.timer(name("pool", "queue-wait")).getSnapshot().getMax());
+	}
+
+	@Test
+	public void submit_CancelledWhileQueued_IsNoLongerQueued() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		executor.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				started.countDown();
+				release.await();
+
+				return obj;
+			}
+		});
+
+		started.await();
+
+		ListenableFuture<Object> waiting = executor.submit(callable);
+
+		assertEquals(1, executor.getQueued());
+
+		waiting.cancel(false);
+		release.countDown();
+
+		assertEquals(0, executor.getQueued());
+	}
+
+	@Test
+	public void submit_WhenRejected_MarksAndRethrows() {
+		doThrow(new RejectedExecutionException()).when(rejecting).execute(any(Runnable.class));
+
+		InstrumentedExecutorService instrumented = new InstrumentedExecutorService(rejecting, metrics, "rejecting");
+
+		try {
+			instrumented.submit(callable);
+			fail("Expected exception.");
+		} catch (RejectedExecutionException ex) {
+			assertEquals(1L, metrics.meter(name("rejecting", "rejected")).getCount());
+			assertEquals(0, instrumented.getQueued());
+		}
+	}
+
+	@Test
+	public void invokeAll_OnCompletion_TimesEveryTask() throws Exception {
+		when(callable.call()).thenReturn(obj);
+
+		executor.invokeAll(ImmutableList.of(callable, callable));
+
+		assertEquals(2L, metrics.timer(name("pool", "queue-wait")).getCount());
+		assertEquals(0, executor.getQueued());
+		assertEquals(0, executor.getActive());
+	}
+
+	@Test
+	public void execute_OnRun_RunsTask() throws Exception {
+		final CountDownLatch ran = new CountDownLatch(1);
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		});
+
+		assertTrue(ran.await(1L, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void shutdownNow_WithTasksQueued_IsNoLongerQueued() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				started.countDown();
+				Uninterruptibles.awaitUninterruptibly(release);
+			}
+		});
+
+		started.await();
+
+		executor.execute(task);
+		executor.submit(task);
+
+		assertEquals(2, executor.shutdownNow().size());
+		assertEquals(0, executor.getQueued());
+
+		release.countDown();
+	}
+
+	@Test
+	public void constructor_OnRepeatedName_ReplacesGauges() {
+		new InstrumentedExecutorService(pool, metrics, "pool");
+
+		assertEquals(0, metrics.getGauges().get(name("pool", "queued")).getValue());
+	}
+}
@@ -0,0 +1,116 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.readytalk.makrut.util.LatencyBreakdown.Phase;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class LatencyBreakdownTest {
+
+	@Mock
+	private Ticker ticker;
+
+	private LatencyBreakdown breakdown;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(100L);
+
+		breakdown = new LatencyBreakdown(ticker);
+	}
+
+	@Test
+	public void lap_AfterCreation_RecordsTimeSinceCreation() {
+		when(ticker.read()).thenReturn(150L);
+
+		breakdown.lap(Phase.QUEUE);
+
+		assertEquals(50L, breakdown.getTime(Phase.QUEUE, TimeUnit.NANOSECONDS));
+		assertEquals(1L, breakdown.getCount(Phase.QUEUE));
+	}
+
+	@Test
+	public void lap_AfterMark_RecordsTimeSinceMark() {
+		when(ticker.read()).thenReturn(150L);
+		breakdown.mark();
+
+		when(ticker.read()).thenReturn(180L);
+		breakdown.lap(Phase.BACKOFF);
+
+		when(ticker.read()).thenReturn(200L);
+		breakdown.lap(Phase.RETRY_QUEUE);
+
+		assertEquals(30L, breakdown.getTime(Phase.BACKOFF, TimeUnit.NANOSECONDS));
+		assertEquals(20L, breakdown.getTime(Phase.RETRY_QUEUE, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void time_WithNestedPhase_ExcludesNestedTime() throws Exception {
+		when(ticker.read()).thenReturn(0L, 10L, 40L, 50L);
+
+		breakdown.time(Phase.CACHE, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return breakdown.time(Phase.EXECUTION, new Callable<Object>() {
+					@Override
+					public Object call() {
+						return null;
+					}
+				});
+			}
+		});
+
+		assertEquals(30L, breakdown.getTime(Phase.EXECUTION, TimeUnit.NANOSECONDS));
+		assertEquals(20L, breakdown.getTime(Phase.CACHE, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void time_OnException_RecordsTime() throws Exception {
+		when(ticker.read()).thenReturn(0L, 25L);
+
+		try {
+			breakdown.time(Phase.EXECUTION, new Callable<Object>() {
+				@Override
+				public Object call() {
+					throw new IllegalStateException();
+				}
+			});
+			fail("Expected exception.");
+		} catch (IllegalStateException ex) {
+			assertEquals(25L, breakdown.getTime(Phase.EXECUTION, TimeUnit.NANOSECONDS));
+		}
+	}
+
+	@Test
+	public void getCount_WhenNotRecorded_ReturnsZero() {
+		assertEquals(0L, breakdown.getCount(Phase.FALLBACK));
+		assertEquals(0L, breakdown.getTime(Phase.FALLBACK, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void toString_ListsRecordedPhases() {
+		when(ticker.read()).thenReturn(3100L);
+		breakdown.lap(Phase.QUEUE);
+
+		when(ticker.read()).thenReturn(5100L);
+		breakdown.lap(Phase.PERMIT);
+
+		assertEquals("queue 3us, permit 2us", breakdown.toString());
+	}
+
+	@Test
+	public void getMetricName_ForPhase_IsLowerCaseWithDashes() {
+		assertEquals("retry-queue", Phase.RETRY_QUEUE.getMetricName());
+	}
+}
@@ -0,0 +1,187 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.readytalk.makrut.util.LifecycleEvent.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class LifecycleEventsTest {
+
+	@Rule
+	public final Timeout timeout = new Timeout(10000);
+
+	private final Exception failure = new Exception();
+	private final Recorder recorder = new Recorder();
+
+	@Mock
+	private Callable<Object> command;
+
+	@Mock
+	private Ticker ticker;
+
+	private ExecutorService consumer;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(42L);
+
+		consumer = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		consumer.shutdownNow();
+	}
+
+	@Test
+	public void drain_AfterPublish_DeliversEventsInOrder() {
+		LifecycleEvents events = new LifecycleEvents(8, Arrays.<LifecycleListener>asList(recorder), ticker);
+
+		assertTrue(events.publish(Type.SUBMITTED, "test", command, 0, 0L, null));
+		assertTrue(events.publish(Type.RETRY_SCHEDULED, "test", command, 1, 5000L, failure));
+
+		assertEquals(2, events.drain());
+
+		assertEquals(Arrays.asList(Type.SUBMITTED, Type.RETRY_SCHEDULED), recorder.types);
+		assertEquals(Arrays.asList(5000L), recorder.delays.subList(1, 2));
+		assertEquals(0L, events.getPending());
+	}
+
+	@Test
+	public void drain_AfterDelivery_ReleasesReferences() {
+		LifecycleEvents events = new LifecycleEvents(8, Arrays.<LifecycleListener>asList(recorder), ticker);
+
+		events.publish(Type.ATTEMPT_FAILED, "test", command, 1, 0L, failure);
+		events.drain();
+
+		assertEquals(failure, recorder.failures.get(0));
+		assertEquals(42L, recorder.times.get(0).longValue());
+		assertNull(recorder.last.getCommand());
+		assertFalse(recorder.last.getFailure().isPresent());
+	}
+
+	@Test
+	public void publish_WhenFull_DropsEvent() {
+		LifecycleEvents events = new LifecycleEvents(3, Arrays.<LifecycleListener>asList(recorder), ticker);
+
+		for (int i = 0; i < 4; i++) {
+			assertTrue(events.publish(Type.SUBMITTED, "test", command, 0, 0L, null));
+		}
+
+		assertFalse(events.publish(Type.SUBMITTED, "test", command, 0, 0L, null));
+		assertEquals(1L, events.getDropped());
+		assertEquals(4L, events.getPending());
+	}
+
+	@Test
+	public void publish_AfterDrain_ReusesSlots() {
+		LifecycleEvents events = new LifecycleEvents(2, Arrays.<LifecycleListener>asList(recorder), ticker);
+
+		events.publish(Type.SUBMITTED, "test", command, 0, 0L, null);
+		events.publish(Type.ATTEMPT_STARTED, "test", command, 1, 0L, null);
+		events.drain();
+
+		events.publish(Type.COMPLETED, "test", command, 1, 0L, null);
+
+		assertEquals(1, events.drain());
+		assertEquals(Arrays.asList(Type.SUBMITTED, Type.ATTEMPT_STARTED, Type.COMPLETED), recorder.types);
+		assertEquals(0L, events.getDropped());
+	}
+
+	@Test
+	public void drain_WhenListenerThrows_DeliversToOtherListeners() {
+		LifecycleListener failing = new LifecycleListener() {
+			@Override
+			public void onEvent(final LifecycleEvent event) {
+				throw new IllegalStateException();
+			}
+		};
+
+		LifecycleEvents events = new LifecycleEvents(8, Arrays.asList(failing, recorder), ticker);
+
+		events.publish(Type.CACHE_HIT, "test", command, 0, 0L, null);
+
+		assertEquals(1, events.drain());
+		assertEquals(Arrays.asList(Type.CACHE_HIT), recorder.types);
+	}
+
+	@Test
+	public void start_OnPublish_DeliversOnConsumerThread() throws Exception {
+		LifecycleEvents events = new LifecycleEvents(8, Arrays.<LifecycleListener>asList(recorder));
+
+		Future<?> running = events.start(consumer);
+
+		events.publish(Type.SUBMITTED, "test", command, 0, 0L, null);
+
+		while (recorder.types.isEmpty()) {
+			Thread.sleep(1L);
+		}
+
+		running.cancel(true);
+
+		assertNotSame(Thread.currentThread(), recorder.threads.get(0));
+	}
+
+	@Test
+	public void start_AfterIdling_DeliversLaterEvents() throws Exception {
+		LifecycleEvents events = new LifecycleEvents(8, Arrays.<LifecycleListener>asList(recorder));
+
+		Future<?> running = events.start(consumer);
+
+		Thread.sleep(100L);
+		events.publish(Type.SUBMITTED, "test", command, 0, 0L, null);
+		events.publish(Type.ATTEMPT_STARTED, "test", command, 1, 0L, null);
+
+		while (recorder.types.size() < 2) {
+			Thread.sleep(1L);
+		}
+
+		running.cancel(true);
+
+		assertEquals(Arrays.asList(Type.SUBMITTED, Type.ATTEMPT_STARTED), recorder.types);
+		assertEquals(0L, events.getPending());
+	}
+
+	private static final class Recorder implements LifecycleListener {
+		private final List<Type> types = new CopyOnWriteArrayList<Type>();
+		private final List<Long> delays = new CopyOnWriteArrayList<Long>();
+		private final List<Long> times = new CopyOnWriteArrayList<Long>();
+		private final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+		private volatile LifecycleEvent last = null;
+
+		@Override
+		public void onEvent(final LifecycleEvent event) {
+			delays.add(event.getDelay(TimeUnit.NANOSECONDS));
+			times.add(event.getNanoTime());
+			failures.add(event.getFailure().orNull());
+			threads.add(Thread.currentThread());
+			last = event;
+			types.add(event.getType());
+		}
+	}
+}
@@ -1,13 +1,19 @@
 package com.readytalk.makrut.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.readytalk.makrut.command.Prioritized;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +51,16 @@ public class MakrutCommandWrapperTest {
 
 	}
 
+	@Test
+	public void getPriority_WhenNotGiven_ReturnsNormal() {
+		assertEquals(Prioritized.NORMAL, command.getPriority());
+	}
+
+	@Test
+	public void getPriority_WhenGiven_ReturnsPriority() {
+		assertEquals(3, new MakrutCommandWrapper<String>(callable, ticker, 3).getPriority());
+	}
+
 	@Test
 	public void timeElapsed_WhenNotStarted_ReturnsZero() {
 
@@ -63,6 +79,61 @@ public class MakrutCommandWrapperTest {
 		assertEquals(500L, command.timeElapsed(TimeUnit.NANOSECONDS));
 	}
 
+	@Test
+	public void call_WithBreakdown_LapsQueueThenRetryQueue() throws Exception {
+		when(ticker.read()).thenReturn(0L, 10L, 10L, 30L, 30L);
+
+		LatencyBreakdown breakdown = new LatencyBreakdown(ticker);
+		MakrutCommandWrapper<String> recorded = new MakrutCommandWrapper<String>(callable, ticker, Prioritized.NORMAL,
+				Optional.<Deadline>absent(), Optional.of(breakdown));
+
+		recorded.call();
+		recorded.call();
+
+		assertEquals(10L, breakdown.getTime(LatencyBreakdown.Phase.QUEUE, TimeUnit.NANOSECONDS));
+		assertEquals(20L, breakdown.getTime(LatencyBreakdown.Phase.RETRY_QUEUE, TimeUnit.NANOSECONDS));
+	}
+
+	@Test
+	public void call_WithLifecycle_PublishesAttemptStartAndFailure() throws Exception {
+		LifecycleListener listener = mock(LifecycleListener.class);
+		LifecycleEvents events = new LifecycleEvents(8, Arrays.asList(listener));
+		MakrutCommandWrapper<String> published = new MakrutCommandWrapper<String>(callable, ticker, Prioritized.NORMAL,
+				Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+				Optional.of(new CommandLifecycle(events, "test", callable)));
+
+		when(callable.call()).thenThrow(new IllegalStateException());
+
+		try {
+			published.call();
+			fail("Expected exception.");
+		} catch (IllegalStateException ex) {
+			assertEquals(2, events.drain());
+		}
+	}
+
+	@Test
+	public void call_WithProbe_EndsAttemptSpanWithFailure() throws Exception {
+		CommandProbe probe = mock(CommandProbe.class);
+		CommandProbe.Span span = mock(CommandProbe.Span.class);
+		UncheckedTimeoutException timeout = new UncheckedTimeoutException();
+		MakrutCommandWrapper<String> probed = new MakrutCommandWrapper<String>(callable, ticker, Prioritized.NORMAL,
+				Optional.<Deadline>absent(), Optional.<LatencyBreakdown>absent(),
+				Optional.of(new CommandLifecycle(Optional.<LifecycleEvents>absent(), Optional.of(probe), "test",
+						callable)));
+
+		when(probe.attempt("test", 1)).thenReturn(span);
+		when(callable.call()).thenThrow(timeout);
+
+		try {
+			probed.call();
+			fail("Expected exception.");
+		} catch (UncheckedTimeoutException ex) {
+			verify(span).end(timeout);
+			verify(probe).timedOut("test", 1, timeout);
+		}
+	}
+
 	@Test
 	public void callCount_WhenNotRun_ReturnsZero() {
 		assertEquals(0, command.callCount());
@@ -0,0 +1,354 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.readytalk.makrut.command.Prioritized;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PrioritySchedulerTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Object obj = new Object();
+
+	private final List<Callable<?>> dispatched = Lists.newArrayList();
+	private final List<SettableFuture<Object>> running = Lists.newArrayList();
+
+	@Mock
+	private Dispatcher dispatcher;
+
+	@Mock
+	private Callable<Object> callable;
+
+	@Mock
+	private Ticker ticker;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+		when(dispatcher.dispatch(any(Callable.class))).thenAnswer(new Answer<ListenableFuture<Object>>() {
+			@Override
+			public ListenableFuture<Object> answer(final InvocationOnMock invocation) {
+				SettableFuture<Object> future = SettableFuture.create();
+
+				dispatched.add((Callable<?>) invocation.getArguments()[0]);
+				running.add(future);
+
+				return future;
+			}
+		});
+	}
+
+	@Test
+	public void submit_UnderLimit_DispatchesImmediately() {
+		PriorityScheduler scheduler = new PriorityScheduler(2, 1L, TimeUnit.SECONDS);
+
+		scheduler.submit(dispatcher, callable);
+		scheduler.submit(dispatcher, callable);
+
+		verify(dispatcher, times(2)).dispatch(callable);
+		assertEquals(0, scheduler.getQueueDepth());
+	}
+
+	@Test
+	public void submit_AtLimit_DispatchesHighestPriorityFirst() throws Exception {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		Callable<Object> low = command(-1, 0);
+		Callable<Object> high = command(1, 0);
+
+		ListenableFuture<Object> lowResult = scheduler.submit(dispatcher, low);
+		ListenableFuture<Object> highResult = scheduler.submit(dispatcher, high);
+
+		assertEquals(2, scheduler.getQueueDepth());
+
+		running.get(0).set(obj);
+		assertEquals(high, dispatched.get(1));
+
+		running.get(1).set(obj);
+		assertEquals(low, dispatched.get(2));
+
+		running.get(2).set(obj);
+		assertEquals(obj, highResult.get());
+		assertEquals(obj, lowResult.get());
+		assertEquals(0, scheduler.getQueueDepth());
+	}
+
+	@Test
+	public void submit_AfterWaitingAnAgingStep_DispatchesAheadOfHigherPriority() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		Callable<Object> old = command(Prioritized.NORMAL, 0);
+
+		scheduler.submit(dispatcher, old);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(2L));
+		scheduler.submit(dispatcher, command(1, 0));
+
+		running.get(0).set(obj);
+
+		assertEquals(old, dispatched.get(1));
+	}
+
+	@Test
+	public void submit_WithRetriesFirst_DispatchesRetryAheadOfNewWork() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, true, ticker);
+
+		scheduler.submit(dispatcher, callable);
+		scheduler.submit(dispatcher, command(1, 0));
+
+		Callable<Object> retry = command(-1, 1);
+
+		scheduler.submit(dispatcher, retry);
+
+		running.get(0).set(obj);
+
+		assertEquals(retry, dispatched.get(1));
+	}
+
+	@Test
+	public void submit_WithoutRetriesFirst_OrdersRetryByPriority() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		Callable<Object> high = command(1, 0);
+
+		scheduler.submit(dispatcher, high);
+		scheduler.submit(dispatcher, command(-1, 1));
+
+		running.get(0).set(obj);
+
+		assertEquals(high, dispatched.get(1));
+	}
+
+	@Test
+	public void submit_WithDeadlines_DispatchesEarliestDeadlineFirst() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		Callable<Object> urgent = command(Prioritized.NORMAL, 0, Optional.of(deadline(5L)));
+
+		scheduler.submit(dispatcher, command(Prioritized.NORMAL, 0, Optional.of(deadline(60L))));
+		scheduler.submit(dispatcher, urgent);
+
+		running.get(0).set(obj);
+
+		assertEquals(urgent, dispatched.get(1));
+	}
+
+	@Test
+	public void submit_WithAndWithoutDeadlines_DispatchesDeadlinesFirst() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		Callable<Object> budgeted = command(Prioritized.NORMAL, 0, Optional.of(deadline(5L)));
+		Callable<Object> unbounded = command(Prioritized.NORMAL, 0);
+
+		scheduler.submit(dispatcher, budgeted);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(1L));
+		scheduler.submit(dispatcher, unbounded);
+		scheduler.submit(dispatcher, command(1, 0));
+
+		running.get(0).set(obj);
+		assertEquals(budgeted, dispatched.get(1));
+
+		running.get(1).set(obj);
+		running.get(2).set(obj);
+		assertEquals(unbounded, dispatched.get(3));
+	}
+
+	@Test
+	public void submit_DeadlinePassedWhileWaiting_IsDroppedWithoutSlot() throws Exception {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		ListenableFuture<Object> expired = scheduler.submit(dispatcher,
+				command(Prioritized.NORMAL, 0, Optional.of(deadline(5L))));
+		Callable<Object> later = command(Prioritized.NORMAL, 0, Optional.of(deadline(60L)));
+
+		scheduler.submit(dispatcher, later);
+
+		when(ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10L));
+		running.get(0).set(obj);
+
+		try {
+			expired.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof DeadlineExceededException);
+		}
+
+		assertEquals(later, dispatched.get(1));
+		assertEquals(2, dispatched.size());
+	}
+
+	@Test
+	public void submit_DeadlineAlreadyPassed_FailsWithoutQueuing() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		ListenableFuture<Object> result = scheduler.submit(dispatcher,
+				command(Prioritized.NORMAL, 0, Optional.of(deadline(0L))));
+
+		assertTrue(result.isDone());
+		assertTrue(dispatched.isEmpty());
+	}
+
+	@Test
+	public void submit_CancelledWhileWaiting_IsNeverDispatched() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+
+		Callable<Object> cancelled = command(Prioritized.NORMAL, 0);
+		ListenableFuture<Object> result = scheduler.submit(dispatcher, cancelled);
+
+		assertTrue(result.cancel(true));
+		assertEquals(0, scheduler.getQueueDepth());
+
+		running.get(0).set(obj);
+
+		verify(dispatcher, never()).dispatch(cancelled);
+		assertEquals(1, dispatched.size());
+	}
+
+	@Test
+	public void submit_CancelledAfterDispatch_CancelsDispatchedCommand() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		scheduler.submit(dispatcher, callable);
+		ListenableFuture<Object> result = scheduler.submit(dispatcher, command(Prioritized.NORMAL, 0));
+
+		running.get(0).set(obj);
+		result.cancel(true);
+
+		assertTrue(running.get(1).isCancelled());
+	}
+
+	@Test
+	public void submit_OnDispatchFailure_FailsCommandAndReleasesSlot() throws Exception {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+
+		Callable<Object> failing = command(Prioritized.NORMAL, 0);
+
+		doThrow(new IllegalStateException()).when(dispatcher).dispatch(failing);
+
+		scheduler.submit(dispatcher, callable);
+		ListenableFuture<Object> result = scheduler.submit(dispatcher, failing);
+
+		running.get(0).set(obj);
+
+		try {
+			result.get();
+			fail("Expected exception.");
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof IllegalStateException);
+		}
+
+		scheduler.submit(dispatcher, callable);
+
+		assertEquals(2, dispatched.size());
+		assertFalse(running.get(1).isDone());
+	}
+
+	@Test
+	public void submit_WhenQueuedCommandsCompleteAtOnce_HandsOnSlotsWithoutRecursion() {
+		PriorityScheduler scheduler = new PriorityScheduler(1, 1L, TimeUnit.SECONDS, false, ticker);
+		Dispatcher failing = new Dispatcher() {
+			@Override
+			public <T> ListenableFuture<T> dispatch(final Callable<T> command) {
+				return Futures.immediateFailedFuture(new IllegalStateException());
+			}
+		};
+
+		scheduler.submit(dispatcher, callable);
+
+		List<ListenableFuture<Object>> queued = Lists.newArrayList();
+
+		for (int i = 0; i < 20000; i++) {
+			queued.add(scheduler.submit(failing, callable));
+		}
+
+		running.get(0).set(obj);
+
+		for (ListenableFuture<Object> future : queued) {
+			assertTrue(future.isDone());
+		}
+
+		scheduler.submit(dispatcher, callable);
+
+		assertEquals(0, scheduler.getQueueDepth());
+		assertEquals(2, dispatched.size());
+	}
+
+	@Test
+	public void constructor_WithNoConcurrency_Throws() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new PriorityScheduler(0, 1L, TimeUnit.SECONDS);
+	}
+
+	private MakrutCommandWrapper<Object> command(final int priority, final int callCount) {
+		return command(priority, callCount, Optional.<Deadline>absent());
+	}
+
+	private MakrutCommandWrapper<Object> command(final int priority,
+			final int callCount,
+			final Optional<Deadline> deadline) {
+		MakrutCommandWrapper<Object> command = new MakrutCommandWrapper<Object>(callable, ticker, priority,
+				deadline);
+
+		for (int i = 0; i < callCount; i++) {
+			try {
+				command.call();
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		return command;
+	}
+
+	private Deadline deadline(final long seconds) {
+		return Deadline.after(seconds, TimeUnit.SECONDS, ticker);
+	}
+}
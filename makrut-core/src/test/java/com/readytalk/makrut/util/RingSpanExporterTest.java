@@ -0,0 +1,36 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class RingSpanExporterTest {
+
+	private final RingSpanExporter exporter = new RingSpanExporter(2);
+	private final Tracer tracer = new Tracer(exporter);
+
+	@Test
+	public void getSpans_WhenFull_KeepsNewestInOrder() {
+		tracer.start("first").end();
+		tracer.start("second").end();
+		tracer.start("third").end();
+
+		List<TraceSpan> spans = exporter.getSpans();
+
+		assertEquals(2, spans.size());
+		assertEquals("second", spans.get(0).getName());
+		assertEquals("third", spans.get(1).getName());
+	}
+
+	@Test
+	public void clear_AfterExport_DropsSpans() {
+		tracer.start("first").end();
+
+		exporter.clear();
+
+		assertTrue(exporter.getSpans().isEmpty());
+	}
+}
@@ -0,0 +1,57 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class TokenBudgetTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void tryWithdraw_WhenFull_AllowsBurst() {
+		TokenBudget budget = new TokenBudget(0.1d, 2);
+
+		assertTrue(budget.tryWithdraw());
+		assertTrue(budget.tryWithdraw());
+		assertFalse(budget.tryWithdraw());
+	}
+
+	@Test
+	public void deposit_OnEnoughCalls_EarnsToken() {
+		TokenBudget budget = new TokenBudget(0.1d, 1);
+		budget.tryWithdraw();
+
+		for (int i = 0; i < 9; i++) {
+			budget.deposit();
+		}
+
+		assertFalse(budget.tryWithdraw());
+
+		budget.deposit();
+
+		assertTrue(budget.tryWithdraw());
+	}
+
+	@Test
+	public void deposit_WhenFull_StaysAtMaximum() {
+		TokenBudget budget = new TokenBudget(0.5d, 1);
+
+		budget.deposit();
+		budget.deposit();
+
+		assertEquals(1.0d, budget.getTokens(), 0.0d);
+	}
+
+	@Test
+	public void constructor_WithZeroRatio_ThrowsException() {
+		thrown.expect(IllegalArgumentException.class);
+
+		new TokenBudget(0.0d, 1);
+	}
+}
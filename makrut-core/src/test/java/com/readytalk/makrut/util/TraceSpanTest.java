@@ -0,0 +1,99 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class TraceSpanTest {
+
+	private final RingSpanExporter exporter = new RingSpanExporter(8);
+
+	@Mock
+	private Ticker ticker;
+
+	private Tracer tracer;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(ticker.read()).thenReturn(0L);
+
+		tracer = new Tracer(exporter, ticker);
+	}
+
+	@Test
+	public void start_WithNoCurrentSpan_StartsTrace() {
+		TraceSpan root = tracer.start("root");
+
+		assertEquals(0L, root.getParentId());
+		assertEquals(root.getSpanId(), root.getTraceId());
+	}
+
+	@Test
+	public void start_WithinEnteredSpan_StartsChild() {
+		TraceSpan root = tracer.start("root");
+		TraceSpan.Scope scope = root.enter();
+
+		try {
+			TraceSpan child = tracer.start("child");
+
+			assertEquals(root.getSpanId(), child.getParentId());
+			assertEquals(root.getTraceId(), child.getTraceId());
+		} finally {
+			scope.close();
+		}
+
+		assertFalse(TraceSpan.current().isPresent());
+	}
+
+	@Test
+	public void close_OnNestedScope_RestoresOuterSpan() {
+		TraceSpan outer = tracer.start("outer");
+		TraceSpan.Scope outerScope = outer.enter();
+		TraceSpan.Scope innerScope = outer.child("inner").enter();
+
+		innerScope.close();
+
+		assertEquals(outer, TraceSpan.current().get());
+
+		outerScope.close();
+	}
+
+	@Test
+	public void end_OnRepeatedCalls_ExportsOnce() {
+		when(ticker.read()).thenReturn(10L, 35L, 50L);
+
+		TraceSpan span = tracer.start("span").tag("key", 1);
+		IllegalStateException failure = new IllegalStateException();
+
+		span.end(failure);
+		span.end();
+
+		assertEquals(1, exporter.getSpans().size());
+		assertEquals(25L, span.getDuration(TimeUnit.NANOSECONDS));
+		assertEquals(failure, span.getFailure().get());
+		assertEquals("1", span.getTags().get("key"));
+		assertTrue(span.isEnded());
+	}
+
+	@Test
+	public void end_WhenExporterThrows_DoesNotThrow() {
+		SpanExporter failing = mock(SpanExporter.class);
+		doThrow(new IllegalStateException()).when(failing).export(any(TraceSpan.class));
+
+		new Tracer(failing, ticker).start("span").end();
+	}
+}
@@ -0,0 +1,48 @@
+package com.readytalk.makrut.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.Callable;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class VirtualThreadsTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	private final Callable<Thread> currentThread = new Callable<Thread>() {
+		@Override
+		public Thread call() {
+			return Thread.currentThread();
+		}
+	};
+
+	@Test
+	public void newPerTaskExecutor_WhenSupported_RunsEachTaskOnNewVirtualThread() throws Exception {
+		assumeTrue(VirtualThreads.isSupported());
+
+		ListeningExecutorService executor = VirtualThreads.newPerTaskExecutor();
+
+		Thread first = executor.submit(currentThread).get();
+		Thread second = executor.submit(currentThread).get();
+
+		assertNotSame(first, second);
+		assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(first));
+	}
+
+	@Test
+	public void newPerTaskExecutor_WhenUnsupported_Throws() {
+		assumeFalse(VirtualThreads.isSupported());
+
+		thrown.expect(UnsupportedOperationException.class);
+
+		VirtualThreads.newPerTaskExecutor();
+	}
+}
@@ -3,8 +3,10 @@ package com.readytalk.makrut.db.command;
 import javax.annotation.concurrent.ThreadSafe;
 import java.sql.SQLException;
 
+import com.google.common.base.Optional;
 import com.readytalk.makrut.MakrutExecutor;
 import com.readytalk.makrut.command.BasicMakrutCommand;
+import com.readytalk.makrut.util.TraceSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
@@ -32,10 +34,31 @@ public abstract class AbstractDatabaseCommand<T> extends BasicMakrutCommand<T> {
 		this.sql = sql;
 	}
 
+	/**
+	 * Runs the statement.  When the call is part of a trace, it is recorded as an sql span, tagged with the statement,
+	 * within the span current on the thread.
+	 */
 	@Override
 	public T call() throws SQLException {
 		logger.debug(SQL_LOGGING, "SQL: {}", sql);
-		return doCall();
+
+		Optional<TraceSpan> parent = TraceSpan.current();
+
+		if (!parent.isPresent()) {
+			return doCall();
+		}
+
+		TraceSpan span = parent.get().child("sql").tag("command", getCommandName()).tag("sql", sql);
+		Throwable failure = null;
+
+		try {
+			return doCall();
+		} catch (Throwable th) {
+			failure = th;
+			throw th;
+		} finally {
+			span.end(failure);
+		}
 	}
 
 	private static Object[] prepend(final Object value, final Object... values) {
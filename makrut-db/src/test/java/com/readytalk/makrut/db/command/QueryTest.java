@@ -1,6 +1,8 @@
 package com.readytalk.makrut.db.command;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.anyVararg;
@@ -14,6 +16,9 @@ import com.google.common.base.Optional;
 import com.readytalk.makrut.MakrutExecutor;
 import com.readytalk.makrut.db.ConnectionSupplier;
 import com.readytalk.makrut.db.command.Query;
+import com.readytalk.makrut.util.RingSpanExporter;
+import com.readytalk.makrut.util.TraceSpan;
+import com.readytalk.makrut.util.Tracer;
 import org.apache.commons.dbutils.QueryRunner;
 import org.apache.commons.dbutils.ResultSetHandler;
 import org.junit.After;
@@ -66,6 +71,54 @@ public class QueryTest {
 		assertEquals(obj, query.call());
 	}
 
+	@Test
+	@SuppressWarnings("unchecked")
+	public void call_WithinSpan_RecordsSQLSpan() throws Exception {
+		when(transaction.getConnection()).thenReturn(conn);
+		when(runner.query(any(Connection.class), anyString(), any(ResultSetHandler.class), any(Object.class),
+				anyVararg())).thenReturn(obj);
+
+		RingSpanExporter exporter = new RingSpanExporter(4);
+		TraceSpan parent = new Tracer(exporter).start("parent");
+		TraceSpan.Scope scope = parent.enter();
+
+		try {
+			query.call();
+		} finally {
+			scope.close();
+		}
+
+		TraceSpan span = exporter.getSpans().get(0);
+
+		assertEquals("sql", span.getName());
+		assertEquals(parent.getSpanId(), span.getParentId());
+		assertEquals("select * from test where id > ? and val like ? ", span.getTags().get("sql"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void call_WithinSpanOnError_RecordsFailedSQLSpan() throws Exception {
+		AssertionError error = new AssertionError();
+
+		when(transaction.getConnection()).thenReturn(conn);
+		when(runner.query(any(Connection.class), anyString(), any(ResultSetHandler.class), any(Object.class),
+				anyVararg())).thenThrow(error);
+
+		RingSpanExporter exporter = new RingSpanExporter(4);
+		TraceSpan.Scope scope = new Tracer(exporter).start("parent").enter();
+
+		try {
+			query.call();
+			fail("Expected error.");
+		} catch (AssertionError er) {
+			assertSame(error, er);
+		} finally {
+			scope.close();
+		}
+
+		assertEquals(Optional.<Throwable>of(error), exporter.getSpans().get(0).getFailure());
+	}
+
 	@Test
 	@SuppressWarnings("unchecked")
 	public void call_WithoutArguments_ExecutesSQLOnRunner() throws Exception {
@@ -0,0 +1,32 @@
+package com.readytalk.makrut.jfr;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.readytalk.makrut.Attempt")
+@Label("Command Attempt")
+@Description("An attempt of a command, from when it starts on a thread until it returns or throws.")
+final class AttemptEvent extends MakrutSpanEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	@Label("Attempt")
+	private final int attempt;
+
+	@Label("Failure")
+	private Class<?> failure;
+
+	AttemptEvent(final String commandName, final int attempt) {
+		this.commandName = commandName;
+		this.attempt = attempt;
+	}
+
+	@Override
+	void endedWith(@Nullable final Class<?> cause) {
+		this.failure = cause;
+	}
+}
@@ -0,0 +1,38 @@
+package com.readytalk.makrut.jfr;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("com.readytalk.makrut.Backoff")
+@Label("Retry Backoff")
+@Description("A command waiting out its backoff, from when the retry is scheduled until it is run.")
+final class BackoffEvent extends MakrutSpanEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	@Label("Attempts")
+	private final int attempts;
+
+	@Label("Delay")
+	@Timespan(Timespan.NANOSECONDS)
+	private final long delay;
+
+	@Label("Failure")
+	private Class<?> failure;
+
+	BackoffEvent(final String commandName, final int attempts, final long delay) {
+		this.commandName = commandName;
+		this.attempts = attempts;
+		this.delay = delay;
+	}
+
+	@Override
+	void endedWith(@Nullable final Class<?> cause) {
+		this.failure = cause;
+	}
+}
@@ -0,0 +1,18 @@
+package com.readytalk.makrut.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.readytalk.makrut.CacheHit")
+@Label("Cache Hit")
+@Description("The blocking cache answered a command without running it.")
+final class CacheHitEvent extends MakrutEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	CacheHitEvent(final String commandName) {
+		this.commandName = commandName;
+	}
+}
@@ -0,0 +1,18 @@
+package com.readytalk.makrut.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.readytalk.makrut.CacheMiss")
+@Label("Cache Miss")
+@Description("The blocking cache had no value for a command, so the command ran to load it.")
+final class CacheMissEvent extends MakrutEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	CacheMissEvent(final String commandName) {
+		this.commandName = commandName;
+	}
+}
@@ -0,0 +1,89 @@
+package com.readytalk.makrut.jfr;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.readytalk.makrut.util.CommandProbe;
+import jdk.jfr.EventType;
+
+/**
+ * Reports the stages of commands to Java Flight Recorder, so that a recording shows them on the threads that ran them
+ * next to the garbage collection, lock and I/O events around them.  Pass it to MakrutExecutorBuilder.withProbe.
+ *
+ * Each kind of stage is an event type of its own under the Makrut category, named com.readytalk.makrut.Attempt,
+ * PermitWait, Backoff, Retry, Timeout, CacheHit and CacheMiss, so each can be enabled or given a threshold in a
+ * recording's settings on its own.  While no recording has a type enabled, reporting it costs a check of the type's
+ * flag, made before the event is created, so nothing is allocated.
+ */
+@ThreadSafe
+public class JfrCommandProbe implements CommandProbe {
+
+	private static final EventType ATTEMPT = EventType.getEventType(AttemptEvent.class);
+	private static final EventType PERMIT_WAIT = EventType.getEventType(PermitWaitEvent.class);
+	private static final EventType BACKOFF = EventType.getEventType(BackoffEvent.class);
+	private static final EventType RETRY = EventType.getEventType(RetryEvent.class);
+	private static final EventType TIMEOUT = EventType.getEventType(TimeoutEvent.class);
+	private static final EventType CACHE_HIT = EventType.getEventType(CacheHitEvent.class);
+	private static final EventType CACHE_MISS = EventType.getEventType(CacheMissEvent.class);
+
+	private static final Span DISABLED = new Span() {
+		@Override
+		public void end(@Nullable final Throwable failure) {
+		}
+	};
+
+	@Override
+	public Span attempt(final String commandName, final int attempt) {
+		return ATTEMPT.isEnabled() ? begin(new AttemptEvent(commandName, attempt)) : DISABLED;
+	}
+
+	@Override
+	public Span permitWait(final String commandName) {
+		return PERMIT_WAIT.isEnabled() ? begin(new PermitWaitEvent(commandName)) : DISABLED;
+	}
+
+	@Override
+	public Span backoff(final String commandName, final int attempts, final long delayNanos) {
+		return BACKOFF.isEnabled() ? begin(new BackoffEvent(commandName, attempts, delayNanos)) : DISABLED;
+	}
+
+	@Override
+	public void retryScheduled(final String commandName, final int attempts, final long delayNanos) {
+		if (RETRY.isEnabled()) {
+			commit(new RetryEvent(commandName, attempts, delayNanos));
+		}
+	}
+
+	@Override
+	public void timedOut(final String commandName, final int attempt, final Throwable failure) {
+		if (TIMEOUT.isEnabled()) {
+			commit(new TimeoutEvent(commandName, attempt, failure.getClass()));
+		}
+	}
+
+	@Override
+	public void cacheHit(final String commandName) {
+		if (CACHE_HIT.isEnabled()) {
+			commit(new CacheHitEvent(commandName));
+		}
+	}
+
+	@Override
+	public void cacheMiss(final String commandName) {
+		if (CACHE_MISS.isEnabled()) {
+			commit(new CacheMissEvent(commandName));
+		}
+	}
+
+	private static Span begin(final MakrutSpanEvent event) {
+		event.begin();
+
+		return event;
+	}
+
+	private static void commit(final MakrutEvent event) {
+		if (event.shouldCommit()) {
+			event.commit();
+		}
+	}
+}
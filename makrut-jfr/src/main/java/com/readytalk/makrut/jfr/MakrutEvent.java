@@ -0,0 +1,16 @@
+package com.readytalk.makrut.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.StackTrace;
+
+/**
+ * An event about a Makrut command.  Each concrete type has a name of its own, so that it can be enabled, disabled or
+ * given a threshold on its own in a recording's settings.  Flight Recorder only records the fields an event class
+ * declares itself, so each type declares its command name and the rest of its fields.
+ */
+@Category("Makrut")
+@StackTrace(false)
+abstract class MakrutEvent extends Event {
+
+}
@@ -0,0 +1,27 @@
+package com.readytalk.makrut.jfr;
+
+import javax.annotation.Nullable;
+
+import com.readytalk.makrut.util.CommandProbe;
+
+/**
+ * An event for a stage of a command that takes time.  It begins when it is created and is committed, if its type is
+ * enabled and it ran past the type's threshold, when the stage ends.
+ */
+abstract class MakrutSpanEvent extends MakrutEvent implements CommandProbe.Span {
+
+	@Override
+	public void end(@Nullable final Throwable failure) {
+		end();
+
+		if (shouldCommit()) {
+			endedWith(failure == null ? null : failure.getClass());
+			commit();
+		}
+	}
+
+	/**
+	 * Records the class of the exception the stage ended with, or null if it succeeded.
+	 */
+	abstract void endedWith(@Nullable Class<?> failure);
+}
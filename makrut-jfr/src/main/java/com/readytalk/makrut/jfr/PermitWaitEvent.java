@@ -0,0 +1,28 @@
+package com.readytalk.makrut.jfr;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.readytalk.makrut.PermitWait")
+@Label("Semaphore Wait")
+@Description("A command waiting for a permit from its semaphore.")
+final class PermitWaitEvent extends MakrutSpanEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	@Label("Failure")
+	private Class<?> failure;
+
+	PermitWaitEvent(final String commandName) {
+		this.commandName = commandName;
+	}
+
+	@Override
+	void endedWith(@Nullable final Class<?> cause) {
+		this.failure = cause;
+	}
+}
@@ -0,0 +1,28 @@
+package com.readytalk.makrut.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("com.readytalk.makrut.Retry")
+@Label("Retry Scheduled")
+@Description("A retry of a failed command was scheduled.")
+final class RetryEvent extends MakrutEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	@Label("Attempts")
+	private final int attempts;
+
+	@Label("Delay")
+	@Timespan(Timespan.NANOSECONDS)
+	private final long delay;
+
+	RetryEvent(final String commandName, final int attempts, final long delay) {
+		this.commandName = commandName;
+		this.attempts = attempts;
+		this.delay = delay;
+	}
+}
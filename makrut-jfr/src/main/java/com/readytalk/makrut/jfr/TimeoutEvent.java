@@ -0,0 +1,26 @@
+package com.readytalk.makrut.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.readytalk.makrut.Timeout")
+@Label("Command Timeout")
+@Description("An attempt of a command failed for running past its time limit or deadline.")
+final class TimeoutEvent extends MakrutEvent {
+
+	@Label("Command")
+	private final String commandName;
+
+	@Label("Attempt")
+	private final int attempt;
+
+	@Label("Failure")
+	private final Class<?> failure;
+
+	TimeoutEvent(final String commandName, final int attempt, final Class<?> failure) {
+		this.commandName = commandName;
+		this.attempt = attempt;
+		this.failure = failure;
+	}
+}
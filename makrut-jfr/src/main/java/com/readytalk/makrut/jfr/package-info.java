@@ -0,0 +1,6 @@
+/**
+ * Java Flight Recorder events for Makrut commands.
+ */
+@com.readytalk.makrut.util.ReturnTypesAreNonnullByDefault
+@javax.annotation.ParametersAreNonnullByDefault
+package com.readytalk.makrut.jfr;
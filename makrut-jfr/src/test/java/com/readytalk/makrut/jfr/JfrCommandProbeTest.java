@@ -0,0 +1,137 @@
+package com.readytalk.makrut.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.readytalk.makrut.util.CommandProbe;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JfrCommandProbeTest {
+
+	private final JfrCommandProbe probe = new JfrCommandProbe();
+
+	private Recording recording;
+
+	@Before
+	public void setUp() {
+		recording = new Recording();
+	}
+
+	@After
+	public void tearDown() {
+		recording.close();
+	}
+
+	@Test
+	public void attempt_OnEnd_RecordsAttemptOnCallingThread() throws Exception {
+		recording.enable(AttemptEvent.class);
+		recording.start();
+
+		probe.attempt("test", 2).end(new IllegalStateException());
+
+		List<RecordedEvent> events = stop("com.readytalk.makrut.Attempt");
+
+		assertEquals(1, events.size());
+		assertEquals("test", events.get(0).getString("commandName"));
+		assertEquals(2, events.get(0).getInt("attempt"));
+		assertEquals(IllegalStateException.class.getName(), events.get(0).getClass("failure").getName());
+		assertEquals(Thread.currentThread().getId(), events.get(0).getThread().getJavaThreadId());
+	}
+
+	@Test
+	public void backoff_OnEnd_RecordsDelayAndDuration() throws Exception {
+		recording.enable(BackoffEvent.class);
+		recording.start();
+
+		CommandProbe.Span span = probe.backoff("test", 1, TimeUnit.MILLISECONDS.toNanos(5L));
+		Thread.sleep(5L);
+		span.end(null);
+
+		List<RecordedEvent> events = stop("com.readytalk.makrut.Backoff");
+
+		assertEquals(1, events.size());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5L), events.get(0).getDuration("delay").toNanos());
+		assertTrue(events.get(0).getDuration().toNanos() >= TimeUnit.MILLISECONDS.toNanos(5L));
+	}
+
+	@Test
+	public void timedOut_WhenEnabled_RecordsFailure() throws Exception {
+		recording.enable(TimeoutEvent.class);
+		recording.start();
+
+		probe.timedOut("test", 1, new UncheckedTimeoutException());
+
+		List<RecordedEvent> events = stop("com.readytalk.makrut.Timeout");
+
+		assertEquals(1, events.size());
+		assertEquals(UncheckedTimeoutException.class.getName(), events.get(0).getClass("failure").getName());
+	}
+
+	@Test
+	public void cacheMiss_WhenDisabled_RecordsOnlyHits() throws Exception {
+		recording.enable(CacheHitEvent.class);
+		recording.disable(CacheMissEvent.class);
+		recording.start();
+
+		probe.cacheMiss("test");
+		probe.cacheHit("test");
+
+		assertEquals(0, stop("com.readytalk.makrut.CacheMiss").size());
+		assertEquals(1, stop("com.readytalk.makrut.CacheHit").size());
+	}
+
+	@Test
+	public void attempt_WhenNotRecording_ReturnsSpanThatRecordsNothing() throws Exception {
+		probe.attempt("test", 1).end(null);
+		probe.permitWait("test").end(null);
+
+		recording.enable(AttemptEvent.class);
+		recording.start();
+
+		assertEquals(0, stop("com.readytalk.makrut.Attempt").size());
+	}
+
+	@Test
+	public void attempt_WhenNotRecording_ReturnsSharedSpan() {
+		assertSame(probe.attempt("test", 1), probe.attempt("test", 2));
+		assertSame(probe.backoff("test", 1, 0L), probe.permitWait("test"));
+	}
+
+	private List<RecordedEvent> stop(final String type) throws Exception {
+		if (recording.getState() == RecordingState.RUNNING) {
+			recording.stop();
+		}
+
+		Path file = Files.createTempFile("makrut", ".jfr");
+
+		try {
+			recording.dump(file);
+
+			List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+
+			for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+				if (event.getEventType().getName().equals(type)) {
+					events.add(event);
+				}
+			}
+
+			return events;
+		} finally {
+			Files.delete(file);
+		}
+	}
+}